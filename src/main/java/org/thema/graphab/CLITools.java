@@ -60,6 +60,7 @@ import org.thema.drawshape.style.RasterStyle;
 import org.thema.graphab.addpatch.AddPatchCommand;
 import org.thema.graphab.graph.DeltaAddGraphGenerator;
 import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.graph.ODMatrixStore;
 import org.thema.graphab.links.CircuitRaster;
 import org.thema.graphab.links.Linkset;
 import org.thema.graphab.links.Path;
@@ -67,6 +68,7 @@ import org.thema.graphab.metric.AlphaParamMetric;
 import org.thema.graphab.metric.DeltaMetricTask;
 import org.thema.graphab.metric.global.GlobalMetricLauncher;
 import org.thema.graphab.metric.Metric;
+import org.thema.graphab.metric.MultiParamLauncher;
 import org.thema.graphab.metric.global.GlobalMetric;
 import org.thema.graphab.metric.local.LocalMetric;
 import org.thema.graphab.model.DistribModel;
@@ -99,15 +101,16 @@ public class CLITools {
     public void execute(String [] argArray) throws IOException, SchemaException, MathException {
         if(argArray[0].equals("--help")) {
             System.out.println("Usage :\njava -jar graphab.jar --metrics\n" +
-                    "java -jar graphab.jar [-proc n] --create prjname land.tif habitat=code1,...,coden [nodata=val] [minarea=val] [con8] [simp] [dir=path]\n" +
+                    "java -jar graphab.jar [-proc n] --create prjname land.tif habitat=code1,...,coden [nodata=val] [minarea=val] [con8] [dir=path]\n" +
                     "java -jar graphab.jar [-mpi | -proc n] [-nosave] --project prjfile.xml command1 [command2 ...]\n" +
                     "Commands list :\n" +
                     "--show\n" + 
-                    "--linkset distance=euclid|cost [name=linkname] [complete[=dmax]] [slope=coef] [remcrosspath] [[code1,..,coden=cost1 ...] codei,..,codej=min:inc:max | extcost=raster.tif]\n" +
+                    "--linkset distance=euclid|cost [name=linkname] [complete[=dmax]] [slope=coef] [remcrosspath] [floatprec] [[code1,..,coden=cost1 ...] codei,..,codej=min:inc:max | extcost=raster.tif]\n" +
                     "--uselinkset linkset1,...,linksetn\n" +
                     "--corridor maxcost=valcost\n" +
                     "--graph [nointra] [threshold=[{]min:inc:max[}]]\n" +
                     "--usegraph graph1,...,graphn\n" +
+                    "--odmatrix [maxcost=valcost]\n" +
                     "--pointset pointset.shp\n" +
                     "--usepointset pointset1,...,pointsetn\n" +
                     "--capa [maxcost=[{]valcost[}] codes=code1,code2,...,coden [weight]]\n" +
@@ -129,7 +132,7 @@ public class CLITools {
         if(argArray[0].equals("--advanced")) {
             System.out.println("Advanced commands :\n" +
                     "--linkset distance=circuit [name=linkname] [complete[=dmax]] [slope=coef] [[code1,..,coden=cost1 ...] codei,..,codej=min:inc:max | extcost=raster.tif]\n" +
-                    "--circuit [corridor=current_max] [optim] [con4] [link=id1,id2,...,idm|flink=file.txt]\n" +
+                    "--circuit [corridor=current_max] [optim] [con4] [precond=diag|icc|amg] [bench] [link=id1,id2,...,idm|flink=file.txt]\n" +
                     "--landmod zone=filezones.shp id=fieldname code=fieldname [novoronoi]\n");
             return;
         }
@@ -208,6 +211,8 @@ public class CLITools {
                 circuit(args);
             } else if(p.equals("--corridor")) {
                 corridor(args);
+            } else if(p.equals("--odmatrix")) {
+                calcODMatrix(args);
             } else if(p.equals("--metapatch")) {
                 createMetapatch(args);
             } else if(p.equals("--capa")) {
@@ -318,7 +323,6 @@ public class CLITools {
         double nodata = Double.NaN;
         double minArea = 0;
         boolean con8 = false;
-        boolean simp = false;
         File dir = new File(".");
         
         // parameter
@@ -336,7 +340,7 @@ public class CLITools {
                     con8 = true;
                     break;
                 case "simp":
-                    simp = true;
+                    // not used anymore, accepted for the scripts of previous versions
                     break;
                 case "dir":
                     dir = new File(tok[1]);
@@ -365,7 +369,7 @@ public class CLITools {
             }
         }
 
-        return new Project(name, new File(dir, name), coverage, new TreeSet<>(codes), patchCodes, nodata, con8, minArea, simp);
+        return new Project(name, new File(dir, name), coverage, new TreeSet<>(codes), patchCodes, nodata, con8, minArea);
     }
     
     public void batchModel(List<String> args) throws IOException, MathException {
@@ -461,6 +465,11 @@ public class CLITools {
                 args.remove(0);
                 removeCrossPath = true;
             }
+            boolean floatPrec = false;
+            if(args.get(0).equals("floatprec")) {
+                args.remove(0);
+                floatPrec = true;
+            }
             if(args.get(0).startsWith("extcost=")) {
                 File extCost = new File(args.remove(0).split("=")[1]);
                 if(linkName == null) {
@@ -468,6 +477,7 @@ public class CLITools {
                 } 
                 Linkset cost = circuit ? new Linkset(project, linkName, type, null, extCost, true, coefSlope) : 
                         new Linkset(project, linkName, type, Linkset.COST_LENGTH, true, removeCrossPath, threshold, extCost, coefSlope);
+                cost.setFloatPrec(floatPrec);
                 project.addLinkset(cost, save);
                 useLinksets.add(cost);
             } else {
@@ -510,6 +520,7 @@ public class CLITools {
                     String s = name + (multi ? "-" + c : "");
                     Linkset cost = circuit ? new Linkset(project, s, type, costs, null, true, coefSlope) : 
                             new Linkset(project, s, type, costs, Linkset.COST_LENGTH, true, removeCrossPath, threshold, coefSlope);
+                    cost.setFloatPrec(floatPrec);
                     project.addLinkset(cost, save);
                     useLinksets.add(cost);
                 }
@@ -583,50 +594,46 @@ public class CLITools {
             fw.write("\n");
             
             for(GraphGenerator graph : getGraphs()) {    
-                HashMap<String, Object> params = new HashMap<>();                
-                List<String> paramNames = new ArrayList<>(ranges.keySet());
-                int [] indParam = new int[ranges.size()];
-                boolean end = false;
-                while(!end) {
-                    for(int i = 0; i < indParam.length; i++) {
-                        params.put(paramNames.get(i), ranges.get(paramNames.get(i)).getValues(graph.getLinkset()).get(indParam[i]));
-                    }
-                    metric.setParams(params);
-                    
-                    Double[] res = new GlobalMetricLauncher(metric, maxCost).calcMetric(graph, true, null);
-                    System.out.println(graph.getName() + " - " + metric.getDetailName() + " : " + res[0]);
-                    
-                    fw.write(graph.getName());
-                    for(String param : params.keySet()) {
-                        fw.write("\t" + params.get(param));
-                    }
-                    for(Double val : res) {
-                        fw.write("\t" + val);
+                List<Map<String, Object>> paramSets = getParamSets(ranges, graph.getLinkset());
+                if(paramSets.size() > 1 && MultiParamLauncher.isMultiParam(metric)) {
+                    // all the parameter values in one pass
+                    List<Double[]> results = MultiParamLauncher.calcGlobalMetric(graph, metric, paramSets, maxCost, null);
+                    for(int i = 0; i < paramSets.size(); i++) {
+                        metric.setParams(paramSets.get(i));
+                        writeGlobalMetric(fw, graph, metric, paramSets.get(i), results.get(i));
                     }
-                    fw.write("\n");
-                    fw.flush();
-                    
-                    if(indParam.length > 0) {
-                        indParam[0]++;
-                    }
-                    for(int i = 0; i < indParam.length-1; i++) {
-                        if(indParam[i] >= ranges.get(paramNames.get(i)).getSize()) {
-                            indParam[i] = 0;
-                            indParam[i+1]++;
-                        } else {
-                            break;
+                } else {
+                    // the cost distances are the same for all parameter values
+                    graph.setDistanceCache(true);
+                    try {
+                        for(Map<String, Object> params : paramSets) {
+                            metric.setParams(params);
+                            Double[] res = new GlobalMetricLauncher(metric, maxCost).calcMetric(graph, true, null);
+                            writeGlobalMetric(fw, graph, metric, params, res);
                         }
-                    }
-                    if(indParam.length > 0) {
-                        end = indParam[indParam.length-1] >= ranges.get(paramNames.get(indParam.length-1)).getSize();
-                    } else {
-                        end = true;
+                    } finally {
+                        graph.setDistanceCache(false);
                     }
                 }
             }
         }
     }
     
+    private void writeGlobalMetric(FileWriter fw, GraphGenerator graph, GlobalMetric metric, 
+            Map<String, Object> params, Double[] res) throws IOException {
+        System.out.println(graph.getName() + " - " + metric.getDetailName() + " : " + res[0]);
+
+        fw.write(graph.getName());
+        for(String param : params.keySet()) {
+            fw.write("\t" + params.get(param));
+        }
+        for(Double val : res) {
+            fw.write("\t" + val);
+        }
+        fw.write("\n");
+        fw.flush();
+    }
+    
     private void calcCompMetric(List<String> args) throws IOException, SchemaException {
         String indName = args.remove(0);
         double maxCost = readMaxCost(args);
@@ -685,35 +692,25 @@ public class CLITools {
         System.out.println("Local metric " + indice.getName());
         for(GraphGenerator graph : getGraphs()) {
             System.out.println(graph.getName());
-            HashMap<String, Object> params = new HashMap<>();
-            List<String> paramNames = new ArrayList<>(ranges.keySet());
-            int [] indParam = new int[ranges.size()];
-            boolean end = false;
-            while(!end) {
-                for(int i = 0; i < indParam.length; i++) {
-                    params.put(paramNames.get(i), ranges.get(paramNames.get(i)).getValues(graph.getLinkset()).get(indParam[i]));
+            List<Map<String, Object>> paramSets = getParamSets(ranges, graph.getLinkset());
+            if(paramSets.size() > 1 && MultiParamLauncher.isMultiParam(indice) && indice.calcNodes() && !indice.calcEdges()) {
+                // all the parameter values in one pass
+                for(String attr : MultiParamLauncher.calcLocalMetric(graph, indice, paramSets, null)) {
+                    System.out.println(graph.getName() + " : " + attr);
                 }
-                indice.setParams(params);
-
-                System.out.println(graph.getName() + " : " + indice.getDetailName());
+            } else {
+                // the cost distances are the same for all parameter values
+                graph.setDistanceCache(true);
+                try {
+                    for(Map<String, Object> params : paramSets) {
+                        indice.setParams(params);
 
-                MainFrame.calcLocalMetric(new TaskMonitor.EmptyMonitor(), graph, indice, maxCost);
+                        System.out.println(graph.getName() + " : " + indice.getDetailName());
 
-                if(indParam.length > 0) {
-                    indParam[0]++;
-                }
-                for(int i = 0; i < indParam.length-1; i++) {
-                    if(indParam[i] >= ranges.get(paramNames.get(i)).getSize()) {
-                        indParam[i] = 0;
-                        indParam[i+1]++;
-                    } else {
-                        break;
+                        MainFrame.calcLocalMetric(new TaskMonitor.EmptyMonitor(), graph, indice, maxCost);
                     }
-                }
-                if(indParam.length > 0) {
-                    end = indParam[indParam.length-1] >= ranges.get(paramNames.get(indParam.length-1)).getSize();
-                } else {
-                    end = true;
+                } finally {
+                    graph.setDistanceCache(false);
                 }
             }
 
@@ -1120,6 +1117,16 @@ public class CLITools {
         project.setCapacities(params, save);
     }
     
+    private void calcODMatrix(List<String> args) throws IOException {
+        double maxCost = readMaxCost(args);
+        for(GraphGenerator graph : getGraphs()) {
+            System.out.println("OD matrix " + graph.getName());
+            File file = new File(project.getDirectory(), graph.getName() + "-odmatrix.bin");
+            graph.calcODMatrix(file, maxCost);
+            ODMatrixStore.saveAsText(file, new File(project.getDirectory(), graph.getName() + "-odmatrix.txt"));
+        }
+    }
+    
     private void createMetapatch(List<String> args) throws IOException, SchemaException {
         double minCapa = 0;
         if(!args.isEmpty() && args.get(0).startsWith("mincapa=")) {
@@ -1187,12 +1194,22 @@ public class CLITools {
         }
         boolean optim = false;
         if(!args.isEmpty() && args.get(0).equals("optim")) {
+            args.remove(0);
             optim = true;
         }
         boolean con4 = false;
         if(!args.isEmpty() && args.get(0).equals("con4")) {
+            args.remove(0);
             con4 = true;
         }
+        if(!args.isEmpty() && args.get(0).startsWith("precond=")) {
+            CircuitRaster.precond = CircuitRaster.Precond.valueOf(args.remove(0).split("=")[1].toUpperCase());
+        }
+        boolean bench = false;
+        if(!args.isEmpty() && args.get(0).equals("bench")) {
+            args.remove(0);
+            bench = true;
+        }
         final Set<String> linkIds = new HashSet<>();
         if(!args.isEmpty() && args.get(0).startsWith("link=")) {
             String [] toks = args.remove(0).split("=")[1].split(",");
@@ -1213,6 +1230,10 @@ public class CLITools {
                     
             final File dir = new File(project.getDirectory(), link.getName() + "-circuit");
             dir.mkdir();
+            if(bench) {
+                benchCircuit(circuit, link, linkIds, new File(dir, "benchmark.csv"));
+                continue;
+            }
             final List<DefaultFeature> corridors;
             try (FileWriter fw = new FileWriter(new File(dir, "resistances.csv"))) {
                 fw.write("Id1,Id2,R\n");
@@ -1265,6 +1286,49 @@ public class CLITools {
         }
     }
     
+    /**
+     * Solves the circuit of each link for all preconditioners, initial vectors and precisions.
+     * The links are solved sequentially for comparable times.
+     * @param circuit the raster circuit of the linkset
+     * @param link the linkset
+     * @param linkIds the link ids to test, all links if empty
+     * @param file the result file
+     * @throws IOException 
+     */
+    private void benchCircuit(CircuitRaster circuit, Linkset link, Set<String> linkIds, File file) throws IOException {
+        CircuitRaster.Precond precond = CircuitRaster.precond;
+        CircuitRaster.InitVector initVector = CircuitRaster.initVector;
+        double prec = CircuitRaster.prec;
+        try (FileWriter fw = new FileWriter(file)) {
+            fw.write("Id1,Id2,Size,Precond,InitVector,Prec,R,Iter,Time\n");
+            for(Path p : link.getPaths()) {
+                if(!linkIds.isEmpty() && !linkIds.contains((String)p.getId())) {
+                    continue;
+                }
+                for(double pr : new double[] {1e-4, 1e-6, 1e-8}) {
+                    for(CircuitRaster.Precond pc : CircuitRaster.Precond.values()) {
+                        for(CircuitRaster.InitVector init : CircuitRaster.InitVector.values()) {
+                            CircuitRaster.prec = pr;
+                            CircuitRaster.precond = pc;
+                            CircuitRaster.initVector = init;
+                            long t1 = System.currentTimeMillis();
+                            CircuitRaster.PatchODCircuit odCircuit = circuit.getODCircuit(p.getPatch1(), p.getPatch2());
+                            odCircuit.solve();
+                            long t2 = System.currentTimeMillis();
+                            fw.write(p.getPatch1() + "," + p.getPatch2() + "," + odCircuit.getSize() + "," + pc + "," + init + "," + pr + "," 
+                                    + odCircuit.getR() + "," + odCircuit.getNbIter() + "," + (t2 - t1) / 1000.0 + "\n");
+                        }
+                    }
+                }
+                fw.flush();
+            }
+        } finally {
+            CircuitRaster.precond = precond;
+            CircuitRaster.initVector = initVector;
+            CircuitRaster.prec = prec;
+        }
+    }
+    
     private void corridor(List<String> args) throws IOException, SchemaException {
         if(args.isEmpty() || !args.get(0).startsWith("maxcost="))  {
             throw new IllegalArgumentException("maxcost option is missing in command --corridor");
@@ -1305,6 +1369,48 @@ public class CLITools {
         return maxCost;
     }
 
+    /**
+     * Lists all the combinations of the parameter values, the first parameter varies first.
+     * @param ranges the ranges of the parameters
+     * @param linkset the linkset for converting distances into costs
+     * @return the parameter sets, one empty set if there is no parameter
+     */
+    private List<Map<String, Object>> getParamSets(Map<String, Range> ranges, Linkset linkset) {
+        List<String> paramNames = new ArrayList<>(ranges.keySet());
+        List<List<Double>> values = new ArrayList<>();
+        for(String name : paramNames) {
+            values.add(ranges.get(name).getValues(linkset));
+        }
+        List<Map<String, Object>> paramSets = new ArrayList<>();
+        int [] indParam = new int[paramNames.size()];
+        boolean end = false;
+        while(!end) {
+            HashMap<String, Object> params = new HashMap<>();
+            for(int i = 0; i < indParam.length; i++) {
+                params.put(paramNames.get(i), values.get(i).get(indParam[i]));
+            }
+            paramSets.add(params);
+            
+            if(indParam.length > 0) {
+                indParam[0]++;
+            }
+            for(int i = 0; i < indParam.length-1; i++) {
+                if(indParam[i] >= values.get(i).size()) {
+                    indParam[i] = 0;
+                    indParam[i+1]++;
+                } else {
+                    break;
+                }
+            }
+            if(indParam.length > 0) {
+                end = indParam[indParam.length-1] >= values.get(indParam.length-1).size();
+            } else {
+                end = true;
+            }
+        }
+        return paramSets;
+    }
+    
     private Map<String, Range> readMetricParams(List<String> args) {
         HashMap<String, Range> ranges = new LinkedHashMap<>();
         while(!args.isEmpty() && args.get(0).contains("=")) {
@@ -81,6 +81,7 @@ import org.thema.graphab.metric.BatchGraphMetricTask;
 import org.thema.graphab.metric.BatchParamMetricDialog;
 import org.thema.graphab.metric.CalcMetricDialog;
 import org.thema.graphab.metric.DeltaMetricTask;
+import org.thema.graphab.metric.MultiParamLauncher;
 import org.thema.graphab.metric.global.GlobalMetricLauncher;
 import org.thema.graphab.metric.PreCalcMetric;
 import org.thema.graphab.metric.PreCalcMetricTask;
@@ -860,14 +861,30 @@ public class MainFrame extends javax.swing.JFrame {
                 LocalMetric indice = (LocalMetric)dlg.metric.dupplicate();
                 ProgressBar monitor = Config.getProgressBar(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Calc_local_metric_") + dlg.metric.getName(), n*100);
                         
-               Map<String, Object> params = indice.getParams();
-               for(double p = dlg.min; p <= dlg.max; p += dlg.inc) {
-                   params.put(dlg.param, p);
-                   indice.setParams(params);
-                   monitor.setNote(dlg.param + " : " + String.format("%g", p));
-                   calcLocalMetric(monitor.getSubProgress(100), dlg.graph,
-                            indice, Double.NaN);
-
+               if(n > 1 && MultiParamLauncher.isMultiParam(indice) && indice.calcNodes() && !indice.calcEdges()) {
+                   // all the parameter values in one pass
+                   List<Map<String, Object>> paramSets = new ArrayList<>();
+                   for(double p = dlg.min; p <= dlg.max; p += dlg.inc) {
+                       Map<String, Object> params = indice.getParams();
+                       params.put(dlg.param, p);
+                       paramSets.add(params);
+                   }
+                   MultiParamLauncher.calcLocalMetric(dlg.graph, indice, paramSets, monitor.getSubProgress(n*100));
+               } else {
+                   Map<String, Object> params = indice.getParams();
+                   dlg.graph.setDistanceCache(true);
+                   try {
+                       for(double p = dlg.min; p <= dlg.max; p += dlg.inc) {
+                           params.put(dlg.param, p);
+                           indice.setParams(params);
+                           monitor.setNote(dlg.param + " : " + String.format("%g", p));
+                           calcLocalMetric(monitor.getSubProgress(100), dlg.graph,
+                                    indice, Double.NaN);
+
+                       }
+                   } finally {
+                       dlg.graph.setDistanceCache(false);
+                   }
                }
 
                 monitor.setNote(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Saving..."));
@@ -951,12 +968,39 @@ public class MainFrame extends javax.swing.JFrame {
                         }
                     };
 
-                new ParallelFExecutor(task).executeAndWait();
+                TreeMap<Double, Double[]> results;
+                if(steps.size() > 1 && MultiParamLauncher.isMultiParam(dlg.metric)) {
+                    // all the parameter values in one pass
+                    List<Map<String, Object>> paramSets = new ArrayList<>();
+                    for(Double p : steps) {
+                        Map<String, Object> params = dlg.metric.getParams();
+                        params.put(dlg.param, p);
+                        paramSets.add(params);
+                    }
+                    List<Double[]> res;
+                    try {
+                        res = MultiParamLauncher.calcGlobalMetric(dlg.graph, (GlobalMetric)dlg.metric, paramSets, 
+                                Double.NaN, monitor.getSubMonitor(0, 100, 100));
+                    } catch(CancellationException ex) {
+                        return;
+                    }
+                    results = new TreeMap<>();
+                    for(int i = 0; i < steps.size(); i++) {
+                        results.put(steps.get(i), res.get(i));
+                    }
+                } else {
+                    dlg.graph.setDistanceCache(true);
+                    try {
+                        new ParallelFExecutor(task).executeAndWait();
+                    } finally {
+                        dlg.graph.setDistanceCache(false);
+                    }
 
-                if(task.isCanceled()) {
-                    return;
+                    if(task.isCanceled()) {
+                        return;
+                    }
+                    results = task.getResult();
                 }
-                TreeMap<Double, Double[]> results = task.getResult();
                
                 monitor.close();
                 XYSeriesCollection series = new XYSeriesCollection();
@@ -123,7 +123,6 @@ public class NewProjectDialog extends javax.swing.JDialog {
         con8RadioButton = new javax.swing.JRadioButton();
         jLabel4 = new javax.swing.JLabel();
         noDataComboBox = new javax.swing.JComboBox();
-        simplifyCheckBox = new javax.swing.JCheckBox();
         jScrollPane1 = new javax.swing.JScrollPane();
         codesList = new javax.swing.JList();
         panel3 = new org.thema.graphab.links.LinksetPanel();
@@ -234,8 +233,6 @@ public class NewProjectDialog extends javax.swing.JDialog {
 
         jLabel4.setText(bundle.getString("NewProjectDialog.jLabel4.text")); // NOI18N
 
-        simplifyCheckBox.setSelected(true);
-        simplifyCheckBox.setText(bundle.getString("NewProjectDialog.simplifyCheckBox.text")); // NOI18N
 
         jScrollPane1.setViewportView(codesList);
 
@@ -248,7 +245,6 @@ public class NewProjectDialog extends javax.swing.JDialog {
                 .addGroup(panel2Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addGroup(panel2Layout.createSequentialGroup()
                         .addGroup(panel2Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
-                            .addComponent(simplifyCheckBox)
                             .addGroup(panel2Layout.createSequentialGroup()
                                 .addGroup(panel2Layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                                     .addComponent(jLabel1)
@@ -294,8 +290,6 @@ public class NewProjectDialog extends javax.swing.JDialog {
                     .addComponent(jLabel2)
                     .addComponent(minAreaSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                     .addComponent(jLabel4))
-                .addGap(18, 18, 18)
-                .addComponent(simplifyCheckBox)
                 .addContainerGap(99, Short.MAX_VALUE))
         );
 
@@ -574,7 +568,7 @@ public class NewProjectDialog extends javax.swing.JDialog {
             codes.remove((int)noData);
         }
 
-        Project prj = new Project(prjNameTextField.getText(), prjPath, coverage, codes, getHabitatCodes(), noData, con8, minArea, simplifyCheckBox.isSelected());
+        Project prj = new Project(prjNameTextField.getText(), prjPath, coverage, codes, getHabitatCodes(), noData, con8, minArea);
         panel3.setProject(prj);
         prj.addLinkset(panel3.getLinkset(), true);
 
@@ -608,7 +602,6 @@ public class NewProjectDialog extends javax.swing.JDialog {
     private javax.swing.JLabel prjPathLabel;
     private javax.swing.JTextField prjPathTextField;
     private javax.swing.JButton selectPathButton;
-    private javax.swing.JCheckBox simplifyCheckBox;
     // End of variables declaration//GEN-END:variables
 
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.thema.graphab;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.thema.data.feature.Feature;
+
+/**
+ * Columnar binary storage of the patch attributes (metric results).<br/>
+ * The index file patches-attr.bin contains the patch ids in the order of the columns
+ * and for each attribute its name, the number of its column file and its type.
+ * Each attribute is stored in its own column file patches-attr-k.bin as n doubles,
+ * or as n strings when an attribute contains non numeric values.<br/>
+ * The columns loaded or saved last are kept in memory by the project ({@link Columns}),
+ * when saving, the values of the patches are compared with them for finding the new or modified attributes :
+ * only their column files are written and the column files which are no more used are deleted.
+ * The first attribute (Id) is not stored in a column, it comes from the patch ids.
+ *
+ * @author Gilles Vuidel
+ */
+final class PatchStore {
+
+    /** Name of the index file */
+    static final String INDEX_FILE = "patches-attr.bin";
+    /** Name of the csv file of the former versions */
+    static final String CSV_FILE = "patches.csv";
+    
+    private static final int MAGIC = 0x47504154;
+    private static final int VERSION = 2;
+    
+    private static final byte TYPE_DOUBLE = 0;
+    private static final byte TYPE_STRING = 1;
+
+    private PatchStore() {
+    }
+
+    /**
+     * Attribute columns of the patches
+     */
+    static final class Columns {
+        /** the attribute names, the first one is the id */
+        final List<String> attrNames;
+        /** the patch id of each row */
+        final int [] ids;
+        /** the values of the attributes without the id, double[] or String[] */
+        final Object [] values;
+        /** the number of the column file of each attribute without the id */
+        final int [] nums;
+
+        private Columns(List<String> attrNames, int[] ids, Object[] values, int[] nums) {
+            this.attrNames = attrNames;
+            this.ids = ids;
+            this.values = values;
+            this.nums = nums;
+        }
+        
+        /**
+         * @param col the column index, 0 for the second attribute
+         * @param row the row index
+         * @return the value, a Double or a String
+         */
+        Object getValue(int col, int row) {
+            if(values[col] instanceof double[]) {
+                return ((double[])values[col])[row];
+            } else {
+                return ((String[])values[col])[row];
+            }
+        }
+    }
+    
+    /**
+     * Saves the attributes of the patches.
+     * The patches must have the same attributes.
+     * The attributes containing non numeric values are stored as strings.
+     * Only the attributes which are new or differ from the saved columns are written.
+     * The csv file of the former versions is deleted.
+     * @param dir the project directory
+     * @param patches the patches
+     * @param saved the columns loaded from or saved last in dir, may be null
+     * @return the saved columns, to be given to the next call
+     * @throws IOException 
+     */
+    static Columns save(File dir, List<? extends Feature> patches, Columns saved) throws IOException {
+        final int n = patches.size();
+        final int [] ids = new int[n];
+        for(int i = 0; i < n; i++) {
+            ids[i] = (Integer)patches.get(i).getId();
+        }
+        // the column files already saved, they can be kept only for the same patches
+        Set<Integer> oldNums = new HashSet<>();
+        File indexFile = new File(dir, INDEX_FILE);
+        if(saved != null) {
+            for(int num : saved.nums) {
+                oldNums.add(num);
+            }
+        } else if(indexFile.exists()) {
+            Map<String, int[]> oldCols = new HashMap<>();
+            readIndex(indexFile, oldCols);
+            for(int [] col : oldCols.values()) {
+                oldNums.add(col[0]);
+            }
+        }
+        boolean samePatches = saved != null && Arrays.equals(saved.ids, ids);
+        int nextNum = 0;
+        for(int num : oldNums) {
+            nextNum = Math.max(nextNum, num+1);
+        }
+        
+        List<String> attrNames = n == 0 ? new ArrayList<String>() : new ArrayList<>(patches.get(0).getAttributeNames());
+        Object [] newValues = new Object[Math.max(0, attrNames.size()-1)];
+        int [][] cols = new int[attrNames.size()][];
+        for(int j = 1; j < attrNames.size(); j++) {
+            final Object values = getValues(patches, j);
+            newValues[j-1] = values;
+            final byte type = values instanceof double[] ? TYPE_DOUBLE : TYPE_STRING;
+            final int old = samePatches ? saved.attrNames.indexOf(attrNames.get(j)) - 1 : -1;
+            if(old >= 0 && sameValues(saved.values[old], values)) {
+                cols[j] = new int[] {saved.nums[old], type};
+            } else {
+                cols[j] = new int[] {nextNum++, type};
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(getColumnFile(dir, cols[j][0])), 1 << 16))) {
+                    if(type == TYPE_DOUBLE) {
+                        for(double v : (double[])values) {
+                            out.writeDouble(v);
+                        }
+                    } else {
+                        for(String v : (String[])values) {
+                            writeString(out, v);
+                        }
+                    }
+                }
+            }
+        }
+        
+        // write the new index before deleting the unused columns
+        File tmpFile = new File(dir, INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            for(int id : ids) {
+                out.writeInt(id);
+            }
+            out.writeInt(attrNames.size());
+            for(int j = 0; j < attrNames.size(); j++) {
+                out.writeUTF(attrNames.get(j));
+                if(j > 0) {
+                    out.writeInt(cols[j][0]);
+                    out.writeByte(cols[j][1]);
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        int [] nums = new int[newValues.length];
+        Set<Integer> used = new HashSet<>();
+        for(int j = 1; j < cols.length; j++) {
+            nums[j-1] = cols[j][0];
+            used.add(cols[j][0]);
+        }
+        for(int num : oldNums) {
+            if(!used.contains(num)) {
+                getColumnFile(dir, num).delete();
+            }
+        }
+        // the project is now saved in the binary format
+        Files.deleteIfExists(new File(dir, CSV_FILE).toPath());
+        
+        return new Columns(attrNames, ids, newValues, nums);
+    }
+    
+    /**
+     * Loads the attributes of the patches.
+     * @param dir the project directory
+     * @return the attribute columns
+     * @throws IOException 
+     */
+    static Columns load(File dir) throws IOException {
+        File indexFile = new File(dir, INDEX_FILE);
+        Map<String, int[]> cols = new HashMap<>();
+        List<String> attrNames = new ArrayList<>();
+        int [] ids = readIndex(indexFile, cols, attrNames);
+        final int n = ids.length;
+        Object [] values = new Object[attrNames.size()-1];
+        int [] nums = new int[values.length];
+        for(int j = 1; j < attrNames.size(); j++) {
+            int [] col = cols.get(attrNames.get(j));
+            values[j-1] = readColumn(getColumnFile(dir, col[0]), col[1], n);
+            nums[j-1] = col[0];
+        }
+        return new Columns(attrNames, ids, values, nums);
+    }
+    
+    /**
+     * @param patches the patches
+     * @param j the attribute index
+     * @return the values of the attribute j, double[] if all values are numbers or null, String[] otherwise
+     */
+    private static Object getValues(List<? extends Feature> patches, int j) {
+        final int n = patches.size();
+        double [] values = new double[n];
+        for(int i = 0; i < n; i++) {
+            Object val = patches.get(i).getAttribute(j);
+            if(val == null) {
+                values[i] = Double.NaN;
+            } else if(val instanceof Number) {
+                values[i] = ((Number)val).doubleValue();
+            } else {
+                String [] strValues = new String[n];
+                for(int k = 0; k < n; k++) {
+                    Object v = patches.get(k).getAttribute(j);
+                    strValues[k] = v == null ? null : v.toString();
+                }
+                return strValues;
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Compares the values of a saved column with the values of an attribute
+     * @param old the saved values, double[] or String[]
+     * @param values double[] or String[] values
+     * @return true if the values have the same type and are equal
+     */
+    private static boolean sameValues(Object old, Object values) {
+        if(old instanceof double[] && values instanceof double[]) {
+            return Arrays.equals((double[])old, (double[])values);
+        } else if(old instanceof String[] && values instanceof String[]) {
+            return Arrays.equals((String[])old, (String[])values);
+        } else {
+            return false;
+        }
+    }
+    
+    private static Object readColumn(File file, int type, int n) throws IOException {
+        if(type == TYPE_DOUBLE) {
+            double [] values = new double[n];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                if(channel.size() != 8L*n) {
+                    throw new IOException("Bad column size : " + file);
+                }
+                if(n > 0) {
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, 8L*n).asDoubleBuffer().get(values);
+                }
+            }
+            return values;
+        } else if(type == TYPE_STRING) {
+            String [] values = new String[n];
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                for(int i = 0; i < n; i++) {
+                    values[i] = readString(in);
+                }
+            } catch(EOFException ex) {
+                throw new IOException("Bad column size : " + file, ex);
+            }
+            return values;
+        } else {
+            throw new IOException("Unknown column type " + type + " : " + file);
+        }
+    }
+    
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if(s == null) {
+            out.writeInt(-1);
+        } else {
+            byte [] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if(len == -1) {
+            return null;
+        }
+        byte [] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int [] readIndex(File file, Map<String, int[]> cols) throws IOException {
+        return readIndex(file, cols, new ArrayList<String>());
+    }
+    
+    /**
+     * Reads the index file
+     * @param file the index file
+     * @param cols filled with the column file number and the type of each attribute
+     * @param attrNames filled with the attribute names
+     * @return the patch ids
+     * @throws IOException 
+     */
+    private static int [] readIndex(File file, Map<String, int[]> cols, List<String> attrNames) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Bad file format : " + file);
+            }
+            int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported file version " + version + " : " + file);
+            }
+            int [] ids = new int[in.readInt()];
+            for(int i = 0; i < ids.length; i++) {
+                ids[i] = in.readInt();
+            }
+            final int nbAttr = in.readInt();
+            for(int j = 0; j < nbAttr; j++) {
+                String name = in.readUTF();
+                attrNames.add(name);
+                if(j > 0) {
+                    int num = in.readInt();
+                    int type = in.readByte();
+                    cols.put(name, new int[] {num, type});
+                }
+            }
+            return ids;
+        }
+    }
+    
+    private static File getColumnFile(File dir, int num) {
+        return new File(dir, "patches-attr-" + num + ".bin");
+    }
+}
@@ -27,13 +27,9 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Point;
-import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.util.AffineTransformation;
 import com.vividsolutions.jts.geom.util.NoninvertibleTransformationException;
-import com.vividsolutions.jts.index.strtree.ItemBoundable;
-import com.vividsolutions.jts.index.strtree.ItemDistance;
 import com.vividsolutions.jts.index.strtree.STRtree;
 import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
 import java.awt.Color;
@@ -62,11 +58,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JOptionPane;
@@ -109,6 +107,7 @@ import org.thema.graphab.links.CircuitRaster;
 import org.thema.graphab.links.EuclidePathFinder;
 import org.thema.graphab.links.PlanarLinks;
 import org.thema.graphab.links.Linkset;
+import org.thema.graphab.links.NearestPatchRaster;
 import org.thema.graphab.links.Path;
 import org.thema.graphab.links.RasterPathFinder;
 import org.thema.graphab.links.SpacePathFinder;
@@ -137,11 +136,10 @@ import org.thema.graphab.metric.local.FLocalMetric;
 import org.thema.graphab.metric.local.FPCLocalMetric;
 import org.thema.graphab.metric.local.LocalMetric;
 import org.thema.graphab.pointset.Pointset;
-import org.thema.graphab.util.DistanceOp;
+import org.thema.graphab.util.DistanceTransform;
+import org.thema.graphab.util.MappedRaster;
 import org.thema.graphab.util.RSTGridReader;
 import org.thema.graphab.util.SpatialOp;
-import org.thema.parallel.AbstractParallelTask;
-import org.thema.parallel.ExecutorService;
 
 /**
  * Contains all the data of a project.
@@ -181,6 +179,9 @@ public final class Project {
     public static final String VORONOI_SHAPE = "voronoi.shp";
     public static final String LINKS_SHAPE = "links.shp";
     
+    /** Rasters with more pixels are memory mapped instead of being loaded in the heap, can be lowered for testing */
+    static long mappedRasterSize = 1L << 26;
+    
     private transient File dir;
 
     private String name;
@@ -194,6 +195,7 @@ public final class Project {
      * donc normalement m2
      */
     private double minArea;
+    /** not used anymore, kept for reading the project files of previous versions */
     private boolean simplify;
     private CapaPatchDialog.CapaPatchParam capacityParams;
 
@@ -215,7 +217,7 @@ public final class Project {
     private transient List<DefaultFeature> patches;
     private transient List<Feature> voronoi;
 
-    private transient PlanarLinks planarLinks;
+    private transient volatile PlanarLinks planarLinks;
 
     private transient DefaultGroupLayer rootLayer, linkLayers, exoLayers, graphLayers, analysisLayers;
     private transient STRtree patchIndex;
@@ -225,7 +227,9 @@ public final class Project {
     private transient HashMap<Integer, Integer> removedCodes;
     private transient Ref<WritableRaster> srcRaster;
     private transient Ref<WritableRaster> patchRaster;
-    private transient HashMap<File, SoftRef<Raster>> extRasters;
+    private transient volatile Map<File, SoftRef<Raster>> extRasters;
+    /** the patch attributes loaded or saved last, for saving only the modified ones */
+    private transient PatchStore.Columns patchColumns;
 
     /**
      * Generates a new project and saves it.
@@ -238,18 +242,37 @@ public final class Project {
      * @param noData the nodata value or NaN
      * @param con8 is 8 connex or 4 connex for patch extraction ?
      * @param minArea the minimum area for a patch
-     * @param simplify if patch polygons are simplified for calculating planar topology for faster execution ?
      * @throws IOException
      * @throws SchemaException 
      */
+    public Project(String name, File prjPath, GridCoverage2D cov, TreeSet<Integer> codes, Set<Integer> patchCodes,
+            double noData, boolean con8, double minArea) throws IOException, SchemaException {
+        init(name, prjPath, cov, codes, patchCodes, noData, con8, minArea, true);
+    }
+    
+    /**
+     * Generates a new project and saves it.
+     * @param name the name of the project
+     * @param prjPath the directory of the project
+     * @param cov the landscape map
+     * @param codes the value set of the landscape map
+     * @param patchCodes the codes for the patches
+     * @param noData the nodata value or NaN
+     * @param con8 is 8 connex or 4 connex for patch extraction ?
+     * @param minArea the minimum area for a patch
+     * @param simplify not used anymore, the patch geometries are never simplified
+     * @throws IOException
+     * @throws SchemaException 
+     * @deprecated use {@link #Project(String, File, GridCoverage2D, TreeSet, Set, double, boolean, double)}
+     */
+    @Deprecated
     public Project(String name, File prjPath, GridCoverage2D cov, TreeSet<Integer> codes, Set<Integer> patchCodes,
             double noData, boolean con8, double minArea, boolean simplify) throws IOException, SchemaException {
-        this(name, prjPath, cov, codes, patchCodes, noData, con8, minArea, simplify, true);
+        this(name, prjPath, cov, codes, patchCodes, noData, con8, minArea);
     }
     
     /**
      * Generates a new project and saves it.
-     * No linkset is created.
      * @param name the name of the project
      * @param prjPath the directory of the project
      * @param cov the landscape map
@@ -258,13 +281,64 @@ public final class Project {
      * @param noData the nodata value or NaN
      * @param con8 is 8 connex or 4 connex for patch extraction ?
      * @param minArea the minimum area for a patch
-     * @param simplify if patch polygons are simplified for calculating planar topology for faster execution ?
+     * @param simplify not used anymore, the patch geometries are never simplified
      * @param calcVoronoi calculate planar topology ?
      * @throws IOException
      * @throws SchemaException 
+     * @deprecated use {@link #create(String, File, GridCoverage2D, TreeSet, Set, double, boolean, double, boolean)}
      */
+    @Deprecated
     public Project(String name, File prjPath, GridCoverage2D cov, TreeSet<Integer> codes, Set<Integer> patchCodes,
             double noData, boolean con8, double minArea, boolean simplify, boolean calcVoronoi) throws IOException, SchemaException {
+        init(name, prjPath, cov, codes, patchCodes, noData, con8, minArea, calcVoronoi);
+    }
+    
+    /**
+     * Constructor used by {@link #create }
+     */
+    private Project() {
+    }
+    
+    /**
+     * Generates a new project and saves it.
+     * No linkset is created.
+     * @param name the name of the project
+     * @param prjPath the directory of the project
+     * @param cov the landscape map
+     * @param codes the value set of the landscape map
+     * @param patchCodes the codes for the patches
+     * @param noData the nodata value or NaN
+     * @param con8 is 8 connex or 4 connex for patch extraction ?
+     * @param minArea the minimum area for a patch
+     * @param calcVoronoi calculate planar topology ?
+     * @return the new project
+     * @throws IOException
+     * @throws SchemaException 
+     */
+    public static Project create(String name, File prjPath, GridCoverage2D cov, TreeSet<Integer> codes, Set<Integer> patchCodes,
+            double noData, boolean con8, double minArea, boolean calcVoronoi) throws IOException, SchemaException {
+        Project prj = new Project();
+        prj.init(name, prjPath, cov, codes, patchCodes, noData, con8, minArea, calcVoronoi);
+        return prj;
+    }
+    
+    /**
+     * Initializes a new project and saves it.
+     * No linkset is created.
+     * @param name the name of the project
+     * @param prjPath the directory of the project
+     * @param cov the landscape map
+     * @param codes the value set of the landscape map
+     * @param patchCodes the codes for the patches
+     * @param noData the nodata value or NaN
+     * @param con8 is 8 connex or 4 connex for patch extraction ?
+     * @param minArea the minimum area for a patch
+     * @param calcVoronoi calculate planar topology ?
+     * @throws IOException
+     * @throws SchemaException 
+     */
+    private void init(String name, File prjPath, GridCoverage2D cov, TreeSet<Integer> codes, Set<Integer> patchCodes,
+            double noData, boolean con8, double minArea, boolean calcVoronoi) throws IOException, SchemaException {
 
         this.name = name;
         this.dir = prjPath;
@@ -273,7 +347,6 @@ public final class Project {
         this.noData = noData;
         this.con8 = con8;
         this.minArea = minArea;
-        this.simplify = simplify;
         this.capacityParams = new CapaPatchDialog.CapaPatchParam();
         
         Envelope2D gZone = cov.getEnvelope2D();
@@ -368,7 +441,7 @@ public final class Project {
 
         if(calcVoronoi) {
             WritableRaster voronoiR = rasterPatchs;
-            planarLinks = neighborhoodEuclid(patches, simplify, voronoiR, grid2space, resolution);
+            planarLinks = neighborhoodEuclid(patches, voronoiR);
             monitor.setNote("Saving...");
             DefaultFeature.saveFeatures(planarLinks.getFeatures(), new File(dir, LINKS_SHAPE), getCRS());
 
@@ -416,117 +489,18 @@ public final class Project {
     
     /**
      * Creates planar topology.
-     * Fill the raster voronoi with the nearest patch id.
+     * Fill the raster voronoi with the nearest patch id, with an euclidean distance transform.
      * @param patches
-     * @param simplify
-     * @param voronoi an empty raster
-     * @param grid2space
-     * @param resolution
+     * @param voronoi the patch raster, the pixels outside patches must be 0
      * @return the planar topology
-     * @throws IOException
-     * @throws SchemaException 
+     * @see DistanceTransform
      */
-    private static PlanarLinks neighborhoodEuclid(List<DefaultFeature> patches, boolean simplify, final WritableRaster voronoi, 
-            final AffineTransformation grid2space, double resolution) throws IOException, SchemaException {
+    private static PlanarLinks neighborhoodEuclid(List<DefaultFeature> patches, final WritableRaster voronoi) {
         ProgressBar monitor = Config.getProgressBar(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Neighbor"), voronoi.getHeight());
-        final STRtree index = new STRtree();
-        final int NPOINTS = 50;
-        final GeometryFactory factory = new GeometryFactory();
-        List<DefaultFeature> simpPatches = patches;
-        if(simplify) {
-            simpPatches = SpatialOp.simplify(patches, resolution);
-        }
-        for(Feature f : simpPatches) {
-            Geometry geom = f.getGeometry();
-            if(geom.getNumPoints() > NPOINTS) {
-                for(int i = 0; i < geom.getNumGeometries(); i++) {
-                    Polygon p = (Polygon)geom.getGeometryN(i);
-                    Coordinate [] coords = p.getExteriorRing().getCoordinates();
-                    int ind = 0;
-                    while(ind < coords.length-1) {
-                        LineString line = factory.createLineString(Arrays.copyOfRange(coords, ind,
-                                ind+NPOINTS+1 >= coords.length-1 ? coords.length : ind+NPOINTS+1));
-                        DefaultFeature df = new DefaultFeature(f.getId(), line, null, null);
-                        index.insert(line.getEnvelopeInternal(), df);
-                        ind += NPOINTS;
-                    }
-                    for(int j = 0; j < p.getNumInteriorRing(); j++) {
-                        index.insert(p.getInteriorRingN(j).getEnvelopeInternal(),
-                                new DefaultFeature(f.getId(), p.getInteriorRingN(j), null, null));
-                    }
-                }
-            } else {
-                index.insert(geom.getEnvelopeInternal(), f);
-            }
-        }
-
-        AbstractParallelTask task = new AbstractParallelTask<Void, Void>(monitor) {
-            @Override
-            public Void execute(int start, int end) {
-                Coordinate c = new Coordinate();
-                Envelope env = new Envelope();
-        
-                for(int y = start; y < end; y++) {
-                    for(int x = 0; x < voronoi.getWidth(); x++) {
-                        if(voronoi.getSample(x, y, 0) == 0) {
-                            c.x = x+0.5; c.y = y+0.5;
-                            grid2space.transform(c, c);
-                            env.init(c);
-                            DefaultFeature f = new DefaultFeature("c", factory.createPoint(c));
-                            Feature nearest = (Feature)index.nearestNeighbour(env, f, new ItemDistance() {
-                                @Override
-                                public double distance(ItemBoundable i1, ItemBoundable i2) {
-                                    Geometry g1 = ((Feature)i1.getItem()).getGeometry();
-                                    Geometry g2 = ((Feature)i2.getItem()).getGeometry();
-                                    Coordinate c = g1 instanceof Point ? ((Point)g1).getCoordinate() : ((Point)g2).getCoordinate();
-                                    Geometry geom = g1 instanceof Point ? g2 : g1;
-                                    if(geom instanceof LineString) {
-                                        return DistanceOp.distancePointLine(c, geom.getCoordinates());
-                                    } else {
-                                        double d = Double.MAX_VALUE;
-                                        for(int g = 0; g < geom.getNumGeometries(); g++) {
-                                            Polygon poly = ((Polygon)geom.getGeometryN(g));
-                                            double dd = DistanceOp.distancePointLine(c, poly.getExteriorRing().getCoordinates());
-                                            if(dd < d) {
-                                                d = dd;
-                                            }
-                                            int n = poly.getNumInteriorRing();
-                                            for(int i = 0; i < n; i++) {
-                                                dd = DistanceOp.distancePointLine(c, poly.getInteriorRingN(i).getCoordinates());
-                                                if(dd < d) {
-                                                    d = dd;
-                                                }
-                                            }
-                                        }
-                                        return d;
-                                    }
-                                }
-                            });
-
-                            voronoi.setSample(x, y, 0, (Integer)nearest.getId());
-                        }
-                    }
-                }
-                return null;
-            }
-
-            @Override
-            public int getSplitRange() {
-                return voronoi.getHeight();
-            }
-
-            @Override
-            public void gather(Void results) {
-            }
-            @Override
-            public Void getResult() {
-                throw new UnsupportedOperationException(); 
-            }
-        };
         
         long time = System.currentTimeMillis();
         
-        ExecutorService.execute(task);
+        DistanceTransform.voronoi(voronoi, monitor);
 
         System.out.println("Temps calcul : " + (System.currentTimeMillis() - time) / 1000);
 
@@ -550,13 +524,39 @@ public final class Project {
     }
 
     /**
+     * The planar topology is loaded at the first call.
      * @return the planar topology
+     * @throws IllegalStateException if the project has no voronoi
+     * @throws RuntimeException if the planar links cannot be loaded, the cause is the IOException
      */
     public PlanarLinks getPlanarLinks() {
-        if(planarLinks == null) {
-            throw new IllegalStateException("The project does not contain voronoi.");
+        PlanarLinks links = planarLinks;
+        if(links == null) {
+            synchronized(this) {
+                links = planarLinks;
+                if(links == null) {
+                    File linkFile = new File(dir, LINKS_SHAPE);
+                    if(linkFile.exists()) {
+                        try {
+                            List<DefaultFeature> features = GlobalDataStore.getFeatures(linkFile, "Id", null);
+                            List<Path> paths = new ArrayList<>(features.size());
+                            for(Feature f : features) {
+                                paths.add(Path.loadPath(f, this));
+                            }
+                            links = new PlanarLinks(paths, patches.size());
+                        } catch (IOException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    } else if(patches.size() == 1) {
+                        links = new PlanarLinks(1);
+                    } else {
+                        throw new IllegalStateException("The project does not contain voronoi.");
+                    }
+                    planarLinks = links;
+                }
+            }
         }
-        return planarLinks;
+        return links;
     }
 
     /**
@@ -653,6 +653,7 @@ public final class Project {
         if(save) {
             if(linkset.isRealPaths() && !linkset.getPaths().isEmpty()) {
                 DefaultFeature.saveFeatures(linkset.getPaths(), new File(dir, linkset.getName() + "-links.shp"), getCRS());
+                linkset.saveGeometries();
                 linkset.saveIntraLinks();
             }
             linkset.saveLinks();
@@ -712,7 +713,10 @@ public final class Project {
     
     
     /**
-     * Calculates and add a new pointset to the project
+     * Calculates and add a new pointset to the project.<br/>
+     * The points are attached and aggregated in parallel.
+     * When there are more points outside the patches than patches, the nearest patch of all pixels
+     * is calculated at once ({@link RasterPathFinder#calcNearestPatchRaster() }) instead of one search by point.
      * @param pointset the definition of the new point set
      * @param attrNames the attributes to retain from the point features
      * @param features the point features
@@ -720,7 +724,7 @@ public final class Project {
      * @throws SchemaException
      * @throws IOException 
      */
-    public void addPointset(Pointset pointset, List<String> attrNames, List<DefaultFeature> features, boolean save) throws SchemaException, IOException {
+    public void addPointset(final Pointset pointset, List<String> attrNames, List<DefaultFeature> features, boolean save) throws SchemaException, IOException {
         for(Feature f : features){
             Coordinate c = f.getGeometry().getCoordinate();
             if(!zone.contains(c.x, c.y)) {
@@ -787,51 +791,109 @@ public final class Project {
             linkset = linkset.getCostVersion();
             circuit = true;
         }
-        SpacePathFinder pathFinder = getPathFinder(linkset);
-
-        int nErr = 0;
+        // many points outside the patches : the nearest patch of all pixels is calculated at once
+        int nbOutside = 0;
         for(DefaultFeature f : features) {
-            monitor.incProgress(1);
-            if(monitor.isCanceled()) {
-                monitor.setNote(monitor.getNote() + " - canceled");
-                return;
-            }
             if(((Number)f.getAttribute(EXO_IDPATCH)).intValue() == -1) {
+                nbOutside++;
+            }
+        }
+        final NearestPatchRaster nearestRaster = linkset.getType_dist() != Linkset.EUCLID && nbOutside > patches.size() ?
+                getRasterPathFinder(linkset).calcNearestPatchRaster() : null;
+
+        final List<DefaultFeature> points = features;
+        final List<String> agregAttrs = attrNames;
+        final Linkset pathLinkset = linkset;
+        final boolean costLength = linkset.isCostLength();
+        final boolean noCost = circuit;
+        final double alpha = -Math.log(0.05) / pointset.getMaxCost();
+        final PointAgreg agreg = new PointAgreg(patches.size(), attrNames.size());
+        AbstractParallelFTask task = new AbstractParallelFTask(monitor) {
+            @Override
+            protected Object execute(int start, int end) {
+                PointAgreg part = new PointAgreg(patches.size(), agregAttrs.size());
+                SpacePathFinder pathFinder;
                 try {
-                    double [] res = pathFinder.calcPathNearestPatch((Point)f.getGeometry());
-                    DefaultFeature p = getPatch((int)res[0]);
-                    double cost = linkset.isCostLength() ? res[1] : res[2];
-                    f.setAttribute(EXO_IDPATCH, p.getId());
-                    f.setAttribute(EXO_COST, circuit ? 0 : cost);
-                } catch(Exception e) {
-                    nErr++;
-                    Logger.getLogger(Project.class.getName()).log(Level.WARNING, "Chemin non calculé pour le point " + f.getId(), e);
-                    continue;
+                    pathFinder = getPathFinder(pathLinkset);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                }
+                for(DefaultFeature f : points.subList(start, end)) {
+                    if(isCanceled()) {
+                        return null;
+                    }
+                    incProgress(1);
+                    Coordinate c = f.getGeometry().getCoordinate();
+                    if(((Number)f.getAttribute(EXO_IDPATCH)).intValue() == -1) {
+                        try {
+                            double [] res = nearestRaster != null ? nearestRaster.getNearestPatch(c) : null;
+                            if(res == null) {
+                                res = pathFinder.calcPathNearestPatch((Point)f.getGeometry());
+                            }
+                            DefaultFeature p = getPatch((int)res[0]);
+                            double cost = costLength ? res[1] : res[2];
+                            f.setAttribute(EXO_IDPATCH, p.getId());
+                            f.setAttribute(EXO_COST, noCost ? 0 : cost);
+                        } catch(Exception e) {
+                            part.nErr++;
+                            Logger.getLogger(Project.class.getName()).log(Level.WARNING, "Chemin non calculé pour le point " + f.getId(), e);
+                            continue;
+                        }
+                    }
+
+                    if(pointset.isAgreg()) {
+                        HashMap<DefaultFeature, Path> distPatch = pathFinder.calcPaths(c, pointset.getMaxCost(), false);
+                        for(DefaultFeature p : distPatch.keySet()) {
+                            final int ind = (Integer)p.getId() - 1;
+                            double dist = pointset.getLinkset().isCostLength() ? distPatch.get(p).getCost() : distPatch.get(p).getDist();
+                            for(int k = 0; k < agregAttrs.size(); k++) {
+                                Object v = f.getAttribute(agregAttrs.get(k));
+                                if(v != null) {
+                                    part.sums[ind][k] += ((Number)v).doubleValue() * Math.exp(-alpha*dist);
+                                }
+                            }
+                            part.nbPoints[ind]++;
+                        }
+                    }
                 }
+                return part;
             }
-            
-            if(pointset.isAgreg()) {
-                double alpha = -Math.log(0.05) / pointset.getMaxCost();
-                HashMap<DefaultFeature, Path> distPatch = pathFinder.calcPaths(f.getGeometry().getCoordinate(), pointset.getMaxCost(), false);
-                for(DefaultFeature p : distPatch.keySet()) {
-                    for(String attr : attrNames) {
-                       double val = ((Number)p.getAttribute(pointset.getName() + "." + attr)).doubleValue();
-                       if(Double.isNaN(val)) {
-                           val = 0;
-                       }
-                       double dist = pointset.getLinkset().isCostLength() ? distPatch.get(p).getCost() : distPatch.get(p).getDist();
-                       double s = 0;
-                       if(f.getAttribute(attr) != null) {
-                           s = ((Number)f.getAttribute(attr)).doubleValue() * Math.exp(-alpha*dist);
-                       }
-                       p.setAttribute(pointset.getName() + "." + attr, s + val);
-                   }
-                   p.setAttribute(pointset.getName() + ".NbPoint", 1+(Integer)p.getAttribute(pointset.getName() + ".NbPoint"));
+
+            @Override
+            public int getSplitRange() {
+                return points.size();
+            }
+            @Override
+            public void finish(Collection results) {
+                for(Object part : results) {
+                    agreg.add((PointAgreg) part);
                 }
             }
-            
+            @Override
+            public Object getResult() {
+                return null;
+            }
+        };
+        new ParallelFExecutor(task).executeAndWait();
+        if(task.isCanceled()) {
+            monitor.setNote(monitor.getNote() + " - canceled");
+            return;
         }
 
+        if(pointset.isAgreg()) {
+            for(DefaultFeature p : patches) {
+                final int ind = (Integer)p.getId() - 1;
+                if(agreg.nbPoints[ind] == 0) {
+                    continue;
+                }
+                for(int k = 0; k < attrNames.size(); k++) {
+                    p.setAttribute(pointset.getName() + "." + attrNames.get(k), agreg.sums[ind][k]);
+                }
+                p.setAttribute(pointset.getName() + ".NbPoint", agreg.nbPoints[ind]);
+            }
+        }
+        final int nErr = agreg.nErr;
+
         List<DefaultFeature> exoFeatures = new ArrayList<>();
         for(DefaultFeature f : features) {
             if(((Number)f.getAttribute(EXO_IDPATCH)).intValue() > 0) {
@@ -1022,12 +1084,12 @@ public final class Project {
         if(linkset.isExtCost()) {
             if(linkset.getExtCostFile().exists()) {
                 Raster extRaster = getExtRaster(linkset.getExtCostFile());
-                return new RasterPathFinder(this, extRaster, linkset.getCoefSlope());
+                return new RasterPathFinder(this, extRaster, linkset.getCoefSlope(), linkset.isFloatPrec());
             } else {
                 throw new RuntimeException("Cost raster file " + linkset.getExtCostFile() + " not found");
             }
         } else {
-            return new RasterPathFinder(this, getImageSource(), linkset.getCosts(), linkset.getCoefSlope());
+            return new RasterPathFinder(this, getImageSource(), linkset.getCosts(), linkset.getCoefSlope(), linkset.isFloatPrec());
         }
     }
     
@@ -1275,6 +1337,7 @@ public final class Project {
     /**
      * @return the voronoi features 
      * @throws IllegalStateException if the project has no voronoi
+     * @throws RuntimeException if the voronoi cannot be loaded, the cause is the IOException
      */
     public synchronized List<Feature> getVoronoi() {
         if(voronoi == null) {
@@ -1289,7 +1352,7 @@ public final class Project {
                     voronoi.set((Integer)f.getId()-1, f);
                 }
             } catch (IOException ex) {
-                Logger.getLogger(Project.class.getName()).log(Level.SEVERE, null, ex);
+                throw new RuntimeException(ex);
             }
         }
 
@@ -1350,7 +1413,13 @@ public final class Project {
         WritableRaster raster = patchRaster != null ? patchRaster.get() : null;
         if(raster == null) {
             try {
-                RenderedImage img = IOImage.loadTiffWithoutCRS(new File(dir, PATCH_RASTER)).getRenderedImage();
+                File file = new File(dir, PATCH_RASTER);
+                RenderedImage img = IOImage.loadTiffWithoutCRS(file).getRenderedImage();
+                if(isMappedRaster(img)) {
+                    raster = MappedRaster.getRaster(file, img, new java.awt.Point(img.getMinX(), img.getMinY()));
+                    patchRaster = new StrongRef<>(raster);
+                    return raster;
+                }
                 if(img.getNumXTiles() == 1 && img.getNumYTiles() == 1) {
                     raster = (WritableRaster) img.getTile(0, 0);
                 } else {
@@ -1365,6 +1434,16 @@ public final class Project {
         return raster;
     }
 
+    /**
+     * The big rasters are not loaded in the heap but memory mapped from a raw file, see {@link MappedRaster}.
+     * The mapped raster is kept with a strong reference, it does not use the heap.
+     * @param img the image of the raster
+     * @return true if the image has more than {@link #mappedRasterSize} pixels
+     */
+    private static boolean isMappedRaster(RenderedImage img) {
+        return (long)img.getWidth() * img.getHeight() > mappedRasterSize;
+    }
+    
     /**
      * If it is not already loaded, load the landscape map.
      * @return the landscape raster map
@@ -1373,7 +1452,14 @@ public final class Project {
         WritableRaster raster = srcRaster != null ? srcRaster.get() : null;
         if(raster == null) {
             try {
-                WritableRaster r = IOImage.loadTiffWithoutCRS(new File(dir, LAND_RASTER)).getRenderedImage().copyData(null);
+                File file = new File(dir, LAND_RASTER);
+                RenderedImage img = IOImage.loadTiffWithoutCRS(file).getRenderedImage();
+                if(isMappedRaster(img)) {
+                    raster = MappedRaster.getRaster(file, img, new java.awt.Point(1, 1));
+                    srcRaster = new StrongRef<>(raster);
+                    return raster;
+                }
+                WritableRaster r = img.copyData(null);
                 raster = r.createWritableTranslatedChild(1, 1);
                 srcRaster = new SoftRef<>(raster);
             } catch (IOException ex) {
@@ -1409,21 +1495,14 @@ public final class Project {
     }
 
     /**
-     * Saves the csv file containing patch metric results.
+     * Saves the patch metric results in columnar binary files.
+     * Only the new or modified attributes are written, the csv file of the former versions is deleted and is not written anymore.
      * @throws IOException
      * @throws SchemaException 
+     * @see PatchStore
      */
     public void savePatch() throws IOException, SchemaException {
-        try (CSVWriter w = new CSVWriter(new FileWriter(new File(dir, "patches.csv")))) {
-            w.writeNext(patches.get(0).getAttributeNames().toArray(new String[0]));
-            String [] tab = new String[patches.get(0).getAttributeNames().size()];
-            for(Feature f : getPatches()) {
-                for(int i = 0; i < tab.length; i++) {
-                    tab[i] = f.getAttribute(i).toString();
-                }
-                w.writeNext(tab);
-            }
-        }
+        patchColumns = PatchStore.save(dir, patches, patchColumns);
     }
 
     /**
@@ -1567,12 +1646,12 @@ public final class Project {
         if(hasVoronoi()) {
             PlanarLinks links;
             if(remPatch) {
-                links = neighborhoodEuclid(metaPatches, simplify, newRaster, grid2space, resolution);
+                links = neighborhoodEuclid(metaPatches, newRaster);
                 metaVoronois = (List<DefaultFeature>) SpatialOp.vectorizeVoronoi(newRaster, grid2space);
                 DefaultFeature.saveFeatures(metaVoronois, new File(dir, VORONOI_SHAPE), getCRS());
             } else {
                 links = new PlanarLinks(metaPatches.size());
-                for(Path p : planarLinks.getFeatures()) {
+                for(Path p : getPlanarLinks().getFeatures()) {
                     int id1 = idMetaPatch[(Integer)p.getPatch1().getId()];
                     int id2 = idMetaPatch[(Integer)p.getPatch2().getId()];
                     DefaultFeature p1 = metaPatches.get(id1-1);
@@ -1662,7 +1741,7 @@ public final class Project {
         newCodes.add(newCode);
         
         if(hasVoronoi()) {
-            PlanarLinks links = neighborhoodEuclid(patchList, simplify, newRaster, grid2space, resolution);
+            PlanarLinks links = neighborhoodEuclid(patchList, newRaster);
             List<? extends Feature> voronois = SpatialOp.vectorizeVoronoi(newRaster, grid2space);
             DefaultFeature.saveFeatures(voronois, new File(dir, VORONOI_SHAPE), getCRS());
             
@@ -1701,17 +1780,19 @@ public final class Project {
     }
 
     /**
-     * @return the minimal area for patches
+     * @return always false, the patch geometries are never simplified
+     * @deprecated the patch geometries are not simplified anymore
      */
-    public double getMinArea() {
-        return minArea;
+    @Deprecated
+    public boolean isSimplify() {
+        return false;
     }
 
     /**
-     * @return are patches simplified for calculating planar topology (voronoi) ?
+     * @return the minimal area for patches
      */
-    public boolean isSimplify() {
-        return simplify;
+    public double getMinArea() {
+        return minArea;
     }
 
     /**
@@ -1746,9 +1827,9 @@ public final class Project {
             linkLayers.addLayerLast(l);
         }
 
-        if(planarLinks != null) {
+        if(planarLinks != null || new File(dir, LINKS_SHAPE).exists()) {
             Layer l = new FeatureLayer(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Voronoi_links"), 
-                    planarLinks.getFeatures(), new LineStyle(new Color(0xbcc3ac)), crs);
+                    getPlanarLinks().getFeatures(), new LineStyle(new Color(0xbcc3ac)), crs);
             l.setVisible(false);
             linkLayers.addLayerLast(l);
         }
@@ -1777,8 +1858,10 @@ public final class Project {
 
     /**
      * Loads a project.
+     * The patches are loaded, the links of the linksets, the features of the pointsets and the planar topology
+     * are loaded at their first use unless all is true.
      * @param file the xml project file
-     * @param all preloads all linksets ?
+     * @param all preloads all linksets and pointsets ?
      * @return the loaded project 
      * @throws IOException 
      */
@@ -1802,61 +1885,109 @@ public final class Project {
 
         prj.dir = file.getAbsoluteFile().getParentFile();
         
+        final File dir = prj.dir;
+        final List<Pointset> pointsets = new ArrayList<>(prj.exoDatas.values());
+        for(Pointset pointset : pointsets) {
+            pointset.setFile(new File(dir, "Exo-" + pointset.getName() + ".shp"));
+        }
+        
         ProgressBar monitor = Config.getProgressBar(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Loading_project..."), 
-                100*(2+prj.costLinks.size()) + 10*prj.exoDatas.size());
-        List<DefaultFeature> features = GlobalDataStore.getFeatures(new File(prj.dir, PATCH_SHAPE), 
-                "Id", monitor.getSubProgress(100));
+                100 + (all ? 100*prj.costLinks.size() + 10*pointsets.size() : 0));
+        
+        // the patches, their attributes and the preloaded pointsets are read concurrently
+        final Object [] loaded = new Object[2 + (all ? pointsets.size() : 0)];
+        AbstractParallelFTask task = new AbstractParallelFTask(monitor.getSubProgress(100 + (all ? 10*pointsets.size() : 0))) {
+            @Override
+            protected Object execute(int start, int end) {
+                for(int i = start; i < end; i++) {
+                    try {
+                        if(i == 0) {
+                            loaded[i] = GlobalDataStore.getFeatures(new File(dir, PATCH_SHAPE), "Id", null);
+                        } else if(i == 1) {
+                            File fCSV = new File(dir, PatchStore.CSV_FILE);
+                            if(new File(dir, PatchStore.INDEX_FILE).exists()) {
+                                loaded[i] = PatchStore.load(dir);
+                            } else if(fCSV.exists()) {
+                                // project saved with the csv format
+                                try (CSVReader r = new CSVReader(new FileReader(fCSV))) {
+                                    loaded[i] = r.readAll();
+                                }
+                            }
+                        } else {
+                            pointsets.get(i-2).loadFeatures();
+                        }
+                    } catch(IOException ex) {
+                        loaded[i] = ex;
+                    }
+                    incProgress(1);
+                }
+                return null;
+            }
+
+            @Override
+            public int getSplitRange() {
+                return loaded.length;
+            }
+            @Override
+            public void finish(Collection results) {
+            }
+            @Override
+            public Object getResult() {
+                return null;
+            }
+        };
+        new ParallelFExecutor(task).executeAndWait();
+        for(Object res : loaded) {
+            if(res instanceof IOException) {
+                throw (IOException)res;
+            }
+        }
+        
+        List<DefaultFeature> features = (List<DefaultFeature>) loaded[0];
         prj.patches = new ArrayList<>(features);
         for(DefaultFeature f : features) {
             prj.patches.set((Integer)f.getId()-1, f);
         }
 
-        File fCSV = new File(prj.dir, "patches.csv");
-        if(fCSV.exists()) {
-            try (CSVReader r = new CSVReader(new FileReader(fCSV))) {
-                List<String> attrNames = new ArrayList<>(Arrays.asList(r.readNext()));
-                
-                String [] tab = r.readNext();
-                while(tab != null) {
-                    int id = Integer.parseInt(tab[0]);
-                    DefaultFeature f = prj.getPatch(id);
-                    List values = new ArrayList();
-                    values.add(id);
-                    for(int i = 1; i < tab.length; i++) {
-                        values.add(Double.parseDouble(tab[i]));
-                    }
-                    
-                    prj.patches.set(id-1, new DefaultFeature(f.getId(),
-                            f.getGeometry(), attrNames, values));
-                    tab = r.readNext();
+        if(loaded[1] instanceof PatchStore.Columns) {
+            PatchStore.Columns cols = (PatchStore.Columns) loaded[1];
+            prj.patchColumns = cols;
+            for(int i = 0; i < cols.ids.length; i++) {
+                int id = cols.ids[i];
+                DefaultFeature f = prj.getPatch(id);
+                List values = new ArrayList(cols.attrNames.size());
+                values.add(id);
+                for(int j = 0; j < cols.values.length; j++) {
+                    values.add(cols.getValue(j, i));
                 }
-            }
-        }
 
-        File linkFile = new File(prj.dir, LINKS_SHAPE);
-        if(linkFile.exists()) {
-            features = GlobalDataStore.getFeatures(linkFile, "Id", monitor.getSubProgress(100));
-            List<Path> paths = new ArrayList<>(features.size());
-            for(Feature f : features) {
-                paths.add(Path.loadPath(f, prj));
-            }
+                prj.patches.set(id-1, new DefaultFeature(f.getId(),
+                        f.getGeometry(), cols.attrNames, values));
+            }
+        } else if(loaded[1] != null && !((List) loaded[1]).isEmpty()) {
+            List<String[]> rows = (List<String[]>) loaded[1];
+            List<String> attrNames = new ArrayList<>(Arrays.asList(rows.get(0)));
+            for(String [] tab : rows.subList(1, rows.size())) {
+                int id = Integer.parseInt(tab[0]);
+                DefaultFeature f = prj.getPatch(id);
+                List values = new ArrayList();
+                values.add(id);
+                for(int i = 1; i < tab.length; i++) {
+                    values.add(Double.parseDouble(tab[i]));
+                }
 
-            prj.planarLinks = new PlanarLinks(paths, prj.patches.size());
-        } else if(prj.patches.size() == 1) {
-            prj.planarLinks = new PlanarLinks(1);
+                prj.patches.set(id-1, new DefaultFeature(f.getId(),
+                        f.getGeometry(), attrNames, values));
+            }
         }
 
+        // the links are not loaded concurrently, the attribute names of the paths are static
         for(Linkset linkset : prj.costLinks.values()) {
             linkset.setProject(prj);
             if(all) {
                 linkset.loadPaths(monitor.getSubProgress(100));
             }
         }
-
-        for(String name : prj.exoDatas.keySet()) {
-            prj.exoDatas.get(name).setFeatures(GlobalDataStore.getFeatures(
-                    new File(prj.dir,"Exo-" + name + ".shp"), "Id", monitor.getSubProgress(10)));
-        }
         
         prj.removedCodes = new HashMap<>();
 
@@ -1902,27 +2033,38 @@ public final class Project {
     
     /**
      * Loads an external raster.
-     * The raster is cached in soft reference to avoid multiple loading.
+     * The raster is cached in soft reference to avoid multiple loading,
+     * the cached raster is returned without locking.
      * Supported formats are : tif, asc, and rst.
      * Checks if the grid geometry matches the landscape map.
      * @param file the image file
      * @return the raster
      * @throws IOException 
      */
-    public synchronized Raster getExtRaster(File file) throws IOException {
-        Raster raster = null;
-        
-        if(extRasters == null) {
-            extRasters = new HashMap<>();
+    public Raster getExtRaster(File file) throws IOException {
+        Map<File, SoftRef<Raster>> rasters = extRasters;
+        if(rasters == null) {
+            synchronized(this) {
+                if(extRasters == null) {
+                    extRasters = new ConcurrentHashMap<>();
+                }
+                rasters = extRasters;
+            }
         }
-        if(extRasters.containsKey(file)) {
-            raster = extRasters.get(file).get();
+        SoftRef<Raster> ref = rasters.get(file);
+        Raster raster = ref != null ? ref.get() : null;
+        if(raster != null) {
+            return raster;
         }
-        
-        if(raster == null) {
-            raster = loadCoverage(file).getRenderedImage().getData();
-            raster = raster.createTranslatedChild(1, 1);
-            extRasters.put(file, new SoftRef<>(raster));
+        // the lock is taken only for loading the raster
+        synchronized(rasters) {
+            ref = rasters.get(file);
+            raster = ref != null ? ref.get() : null;
+            if(raster == null) {
+                raster = loadCoverage(file).getRenderedImage().getData();
+                raster = raster.createTranslatedChild(1, 1);
+                rasters.put(file, new SoftRef<>(raster));
+            }
         }
         
         return raster;
@@ -2335,15 +2477,21 @@ public final class Project {
                         Arrays.fill(costs, 1);
                         pathfinder = new RasterPathFinder(Project.this, getImageSource(), costs, 0);
                     } else {
-                        pathfinder = getRasterPathFinder(linkset);
+                        pathfinder = linkset.borrowPathFinder();
                     }
 
-                    for(int i = start; i < end; i++) {
-                        DefaultFeature patch = patches.get(i);
-                        double capa = pathfinder.getNeighborhood(patch, maxCost,
-                                getImageSource(), codes, weight);
-                        setCapacity(patch, capa);
-                        incProgress(1);
+                    try {
+                        for(int i = start; i < end; i++) {
+                            DefaultFeature patch = patches.get(i);
+                            double capa = pathfinder.getNeighborhood(patch, maxCost,
+                                    getImageSource(), codes, weight);
+                            setCapacity(patch, capa);
+                            incProgress(1);
+                        }
+                    } finally {
+                        if(linkset != null && linkset.getType_dist() != Linkset.EUCLID) {
+                            linkset.releasePathFinder(pathfinder);
+                        }
                     }
                 } catch (Exception ex) {
                     cancelTask();
@@ -2507,6 +2655,34 @@ public final class Project {
         }
     }
 
+    /**
+     * Aggregation of the points of a pointset on the patches, used by {@link #addPointset }.
+     * Each thread aggregates its points in its own instance, the instances are summed at the end.
+     */
+    private static final class PointAgreg {
+        /** sum of each attribute weighted by the distance, by patch index */
+        private final double [][] sums;
+        /** number of points reaching each patch */
+        private final int [] nbPoints;
+        /** number of points without path */
+        private int nErr;
+
+        private PointAgreg(int nbPatch, int nbAttr) {
+            sums = new double[nbPatch][nbAttr];
+            nbPoints = new int[nbPatch];
+        }
+
+        private void add(PointAgreg part) {
+            for(int i = 0; i < nbPoints.length; i++) {
+                nbPoints[i] += part.nbPoints[i];
+                for(int k = 0; k < sums[i].length; k++) {
+                    sums[i][k] += part.sums[i][k];
+                }
+            }
+            nErr += part.nErr;
+        }
+    }
+
     /**
      * A reference to an object of type T
      * @param <T> 
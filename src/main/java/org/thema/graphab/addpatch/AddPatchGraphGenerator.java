@@ -105,6 +105,7 @@ public class AddPatchGraphGenerator extends GraphGenerator {
         
         components = null;
         compFeatures = null;
+        compactGraph = null;
     }
     
     /**
@@ -122,6 +123,7 @@ public class AddPatchGraphGenerator extends GraphGenerator {
         
         components = null;
         compFeatures = null;
+        compactGraph = null;
         addedElem = null;
     }
    
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.addpatch;
+
+import com.vividsolutions.jts.geom.Geometry;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import org.thema.common.ProgressBar;
+import org.thema.data.feature.DefaultFeature;
+import org.thema.data.feature.Feature;
+import org.thema.graphab.Project;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
+import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.graph.HopPathFinder;
+import org.thema.graphab.links.Linkset;
+import org.thema.graphab.links.Path;
+import org.thema.graphab.metric.PreCalcMetric;
+import org.thema.graphab.metric.global.GlobalMetric;
+import org.thema.graphab.metric.global.IICMetric;
+import org.thema.graphab.metric.global.PCMetric;
+import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
+
+/**
+ * Incremental calculation of PC and IIC metrics when adding one patch to a graph.<br/>
+ * The distances between all pairs of nodes of the initial graph (cost distances for PC, number of links for IIC)
+ * are calculated once.
+ * For a new patch v, only its links are calculated, the distance from v to a node j is the minimum over the links (v, l)
+ * of c(v, l) + d(l, j) and the distance between two nodes i and j becomes min(d(i, j), d(i, v) + d(v, j)).
+ * Only the pairs of nodes reachable from v are updated, the shortest paths of the graph are not recalculated.<br/>
+ * The result is the same than {@link AddPatchTask#addPatchSoft(Geometry, GlobalMetric, GraphGenerator, double)},
+ * except the summation order.
+ * The cache does not modify the project and can be used by several threads.
+ *
+ * @author Gilles Vuidel
+ */
+final class AddPatchPathCache {
+
+    /** Part of the memory that the distance matrix can use */
+    private static final int MEMORY_RATIO = 4;
+
+    private final GraphGenerator gen;
+    private final GlobalMetric refMetric;
+    private final int nbNode;
+    private final double [] capacities;
+    private final HashMap<Object, Integer> nodeIndices;
+    /** distances between all pairs of nodes, row by row, infinity if the nodes are not connected */
+    private final double [] dist;
+    /** metric sum of the initial graph before the division by the area */
+    private final double initSum;
+
+    /**
+     * Creates the cache and calculates the distances between all nodes of the graph.
+     * The calculation is parallelized.
+     * @param gen the initial graph
+     * @param metric the metric, {@link PCMetric} or {@link IICMetric}
+     * @param monitor the progress monitor
+     * @throws CancellationException if the calculation is cancelled
+     */
+    AddPatchPathCache(final GraphGenerator gen, GlobalMetric metric, ProgressBar monitor) {
+        this.gen = gen;
+        this.refMetric = metric;
+        final CompactGraph graph = gen.getCompactGraph();
+        nbNode = graph.getNbNodes();
+        capacities = new double[nbNode];
+        nodeIndices = new HashMap<>();
+        for(int i = 0; i < nbNode; i++) {
+            capacities[i] = graph.getCapacity(i);
+            nodeIndices.put(((Feature)graph.getNode(i).getObject()).getId(), i);
+        }
+        dist = new double[nbNode*nbNode];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+
+        final double [] parts = new double[nbNode];
+        AbstractParallelTask task = new AbstractParallelTask<Void, Void>(monitor) {
+            @Override
+            public Void execute(int start, int end) {
+                for(int i = start; i < end; i++) {
+                    if(isCanceled()) {
+                        throw new CancellationException();
+                    }
+                    final int row = i*nbNode;
+                    if(isIIC()) {
+                        HopPathFinder finder = gen.getHopPathFinder(graph.getNode(i));
+                        for(int k = 0; k < finder.getNbComputedNodes(); k++) {
+                            final int node = finder.getComputedNode(k);
+                            dist[row + node] = finder.getNbEdges(node);
+                        }
+                    } else {
+                        CompactPathFinder finder = gen.getCompactPathFinder(graph.getNode(i), Double.NaN);
+                        for(int k = 0; k < finder.getNbComputedNodes(); k++) {
+                            final int node = finder.getComputedNode(k);
+                            dist[row + node] = finder.getCost(node);
+                        }
+                    }
+                    double sum = 0;
+                    for(int j = 0; j < nbNode; j++) {
+                        if(dist[row + j] != Double.POSITIVE_INFINITY) {
+                            sum += calcPairValue(capacities[i], capacities[j], dist[row + j]);
+                        }
+                    }
+                    parts[i] = sum;
+                    incProgress(1);
+                }
+                return null;
+            }
+
+            @Override
+            public int getSplitRange() {
+                return nbNode;
+            }
+
+            @Override
+            public void gather(Void results) {
+            }
+
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+        ExecutorService.execute(task);
+        if(task.isCanceled()) {
+            throw new CancellationException();
+        }
+
+        double sum = 0;
+        for(double part : parts) {
+            sum += part;
+        }
+        initSum = sum;
+    }
+
+    /**
+     * Checks if the incremental calculation can be used for this metric on this graph.
+     * The metric must be PC or IIC, the graph must not use intrapatch distances, the execution must not be in MPI mode
+     * and the distance matrix must fit in a part of the memory.
+     * @param gen the graph
+     * @param metric the metric
+     * @return true if the cache can be used
+     */
+    static boolean isSupported(GraphGenerator gen, GlobalMetric metric) {
+        if(metric.getClass() != PCMetric.class && metric.getClass() != IICMetric.class) {
+            return false;
+        }
+        if(gen.isIntraPatchDist() || gen.getLinkset().getTopology() == Linkset.PLANAR || ExecutorService.isMPIExecutor()) {
+            return false;
+        }
+        long size = (long)gen.getNodes().size() * gen.getNodes().size();
+        return size <= Integer.MAX_VALUE && 8 * size < Runtime.getRuntime().maxMemory() / MEMORY_RATIO;
+    }
+
+    /**
+     * @return the graph of the cache
+     */
+    GraphGenerator getGraph() {
+        return gen;
+    }
+
+    /**
+     * Calculates the metric after adding a patch to the graph.
+     * The project is not modified : soft method.
+     * @param geom the geometry of the patch
+     * @param capa the capacity of the patch
+     * @return the value of the metric after adding the patch to the graph or NaN if the patch cannot be added or if capacity <= 0
+     * @throws IOException
+     */
+    double addPatchSoft(Geometry geom, double capa) throws IOException {
+        Project project = gen.getProject();
+        if(!project.canCreatePatch(geom)) {
+            return Double.NaN;
+        }
+        if(capa <= 0) {
+            return Double.NaN;
+        }
+
+        // distances from the new patch
+        final double [] distNew = new double[nbNode];
+        Arrays.fill(distNew, Double.POSITIVE_INFINITY);
+        DefaultFeature patch = project.createPatch(geom, capa);
+        HashMap<DefaultFeature, Path> newLinks = gen.getLinkset().calcNewLinks(patch);
+        for(DefaultFeature d : newLinks.keySet()) {
+            Path path = new Path(patch, d, newLinks.get(d).getCost(), newLinks.get(d).getDist());
+            final double cost = gen.getCost(path);
+            if(gen.getType() == GraphGenerator.THRESHOLD && cost > gen.getThreshold()) {
+                continue;
+            }
+            Integer l = nodeIndices.get(d.getId());
+            if(l == null) {
+                throw new IllegalStateException("Graph does not contain the patch node : " + d.getId());
+            }
+            final double c = isIIC() ? 1 : cost;
+            final int row = l*nbNode;
+            for(int j = 0; j < nbNode; j++) {
+                final double dj = c + dist[row + j];
+                if(dj < distNew[j]) {
+                    distNew[j] = dj;
+                }
+            }
+        }
+
+        int nb = 0;
+        final int [] reached = new int[nbNode];
+        for(int j = 0; j < nbNode; j++) {
+            if(distNew[j] != Double.POSITIVE_INFINITY) {
+                reached[nb++] = j;
+            }
+        }
+
+        // pairs with the new patch, including itself
+        double sum = calcPairValue(capa, capa, 0);
+        for(int a = 0; a < nb; a++) {
+            final int j = reached[a];
+            sum += 2 * calcPairValue(capa, capacities[j], distNew[j]);
+        }
+        // pairs of existing nodes whose shortest path crosses the new patch
+        for(int a = 0; a < nb; a++) {
+            final int i = reached[a];
+            final int row = i*nbNode;
+            for(int b = a+1; b < nb; b++) {
+                final int j = reached[b];
+                final double d = distNew[i] + distNew[j];
+                final double dij = dist[row + j];
+                if(d < dij) {
+                    double delta = calcPairValue(capacities[i], capacities[j], d);
+                    if(dij != Double.POSITIVE_INFINITY) {
+                        delta -= calcPairValue(capacities[i], capacities[j], dij);
+                    }
+                    sum += 2 * delta;
+                }
+            }
+        }
+
+        GlobalMetric metric = (GlobalMetric) refMetric.dupplicate();
+        ((PreCalcMetric)metric).startCalc(gen);
+        ((PreCalcMetric)metric).mergePart(initSum + sum);
+        ((PreCalcMetric)metric).endCalc(gen);
+        return metric.calcMetric(gen)[0];
+    }
+
+    private boolean isIIC() {
+        return refMetric instanceof IICMetric;
+    }
+
+    private double calcPairValue(double capa1, double capa2, double d) {
+        return isIIC() ? ((IICMetric)refMetric).calcPairValue(capa1, capa2, d)
+                : ((PCMetric)refMetric).calcPairValue(capa1, capa2, d);
+    }
+}
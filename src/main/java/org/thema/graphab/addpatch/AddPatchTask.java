@@ -30,6 +30,7 @@ import java.util.List;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.thema.common.ProgressBar;
 import org.thema.common.collection.TreeMapList;
+import org.thema.common.swing.TaskMonitor;
 import org.thema.data.feature.DefaultFeature;
 import org.thema.graphab.Project;
 import org.thema.graphab.graph.GraphGenerator;
@@ -41,6 +42,7 @@ import org.thema.parallel.AbstractParallelTask;
 /**
  * Parallel task testing the adding of one patch at a time (from a set of patches) on a graph and calculates a metric for each.
  * Works in threaded and MPI environment.
+ * For PC and IIC metrics in threaded environment, the metric is calculated incrementally with {@link AddPatchPathCache}.
  * @author Gilles Vuidel
  */
 public class AddPatchTask extends AbstractParallelTask<TreeMapList<Double, Geometry>, TreeMapList<Double, Geometry>> 
@@ -56,6 +58,7 @@ public class AddPatchTask extends AbstractParallelTask<TreeMapList<Double, Geome
     private String graphName;
     
     private transient GraphGenerator gen;
+    private transient AddPatchPathCache cache;
     private transient TreeMapList<Double, Geometry> result;
 
     /**
@@ -78,11 +81,20 @@ public class AddPatchTask extends AbstractParallelTask<TreeMapList<Double, Geome
         this.graphName = gen.getName();
         this.testGeoms = testGeoms;
         geoms = new ArrayList<>(testGeoms.keySet());
+        
+        if(AddPatchPathCache.isSupported(gen, metric)) {
+            cache = new AddPatchPathCache(new GraphGenerator(gen, ""), metric, new TaskMonitor.EmptyMonitor());
+        }
     }
 
     @Override
     public void init() {
         super.init();
+        if(cache != null) {
+            // threaded only, the patch has already been added
+            gen = cache.getGraph();
+            return;
+        }
         // useful for mpi only cause gen is transient
         if(gen == null) {
             gen = MpiLauncher.getProject().getGraph(graphName);
@@ -107,7 +119,8 @@ public class AddPatchTask extends AbstractParallelTask<TreeMapList<Double, Geome
         TreeMapList<Double, Geometry> results = new TreeMapList<>();
         for(Geometry geom : geoms.subList(start, end)) {
             try {
-                double indVal = addPatchSoft(geom, metric, gen, testGeoms.get(geom));
+                double indVal = cache != null ? cache.addPatchSoft(geom, testGeoms.get(geom)) 
+                        : addPatchSoft(geom, metric, gen, testGeoms.get(geom));
                 if(!Double.isNaN(indVal)) {
                     results.putValue(indVal, geom);
                 }
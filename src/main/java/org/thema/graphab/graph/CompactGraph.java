@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import org.geotools.graph.structure.Edge;
+import org.geotools.graph.structure.Graph;
+import org.geotools.graph.structure.Node;
+import org.thema.graphab.Project;
+import org.thema.graphab.links.Path;
+
+/**
+ * Immutable compact view of a graph for path calculation, in compressed sparse row format.<br/>
+ * Nodes and edges of the graph are numbered from 0.
+ * The pathfinding is done on vertices : without intrapatch distances, each node has one vertex with the same index,
+ * with intrapatch distances, the vertices are the nodes of the path graph (one vertex for each link end)
+ * and the intrapatch arcs connect the vertices of the same node.<br/>
+ * The arcs of vertex v are stored from offsets[v] to offsets[v+1]-1 in the arrays targets, costs and arcEdges.
+ * The neighbor nodes of each node are stored in the same format for the topological traversals ({@link HopPathFinder}).
+ *
+ * @author Gilles Vuidel
+ * @see GraphGenerator#getCompactGraph()
+ * @see CompactPathFinder
+ */
+public final class CompactGraph {
+
+    private final Node [] nodes;
+    private final Edge [] edges;
+    private final IdentityHashMap<Node, Integer> nodeIndices;
+    private final double [] capacities;
+
+    private final int [] vertexNodes;
+    private final int [] nodeVertexOffsets;
+    private final int [] nodeVertices;
+
+    private final int [] offsets;
+    private final int [] targets;
+    private final double [] costs;
+    private final int [] arcEdges;
+
+    /** adjacency of the nodes in the graph, without the vertices, for topological traversals */
+    private final int [] neighborOffsets;
+    private final int [] neighbors;
+
+    /**
+     * Creates the compact view of the graph gen.
+     * @param gen the graph
+     */
+    CompactGraph(GraphGenerator gen) {
+        Collection<Node> graphNodes = gen.getNodes();
+        Collection<Edge> graphEdges = gen.getEdges();
+        nodes = graphNodes.toArray(new Node[graphNodes.size()]);
+        edges = graphEdges.toArray(new Edge[graphEdges.size()]);
+        nodeIndices = new IdentityHashMap<>(nodes.length);
+        capacities = new double[nodes.length];
+        for(int i = 0; i < nodes.length; i++) {
+            nodeIndices.put(nodes[i], i);
+            capacities[i] = Project.getPatchCapacity(nodes[i]);
+        }
+        IdentityHashMap<Edge, Integer> edgeIndices = new IdentityHashMap<>(edges.length);
+        for(int i = 0; i < edges.length; i++) {
+            edgeIndices.put(edges[i], i);
+        }
+
+        neighborOffsets = new int[nodes.length+1];
+        for(Edge e : edges) {
+            neighborOffsets[nodeIndices.get(e.getNodeA())+1]++;
+            neighborOffsets[nodeIndices.get(e.getNodeB())+1]++;
+        }
+        for(int i = 0; i < nodes.length; i++) {
+            neighborOffsets[i+1] += neighborOffsets[i];
+        }
+        neighbors = new int[neighborOffsets[nodes.length]];
+        final int [] pos = Arrays.copyOf(neighborOffsets, nodes.length);
+        for(Edge e : edges) {
+            final int a = nodeIndices.get(e.getNodeA());
+            final int b = nodeIndices.get(e.getNodeB());
+            neighbors[pos[a]++] = b;
+            neighbors[pos[b]++] = a;
+        }
+
+        Graph pathGraph = gen.getPathGraph();
+        Node [] vertices = nodes;
+        IdentityHashMap<Node, Integer> vertexIndices = nodeIndices;
+        if(gen.isIntraPatchDist()) {
+            vertices = ((Collection<Node>)pathGraph.getNodes()).toArray(new Node[0]);
+            vertexIndices = new IdentityHashMap<>(vertices.length);
+            vertexNodes = new int[vertices.length];
+            nodeVertexOffsets = new int[nodes.length+1];
+            for(int v = 0; v < vertices.length; v++) {
+                vertexIndices.put(vertices[v], v);
+                vertexNodes[v] = nodeIndices.get((Node)vertices[v].getObject());
+                nodeVertexOffsets[vertexNodes[v]+1]++;
+            }
+            for(int i = 0; i < nodes.length; i++) {
+                nodeVertexOffsets[i+1] += nodeVertexOffsets[i];
+            }
+            nodeVertices = new int[vertices.length];
+            for(int i = 0; i < nodes.length; i++) {
+                int k = nodeVertexOffsets[i];
+                for(Node n : gen.getPathNodes(nodes[i])) {
+                    nodeVertices[k++] = vertexIndices.get(n);
+                }
+            }
+        } else {
+            vertexNodes = null;
+            nodeVertexOffsets = null;
+            nodeVertices = null;
+        }
+
+        offsets = new int[vertices.length+1];
+        for(int v = 0; v < vertices.length; v++) {
+            offsets[v+1] = offsets[v] + vertices[v].getEdges().size();
+        }
+        final int nbArc = offsets[vertices.length];
+        targets = new int[nbArc];
+        costs = new double[nbArc];
+        arcEdges = new int[nbArc];
+        for(int v = 0; v < vertices.length; v++) {
+            int a = offsets[v];
+            for(Edge e : (List<Edge>)vertices[v].getEdges()) {
+                targets[a] = vertexIndices.get(e.getOtherNode(vertices[v]));
+                Object obj = e.getObject();
+                if(obj instanceof Path) {
+                    costs[a] = gen.getCost((Path) obj);
+                    arcEdges[a] = edgeIndices.get(e);
+                } else if(obj instanceof Edge) {
+                    costs[a] = gen.getCost((Edge) obj);
+                    arcEdges[a] = edgeIndices.get((Edge) obj);
+                } else if(gen.isIntraPatchDist()) {
+                    double[] w = (double[]) obj;
+                    costs[a] = gen.getLinkset().isCostLength() ? w[0] : w[1];
+                    arcEdges[a] = -1;
+                } else {
+                    throw new RuntimeException("Unknown object in the graph");
+                }
+                a++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNbNodes() {
+        return nodes.length;
+    }
+
+    /**
+     * @return the number of edges
+     */
+    public int getNbEdges() {
+        return edges.length;
+    }
+
+    /**
+     * @param ind the node index
+     * @return the node of the graph
+     */
+    public Node getNode(int ind) {
+        return nodes[ind];
+    }
+
+    /**
+     * @param node a node of the graph
+     * @return the index of the node
+     * @throws IllegalArgumentException if the node does not belong to the graph
+     */
+    public int getIndex(Node node) {
+        Integer ind = nodeIndices.get(node);
+        if(ind == null) {
+            throw new IllegalArgumentException("Node not found in the graph");
+        }
+        return ind;
+    }
+
+    /**
+     * @param ind the edge index
+     * @return the edge of the graph
+     */
+    public Edge getEdge(int ind) {
+        return edges[ind];
+    }
+
+    /**
+     * @param ind the node index
+     * @return the capacity of the patch
+     */
+    public double getCapacity(int ind) {
+        return capacities[ind];
+    }
+
+    /**
+     * @return the number of vertices for path calculation
+     */
+    int getNbVertices() {
+        return offsets.length-1;
+    }
+
+    /**
+     * @param v a vertex index
+     * @return the index of the node containing the vertex
+     */
+    int getVertexNode(int v) {
+        return vertexNodes == null ? v : vertexNodes[v];
+    }
+
+    /**
+     * @param node a node index
+     * @return the first index of the vertices of the node in {@link #getNodeVertex(int)}
+     */
+    int getNodeVertexStart(int node) {
+        return nodeVertexOffsets == null ? node : nodeVertexOffsets[node];
+    }
+
+    /**
+     * @param node a node index
+     * @return the last index (exclusive) of the vertices of the node in {@link #getNodeVertex(int)}
+     */
+    int getNodeVertexEnd(int node) {
+        return nodeVertexOffsets == null ? node+1 : nodeVertexOffsets[node+1];
+    }
+
+    /**
+     * @param i index between {@link #getNodeVertexStart} and {@link #getNodeVertexEnd}
+     * @return the vertex index
+     */
+    int getNodeVertex(int i) {
+        return nodeVertices == null ? i : nodeVertices[i];
+    }
+
+    /**
+     * @param v a vertex index
+     * @return the first arc index of the vertex
+     */
+    int getArcStart(int v) {
+        return offsets[v];
+    }
+
+    /**
+     * @param v a vertex index
+     * @return the last arc index (exclusive) of the vertex
+     */
+    int getArcEnd(int v) {
+        return offsets[v+1];
+    }
+
+    /**
+     * @param a an arc index
+     * @return the target vertex of the arc
+     */
+    int getArcTarget(int a) {
+        return targets[a];
+    }
+
+    /**
+     * @param a an arc index
+     * @return the cost of the arc
+     */
+    double getArcCost(int a) {
+        return costs[a];
+    }
+
+    /**
+     * @param a an arc index
+     * @return the index of the edge of the arc, -1 for intrapatch arc
+     */
+    int getArcEdge(int a) {
+        return arcEdges[a];
+    }
+
+    /**
+     * @param node a node index
+     * @return the first index of the neighbors of the node in {@link #getNeighbor(int)}
+     */
+    int getNeighborStart(int node) {
+        return neighborOffsets[node];
+    }
+
+    /**
+     * @param node a node index
+     * @return the last index (exclusive) of the neighbors of the node in {@link #getNeighbor(int)}
+     */
+    int getNeighborEnd(int node) {
+        return neighborOffsets[node+1];
+    }
+
+    /**
+     * @param i index between {@link #getNeighborStart} and {@link #getNeighborEnd}
+     * @return the index of the neighbor node, connected by one edge
+     */
+    int getNeighbor(int i) {
+        return neighbors[i];
+    }
+}
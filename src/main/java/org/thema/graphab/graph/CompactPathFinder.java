@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.graph;
+
+import java.util.Arrays;
+import org.thema.graphab.util.IndexQueue;
+
+/**
+ * Shortest paths from one node on a {@link CompactGraph}.<br/>
+ * Same results as {@link GraphPathFinder} for the cost distances, but the dijkstra works on primitive arrays
+ * and the nodes are designated by their index in the compact graph.
+ * The paths themselves are not available, only the elements of the shortest path tree.
+ * The pathfinder can also be created from the costs stored in a {@link DistanceCache}.
+ *
+ * @author Gilles Vuidel
+ * @see GraphGenerator#getCompactPathFinder(org.geotools.graph.structure.Node, double)
+ */
+public final class CompactPathFinder {
+
+    private final CompactGraph graph;
+    private final int origin;
+    private final double maxCost;
+
+    private final double [] nodeCosts;
+    private final int [] computed;
+    private int nbComputed;
+
+    private double [] vertexCosts;
+    private int [] predVertices;
+    private int [] predArcs;
+
+    private IndexQueue queue;
+
+    /**
+     * Calculates the shortest paths from origin.
+     * @param graph the compact graph
+     * @param origin the index of the origin node
+     * @param maxCost the max cost distance, NaN for no limit
+     */
+    CompactPathFinder(CompactGraph graph, int origin, double maxCost) {
+        this.graph = graph;
+        this.origin = origin;
+        this.maxCost = maxCost;
+        final int nbNode = graph.getNbNodes();
+        final int nbVertex = graph.getNbVertices();
+        nodeCosts = new double[nbNode];
+        Arrays.fill(nodeCosts, Double.NaN);
+        computed = new int[nbNode];
+        vertexCosts = new double[nbVertex];
+        Arrays.fill(vertexCosts, Double.POSITIVE_INFINITY);
+        predVertices = new int[nbVertex];
+        predArcs = new int[nbVertex];
+        Arrays.fill(predArcs, -1);
+        queue = new IndexQueue(64);
+
+        for(int i = graph.getNodeVertexStart(origin); i < graph.getNodeVertexEnd(origin); i++) {
+            int v = graph.getNodeVertex(i);
+            vertexCosts[v] = 0;
+            queue.add(v, 0);
+        }
+        calculate(Double.isNaN(maxCost) ? Double.POSITIVE_INFINITY : maxCost);
+        queue = null;
+    }
+
+    /**
+     * Creates the pathfinder from the result of a previous calculation.
+     * @param graph the compact graph
+     * @param origin the index of the origin node
+     * @param maxCost the max cost distance of the previous calculation
+     * @param nodes the indices of the connected nodes sorted by increasing cost distance
+     * @param costs the cost distances of the nodes
+     */
+    CompactPathFinder(CompactGraph graph, int origin, double maxCost, int [] nodes, double [] costs) {
+        this.graph = graph;
+        this.origin = origin;
+        this.maxCost = maxCost;
+        nodeCosts = new double[graph.getNbNodes()];
+        Arrays.fill(nodeCosts, Double.NaN);
+        computed = nodes;
+        nbComputed = nodes.length;
+        for(int i = 0; i < nodes.length; i++) {
+            nodeCosts[nodes[i]] = costs[i];
+        }
+    }
+
+    private void calculate(double maxCost) {
+        while(!queue.isEmpty()) {
+            final int v = queue.peekInd();
+            final double cost = queue.peekDist();
+            queue.poll();
+            if(cost > vertexCosts[v]) {
+                continue;
+            }
+            if(cost > maxCost) {
+                break;
+            }
+            final int node = graph.getVertexNode(v);
+            if(Double.isNaN(nodeCosts[node])) {
+                nodeCosts[node] = cost;
+                computed[nbComputed++] = node;
+            }
+            for(int a = graph.getArcStart(v); a < graph.getArcEnd(v); a++) {
+                final int w = graph.getArcTarget(a);
+                final double c = cost + graph.getArcCost(a);
+                if(c < vertexCosts[w]) {
+                    vertexCosts[w] = c;
+                    predVertices[w] = v;
+                    predArcs[w] = a;
+                    queue.add(w, c);
+                }
+            }
+        }
+        // vertices not settled are not part of the tree
+        for(int v = 0; v < vertexCosts.length; v++) {
+            if(vertexCosts[v] > maxCost) {
+                predArcs[v] = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the compact graph
+     */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the index of the origin node
+     */
+    public int getNodeOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the number of nodes connected to the origin node, including the origin
+     */
+    public int getNbComputedNodes() {
+        return nbComputed;
+    }
+
+    /**
+     * The nodes are sorted by increasing cost distance.
+     * @param i between 0 and {@link #getNbComputedNodes() } - 1
+     * @return the index of the ith node connected to the origin node
+     */
+    public int getComputedNode(int i) {
+        return computed[i];
+    }
+
+    /**
+     * Return the cost distance from the origin node to this node.
+     * @param node the index of the destination node
+     * @return the cost distance or NaN if the node is not connected to the origin node
+     */
+    public double getCost(int node) {
+        return nodeCosts[node];
+    }
+
+    /**
+     * @return the connected node indices sorted by increasing cost distance, the array may be larger than the number of nodes
+     */
+    int [] getComputedNodes() {
+        return computed;
+    }
+
+    /**
+     * Returns the elements used by the shortest path tree.
+     * The origin node and the nodes which are only reached (the leaves) are not included.
+     * With intrapatch distances, the tree may contain some nodes and edges
+     * which are on a shortest path of a link end but not of the node itself.
+     * @return the sorted indices of the crossed nodes and of the edges, edge indices are shifted by the number of nodes
+     */
+    public int [] getTree() {
+        if(predArcs == null) {
+            // created from cached costs, the tree must be recalculated
+            return new CompactPathFinder(graph, origin, maxCost).getTree();
+        }
+        final int nbNode = graph.getNbNodes();
+        boolean [] elems = new boolean[nbNode + graph.getNbEdges()];
+        int nb = 0;
+        for(int w = 0; w < predArcs.length; w++) {
+            final int a = predArcs[w];
+            if(a == -1) {
+                continue;
+            }
+            final int e = graph.getArcEdge(a);
+            if(e == -1) {
+                // intrapatch arc
+                continue;
+            }
+            if(!elems[nbNode + e]) {
+                elems[nbNode + e] = true;
+                nb++;
+            }
+            // the source of the arc is crossed if it is not the origin
+            final int node = graph.getVertexNode(predVertices[w]);
+            if(node != origin && !elems[node]) {
+                elems[node] = true;
+                nb++;
+            }
+        }
+        int [] tree = new int[nb];
+        nb = 0;
+        for(int i = 0; i < elems.length; i++) {
+            if(elems[i]) {
+                tree[nb++] = i;
+            }
+        }
+        return tree;
+    }
+}
@@ -118,6 +118,7 @@ public class DeltaAddGraphGenerator extends GraphGenerator {
         
         pathGraph = null;
         node2PathNodes = null;
+        compactGraph = null;
     }
 
     /**
@@ -145,6 +146,7 @@ public class DeltaAddGraphGenerator extends GraphGenerator {
         
         pathGraph = null;
         node2PathNodes = null;
+        compactGraph = null;
     }
 
 }
@@ -114,6 +114,7 @@ public class DeltaGraphGenerator extends GraphGenerator {
         
         pathGraph = null;
         node2PathNodes = null;        
+        compactGraph = null;
     }
 
     /**
@@ -150,6 +151,7 @@ public class DeltaGraphGenerator extends GraphGenerator {
 
         pathGraph = null;
         node2PathNodes = null;
+        compactGraph = null;
     }
     
 }
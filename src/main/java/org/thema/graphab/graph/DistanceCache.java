@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of the shortest path cost distances of a compact graph for a given max cost.<br/>
+ * For each origin node, stores the connected nodes and their cost distances (sparse row).
+ * The rows are calculated on demand with {@link CompactPathFinder} and stored while the memory limit is not reached,
+ * the next rows are calculated each time.<br/>
+ * The cost distances do not depend on the metric parameters, so the same cache can be used
+ * for several metrics or several parameter values on the same graph.
+ * This class is thread safe.
+ *
+ * @author Gilles Vuidel
+ * @see GraphGenerator#setDistanceCache(boolean)
+ */
+final class DistanceCache {
+
+    /** Part of the memory that the rows can use */
+    private static final int MEMORY_RATIO = 4;
+
+    private final CompactGraph graph;
+    private final double maxCost;
+    private final AtomicReferenceArray<Row> rows;
+    private final AtomicLong size;
+    private final long maxSize;
+
+    /**
+     * Creates an empty cache.
+     * @param graph the compact graph
+     * @param maxCost the max cost distance, NaN for no limit
+     */
+    DistanceCache(CompactGraph graph, double maxCost) {
+        this.graph = graph;
+        this.maxCost = maxCost;
+        this.rows = new AtomicReferenceArray<>(graph.getNbNodes());
+        this.size = new AtomicLong();
+        this.maxSize = Runtime.getRuntime().maxMemory() / MEMORY_RATIO;
+    }
+
+    /**
+     * @return the compact graph of this cache
+     */
+    CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Returns the pathfinder from the origin node.
+     * The pathfinder is created from the cached row if it exists,
+     * else it is calculated and its row is stored if the memory limit is not reached.
+     * @param origin the index of the origin node
+     * @return the pathfinder
+     */
+    CompactPathFinder getPathFinder(int origin) {
+        Row row = rows.get(origin);
+        if(row != null) {
+            return new CompactPathFinder(graph, origin, maxCost, row.nodes, row.costs);
+        }
+        CompactPathFinder finder = new CompactPathFinder(graph, origin, maxCost);
+        final int n = finder.getNbComputedNodes();
+        // 4 bytes for the node index and 8 bytes for the cost
+        if(size.addAndGet(12L * n) <= maxSize) {
+            int [] nodes = Arrays.copyOf(finder.getComputedNodes(), n);
+            double [] costs = new double[n];
+            for(int i = 0; i < n; i++) {
+                costs[i] = finder.getCost(nodes[i]);
+            }
+            if(!rows.compareAndSet(origin, null, new Row(nodes, costs))) {
+                // already stored by another thread
+                size.addAndGet(-12L * n);
+            }
+        } else {
+            size.addAndGet(-12L * n);
+        }
+        return finder;
+    }
+
+    /**
+     * Connected nodes of an origin node with their cost distances
+     */
+    private static final class Row {
+        private final int [] nodes;
+        private final double [] costs;
+
+        private Row(int [] nodes, double [] costs) {
+            this.nodes = nodes;
+            this.costs = costs;
+        }
+    }
+}
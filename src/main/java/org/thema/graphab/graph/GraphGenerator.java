@@ -23,7 +23,6 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,7 +37,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.ResourceBundle;
-import java.util.TreeSet;
 import org.geotools.graph.build.basic.BasicGraphBuilder;
 import org.geotools.graph.structure.Edge;
 import org.geotools.graph.structure.Graph;
@@ -83,6 +81,8 @@ public class GraphGenerator {
     protected transient Graph graph, pathGraph;
     private transient GraphGroupLayer layers;
     protected transient HashMapList<Node, Node> node2PathNodes;
+    protected transient CompactGraph compactGraph;
+    private transient HashMap<Double, DistanceCache> distanceCaches;
 
     /**
      * Creates a new graph.
@@ -189,6 +189,18 @@ public class GraphGenerator {
         return pathGraph;
     }
 
+    /**
+     * Creates, if needed, and returns the compact view of the graph used by {@link CompactPathFinder}.
+     * @return the compact graph
+     */
+    public synchronized CompactGraph getCompactGraph() {
+        if(compactGraph == null) {
+            compactGraph = new CompactGraph(this);
+        }
+
+        return compactGraph;
+    }
+
     /**
      * Returns a list of pathgraph nodes corresponding to the graph node if intraPatchDist = true,
      * returns the same node otherwise.
@@ -359,6 +371,61 @@ public class GraphGenerator {
          return new GraphPathFinder(nodeOrigin, maxCost, this);
     }
     
+    /**
+     * Creates and return a pathfinder on the compact graph from nodeOrigin and stop calculation when the cost distance exceeds maxCost.
+     * Faster than {@link #getPathFinder(org.geotools.graph.structure.Node, double) } but the paths are not available.
+     * @param nodeOrigin the starting node
+     * @param maxCost maximal cost distance, NaN for no limit
+     * @return the calculated pathfinder
+     */
+    public CompactPathFinder getCompactPathFinder(Node nodeOrigin, double maxCost) {
+        CompactGraph g = getCompactGraph();
+        DistanceCache cache = getDistanceCache(g, maxCost);
+        if(cache != null) {
+            return cache.getPathFinder(g.getIndex(nodeOrigin));
+        }
+        return new CompactPathFinder(g, g.getIndex(nodeOrigin), maxCost);
+    }
+    
+    /**
+     * Creates and return a topological pathfinder on the compact graph from nodeOrigin.
+     * The distances are the number of edges.
+     * @param nodeOrigin the starting node
+     * @return the calculated pathfinder
+     */
+    public HopPathFinder getHopPathFinder(Node nodeOrigin) {
+        CompactGraph g = getCompactGraph();
+        return new HopPathFinder(g, g.getIndex(nodeOrigin));
+    }
+    
+    /**
+     * Enables or disables the cache of the cost distances used by {@link #getCompactPathFinder }.
+     * The cache is useful when several metrics, or the same metric with several parameter values, are calculated on this graph.
+     * The cache is freed when disabled and is cleared automatically if the graph changes.
+     * @param enable true for enabling the cache, false for disabling and freeing it
+     */
+    public synchronized void setDistanceCache(boolean enable) {
+        if(enable) {
+            if(distanceCaches == null) {
+                distanceCaches = new HashMap<>();
+            }
+        } else {
+            distanceCaches = null;
+        }
+    }
+    
+    private synchronized DistanceCache getDistanceCache(CompactGraph g, double maxCost) {
+        if(distanceCaches == null) {
+            return null;
+        }
+        DistanceCache cache = distanceCaches.get(maxCost);
+        if(cache == null || cache.getGraph() != g) {
+            cache = new DistanceCache(g, maxCost);
+            distanceCaches.put(maxCost, cache);
+        }
+        return cache;
+    }
+    
     /**
      * Creates and return a pathfinder from nodeOrigin where weight are not cost distance but flows : -ln(ai*aj/A^2) + alpha*cost.
      * @param nodeOrigin the starting node
@@ -516,7 +583,7 @@ public class GraphGenerator {
                         Coordinate c1 = coords.get(i);
                         Coordinate c2 = coords.get(j);
                         Edge e = gen.buildEdge(nodes.get(c1), nodes.get(c2));
-                        double[] costs = cost.getIntraLinkCost(c1, c2);
+                        double[] costs = cost.getIntraLinkCost((Feature)node.getObject(), c1, c2);
                         if(costs == null) {
                             throw new RuntimeException("No intra patch dist for " + node.getObject());
                         }
@@ -616,35 +683,39 @@ public class GraphGenerator {
 
     /**
      * Computes the distance matrix between all patches.
-     * Save the result matrix in a text file
+     * Save the result matrix in a binary file, see {@link ODMatrixStore}.
+     * The rows are calculated in parallel.
      * @param file the file for storing the matrix
+     * @param maxCost the max cost distance, NaN for no limit. The further patches are missing in the matrix.
      * @throws IOException 
      */
-    public void calcODMatrix(File file) throws IOException {
+    public void calcODMatrix(File file, final double maxCost) throws IOException {
         ProgressBar bar = Config.getProgressBar(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("OD_matrix"), getNodes().size());
-        
-        Comparator<Node> cmpPatchId = new Comparator<Node>() {
-            @Override
-            public int compare(Node n1, Node n2) {
-                return ((Comparable)Project.getPatch(n1).getId()).compareTo(Project.getPatch(n2).getId());
-            }
-        };
-        TreeSet<Node> nodes = new TreeSet<>(cmpPatchId);
-        nodes.addAll(getNodes());
-        try(FileWriter w = new FileWriter(file)) {
-            w.write("ID");
-            for (Node n1 : nodes) {
-                w.write("\t" + Project.getPatch(n1).getId());
-            }
-            for (Node n1 : nodes) {
-                w.write("\n" + Project.getPatch(n1).getId());
-                GraphPathFinder pathfinder = getPathFinder(n1);
-                for (Node n2 : nodes) {
-                    Double c = pathfinder.getCost(n2);
-                    w.write("\t" + (c == null ? Double.NaN : c));
+        final List<Node> nodes = getNodesByPatchId();
+        final CompactGraph g = getCompactGraph();
+        // column of each node of the compact graph, -1 for intra patch nodes
+        final int [] nodeCols = new int[g.getNbNodes()];
+        Arrays.fill(nodeCols, -1);
+        for(int i = 0; i < nodes.size(); i++) {
+            nodeCols[g.getIndex(nodes.get(i))] = i;
+        }
+        try {
+            ODMatrixStore.save(file, getPatchIds(nodes), Double.NaN, new ODMatrixStore.RowCalculator() {
+                @Override
+                public int calcRow(int row, int[] cols, double[] values) {
+                    CompactPathFinder pathfinder = getCompactPathFinder(nodes.get(row), maxCost);
+                    int nb = 0;
+                    for(int i = 0; i < pathfinder.getNbComputedNodes(); i++) {
+                        final int node = pathfinder.getComputedNode(i);
+                        if(nodeCols[node] != -1) {
+                            cols[nb] = nodeCols[node];
+                            values[nb] = pathfinder.getCost(node);
+                            nb++;
+                        }
+                    }
+                    return nb;
                 }
-                bar.incProgress(1);
-            }
+            }, bar);
         } finally {
             bar.close();
         }
@@ -652,38 +723,57 @@ public class GraphGenerator {
     
     /**
      * Computes the resistance matrix between all patches using the graph as an electric circuit.
-     * Save the result matrix in a text file
+     * Save the result matrix in a binary file, see {@link ODMatrixStore}.
+     * The rows are calculated in parallel.
      * @param file the file for storing the matrix
      * @throws IOException 
      */
     public void calcODMatrixCircuit(File file) throws IOException {
         ProgressBar bar = Config.getProgressBar(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("OD_matrix_circuit"), getNodes().size());
-        Comparator<Node> cmpPatchId = new Comparator<Node>() {
+        final List<Node> nodes = getNodesByPatchId();
+        final HashMap<Node, Integer> nodeCols = new HashMap<>();
+        for(int i = 0; i < nodes.size(); i++) {
+            nodeCols.put(nodes.get(i), i);
+        }
+        final Circuit circuit = new Circuit(this);
+        try {
+            ODMatrixStore.save(file, getPatchIds(nodes), Double.POSITIVE_INFINITY, new ODMatrixStore.RowCalculator() {
+                @Override
+                public int calcRow(int row, int[] cols, double[] values) {
+                    int nb = 0;
+                    for(Map.Entry<Node, Double> entry : circuit.computeRs(nodes.get(row)).entrySet()) {
+                        cols[nb] = nodeCols.get(entry.getKey());
+                        values[nb] = entry.getValue();
+                        nb++;
+                    }
+                    return nb;
+                }
+            }, bar);
+        } finally {
+            bar.close();
+        }
+    }
+    
+    /**
+     * @return the nodes of the graph sorted by patch id
+     */
+    private List<Node> getNodesByPatchId() {
+        List<Node> nodes = new ArrayList<>(getNodes());
+        Collections.sort(nodes, new Comparator<Node>() {
             @Override
             public int compare(Node n1, Node n2) {
                 return ((Comparable)Project.getPatch(n1).getId()).compareTo(Project.getPatch(n2).getId());
             }
-        };
-        TreeSet<Node> nodes = new TreeSet<>(cmpPatchId);
-        nodes.addAll(getNodes());
-        Circuit circuit = new Circuit(this);
-        try(FileWriter w = new FileWriter(file)) {
-            w.write("ID");
-            for (Node n1 : nodes) {
-                w.write("\t" + Project.getPatch(n1).getId());
-            }
-            for (Node n1 : nodes) {
-                w.write("\n" + Project.getPatch(n1).getId());
-                for (Node n2 : nodes) {
-                    double r = circuit.computeR(n1, n2);
-                    w.write("\t" + r);
-                }
-                bar.incProgress(1);
-            }
-        } finally {
-            bar.close();
+        });
+        return nodes;
+    }
+    
+    private static int [] getPatchIds(List<Node> nodes) {
+        int [] ids = new int[nodes.size()];
+        for(int i = 0; i < ids.length; i++) {
+            ids[i] = (Integer)Project.getPatch(nodes.get(i)).getId();
         }
-        
+        return ids;
     }
     
     /**
@@ -168,11 +168,18 @@ public class GraphLayers extends GraphGroupLayer {
         menu.add(new AbstractAction(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("OD_matrix")) {
             @Override
             public void actionPerformed(ActionEvent e) {
+                String res = JOptionPane.showInputDialog(java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Max_cost_nolimit"), "");
+                if(res == null) {
+                    return;
+                }
+                final double maxCost = res.trim().isEmpty() ? Double.NaN : Double.parseDouble(res.trim());
                 new Thread(new Runnable() {
                     @Override
                     public void run() {
                         try {
-                            graph.calcODMatrix(new File(graph.getProject().getDirectory(), getName() + "-odmatrix.txt"));
+                            File file = new File(graph.getProject().getDirectory(), getName() + "-odmatrix.bin");
+                            graph.calcODMatrix(file, maxCost);
+                            ODMatrixStore.saveAsText(file, new File(graph.getProject().getDirectory(), getName() + "-odmatrix.txt"));
                         } catch (IOException ex) {
                             Logger.getLogger(GraphGenerator.class.getName()).log(Level.SEVERE, null, ex);
                             JOptionPane.showMessageDialog(null, "Error : " + ex);
@@ -189,7 +196,9 @@ public class GraphLayers extends GraphGroupLayer {
                     @Override
                     public void run() {
                         try {
-                            graph.calcODMatrixCircuit(new File(graph.getProject().getDirectory(), getName() + "-odmatrix-circuit.txt"));
+                            File file = new File(graph.getProject().getDirectory(), getName() + "-odmatrix-circuit.bin");
+                            graph.calcODMatrixCircuit(file);
+                            ODMatrixStore.saveAsText(file, new File(graph.getProject().getDirectory(), getName() + "-odmatrix-circuit.txt"));
                         } catch (IOException ex) {
                             Logger.getLogger(GraphGenerator.class.getName()).log(Level.SEVERE, null, ex);
                             JOptionPane.showMessageDialog(null, "Error : " + ex);
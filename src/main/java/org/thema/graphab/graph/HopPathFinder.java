@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.graph;
+
+import java.util.Arrays;
+
+/**
+ * Topological distances from one node on a {@link CompactGraph}.<br/>
+ * The distance between two nodes is the number of edges of the shortest path, as the dijkstra
+ * with {@link org.thema.graph.pathfinder.DijkstraPathFinder#NBEDGE_WEIGHTER} but with a breadth first search
+ * on primitive arrays : no heap and no allocation by node.
+ * The intrapatch distances are ignored.
+ *
+ * @author Gilles Vuidel
+ * @see GraphGenerator#getHopPathFinder(org.geotools.graph.structure.Node)
+ */
+public final class HopPathFinder {
+
+    private final CompactGraph graph;
+    private final int origin;
+    /** number of edges from the origin, -1 if the node is not connected */
+    private final int [] nodeHops;
+    /** nodes in the order of the search, ie. by increasing number of edges */
+    private final int [] computed;
+    private int nbComputed;
+
+    /**
+     * Calculates the number of edges from origin to all the connected nodes.
+     * @param graph the compact graph
+     * @param origin the index of the origin node
+     */
+    HopPathFinder(CompactGraph graph, int origin) {
+        this.graph = graph;
+        this.origin = origin;
+        nodeHops = new int[graph.getNbNodes()];
+        Arrays.fill(nodeHops, -1);
+        computed = new int[graph.getNbNodes()];
+
+        nodeHops[origin] = 0;
+        computed[nbComputed++] = origin;
+        // computed is the queue of the search
+        for(int i = 0; i < nbComputed; i++) {
+            final int node = computed[i];
+            final int hops = nodeHops[node] + 1;
+            for(int k = graph.getNeighborStart(node); k < graph.getNeighborEnd(node); k++) {
+                final int n = graph.getNeighbor(k);
+                if(nodeHops[n] == -1) {
+                    nodeHops[n] = hops;
+                    computed[nbComputed++] = n;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the compact graph
+     */
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the index of the origin node
+     */
+    public int getNodeOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the number of nodes connected to the origin node, including the origin
+     */
+    public int getNbComputedNodes() {
+        return nbComputed;
+    }
+
+    /**
+     * The nodes are sorted by increasing number of edges.
+     * @param i between 0 and {@link #getNbComputedNodes() } - 1
+     * @return the index of the ith node connected to the origin node
+     */
+    public int getComputedNode(int i) {
+        return computed[i];
+    }
+
+    /**
+     * @param node the index of the destination node
+     * @return the number of edges of the shortest path from the origin node, -1 if the node is not connected
+     */
+    public int getNbEdges(int node) {
+        return nodeHops[node];
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import org.thema.common.ProgressBar;
+import org.thema.common.swing.TaskMonitor;
+import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
+
+/**
+ * Binary storage of an origin - destination matrix between patches.<br/>
+ * The header contains the number of patches n, the value of the missing elements and the patch ids
+ * in the order of the rows and the columns. The rows follow by blocks of {@link #BLOCK_ROWS} rows,
+ * each block is stored in the smallest format :
+ * <ul>
+ * <li>sparse (CSR) : row offsets, column indices and values of the non missing elements</li>
+ * <li>dense : the n values of each row, missing elements included</li>
+ * </ul>
+ * The rows of a block are calculated in parallel, the block is written before calculating the next one,
+ * so only one block is kept in memory.
+ * The file is read row by row with {@link Reader}, without loading the whole matrix.
+ *
+ * @author Gilles Vuidel
+ */
+public final class ODMatrixStore {
+
+    private static final int MAGIC = 0x474F444D;
+    private static final int VERSION = 1;
+
+    private static final byte SPARSE = 0;
+    private static final byte DENSE = 1;
+
+    /** Number of rows by block */
+    public static final int BLOCK_ROWS = 256;
+
+    /**
+     * Calculates the elements of one row of the matrix.
+     * The implementation must be thread safe.
+     */
+    public interface RowCalculator {
+        /**
+         * Calculates the non missing elements of a row.
+         * @param row the row index
+         * @param cols the column indices of the elements, the array size is the number of columns
+         * @param values the values of the elements, the array size is the number of columns
+         * @return the number of non missing elements
+         */
+        int calcRow(int row, int [] cols, double [] values);
+    }
+
+    private ODMatrixStore() {
+    }
+
+    /**
+     * Calculates and saves the square matrix.
+     * @param file the file to write
+     * @param ids the patch ids of the rows and the columns
+     * @param missing the value of the missing elements, used by the dense blocks and the text export
+     * @param calc the row calculator
+     * @param bar the progress monitor, incremented by one for each row
+     * @throws IOException
+     * @throws CancellationException if the monitor is cancelled
+     */
+    public static void save(File file, int [] ids, double missing, final RowCalculator calc, ProgressBar bar) throws IOException {
+        final int n = ids.length;
+        final int [][] rowCols = new int[Math.min(BLOCK_ROWS, n)][];
+        final double [][] rowValues = new double[rowCols.length][];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeDouble(missing);
+            for(int id : ids) {
+                out.writeInt(id);
+            }
+            for(int first = 0; first < n; first += BLOCK_ROWS) {
+                if(bar.isCanceled()) {
+                    throw new CancellationException();
+                }
+                final int firstRow = first;
+                final int nbRows = Math.min(BLOCK_ROWS, n - first);
+                AbstractParallelTask task = new AbstractParallelTask<Void, Void>(new TaskMonitor.EmptyMonitor()) {
+                    @Override
+                    public Void execute(int start, int end) {
+                        final int [] cols = new int[n];
+                        final double [] values = new double[n];
+                        for(int i = start; i < end; i++) {
+                            final int nb = calc.calcRow(firstRow + i, cols, values);
+                            rowCols[i] = Arrays.copyOf(cols, nb);
+                            rowValues[i] = Arrays.copyOf(values, nb);
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public int getSplitRange() {
+                        return nbRows;
+                    }
+                    @Override
+                    public void gather(Void results) {
+                    }
+                    @Override
+                    public Void getResult() {
+                        return null;
+                    }
+                };
+                ExecutorService.execute(task);
+
+                writeBlock(out, firstRow, nbRows, n, missing, rowCols, rowValues);
+                bar.incProgress(nbRows);
+            }
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, int firstRow, int nbRows, int n, double missing,
+            int [][] rowCols, double [][] rowValues) throws IOException {
+        long nnz = 0;
+        for(int i = 0; i < nbRows; i++) {
+            nnz += rowCols[i].length;
+        }
+        out.writeInt(firstRow);
+        out.writeInt(nbRows);
+        // sparse size : offsets, columns and values
+        if(4L*(nbRows+1) + 12*nnz <= 8L*nbRows*n) {
+            out.writeByte(SPARSE);
+            int offset = 0;
+            out.writeInt(offset);
+            for(int i = 0; i < nbRows; i++) {
+                offset += rowCols[i].length;
+                out.writeInt(offset);
+            }
+            for(int i = 0; i < nbRows; i++) {
+                for(int col : rowCols[i]) {
+                    out.writeInt(col);
+                }
+            }
+            for(int i = 0; i < nbRows; i++) {
+                for(double val : rowValues[i]) {
+                    out.writeDouble(val);
+                }
+            }
+        } else {
+            out.writeByte(DENSE);
+            final double [] row = new double[n];
+            for(int i = 0; i < nbRows; i++) {
+                Arrays.fill(row, missing);
+                for(int k = 0; k < rowCols[i].length; k++) {
+                    row[rowCols[i][k]] = rowValues[i][k];
+                }
+                for(double val : row) {
+                    out.writeDouble(val);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a binary matrix in a tab separated text matrix.
+     * The first row and the first column contain the patch ids.
+     * @param binFile the binary matrix file
+     * @param txtFile the text file to write
+     * @throws IOException
+     */
+    public static void saveAsText(File binFile, File txtFile) throws IOException {
+        try (Reader r = new Reader(binFile); BufferedWriter w = new BufferedWriter(new FileWriter(txtFile), 1 << 16)) {
+            final int [] ids = r.getIds();
+            final double [] row = new double[ids.length];
+            w.write("ID");
+            for(int id : ids) {
+                w.write("\t" + id);
+            }
+            while(r.next()) {
+                r.getRow(row);
+                w.write("\n" + ids[r.getRowIndex()]);
+                for(double val : row) {
+                    w.write("\t" + val);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sequential reader of a binary matrix.
+     * Only the current block is loaded.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int [] ids;
+        private final double missing;
+
+        private int firstRow, nbRows, row;
+        private boolean dense;
+        private int [] offsets;
+        private int [] cols;
+        private double [] values;
+
+        /**
+         * Opens the file and reads the header
+         * @param file the binary matrix file
+         * @throws IOException if the file is not a binary matrix
+         */
+        public Reader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Unknown OD matrix format : " + file);
+                }
+                ids = new int[in.readInt()];
+                missing = in.readDouble();
+                for(int i = 0; i < ids.length; i++) {
+                    ids[i] = in.readInt();
+                }
+            } catch(IOException ex) {
+                in.close();
+                throw ex;
+            }
+            firstRow = 0;
+            nbRows = 0;
+            row = -1;
+        }
+
+        /**
+         * @return the patch ids of the rows and the columns
+         */
+        public int [] getIds() {
+            return ids;
+        }
+
+        /**
+         * @return the value of the missing elements
+         */
+        public double getMissingValue() {
+            return missing;
+        }
+
+        /**
+         * Moves to the next row
+         * @return false if there is no more row
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            if(row == ids.length-1) {
+                return false;
+            }
+            row++;
+            if(row == firstRow + nbRows) {
+                readBlock();
+            }
+            return true;
+        }
+
+        /**
+         * @return the index of the current row
+         */
+        public int getRowIndex() {
+            return row;
+        }
+
+        /**
+         * @return the number of elements stored for the current row, all the columns for a dense block
+         */
+        public int getNbValues() {
+            return dense ? ids.length : offsets[row-firstRow+1] - offsets[row-firstRow];
+        }
+
+        /**
+         * @param k the element index between 0 and {@link #getNbValues() } - 1
+         * @return the column index of the kth element of the current row
+         */
+        public int getColumn(int k) {
+            return dense ? k : cols[offsets[row-firstRow] + k];
+        }
+
+        /**
+         * @param k the element index between 0 and {@link #getNbValues() } - 1
+         * @return the value of the kth element of the current row
+         */
+        public double getValue(int k) {
+            return dense ? values[(row-firstRow)*ids.length + k] : values[offsets[row-firstRow] + k];
+        }
+
+        /**
+         * Fills the dense current row, the missing elements are set to {@link #getMissingValue() }
+         * @param result the array of size n
+         */
+        public void getRow(double [] result) {
+            if(dense) {
+                System.arraycopy(values, (row-firstRow)*ids.length, result, 0, ids.length);
+            } else {
+                Arrays.fill(result, missing);
+                for(int k = offsets[row-firstRow]; k < offsets[row-firstRow+1]; k++) {
+                    result[cols[k]] = values[k];
+                }
+            }
+        }
+
+        private void readBlock() throws IOException {
+            firstRow = in.readInt();
+            nbRows = in.readInt();
+            dense = in.readByte() == DENSE;
+            if(dense) {
+                values = new double[nbRows*ids.length];
+            } else {
+                offsets = new int[nbRows+1];
+                for(int i = 0; i <= nbRows; i++) {
+                    offsets[i] = in.readInt();
+                }
+                cols = new int[offsets[nbRows]];
+                for(int i = 0; i < cols.length; i++) {
+                    cols[i] = in.readInt();
+                }
+                values = new double[offsets[nbRows]];
+            }
+            for(int i = 0; i < values.length; i++) {
+                values[i] = in.readDouble();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.links;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Intra patch links of one patch : cost and length between each pair of link endpoints on the patch.<br/>
+ * The endpoints are sorted, the values of the pair (i, j) with i &lt; j are stored in the upper triangle
+ * of two primitive matrices, so the lookup is a binary search of the two endpoints.
+ * The calculation of one patch is done by one thread, the values can be read by several threads afterwards.
+ *
+ * @author Gilles Vuidel
+ */
+final class IntraLinks {
+
+    private final Coordinate [] points;
+    /** cost of each pair, NaN if not calculated */
+    private final double [] costs;
+    private final double [] lengths;
+
+    /**
+     * Creates empty intra links for the endpoints of a patch
+     * @param points the distinct endpoints of the links of the patch
+     * @throws IllegalArgumentException if there are too many endpoints
+     */
+    IntraLinks(Collection<Coordinate> points) {
+        this.points = points.toArray(new Coordinate[points.size()]);
+        Arrays.sort(this.points);
+        final long size = (long)this.points.length * (this.points.length-1) / 2;
+        if(size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many link endpoints on the patch : " + this.points.length);
+        }
+        costs = new double[(int)size];
+        lengths = new double[(int)size];
+        Arrays.fill(costs, Double.NaN);
+    }
+
+    /**
+     * Calculates the cost and the length between all pairs of endpoints.
+     * The paths are calculated from each endpoint of pointList to the next endpoints of the list,
+     * all the destinations of one origin are reached in one search.
+     * So n-1 searches are run for n endpoints : the costs between all pairs cannot come from one multi source search,
+     * which gives only the cost to the nearest endpoint.
+     * @param pathFinder the pathfinder of the linkset
+     * @param pointList the endpoints in the order of the calculation
+     */
+    void calc(SpacePathFinder pathFinder, List<Coordinate> pointList) {
+        for(int i = 0; i < pointList.size()-1; i++) {
+            Coordinate c1 = pointList.get(i);
+            List<Coordinate> dests = pointList.subList(i+1, pointList.size());
+            List<double[]> values = pathFinder.calcPaths(c1, dests);
+            for(int k = 0; k < values.size(); k++) {
+                set(c1, dests.get(k), values.get(k)[0], values.get(k)[1]);
+            }
+        }
+    }
+
+    /**
+     * Returns the cost and the length between 2 endpoints of the patch
+     * @param c1 the first endpoint
+     * @param c2 the second endpoint
+     * @return a new array with the cost and the length or null if one of the coordinates is not an endpoint
+     *          or if the pair has not been calculated
+     */
+    double[] get(Coordinate c1, Coordinate c2) {
+        final int ind = getIndex(c1, c2);
+        if(ind == -1 || Double.isNaN(costs[ind])) {
+            return null;
+        }
+        return new double[] {costs[ind], lengths[ind]};
+    }
+
+    /**
+     * Sets the cost and the length between 2 endpoints of the patch
+     * @param c1 the first endpoint
+     * @param c2 the second endpoint
+     * @param cost the cost
+     * @param length the length
+     * @throws IllegalArgumentException if one of the coordinates is not an endpoint of the patch
+     */
+    void set(Coordinate c1, Coordinate c2, double cost, double length) {
+        final int ind = getIndex(c1, c2);
+        if(ind == -1) {
+            throw new IllegalArgumentException("Unknown intra link : " + c1 + " - " + c2);
+        }
+        costs[ind] = cost;
+        lengths[ind] = length;
+    }
+
+    /**
+     * @return the number of endpoints
+     */
+    int getNbPoints() {
+        return points.length;
+    }
+
+    /**
+     * @param i the index of the endpoint in the sorted order
+     * @return the endpoint
+     */
+    Coordinate getPoint(int i) {
+        return points[i];
+    }
+
+    /**
+     * Returns the values of the endpoints i and j
+     * @param i the index of the first endpoint
+     * @param j the index of the second endpoint, j &gt; i
+     * @return the cost and the length or null if the pair has not been calculated
+     */
+    double[] get(int i, int j) {
+        final int ind = getIndex(i, j);
+        return Double.isNaN(costs[ind]) ? null : new double[] {costs[ind], lengths[ind]};
+    }
+
+    private int getIndex(Coordinate c1, Coordinate c2) {
+        final int i = Arrays.binarySearch(points, c1);
+        final int j = Arrays.binarySearch(points, c2);
+        if(i < 0 || j < 0 || i == j) {
+            return -1;
+        }
+        return i < j ? getIndex(i, j) : getIndex(j, i);
+    }
+
+    private int getIndex(int i, int j) {
+        final int n = points.length;
+        return (int)((long)i * (2*n - i - 1) / 2) + j - i - 1;
+    }
+}
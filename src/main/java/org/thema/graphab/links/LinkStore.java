@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.links;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.thema.graphab.Project;
+
+/**
+ * Binary storage of the links of a linkset.<br/>
+ * Two files are used :
+ * <ul>
+ * <li>name-links.bin : columns of fixed size for id1, id2, cost, distance and each other attribute</li>
+ * <li>name-links-geom.bin : real path geometries, offset index followed by the coordinate block</li>
+ * </ul>
+ * The attribute file is rewritten each time the attributes change, the geometry file only when the links are created.<br/>
+ * Files are read with positional channel reads into heap buffers and are closed after loading, 
+ * so they can be rewritten or deleted while the links are in use.
+ * The coordinate block is kept in memory as double arrays, 
+ * the geometry of a path is created on the first call to {@link Path#getGeometry() }.
+ *
+ * @author Gilles Vuidel
+ */
+final class LinkStore {
+
+    private static final int MAGIC_LINKS = 0x474C4E4B;
+    private static final int MAGIC_GEOMS = 0x47474D4B;
+    private static final int VERSION = 1;
+
+    /** Number of coordinates by segment of the coordinate block (1 Go) */
+    private static final int SEGMENT_SIZE = 1 << 26;
+    
+    /** Size of the buffer for reading the coordinate block */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private LinkStore() {
+    }
+
+    /**
+     * @param project the project
+     * @param name the linkset name
+     * @return the attribute file of the linkset
+     */
+    static File getLinksFile(Project project, String name) {
+        return new File(project.getDirectory(), name + "-links.bin");
+    }
+
+    /**
+     * @param project the project
+     * @param name the linkset name
+     * @return the geometry file of the linkset
+     */
+    static File getGeometryFile(Project project, String name) {
+        return new File(project.getDirectory(), name + "-links-geom.bin");
+    }
+
+    /**
+     * Saves the attributes of the paths in columnar format.
+     * The attributes other than id1, id2, cost and distance are stored as double, they must be numeric or null.
+     * @param file the file to write
+     * @param paths the paths, all with the same attribute names
+     * @throws IOException
+     * @throws IllegalArgumentException if an attribute value is not numeric, the file is not written
+     */
+    static void saveLinks(File file, List<Path> paths) throws IOException {
+        List<String> attrNames = paths.isEmpty() ? Collections.<String>emptyList() : paths.get(0).getAttributeNames();
+        final int n = paths.size();
+        for(int i = 4; i < attrNames.size(); i++) {
+            for(Path p : paths) {
+                Object val = p.getAttribute(i);
+                if(val != null && !(val instanceof Number)) {
+                    throw new IllegalArgumentException("Link attribute " + attrNames.get(i) + " must be numeric, found \""
+                            + val + "\" for the link " + p.getId());
+                }
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC_LINKS);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(attrNames.size());
+            for(String attr : attrNames) {
+                byte[] bytes = attr.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for(Path p : paths) {
+                out.writeInt((Integer)p.getPatch1().getId());
+            }
+            for(Path p : paths) {
+                out.writeInt((Integer)p.getPatch2().getId());
+            }
+            for(Path p : paths) {
+                out.writeDouble(p.getCost());
+            }
+            for(Path p : paths) {
+                out.writeDouble(p.getDist());
+            }
+            for(int i = 4; i < attrNames.size(); i++) {
+                for(Path p : paths) {
+                    Object val = p.getAttribute(i);
+                    out.writeDouble(val == null ? Double.NaN : ((Number)val).doubleValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the geometries of the paths.
+     * The geometry of each path is stored as a list of coordinates.
+     * @param file the file to write
+     * @param paths the paths
+     * @throws IOException
+     */
+    static void saveGeometries(File file, List<Path> paths) throws IOException {
+        final int n = paths.size();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC_GEOMS);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            for(Path p : paths) {
+                out.writeInt((Integer)p.getPatch1().getId());
+            }
+            for(Path p : paths) {
+                out.writeInt((Integer)p.getPatch2().getId());
+            }
+            long offset = 0;
+            out.writeLong(offset);
+            for(Path p : paths) {
+                offset += p.getGeometry().getNumPoints();
+                out.writeLong(offset);
+            }
+            for(Path p : paths) {
+                for(Coordinate c : p.getGeometry().getCoordinates()) {
+                    out.writeDouble(c.x);
+                    out.writeDouble(c.y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the paths from the attribute file.
+     * If geomFile is not null, the geometries are attached lazily to the paths,
+     * else the geometries are the straight lines between patch centroids.
+     * @param file the attribute file
+     * @param geomFile the geometry file or null
+     * @param project the project
+     * @return the paths
+     * @throws IOException
+     */
+    static List<Path> loadLinks(File file, File geomFile, Project project) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = read(channel, 0, Math.min(channel.size(), 1 << 20), file);
+            checkHeader(header, MAGIC_LINKS, file);
+            final int n = header.getInt();
+            final int nbAttr = header.getInt();
+            List<String> attrNames = new ArrayList<>(nbAttr);
+            for(int i = 0; i < nbAttr; i++) {
+                byte[] bytes = new byte[header.getInt()];
+                header.get(bytes);
+                attrNames.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            List<Path> paths = new ArrayList<>(n);
+            if(n == 0) {
+                return paths;
+            }
+            long pos = header.position();
+            int [] id1 = new int[n];
+            read(channel, pos, 4L*n, file).asIntBuffer().get(id1);
+            pos += 4L*n;
+            int [] id2 = new int[n];
+            read(channel, pos, 4L*n, file).asIntBuffer().get(id2);
+            pos += 4L*n;
+            double [][] cols = new double[nbAttr-2][n];
+            for(double [] col : cols) {
+                read(channel, pos, 8L*n, file).asDoubleBuffer().get(col);
+                pos += 8L*n;
+            }
+
+            Path.newSetOfPaths(attrNames.subList(4, nbAttr));
+            Geometries geoms = geomFile != null ? new Geometries(geomFile) : null;
+            for(int i = 0; i < n; i++) {
+                Path p = Path.createLazyPath(project.getPatch(id1[i]), project.getPatch(id2[i]), cols[0][i], cols[1][i]);
+                for(int j = 4; j < nbAttr; j++) {
+                    p.addAttribute(attrNames.get(j), cols[j-2][i]);
+                }
+                if(geoms != null) {
+                    p.setLazyGeometry(geoms, geoms.getIndex(i, id1[i], id2[i]));
+                }
+                paths.add(p);
+            }
+            return paths;
+        }
+    }
+
+    /**
+     * Reads a block of the file into a heap buffer
+     * @param channel the file channel
+     * @param pos the position of the block in the file
+     * @param size the size of the block in bytes
+     * @param file the file for error message
+     * @return the buffer containing the block, ready to be read
+     * @throws IOException if the file is truncated
+     */
+    private static ByteBuffer read(FileChannel channel, long pos, long size, File file) throws IOException {
+        if(size > Integer.MAX_VALUE) {
+            throw new IOException("Block too big : " + file);
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int)size);
+        while(buf.hasRemaining()) {
+            if(channel.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file : " + file);
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void checkHeader(ByteBuffer buf, int magic, File file) throws IOException {
+        if(buf.getInt() != magic) {
+            throw new IOException("Bad file format : " + file);
+        }
+        int version = buf.getInt();
+        if(version > VERSION) {
+            throw new IOException("Unsupported file version " + version + " : " + file);
+        }
+    }
+
+    /**
+     * Read only access to the geometries of a geometry file.
+     * The coordinate block is read in memory and the geometries are created on demand.
+     * The file is closed after reading.
+     * This class is thread safe.
+     */
+    static final class Geometries {
+        private final int [] id1, id2;
+        private final long [] offsets;
+        /** coordinate segments, x and y interleaved */
+        private final double [][] segments;
+        private volatile HashMap<Long, Integer> indices;
+
+        private Geometries(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer header = read(channel, 0, 12, file);
+                checkHeader(header, MAGIC_GEOMS, file);
+                final int n = header.getInt();
+                long pos = 12;
+                id1 = new int[n];
+                read(channel, pos, 4L*n, file).asIntBuffer().get(id1);
+                pos += 4L*n;
+                id2 = new int[n];
+                read(channel, pos, 4L*n, file).asIntBuffer().get(id2);
+                pos += 4L*n;
+                offsets = new long[n+1];
+                read(channel, pos, 8L*(n+1), file).asLongBuffer().get(offsets);
+                pos += 8L*(n+1);
+
+                final long nbCoord = offsets[n];
+                segments = new double[(int)((nbCoord + SEGMENT_SIZE - 1) / SEGMENT_SIZE)][];
+                for(int i = 0; i < segments.length; i++) {
+                    double [] seg = new double[2 * (int)Math.min(SEGMENT_SIZE, nbCoord - (long)i*SEGMENT_SIZE)];
+                    for(int off = 0; off < seg.length; off += BUFFER_SIZE / 8) {
+                        final int len = Math.min(BUFFER_SIZE / 8, seg.length - off);
+                        read(channel, pos, 8L*len, file).asDoubleBuffer().get(seg, off, len);
+                        pos += 8L*len;
+                    }
+                    segments[i] = seg;
+                }
+            }
+        }
+
+        /**
+         * Returns the index of the geometry of the link (id1, id2).
+         * The links are normally in the same order than the attribute file,
+         * else the index is retrieved from the patch ids.
+         * @param i the index of the link in the attribute file
+         * @param id1 the first patch id
+         * @param id2 the second patch id
+         * @return the index of the geometry
+         * @throws IllegalArgumentException if the link is not found
+         */
+        private int getIndex(int i, int id1, int id2) {
+            if(i < this.id1.length && this.id1[i] == id1 && this.id2[i] == id2) {
+                return i;
+            }
+            Integer ind = getIndices().get(getKey(id1, id2));
+            if(ind == null) {
+                throw new IllegalArgumentException("No geometry for the link " + id1 + "-" + id2);
+            }
+            return ind;
+        }
+
+        /**
+         * Creates the index of the links by patch ids on the first call.
+         * @return the map from the link key to the geometry index
+         */
+        private HashMap<Long, Integer> getIndices() {
+            if(indices == null) {
+                synchronized(this) {
+                    if(indices == null) {
+                        HashMap<Long, Integer> map = new HashMap<>();
+                        for(int j = 0; j < id1.length; j++) {
+                            map.put(getKey(id1[j], id2[j]), j);
+                        }
+                        indices = map;
+                    }
+                }
+            }
+            return indices;
+        }
+
+        private static long getKey(int id1, int id2) {
+            return ((long)id1 << 32) | (id2 & 0xffffffffL);
+        }
+
+        /**
+         * Creates the geometry from the coordinate block
+         * @param ind the index of the geometry
+         * @return the path geometry
+         */
+        LineString getGeometry(int ind) {
+            final long start = offsets[ind];
+            Coordinate [] coords = new Coordinate[(int)(offsets[ind+1] - start)];
+            for(int i = 0; i < coords.length; i++) {
+                final long k = start + i;
+                final double [] seg = segments[(int)(k / SEGMENT_SIZE)];
+                final int pos = (int)(k % SEGMENT_SIZE) * 2;
+                coords[i] = new Coordinate(seg[pos], seg[pos+1]);
+            }
+            return new GeometryFactory().createLineString(coords);
+        }
+    }
+}
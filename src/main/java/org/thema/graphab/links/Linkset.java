@@ -38,6 +38,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -49,9 +50,9 @@ import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.collections.keyvalue.MultiKey;
 import org.jfree.data.statistics.Regression;
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
@@ -70,6 +71,7 @@ import org.thema.data.feature.DefaultFeature;
 import org.thema.data.feature.Feature;
 import org.thema.graphab.Project;
 import org.thema.graphab.util.SpatialOp;
+import org.thema.graphab.util.WorkQueue;
 import org.thema.parallel.AbstractParallelTask;
 import org.thema.parallel.ExecutorService;
 import org.thema.parallel.ParallelTask;
@@ -116,9 +118,14 @@ public class Linkset {
 
     private boolean optimCirc;
     
+    private boolean floatPrec;
+    
     private transient Project project;
     private transient List<Path> paths;
-    private transient HashMap<MultiKey, double[]> intraLinks;
+    /** intra patch links of each patch, by patch id */
+    private transient HashMap<Object, IntraLinks> intraLinks;
+    /** released raster pathfinders, they can be reused by any thread */
+    private transient volatile ConcurrentLinkedQueue<SoftReference<RasterPathFinder>> pathFinderPool;
     
     /**
      * Creates a linkset with cost distance from landscape map codes.
@@ -267,6 +274,49 @@ public class Linkset {
         this.project = project;
     }
 
+    /**
+     * Borrows a raster pathfinder from the pool of this linkset or creates a new one if the pool is empty.
+     * The rasters are shared by all the pathfinders, the state of the calculation is confined in the pathfinder
+     * and in the buffers of the thread. The pathfinder must be used by one thread at a time
+     * and should be returned with {@link #releasePathFinder } for reuse.
+     * @return a raster pathfinder
+     * @throws IOException
+     * @throws IllegalArgumentException if the linkset is not of type COST
+     */
+    public RasterPathFinder borrowPathFinder() throws IOException {
+        SoftReference<RasterPathFinder> ref;
+        while((ref = getPathFinderPool().poll()) != null) {
+            RasterPathFinder pathFinder = ref.get();
+            if(pathFinder != null) {
+                return pathFinder;
+            }
+        }
+        return project.getRasterPathFinder(this);
+    }
+
+    /**
+     * Returns a pathfinder to the pool, it must not be used anymore by the caller.
+     * The pool keeps soft references, the pathfinders can be freed if the memory is needed.
+     * @param pathFinder a pathfinder given by {@link #borrowPathFinder() }
+     */
+    public void releasePathFinder(RasterPathFinder pathFinder) {
+        getPathFinderPool().offer(new SoftReference<>(pathFinder));
+    }
+
+    private ConcurrentLinkedQueue<SoftReference<RasterPathFinder>> getPathFinderPool() {
+        ConcurrentLinkedQueue<SoftReference<RasterPathFinder>> pool = pathFinderPool;
+        if(pool == null) {
+            // the pool is created only once, the lock is not taken afterwards
+            synchronized(this) {
+                if(pathFinderPool == null) {
+                    pathFinderPool = new ConcurrentLinkedQueue<>();
+                }
+                pool = pathFinderPool;
+            }
+        }
+        return pool;
+    }
+
     /**
      * @return the max distance for links or zero
      */
@@ -380,6 +430,24 @@ public class Linkset {
         return optimCirc;
     }
 
+    /**
+     * Cost distance option
+     * @return true if the raster pathfinders use float precision for cost distances instead of double
+     */
+    public boolean isFloatPrec() {
+        return floatPrec;
+    }
+
+    /**
+     * Sets the precision of the cost distances calculated by the raster pathfinders.
+     * Float precision halves the memory of the distance buffers,
+     * the cost distances are rounded to 7 significant digits.
+     * @param floatPrec true for float precision, false for double precision (default)
+     */
+    public void setFloatPrec(boolean floatPrec) {
+        this.floatPrec = floatPrec;
+    }
+
     /**
      * load if it's not already the case and return all paths
      * @return the paths of the linkset
@@ -397,17 +465,15 @@ public class Linkset {
     
     /**
      * Returns the cost and the length between 2 coordinates of the border of a patch.
-     * The two coordinates must correspond to the endpoint of two paths connected to the same patch.
+     * The two coordinates must correspond to the endpoint of two paths connected to the patch.
+     * @param patch the patch
      * @param c1 the first coordinate
      * @param c2 the second coordinate
-     * @return the cost and the length (may be the same for euclidean distance)
+     * @return the cost and the length (may be the same for euclidean distance) or null if the intra link does not exist
      */
-    public double[] getIntraLinkCost(Coordinate c1, Coordinate c2) {
-        if(c1.compareTo(c2) < 0) {
-            return getIntraLinks().get(new MultiKey(c1, c2));
-        } else {
-            return getIntraLinks().get(new MultiKey(c2, c1));
-        }
+    public double[] getIntraLinkCost(Feature patch, Coordinate c1, Coordinate c2) {
+        IntraLinks links = getIntraLinks().get(patch.getId());
+        return links == null ? null : links.get(c1, c2);
     }
     
     /**
@@ -420,10 +486,10 @@ public class Linkset {
         Feature patch = Path.getCommonPatch(p1, p2);
         Coordinate c1 = p1.getCoordinate(patch);
         Coordinate c2 = p2.getCoordinate(patch);
-        return getIntraLinkCost(c1, c2);
+        return getIntraLinkCost(patch, c1, c2);
     }
     
-    private synchronized HashMap<MultiKey, double[]> getIntraLinks() {
+    private synchronized HashMap<Object, IntraLinks> getIntraLinks() {
         if(!isRealPaths()) {
             throw new IllegalStateException("Intra patch links need real paths");
         }
@@ -629,9 +695,14 @@ public class Linkset {
         if(path.getCost() > maxCost) {
             return new GeometryFactory().buildGeometry(Collections.EMPTY_LIST);
         }
-        RasterPathFinder pathfinder = project.getRasterPathFinder(this);
-        Raster r1 = pathfinder.getDistRaster(path.getPatch1(), maxCost);
-        Raster r2 = pathfinder.getDistRaster(path.getPatch2(), maxCost);
+        RasterPathFinder pathfinder = borrowPathFinder();
+        Raster r1, r2;
+        try {
+            r1 = pathfinder.getDistRaster(path.getPatch1(), maxCost);
+            r2 = pathfinder.getDistRaster(path.getPatch2(), maxCost);
+        } finally {
+            releasePathFinder(pathfinder);
+        }
         final Rectangle rect = r1.getBounds().intersection(r2.getBounds());
 
         final int id1 = (Integer)path.getPatch1().getId();
@@ -652,61 +723,102 @@ public class Linkset {
     
     private void calcCostLinkset(ProgressBar progressBar) {
         final boolean allLinks = getTopology() == Linkset.COMPLETE;
+        // loaded once before the parallel loop
+        final PlanarLinks planarLinks = allLinks ? null : project.getPlanarLinks();
         
         Path.newSetOfPaths();
         long start = System.currentTimeMillis();
 
+        // in threaded mode, the patches are handed out dynamically from the largest envelope
+        final WorkQueue queue;
+        final List<Path> [] patchLinks;
+        if(ExecutorService.isMPIExecutor()) {
+            queue = null;
+            patchLinks = null;
+        } else {
+            double [] costs = new double[project.getPatches().size()];
+            for(int i = 0; i < costs.length; i++) {
+                costs[i] = project.getPatches().get(i).getGeometry().getEnvelopeInternal().getArea();
+            }
+            queue = new WorkQueue(costs);
+            patchLinks = new List[costs.length];
+        }
+        
         ParallelTask<List<Path>, List<Path>> task = new AbstractParallelTask<List<Path>, List<Path>>(progressBar) {
             private List<Path> result = new ArrayList<>();
             @Override
             public List<Path> execute(int start, int end) {
                 List<Path> links = new ArrayList<>();
                 try {
-                    RasterPathFinder pathfinder = project.getRasterPathFinder(Linkset.this);
-                    for(Feature orig : project.getPatches().subList(start, end)) {
-                        if(isCanceled()) {
-                            throw new CancellationException();
-                        }
-                        HashMap<Feature, Path> paths;
-                        if(allLinks) {
-                            paths = pathfinder.calcPaths(orig, getDistMax(), isRealPaths(), false);
-                        } else {
-                            List<Feature> dests = new ArrayList<>();
-                            for(Integer dId : project.getPlanarLinks().getNeighbors(orig)) {
-                                if(((Integer)orig.getId()) < dId) {
-                                    dests.add(project.getPatch(dId));
+                    RasterPathFinder pathfinder = borrowPathFinder();
+                    try {
+                        if(queue == null) {
+                            for(Feature orig : project.getPatches().subList(start, end)) {
+                                if(isCanceled()) {
+                                    throw new CancellationException();
                                 }
+                                links.addAll(calcLinks(pathfinder, orig));
+                                incProgress(1);
                             }
-                            if(dests.isEmpty()) {
-                                continue;
-                            }
-                            paths = pathfinder.calcPaths(orig, dests);
-                        }
-                        
-                        for(Feature d : paths.keySet()) {
-                            Path p = paths.get(d);
-                            boolean add = true;
-                            if(isRemoveCrossPatch() && isRealPaths()) {
-                                List lst = project.getPatchIndex().query(p.getGeometry().getEnvelopeInternal());
-                                for(Object o : lst) {
-                                    Feature f = (Feature) o;
-                                    if(f != orig && f != d && f.getGeometry().intersects(p.getGeometry())) {
-                                        add = false;
-                                        break;
-                                    }
+                        } else {
+                            final long t = queue.begin();
+                            int i;
+                            while((i = queue.next()) != -1) {
+                                if(isCanceled()) {
+                                    throw new CancellationException();
                                 }
+                                patchLinks[i] = calcLinks(pathfinder, project.getPatches().get(i));
+                                incProgress(1);
                             }
-                            if(add) {
-                                links.add(p);
-                            }
-                        }  
-                        incProgress(1);
+                            queue.end(t);
+                        }
+                    } finally {
+                        releasePathFinder(pathfinder);
                     }
                 } catch(IOException e) {
                     throw new RuntimeException(e);
                 }
                 return links;
             }
+            
+            private List<Path> calcLinks(RasterPathFinder pathfinder, Feature orig) throws IOException {
+                List<Path> links = new ArrayList<>();
+                HashMap<Feature, Path> paths;
+                if(allLinks) {
+                    paths = pathfinder.calcPaths(orig, getDistMax(), isRealPaths(), false);
+                } else {
+                    List<Feature> dests = new ArrayList<>();
+                    for(Integer dId : planarLinks.getNeighbors(orig)) {
+                        if(((Integer)orig.getId()) < dId) {
+                            dests.add(project.getPatch(dId));
+                        }
+                    }
+                    if(dests.isEmpty()) {
+                        return links;
+                    }
+                    paths = pathfinder.calcPaths(orig, dests);
+                }
+
+                for(Feature d : paths.keySet()) {
+                    Path p = paths.get(d);
+                    boolean add = true;
+                    if(isRemoveCrossPatch() && isRealPaths()) {
+                        List lst = project.getPatchIndex().query(p.getGeometry().getEnvelopeInternal());
+                        for(Object o : lst) {
+                            Feature f = (Feature) o;
+                            if(f != orig && f != d && f.getGeometry().intersects(p.getGeometry())) {
+                                add = false;
+                                break;
+                            }
+                        }
+                    }
+                    if(add) {
+                        links.add(p);
+                    }
+                }
+                return links;
+            }
+            
             @Override
             public int getSplitRange() {
                 return project.getPatches().size();
@@ -730,11 +842,25 @@ public class Linkset {
         
         Logger.getLogger(Linkset.class.getName()).info("Temps écoulé : " + (System.currentTimeMillis()-start));
         
-        paths = task.getResult();
+        if(queue == null) {
+            paths = task.getResult();
+        } else {
+            Logger.getLogger(Linkset.class.getName()).fine(queue.getStats());
+            // the links are kept in the order of the patches
+            List<Path> list = new ArrayList<>();
+            for(List<Path> links : patchLinks) {
+                if(links != null) {
+                    list.addAll(links);
+                }
+            }
+            paths = list;
+        }
     }
 
     private void calcEuclidLinkset(ProgressBar progressBar) {
         final boolean allLinks = getTopology() == Linkset.COMPLETE;
+        // loaded once before the parallel loop
+        final PlanarLinks planarLinks = allLinks ? null : project.getPlanarLinks();
         
         Path.newSetOfPaths();
         
@@ -767,7 +893,7 @@ public class Linkset {
                             }
                         }
                     } else {
-                        for (Integer dId : project.getPlanarLinks().getNeighbors(orig)) {
+                        for (Integer dId : planarLinks.getNeighbors(orig)) {
                             Feature d = project.getPatch(dId);
                             if (((Integer)orig.getId()) < dId) {
                                 links.add(Path.createEuclidPath(orig, d));
@@ -807,6 +933,8 @@ public class Linkset {
        
     private void calcCircuitLinkset(ProgressBar progressBar) throws IOException {
         final boolean allLinks = getTopology() == Linkset.COMPLETE;
+        // loaded once before the parallel loop
+        final PlanarLinks planarLinks = allLinks ? null : project.getPlanarLinks();
         final List<Path> links = Collections.synchronizedList(new ArrayList<Path>(project.getPatches().size() * 4));
         Path.newSetOfPaths();
         long start = System.currentTimeMillis();
@@ -828,7 +956,7 @@ public class Linkset {
                             }
                         }
                     } else {
-                        for(Integer dId : project.getPlanarLinks().getNeighbors(orig)) {
+                        for(Integer dId : planarLinks.getNeighbors(orig)) {
                             if(((Integer)orig.getId()) < dId) {
                                 DefaultFeature dest = project.getPatch(dId);
                                 long t1 = System.currentTimeMillis();
@@ -880,15 +1008,15 @@ public class Linkset {
         paths = links;
     }
 
+    /**
+     * Calculates the intra patch links of all patches.
+     * Each patch is calculated by one thread in its own {@link IntraLinks}.
+     * @param progressBar 
+     */
     private void calcIntraLinks(ProgressBar progressBar) {
-        final HashMapList<Feature, Path> mapLinks = new HashMapList<>();
-        for(Path p : paths) {
-            mapLinks.putValue(p.getPatch1(), p);
-            mapLinks.putValue(p.getPatch2(), p);
-        }
-        
-        final HashMap<MultiKey, double[]> mapIntraLinks = new HashMap<>();
-        SimpleParallelTask<Feature> task = new SimpleParallelTask<Feature>(new ArrayList<>(mapLinks.keySet()), progressBar) {
+        final HashMap<Feature, List<Coordinate>> mapPoints = getLinkEndpoints();
+        final HashMap<Object, IntraLinks> mapIntraLinks = new HashMap<>();
+        SimpleParallelTask<Feature> task = new SimpleParallelTask<Feature>(new ArrayList<>(mapPoints.keySet()), progressBar) {
             @Override
             protected void executeOne(Feature patch) {
                 SpacePathFinder pathFinder;
@@ -898,29 +1026,12 @@ public class Linkset {
                     throw new RuntimeException(ex);
                 }
 
-                List<Path> links = mapLinks.get(patch);
-                HashSet<Coordinate> pointSet = new HashSet<>();
-                for(Path link : links) {
-                    pointSet.add(link.getCoordinate(patch));
-                }
-                
-                List<Coordinate> pointList = new ArrayList<>(pointSet);
-                for(int i = 0; i < pointList.size()-1; i++) { 
-                    Coordinate c1 = pointList.get(i);
-
-                    List<Coordinate> dests = pointList.subList(i+1, pointList.size());
-                    List<double[]> values = pathFinder.calcPaths(c1, dests);
-                    for(int k = 0; k < values.size(); k++) {
-                        synchronized(mapIntraLinks) {
-                            if(c1.compareTo(dests.get(k)) < 0) {
-                                mapIntraLinks.put(new MultiKey(c1, dests.get(k)), values.get(k));
-                            } else {
-                                mapIntraLinks.put(new MultiKey(dests.get(k), c1), values.get(k));
-                            }
-                        }
-                    }
+                List<Coordinate> pointList = mapPoints.get(patch);
+                IntraLinks links = new IntraLinks(pointList);
+                links.calc(pathFinder, pointList);
+                synchronized(mapIntraLinks) {
+                    mapIntraLinks.put(patch.getId(), links);
                 }
-                
             }
         };
         
@@ -932,13 +1043,44 @@ public class Linkset {
     }
 
     /**
-     * Loads the links from the shapefile and/or csv file
+     * @return for each patch connected by at least one link, the distinct endpoints of its links
+     */
+    private HashMap<Feature, List<Coordinate>> getLinkEndpoints() {
+        HashMapList<Feature, Path> mapLinks = new HashMapList<>();
+        for(Path p : getPaths()) {
+            mapLinks.putValue(p.getPatch1(), p);
+            mapLinks.putValue(p.getPatch2(), p);
+        }
+        HashMap<Feature, List<Coordinate>> mapPoints = new HashMap<>();
+        for(Feature patch : mapLinks.keySet()) {
+            HashSet<Coordinate> pointSet = new HashSet<>();
+            for(Path link : mapLinks.get(patch)) {
+                pointSet.add(link.getCoordinate(patch));
+            }
+            mapPoints.put(patch, new ArrayList<>(pointSet));
+        }
+        return mapPoints;
+    }
+
+    /**
+     * Loads the links from the binary link files.
+     * For projects created with previous versions, loads the links from the shapefile and/or csv file
      * @param mon
      * @throws IOException 
      */
     public void loadPaths(ProgressBar mon) throws IOException {
+        File fBin = LinkStore.getLinksFile(project, name);
+        if(fBin.exists()) {
+            File fGeom = LinkStore.getGeometryFile(project, name);
+            paths = LinkStore.loadLinks(fBin, realPaths && fGeom.exists() ? fGeom : null, project);
+            if(realPaths && !fGeom.exists()) {
+                loadPathGeometries(paths, mon);
+            }
+            return;
+        }
+        
         File fCSV = new File(project.getDirectory(), name + "-links.csv");
-        HashMap<Object, Path> map = new HashMap<>();
+        List<Path> list = new ArrayList<>();
         try (CSVReader r = new CSVReader(new FileReader(fCSV))) {
             String [] attrNames = r.readNext();
             if(attrNames != null) {
@@ -946,38 +1088,61 @@ public class Linkset {
             }
             String [] tab;
             while((tab = r.readNext()) != null) {
-                Path p = Path.deserialPath(tab, project);
-                map.put(p.getId(), p);
+                list.add(Path.deserialPath(tab, project));
             }
         }
 
-        if(realPaths && !map.isEmpty()) {
-            List<DefaultFeature> features = GlobalDataStore.getFeatures(
-                    new File(project.getDirectory(), name + "-links.shp"), "Id", mon);
+        if(realPaths) {
+            loadPathGeometries(list, mon);
+        }
 
-            for(DefaultFeature f : features) {
-                map.get(f.getId()).setGeometry(f.getGeometry());
-            }
+        paths = list;
+    }
+    
+    /**
+     * Loads the real path geometries from the shapefile of the linkset
+     * @param list the paths
+     * @param mon
+     * @throws IOException 
+     */
+    private void loadPathGeometries(List<Path> list, ProgressBar mon) throws IOException {
+        if(list.isEmpty()) {
+            return;
         }
+        HashMap<Object, Path> map = new HashMap<>();
+        for(Path p : list) {
+            map.put(p.getId(), p);
+        }
+        List<DefaultFeature> features = GlobalDataStore.getFeatures(
+                new File(project.getDirectory(), name + "-links.shp"), "Id", mon);
 
-        paths = new ArrayList<>(map.values());
+        for(DefaultFeature f : features) {
+            map.get(f.getId()).setGeometry(f.getGeometry());
+        }
     }
     
     /**
-     * Saves the links into a csv file in the project directory
+     * Saves the links into a binary file in the project directory.
+     * If the linkset has real paths and the geometry file does not exist yet (project of previous version), 
+     * the geometries are saved too.
      * @throws IOException
      */
     public void saveLinks() throws IOException {
-        try (CSVWriter w = new CSVWriter(new FileWriter(new File(project.getDirectory(), name + "-links.csv")))) {
-            if(!getPaths().isEmpty()) {
-                w.writeNext(getPaths().get(0).getAttributeNames().toArray(new String[0]));
-            }
-            for(Path p : getPaths()) {
-                w.writeNext(Path.serialPath(p));
-            }
+        LinkStore.saveLinks(LinkStore.getLinksFile(project, name), getPaths());
+        if(realPaths && !LinkStore.getGeometryFile(project, name).exists()) {
+            saveGeometries();
         }
     }
     
+    /**
+     * Saves the real path geometries into a binary file in the project directory.
+     * Called by the project at linkset creation
+     * @throws IOException
+     */
+    public void saveGeometries() throws IOException {
+        LinkStore.saveGeometries(LinkStore.getGeometryFile(project, name), getPaths());
+    }
+    
     private void loadIntraLinks() throws IOException {
         File fCSV = new File(project.getDirectory(), name + "-links-intra.csv");
         // for project compatibility
@@ -985,18 +1150,32 @@ public class Linkset {
             calcIntraLinks(Config.getProgressBar("Compute intra links"));
             saveIntraLinks();
         }
+        HashMap<Object, IntraLinks> mapIntraLinks = new HashMap<>();
+        HashMap<Coordinate, IntraLinks> pointLinks = new HashMap<>();
+        HashMap<Feature, List<Coordinate>> mapPoints = getLinkEndpoints();
+        for(Feature patch : mapPoints.keySet()) {
+            IntraLinks links = new IntraLinks(mapPoints.get(patch));
+            mapIntraLinks.put(patch.getId(), links);
+            for(Coordinate c : mapPoints.get(patch)) {
+                pointLinks.put(c, links);
+            }
+        }
         try (CSVReader r = new CSVReader(new FileReader(fCSV))) {
             r.readNext();
-            intraLinks = new HashMap<>();
             String [] tab;
             while((tab = r.readNext()) != null) {
                 String[] ordinates = tab[0].split("-");
                 Coordinate c0 = new Coordinate(Double.parseDouble(ordinates[0]), Double.parseDouble(ordinates[1]));
                 ordinates = tab[1].split("-");
                 Coordinate c1 = new Coordinate(Double.parseDouble(ordinates[0]), Double.parseDouble(ordinates[1]));
-                intraLinks.put(new MultiKey(c0, c1), new double[]{Double.parseDouble(tab[2]), Double.parseDouble(tab[3])});
+                IntraLinks links = pointLinks.get(c0);
+                // ignores the intra links which do not correspond to the current links
+                if(links != null && links == pointLinks.get(c1)) {
+                    links.set(c0, c1, Double.parseDouble(tab[2]), Double.parseDouble(tab[3]));
+                }
             }
         }
+        intraLinks = mapIntraLinks;
     }
 
     /**
@@ -1008,11 +1187,18 @@ public class Linkset {
         try (CSVWriter w = new CSVWriter(new FileWriter(fCSV))) {
             w.writeNext(new String[]{"Coord1", "Coord2", "Cost", "Length"});
             
-            for(MultiKey key : intraLinks.keySet()) {
-                double [] val = intraLinks.get(key);
-                Coordinate c0 = (Coordinate) key.getKey(0);
-                Coordinate c1 = (Coordinate) key.getKey(1);
-                w.writeNext(new String[]{c0.x + "-" + c0.y, c1.x + "-" + c1.y, ""+val[0], ""+val[1]});
+            for(IntraLinks links : intraLinks.values()) {
+                for(int i = 0; i < links.getNbPoints(); i++) {
+                    for(int j = i+1; j < links.getNbPoints(); j++) {
+                        double [] val = links.get(i, j);
+                        if(val == null) {
+                            continue;
+                        }
+                        Coordinate c0 = links.getPoint(i);
+                        Coordinate c1 = links.getPoint(j);
+                        w.writeNext(new String[]{c0.x + "-" + c0.y, c1.x + "-" + c1.y, ""+val[0], ""+val[1]});
+                    }
+                }
             }
         }
     }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.links;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+
+/**
+ * Cost allocation raster : the nearest patch of each pixel of the landscape with its cost distance.<br/>
+ * It is created by {@link RasterPathFinder#calcNearestPatchRaster() } with one search from all the patches.
+ * The predecessor of each pixel is kept for calculating the length of the path only when it is needed.
+ * Once created, the raster is read only and can be used by several threads.
+ *
+ * @author Gilles Vuidel
+ */
+public final class NearestPatchRaster {
+
+    private final AffineTransformation space2grid;
+    private final double resolution;
+    private final int width;
+    /** index offset to the predecessor for each direction */
+    private final int [] indAnte;
+    /** id of the nearest patch, 0 if the pixel is not reached */
+    private final int [] ids;
+    private final double [] costs;
+    /** direction of the predecessor, -1 for the pixels of the patches */
+    private final byte [] ante;
+
+    NearestPatchRaster(AffineTransformation space2grid, double resolution, int width, int [] indAnte,
+            int [] ids, double [] costs, byte [] ante) {
+        this.space2grid = space2grid;
+        this.resolution = resolution;
+        this.width = width;
+        this.indAnte = indAnte;
+        this.ids = ids;
+        this.costs = costs;
+        this.ante = ante;
+    }
+
+    /**
+     * Returns the nearest patch of the point as {@link RasterPathFinder#calcPathNearestPatch(com.vividsolutions.jts.geom.Point) }
+     * @param c the point in world coordinate
+     * @return an array with id of nearest patch, cost and dist or null if no patch can be reached from the point
+     */
+    public double [] getNearestPatch(Coordinate c) {
+        Coordinate cp = space2grid.transform(c, new Coordinate());
+        final int ind = (int)cp.y*width + (int)cp.x;
+        if(ids[ind] == 0) {
+            return null;
+        }
+        // length of the path from the predecessors
+        int nbStraight = 0;
+        int nbDiag = 0;
+        int cur = ind;
+        while(ante[cur] != -1) {
+            if(ante[cur] < 4) {
+                nbStraight++;
+            } else {
+                nbDiag++;
+            }
+            cur += indAnte[ante[cur]];
+        }
+        return new double[] {ids[ind], costs[ind], (nbStraight + nbDiag*Math.sqrt(2)) * resolution};
+    }
+}
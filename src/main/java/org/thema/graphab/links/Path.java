@@ -47,6 +47,9 @@ public class Path extends DefaultFeature {
 
     private Feature patch1, patch2;
     private double cost;
+    
+    private transient LinkStore.Geometries geometries;
+    private transient int geomIndex;
 
     /**
      * Constructor for {@link Links} 
@@ -80,10 +83,21 @@ public class Path extends DefaultFeature {
      * @param attrNames the list of attributes name
      */
     public Path(Feature patch1, Feature patch2, double cost, double dist, List<String> attrNames) {
-        super(patch1.getId().toString() + "-" + patch2.getId().toString(),
-                patch1.getGeometry().getFactory().createLineString(new Coordinate[] {
-                    patch1.getGeometry().getCentroid().getCoordinate(),
-                    patch2.getGeometry().getCentroid().getCoordinate()}),
+        this(patch1, patch2, cost, dist, attrNames, createCentroidLine(patch1, patch2));
+    }
+    
+    /**
+     * Create a link with a given geometry.
+     * If the geometry is null, it will be created on the first call to {@link #getGeometry() }
+     * @param patch1 first patch
+     * @param patch2 second patch
+     * @param cost the cost between the two patches
+     * @param dist the distance between the two patches
+     * @param attrNames the list of attributes name
+     * @param geom the geometry or null
+     */
+    private Path(Feature patch1, Feature patch2, double cost, double dist, List<String> attrNames, Geometry geom) {
+        super(patch1.getId().toString() + "-" + patch2.getId().toString(), geom,
             attrNames, new ArrayList(Arrays.asList(patch1.getId(), patch2.getId(),
                 cost, dist)));
         this.patch1 = patch1;
@@ -132,6 +146,37 @@ public class Path extends DefaultFeature {
         super(f, false);
     }
 
+    /**
+     * Returns the geometry of the path.
+     * For paths loaded from the binary link file, the geometry is created on the first call.
+     * @return the geometry of the path
+     */
+    @Override
+    public Geometry getGeometry() {
+        Geometry geom = super.getGeometry();
+        if(geom == null) {
+            synchronized(this) {
+                geom = super.getGeometry();
+                if(geom == null) {
+                    geom = geometries != null ? geometries.getGeometry(geomIndex) : createCentroidLine(patch1, patch2);
+                    setGeometry(geom);
+                    geometries = null;
+                }
+            }
+        }
+        return geom;
+    }
+    
+    /**
+     * Attaches the real path geometry stored in a link file.
+     * @param geometries the geometries of the link file
+     * @param index the index of the geometry of this path
+     */
+    void setLazyGeometry(LinkStore.Geometries geometries, int index) {
+        this.geometries = geometries;
+        this.geomIndex = index;
+    }
+
     /**
      * @return the cost of this path
      */
@@ -242,6 +287,26 @@ public class Path extends DefaultFeature {
         return p;
     }
 
+    /**
+     * Creates a link without geometry, the geometry will be the line between the centroid of the two patches,
+     * unless a real path geometry is attached with {@link #setLazyGeometry }.
+     * This method is used for loading linkset from binary link file.
+     * @param patch1 first patch
+     * @param patch2 second patch
+     * @param cost the cost between the two patches
+     * @param dist the distance between the two patches
+     * @return the new path
+     */
+    static Path createLazyPath(Feature patch1, Feature patch2, double cost, double dist) {
+        return new Path(patch1, patch2, cost, dist, ATTR_NAMES, null);
+    }
+    
+    private static LineString createCentroidLine(Feature patch1, Feature patch2) {
+        return patch1.getGeometry().getFactory().createLineString(new Coordinate[] {
+                    patch1.getGeometry().getCentroid().getCoordinate(),
+                    patch2.getGeometry().getCentroid().getCoordinate()});
+    }
+
     /**
      * Call this method before creating a new linkset.
      */
@@ -32,23 +32,27 @@ import java.awt.image.DataBufferDouble;
 import java.awt.image.DataBufferFloat;
 import java.awt.image.Raster;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.PriorityQueue;
 import org.thema.data.feature.DefaultFeature;
 import org.thema.data.feature.Feature;
 import org.thema.graphab.Project;
-import org.thema.graphab.mpi.MpiLauncher;
+import org.thema.graphab.util.IndexQueue;
 
 /**
  * Calculates leastcost path between patches or between points.
  * This class is not thread safe.<br/>
  * Create one instance for each thread.
- * Uses dijkstra algorithm.
+ * Uses dijkstra algorithm.<br/>
+ * The distance and predecessor buffers are shared by all the pathfinders of the same thread
+ * and reused from one calculation to the next, only the part used by the previous calculation is cleared.
  * 
  * @author Gilles Vuidel
  */
@@ -70,17 +74,35 @@ public final class RasterPathFinder implements SpacePathFinder {
     private final double [] COST = new double[] {1.0, 1.0, 1.0, 1.0, 1.4142136, 1.4142136, 1.4142136, 1.4142136};
     private final int [] IND, IND_ANTE;
     private final boolean doublePrec;
+    /** minimum cost of a pixel or NaN if unknown */
+    private final double minCost;
     
-    private PriorityQueue<Node> queue;
+    private final IndexQueue queue;
+    /** distance of the last pixel returned by updateNextNodes */
+    private double currentDist;
+    
+    /** patches of the project sorted by id, for counting the destination patches */
+    private List<DefaultFeature> sortedPatches;
+    private int [] sortedIds;
 
     private int xd, yd, wd, hd;
+    private DistBuffer buffer;
     private double[] distDouble;
     private float[] distFloat;
     private byte [] ante;
 
+    /** Part of the memory that the nearest patch raster can use */
+    private static final int MEMORY_RATIO = 4;
+
+    /** Default margin in pixels of the distance buffer around the origin */
+    private static final int DEFAULT_MARGIN = 100;
+    
+    /** Buffers of the current thread for double and float precision */
+    private static final ThreadLocal<SoftReference<DistBuffer>> DOUBLE_BUFFER = new ThreadLocal<>();
+    private static final ThreadLocal<SoftReference<DistBuffer>> FLOAT_BUFFER = new ThreadLocal<>();
 
     /**
-     * Create pathfinder from landscape map 
+     * Create pathfinder from landscape map with double precision
      * @param prj the project
      * @param codeRaster 
      * @param cost
@@ -88,6 +110,19 @@ public final class RasterPathFinder implements SpacePathFinder {
      * @throws IOException 
      */
     public RasterPathFinder(Project prj, Raster codeRaster, double [] cost, double coefSlope) throws IOException {
+        this(prj, codeRaster, cost, coefSlope, false);
+    }
+    
+    /**
+     * Create pathfinder from landscape map 
+     * @param prj the project
+     * @param codeRaster 
+     * @param cost
+     * @param coefSlope 0 = ignore slope     
+     * @param floatPrec use float precision for cost distances, halves the memory of the distance buffer
+     * @throws IOException 
+     */
+    public RasterPathFinder(Project prj, Raster codeRaster, double [] cost, double coefSlope, boolean floatPrec) throws IOException {
         this.project = prj;
         this.rasterPatch = project.getRasterPatch();
         this.costRaster = codeRaster;
@@ -99,18 +134,40 @@ public final class RasterPathFinder implements SpacePathFinder {
         
         demRaster = coefSlope != 0 ? project.getDemRaster() : null;
         resolution = project.getResolution();
-        doublePrec = !MpiLauncher.IsMPIWorker();
+        doublePrec = !floatPrec;
+        queue = new IndexQueue();
+        
+        double min = Double.NaN;
+        if(cost != null) {
+            min = Double.POSITIVE_INFINITY;
+            for(int code : project.getCodes()) {
+                min = Math.min(min, cost[code]);
+            }
+        }
+        minCost = min;
     }
 
     /**
-     * Create pathfinder from external cost raster
+     * Create pathfinder from external cost raster with double precision
      * @param prj the project 
      * @param costRaster
      * @param coefSlope 0 = ignore slope
      * @throws IOException 
      */
     public RasterPathFinder(Project prj, Raster costRaster, double coefSlope) throws IOException {
-        this(prj, costRaster, null, coefSlope);
+        this(prj, costRaster, null, coefSlope, false);
+    }
+
+    /**
+     * Create pathfinder from external cost raster
+     * @param prj the project 
+     * @param costRaster
+     * @param coefSlope 0 = ignore slope
+     * @param floatPrec use float precision for cost distances
+     * @throws IOException 
+     */
+    public RasterPathFinder(Project prj, Raster costRaster, double coefSlope, boolean floatPrec) throws IOException {
+        this(prj, costRaster, null, coefSlope, floatPrec);
     }
 
     /**
@@ -128,22 +185,22 @@ public final class RasterPathFinder implements SpacePathFinder {
      * @param ry
      */
     private void initCoord(int rx, int ry) {
-        queue = new PriorityQueue<>();
+        queue.clear();
 
-        initDistBuf(rx-100, ry-100, 200, 200);
+        initDistBuf(rx-DEFAULT_MARGIN, ry-DEFAULT_MARGIN, 2*DEFAULT_MARGIN, 2*DEFAULT_MARGIN);
         final int w = rasterPatch.getWidth();
         // starting node
-        Node node = new Node(ry*w+rx, 0);
-        queue.add(node);
+        queue.add(ry*w+rx, 0);
         setDist(ry*w+rx, 0);
     }
     
     /**
      * Initialize pathfinder from geom
      * @param geom must be polygonal
+     * @param maxCost max cost distance, 0 for no max
      * @throws IllegalArgumentException if geom is not polygonal
      */
-    private void initGeom(Geometry geom) {    
+    private void initGeom(Geometry geom, double maxCost) {    
         if(!(geom instanceof Polygonal)) {
             throw new IllegalArgumentException("Geometry must be polygonal");
         }
@@ -151,21 +208,19 @@ public final class RasterPathFinder implements SpacePathFinder {
         GeometryFactory geomFactory = geom.getFactory();
         Geometry geomGrid = project.getSpace2grid().transform(geom);
         Envelope env = geomGrid.getEnvelopeInternal();
-        queue = new PriorityQueue<>();
+        queue.clear();
+        final int margin = getMargin(maxCost);
+        initDistBuf((int)env.getMinX()-margin, (int)env.getMinY()-margin, (int)env.getWidth()+2*margin, (int)env.getHeight()+2*margin);
+
+        // initialisation des distances à zéro pour l'ensemble de la géométrie
         for(double y = (int)env.getMinY() + 0.5; y <= Math.ceil(env.getMaxY()); y++) {
             for(double x = (int)env.getMinX() + 0.5; x <= Math.ceil(env.getMaxX()); x++) {
                 if(geomGrid.contains(geomFactory.createPoint(new Coordinate(x, y)))) {
-                    queue.add(new Node((int)y*w+(int)x, 0));
+                    queue.add((int)y*w+(int)x, 0);
+                    setDist((int)y*w+(int)x, 0);
                 }
             }
         }
-
-        initDistBuf((int)env.getMinX()-100, (int)env.getMinY()-100, (int)env.getWidth()+200, (int)env.getHeight()+200);
-
-        // initialisation des distances à zéro pour l'ensemble de la géométrie
-        for(Node n : queue) {
-            setDist(n.ind, 0);
-        }
     }
 
     /**
@@ -175,8 +230,9 @@ public final class RasterPathFinder implements SpacePathFinder {
      * Without this param, the cost is always the same but the length of the path vary slightly with previous versions and breaks the tests
      * @param oPatch 
      * @param initAll init all pixels of the patch to 0 or just border pixels
+     * @param maxCost max cost distance, 0 for no max
      */
-    private void initPatch(Feature oPatch, boolean initAll) {
+    private void initPatch(Feature oPatch, boolean initAll, double maxCost) {
 
         final int w = rasterPatch.getWidth();
         final int [] tab = new int[9];
@@ -188,10 +244,11 @@ public final class RasterPathFinder implements SpacePathFinder {
         gEnv.apply(project.getSpace2grid());
         env = gEnv.getEnvelopeInternal();
 
-        initDistBuf((int)env.getMinX()-100, (int)env.getMinY()-100, (int)env.getWidth()+200, (int)env.getHeight()+200);
+        final int margin = getMargin(maxCost);
+        initDistBuf((int)env.getMinX()-margin, (int)env.getMinY()-margin, (int)env.getWidth()+2*margin, (int)env.getHeight()+2*margin);
         
         //  ajout dans la queue des pixels de bord
-        queue = new PriorityQueue<>();
+        queue.clear();
         for(int i = (int)env.getMinY(); i <= env.getMaxY(); i++) {
             for (int j = (int)env.getMinX(); j <= env.getMaxX(); j++) {
                 if (rasterPatch.getSample(j, i, 0) == id) {
@@ -203,7 +260,7 @@ public final class RasterPathFinder implements SpacePathFinder {
                         }
                     }
                     if(border) {
-                        queue.add(new Node(i*w+j, 0));
+                        queue.add(i*w+j, 0);
                     }       
                     if(border || initAll) {
                         setDist(j, i, 0);
@@ -215,34 +272,64 @@ public final class RasterPathFinder implements SpacePathFinder {
     
     /**
      * Calcule les distances cout à partir du point p vers tous les 
-     * destinations dests
+     * destinations dests.<br/>
+     * The distance buffer is initialized on the envelope of p and the destinations, 
+     * the search stops as soon as all destinations are reached.
      * @param p start point
      * @param dests destination points
      * @return les couts et longueurs des chemins de p vers les destinations
      */
     @Override
     public List<double[]> calcPaths(Coordinate p, List<Coordinate> dests) {
-        initCoord(p);
         final int w = rasterPatch.getWidth();
-        HashSet<Integer> indDests = new HashSet<>();
-        for(Coordinate dest : dests) {
-            Coordinate cp = project.getSpace2grid().transform(dest, new Coordinate());
-            int rx = (int)cp.x;
-            int ry = (int)cp.y;
-            indDests.add(ry*w+rx);
+        Coordinate cp = project.getSpace2grid().transform(p, new Coordinate());
+        final int rx = (int)cp.x;
+        final int ry = (int)cp.y;
+        int minX = rx, maxX = rx, minY = ry, maxY = ry;
+        final int [] indDests = new int[dests.size()];
+        for(int i = 0; i < indDests.length; i++) {
+            project.getSpace2grid().transform(dests.get(i), cp);
+            final int x = (int)cp.x;
+            final int y = (int)cp.y;
+            indDests[i] = y*w+x;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
         }
-
-        while(!queue.isEmpty() && !indDests.isEmpty()) {
-            Node n = updateNextNodes(queue, false);
-            indDests.remove(n.ind);
+        
+        queue.clear();
+        initDistBuf(minX-DEFAULT_MARGIN, minY-DEFAULT_MARGIN, maxX-minX+2*DEFAULT_MARGIN, maxY-minY+2*DEFAULT_MARGIN);
+        queue.add(ry*w+rx, 0);
+        setDist(ry*w+rx, 0);
+        
+        final int [] sortDests = Arrays.copyOf(indDests, indDests.length);
+        Arrays.sort(sortDests);
+        final boolean [] reached = new boolean[sortDests.length];
+        int nbRemain = sortDests.length;
+        for(int i = 1; i < sortDests.length; i++) {
+            if(sortDests[i] == sortDests[i-1]) {
+                nbRemain--;
+            }
+        }
+        while(!queue.isEmpty() && nbRemain > 0) {
+            final int ind = Arrays.binarySearch(sortDests, updateNextNodes(false));
+            if(ind >= 0 && !reached[ind]) {
+                // marks all the duplicates of this destination
+                int i = ind;
+                while(i > 0 && sortDests[i-1] == sortDests[ind]) {
+                    i--;
+                }
+                for(; i < sortDests.length && sortDests[i] == sortDests[ind]; i++) {
+                    reached[i] = true;
+                }
+                nbRemain--;
+            }
         }
 
         List<double[]> distances = new ArrayList<>(dests.size());
-        for(Coordinate dest : dests) {
-            Coordinate cp = project.getSpace2grid().transform(dest, new Coordinate());
-            int rx = (int)cp.x;
-            int ry = (int)cp.y;
-            distances.add(new double[]{(double)getDist(ry*w+rx), getPath(ry*w+rx).getLength()});
+        for(int ind : indDests) {
+            distances.add(new double[]{(double)getDist(ind), getPath(ind).getLength()});
         }
         return distances;
     }
@@ -257,25 +344,25 @@ public final class RasterPathFinder implements SpacePathFinder {
         if(geom instanceof Point) {
             initCoord(((Point)geom).getCoordinate());
         } else {
-            initGeom(geom);
+            initGeom(geom, maxCost);
         }
         
         DefaultFeature geomPatch = new DefaultFeature(geom.getCentroid().getCoordinate().toString(), geom);
         HashMap<DefaultFeature, Path> paths = new HashMap<>();
         while(!queue.isEmpty()) {
-            Node current = updateNextNodes(queue, true);
-            if(maxCost > 0 && current.dist > maxCost) {
+            int current = updateNextNodes(true);
+            if(maxCost > 0 && currentDist > maxCost) {
                 break;
             }
-            int curId = rasterPatch.getSample(getX(current.ind), getY(current.ind), 0);
+            int curId = rasterPatch.getSample(getX(current), getY(current), 0);
             if(curId > 0) {
                 DefaultFeature dest = project.getPatch(curId);
                 if(!paths.keySet().contains(dest)) {
-                    LineString line = getPath(current.ind);
+                    LineString line = getPath(current);
                     if(realPath) {
-                        paths.put(dest, new Path(geomPatch, dest, current.dist, line));
+                        paths.put(dest, new Path(geomPatch, dest, currentDist, line));
                     } else {
-                        paths.put(dest, new Path(geomPatch, dest, current.dist, line.getLength()));
+                        paths.put(dest, new Path(geomPatch, dest, currentDist, line.getLength()));
                     }
                 }
             }
@@ -284,39 +371,79 @@ public final class RasterPathFinder implements SpacePathFinder {
         return paths;
     }
 
+    /**
+     * {@inheritDoc }
+     * The search stops as soon as all the destination patches are reached, 
+     * so the last patches (by id) are fast to compute when all == false.
+     */
     @Override
     public HashMap<Feature, Path> calcPaths(Feature oPatch, double maxCost, boolean realPath, boolean all) {
-
-        initPatch(oPatch, false);
         
         final int id = (Integer)oPatch.getId();
-
+        final int nbDest = getNbDestPatch(oPatch, all);
+        
         HashMap<Feature, Path> distances = new HashMap<>();
-        while(!queue.isEmpty()) {
-            Node current = updateNextNodes(queue, false);
-            if(maxCost > 0 && current.dist > maxCost) {
+        if(nbDest == 0) {
+            return distances;
+        }
+        
+        initPatch(oPatch, false, maxCost);
+        
+        while(!queue.isEmpty() && distances.size() < nbDest) {
+            int current = updateNextNodes(false);
+            if(maxCost > 0 && currentDist > maxCost) {
                 break;
             }
-            int curId = rasterPatch.getSample(getX(current.ind), getY(current.ind), 0);
+            int curId = rasterPatch.getSample(getX(current), getY(current), 0);
             if(curId > 0 && curId != id && (all || curId > id)) {
                 Feature dest = project.getPatch(curId);
                 if(distances.keySet().contains(dest)) {
                     continue;
                 }
 
-                LineString line = getPath(current.ind);
-                distances.put(dest, realPath ? new Path(dest, oPatch, current.dist, line) :
-                    new Path(dest, oPatch, current.dist, line.getLength()));
+                LineString line = getPath(current);
+                distances.put(dest, realPath ? new Path(dest, oPatch, currentDist, line) :
+                    new Path(dest, oPatch, currentDist, line.getLength()));
             }
         }
 
         return distances;
     }
 
+    /**
+     * Returns the number of patches which can be reached from oPatch.
+     * The patches of the project are sorted by id once, and again only if the number of patches changes,
+     * the ids are not supposed to be contiguous.
+     * @param oPatch the origin patch
+     * @param all all patches or only patches with greater id
+     * @return the number of destination patches or Integer.MAX_VALUE if oPatch is not a patch of the project
+     */
+    private int getNbDestPatch(Feature oPatch, boolean all) {
+        List<DefaultFeature> patches = project.getPatches();
+        if(sortedIds == null || sortedIds.length != patches.size()) {
+            sortedPatches = new ArrayList<>(patches);
+            Collections.sort(sortedPatches, new Comparator<DefaultFeature>() {
+                @Override
+                public int compare(DefaultFeature f1, DefaultFeature f2) {
+                    return Integer.compare((Integer)f1.getId(), (Integer)f2.getId());
+                }
+            });
+            sortedIds = new int[sortedPatches.size()];
+            for(int i = 0; i < sortedIds.length; i++) {
+                sortedIds[i] = (Integer)sortedPatches.get(i).getId();
+            }
+        }
+        final int ind = Arrays.binarySearch(sortedIds, (Integer)oPatch.getId());
+        if(ind < 0 || sortedPatches.get(ind) != oPatch) {
+            return Integer.MAX_VALUE;
+        }
+        return all ? sortedIds.length - 1 : sortedIds.length - 1 - ind;
+    }
+
     @Override
     public HashMap<Feature, Path> calcPaths(Feature oPatch, Collection<Feature> dPatch) {
 
-        initPatch(oPatch, false);
+        initPatch(oPatch, false, 0);
         
         HashMap<Integer, Feature> destId = new HashMap<>();
         for(Feature f : dPatch) {
@@ -325,13 +452,13 @@ public final class RasterPathFinder implements SpacePathFinder {
 
         HashMap<Feature, Path> distances = new HashMap<>();
         while(!queue.isEmpty() && !destId.isEmpty()) {
-            Node current = updateNextNodes(queue, false);
+            int current = updateNextNodes(false);
 
-            int curId = rasterPatch.getSample(getX(current.ind), getY(current.ind), 0);
+            int curId = rasterPatch.getSample(getX(current), getY(current), 0);
             if(curId > 0 && destId.keySet().contains(curId)) {
                 Feature dest = destId.remove(curId);
-                LineString line = getPath(current.ind);
-                distances.put(dest, new Path(dest, oPatch, current.dist, line));
+                LineString line = getPath(current);
+                distances.put(dest, new Path(dest, oPatch, currentDist, line));
             }
         }
 
@@ -359,12 +486,12 @@ public final class RasterPathFinder implements SpacePathFinder {
         initCoord(rx, ry);
 
         while(!queue.isEmpty()) {
-            Node current = updateNextNodes(queue, false);
+            int current = updateNextNodes(false);
 
-            int curId = rasterPatch.getSample(getX(current.ind), getY(current.ind), 0);
+            int curId = rasterPatch.getSample(getX(current), getY(current), 0);
             if(curId > 0) {
-                double len = getPath(current.ind).getLength();
-                return new double[] {curId, current.dist, len};
+                double len = getPath(current).getLength();
+                return new double[] {curId, currentDist, len};
             }
             
         }
@@ -373,6 +500,64 @@ public final class RasterPathFinder implements SpacePathFinder {
 
     }
 
+    /**
+     * Calculates the nearest patch of each pixel of the landscape, with one search from the border of all the patches.<br/>
+     * The id of the nearest patch is propagated from the predecessor of each pixel.
+     * The cost is symmetric, so the result of each pixel is the same than {@link #calcPathNearestPatch(int, int) }
+     * except when several paths have the same cost.
+     * During the calculation, the distance buffer of the thread covers the whole landscape.
+     * @return the allocation raster or null if it does not fit in memory
+     */
+    public NearestPatchRaster calcNearestPatchRaster() {
+        final int w = rasterPatch.getWidth();
+        final int h = rasterPatch.getHeight();
+        // distance buffer, copy of the costs, predecessors and ids
+        if((doublePrec ? 9L : 5L) * w * h + 13L * w * h > Runtime.getRuntime().maxMemory() / MEMORY_RATIO) {
+            return null;
+        }
+        queue.clear();
+        initDistBuf(0, 0, w, h);
+        final int [] ids = new int[w*h];
+        int [] prev = new int[w];
+        int [] row = rasterPatch.getSamples(0, 0, w, 1, 0, new int[w]);
+        int [] next = rasterPatch.getSamples(0, 1, w, 1, 0, new int[w]);
+        // the border of the raster is nodata, the patches are inside
+        for(int y = 1; y < h-1; y++) {
+            final int [] tmp = prev;
+            prev = row;
+            row = next;
+            next = rasterPatch.getSamples(0, y+1, w, 1, 0, tmp);
+            for(int x = 1; x < w-1; x++) {
+                final int id = row[x];
+                if(id <= 0) {
+                    continue;
+                }
+                final int ind = y*w+x;
+                ids[ind] = id;
+                setDist(ind, 0);
+                // only the border pixels of the patch are queued
+                if(prev[x-1] != id || prev[x] != id || prev[x+1] != id || row[x-1] != id || row[x+1] != id 
+                        || next[x-1] != id || next[x] != id || next[x+1] != id) {
+                    queue.add(ind, 0);
+                }
+            }
+        }
+
+        while(!queue.isEmpty()) {
+            final int current = updateNextNodes(false);
+            final byte a = getAnte(current);
+            if(a != -1) {
+                ids[current] = ids[current + IND_ANTE[a]];
+            }
+        }
+
+        final double [] costs = new double[w*h];
+        for(int i = 0; i < costs.length; i++) {
+            costs[i] = doublePrec ? distDouble[i] : distFloat[i];
+        }
+        return new NearestPatchRaster(project.getSpace2grid(), resolution, w, IND_ANTE, ids, costs, Arrays.copyOf(ante, w*h));
+    }
+
     /**
      * Calcule la surface en pixel autour du patch oPatch jusqu'à une distance maxCost
      * pour les codes du raster contenus dans codes
@@ -384,21 +569,21 @@ public final class RasterPathFinder implements SpacePathFinder {
      */
     public double getNeighborhood(Feature oPatch, double maxCost, Raster rasterCode, HashSet<Integer> codes, boolean costWeighted) {
 
-        initPatch(oPatch, true);
+        initPatch(oPatch, true, maxCost);
 
         double neighborhood = 0;
         double alpha = -Math.log(0.05) / maxCost;
         HashSet<Integer> counts = new HashSet<>();
 
         while(!queue.isEmpty()) {
-            Node current = updateNextNodes(queue, false);
-            if(current.dist > maxCost) {
+            int current = updateNextNodes(false);
+            if(currentDist > maxCost) {
                 break;
             }
-            int code = rasterCode.getSample(getX(current.ind), getY(current.ind), 0);
-            if(current.dist > 0 && codes.contains(code) && !counts.contains(current.ind)) {
-                neighborhood += costWeighted ? Math.exp(-alpha*current.dist) : 1;
-                counts.add(current.ind);
+            int code = rasterCode.getSample(getX(current), getY(current), 0);
+            if(currentDist > 0 && codes.contains(code) && !counts.contains(current)) {
+                neighborhood += costWeighted ? Math.exp(-alpha*currentDist) : 1;
+                counts.add(current);
             }
         }
 
@@ -407,27 +592,29 @@ public final class RasterPathFinder implements SpacePathFinder {
     
     /**
      * Return a raster of cost distances from oPatch.<br/>
-     * The raster may be smaller than landscape raster if maxCost > 0
+     * The raster may be smaller than landscape raster if maxCost > 0.
+     * The raster is a copy of the distance buffer, it is not modified by the next calculations.
      * @param oPatch patch origin
      * @param maxCost max cost distance, if 0 : no max
      * @return 
      */
     public Raster getDistRaster(Feature oPatch, double maxCost) {
         
-        initPatch(oPatch, true);
+        initPatch(oPatch, true, maxCost);
 
         while(!queue.isEmpty()) {
-            Node current = updateNextNodes(queue, false);
-            if(maxCost > 0 && current.dist > maxCost) {
+            updateNextNodes(false);
+            if(maxCost > 0 && currentDist > maxCost) {
                 break;
             }
         }
+        // the buffer is shared by the pathfinders of the thread
         if(doublePrec) {
             return Raster.createRaster(new BandedSampleModel(DataBuffer.TYPE_DOUBLE, wd, hd, 1), 
-                new DataBufferDouble(distDouble, distDouble.length), new java.awt.Point(xd, yd));
+                new DataBufferDouble(Arrays.copyOf(distDouble, wd*hd), wd*hd), new java.awt.Point(xd, yd));
         } else {
             return Raster.createRaster(new BandedSampleModel(DataBuffer.TYPE_DOUBLE, wd, hd, 1), 
-                new DataBufferFloat(distFloat, distFloat.length), new java.awt.Point(xd, yd));
+                new DataBufferFloat(Arrays.copyOf(distFloat, wd*hd), wd*hd), new java.awt.Point(xd, yd));
         }
     }
 
@@ -468,35 +655,38 @@ public final class RasterPathFinder implements SpacePathFinder {
     }
 
     /**
-     * 
-     * @param queue current queue
+     * Polls the nearest pixel of the queue, ignoring obsolete entries, and updates its neighbours.
+     * The distance of the returned pixel is stored in currentDist.
      * @param startFromPatch true for using patch cost defined by cost array for the first pixel (used for patch addition)
-     * @return 
+     * @return the index of the current pixel
      */
-    private Node updateNextNodes(PriorityQueue<Node> queue, boolean startFromPatch) {
-        Node current = queue.poll();
-        while(!queue.isEmpty() && current.dist > getDist(current.ind)) {
-            current = queue.poll();
+    private int updateNextNodes(boolean startFromPatch) {
+        int current = queue.peekInd();
+        currentDist = queue.peekDist();
+        queue.poll();
+        while(!queue.isEmpty() && currentDist > getDist(current)) {
+            current = queue.peekInd();
+            currentDist = queue.peekDist();
+            queue.poll();
         }
         
-        final int x = current.ind % rasterPatch.getWidth();
-        final int y = current.ind / rasterPatch.getWidth();
+        final int x = current % rasterPatch.getWidth();
+        final int y = current / rasterPatch.getWidth();
         double currentCost = getCost(x, y);
-        if(startFromPatch && cost != null && current.dist == 0) {
+        if(startFromPatch && cost != null && currentDist == 0) {
             currentCost = cost[project.getPatchCodes().iterator().next()];
         }
             
         for(int i = 0; i < CON; i++) {
             if(isInside(x + X[i], y + Y[i])) {
                 final double c = getCost(x+X[i], y+Y[i]);
-                final double newCost = current.dist + 
+                final double newCost = currentDist + 
                         (COST[i] * (currentCost + c) / 2) * (1 + (coefSlope != 0 ? getSlope(x, y, i)*coefSlope : 0));
-                final int ind = current.ind + IND[i];
+                final int ind = current + IND[i];
                 if(newCost < getDist(ind)) {
-                    Node newNode = new Node(ind, newCost);
                     setDist(ind, newCost);
                     setAnte(ind, (byte)i);
-                    queue.add(newNode);
+                    queue.add(ind, newCost);
                 }
             }
         }
@@ -526,6 +716,25 @@ public final class RasterPathFinder implements SpacePathFinder {
         return ind / rasterPatch.getWidth();
     }
 
+    /**
+     * Returns the margin of the distance buffer around the origin.
+     * When the max cost and the minimum pixel cost are known, the pixels reached are inside the margin
+     * maxCost / minCost and the buffer is smaller than the default one.
+     * @param maxCost max cost distance, 0 for no max
+     * @return the margin in pixels
+     */
+    private int getMargin(double maxCost) {
+        if(maxCost > 0 && minCost > 0) {
+            return (int) Math.min(DEFAULT_MARGIN, Math.ceil(maxCost / minCost) + 2);
+        } else {
+            return DEFAULT_MARGIN;
+        }
+    }
+    
+    /**
+     * Initializes the distance buffer with the window (x, y, w, h) clipped to the raster.
+     * The buffer of the thread is reused, only its part used by the previous calculation is cleared.
+     */
     private void initDistBuf(int x, int y, int w, int h) {
         if(x < 0) {
             x = 0;
@@ -540,16 +749,11 @@ public final class RasterPathFinder implements SpacePathFinder {
             h = rasterPatch.getHeight() - y;
         }
         
-        ante = new byte[w*h];
-        Arrays.fill(ante, (byte)-1);
-        
-        if(doublePrec) {
-            distDouble = new double[w*h];
-            Arrays.fill(distDouble, Double.MAX_VALUE);
-        } else {
-            distFloat = new float[w*h];
-            Arrays.fill(distFloat, Float.MAX_VALUE);
-        }
+        buffer = getThreadBuffer(doublePrec);
+        buffer.clear(w*h);
+        distDouble = buffer.distDouble;
+        distFloat = buffer.distFloat;
+        ante = buffer.ante;
         
         xd = x; yd = y;
         wd = w; hd = h;
@@ -614,6 +818,10 @@ public final class RasterPathFinder implements SpacePathFinder {
         }
     }
 
+    /**
+     * Enlarges the window of the distance buffer by 40%.
+     * The buffer is grown only if its capacity is not sufficient, the window is moved in place.
+     */
     private void resizeDistBuf() {
         int w = (int)(wd*1.4+1);
         int h = (int)(hd*1.4+1);
@@ -632,70 +840,119 @@ public final class RasterPathFinder implements SpacePathFinder {
             h = rasterPatch.getHeight() - y;
         }
 
-        if(doublePrec) {
-            double[] buf = new double[w*h];
-            Arrays.fill(buf, Double.MAX_VALUE);
-            for(int i = 0; i < hd; i++) {
-                for (int j = 0; j < wd; j++) {
-                    buf[(i+ yd-y)*w+j+(xd-x)] = distDouble[i*wd+j];
-                }
-            }
-            distDouble = buf;
-        } else {
-            float[] buf = new float[w*h];
-            Arrays.fill(buf, Float.MAX_VALUE);
-            for(int i = 0; i < hd; i++) {
-                for (int j = 0; j < wd; j++) {
-                    buf[(i+ yd-y)*w+j+(xd-x)] = distFloat[i*wd+j];
-                }
+        buffer.grow(w*h);
+        distDouble = buffer.distDouble;
+        distFloat = buffer.distFloat;
+        ante = buffer.ante;
+        
+        // the new index of each pixel is greater than the old one, the rows are moved from the last one
+        final int dx = xd - x;
+        final int dy = yd - y;
+        for(int i = hd-1; i >= 0; i--) {
+            if(doublePrec) {
+                System.arraycopy(distDouble, i*wd, distDouble, (i+dy)*w+dx, wd);
+            } else {
+                System.arraycopy(distFloat, i*wd, distFloat, (i+dy)*w+dx, wd);
             }
-            distFloat = buf;
+            System.arraycopy(ante, i*wd, ante, (i+dy)*w+dx, wd);
         }
-        
-        byte [] bufAnte = new byte[w*h];
-        Arrays.fill(bufAnte, (byte)-1);
-        for(int i = 0; i < hd; i++) {
-            for (int j = 0; j < wd; j++) {
-                bufAnte[(i+ yd-y)*w+j+(xd-x)] = ante[i*wd+j];
+        for(int i = 0; i < h; i++) {
+            if(i < dy || i >= dy+hd) {
+                buffer.fill(i*w, (i+1)*w);
+            } else {
+                buffer.fill(i*w, i*w+dx);
+                buffer.fill(i*w+dx+wd, (i+1)*w);
             }
         }
 
         xd = x; yd = y;
         wd = w; hd = h;
-        ante = bufAnte;
     }
 
     /**
-     * Node representing a pixel for the PriorityQueue
+     * Returns the distance buffer of the current thread for the given precision.
+     * The buffer is softly referenced so it can be reclaimed when the memory is low.
+     * @param doublePrec double or float precision
+     * @return the buffer of the thread
      */
-    private static class Node implements Comparable<Node>{
-        private int ind;
-        private double dist;
-
-        public Node(int ind, double dist) {
-            this.ind = ind;
-            this.dist = dist;
+    private static DistBuffer getThreadBuffer(boolean doublePrec) {
+        ThreadLocal<SoftReference<DistBuffer>> local = doublePrec ? DOUBLE_BUFFER : FLOAT_BUFFER;
+        SoftReference<DistBuffer> ref = local.get();
+        DistBuffer buf = ref != null ? ref.get() : null;
+        if(buf == null) {
+            buf = new DistBuffer(doublePrec);
+            local.set(new SoftReference<>(buf));
+        }
+        return buf;
+    }
+    
+    /**
+     * Distance and predecessor buffers reused between calculations.
+     * The elements after dirty have never been modified since their initialization.
+     */
+    private static final class DistBuffer {
+        private final boolean doublePrec;
+        private double[] distDouble;
+        private float[] distFloat;
+        private byte [] ante = new byte[0];
+        private int dirty;
+
+        private DistBuffer(boolean doublePrec) {
+            this.doublePrec = doublePrec;
+            if(doublePrec) {
+                distDouble = new double[0];
+            } else {
+                distFloat = new float[0];
+            }
         }
-
-        @Override
-        public final int compareTo(Node o) {
-            return dist == o.dist ? 0 : dist < o.dist ? -1 : 1;
+        
+        /**
+         * Prepares the n first elements for a new calculation
+         * @param n the size of the window
+         */
+        private void clear(int n) {
+            if(n > ante.length) {
+                allocate(n, 0);
+            } else {
+                fill(0, Math.min(dirty, n));
+            }
+            dirty = Math.max(dirty, n);
         }
-
-        @Override
-        public final boolean equals(Object obj) {
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
+        
+        /**
+         * Ensures that the buffer contains at least n elements, keeping the current elements
+         * @param n the size of the window
+         */
+        private void grow(int n) {
+            if(n > ante.length) {
+                allocate(Math.max(n, (int)Math.min(Integer.MAX_VALUE, ante.length*3L/2)), ante.length);
             }
-            
-            return this.ind == ((Node)obj).ind;
+            dirty = Math.max(dirty, n);
         }
-
-        @Override
-        public final int hashCode() {
-            int hash = 7;
-            hash = 43 * hash + this.ind;
-            return hash;
+        
+        /**
+         * Reallocates the buffer with n elements, the keep first elements are copied
+         */
+        private void allocate(int n, int keep) {
+            if(doublePrec) {
+                distDouble = keep > 0 ? Arrays.copyOf(distDouble, n) : new double[n];
+            } else {
+                distFloat = keep > 0 ? Arrays.copyOf(distFloat, n) : new float[n];
+            }
+            ante = keep > 0 ? Arrays.copyOf(ante, n) : new byte[n];
+            fill(keep, n);
+        }
+        
+        private void fill(int from, int to) {
+            if(from >= to) {
+                return;
+            }
+            if(doublePrec) {
+                Arrays.fill(distDouble, from, to, Double.MAX_VALUE);
+            } else {
+                Arrays.fill(distFloat, from, to, Float.MAX_VALUE);
+            }
+            Arrays.fill(ante, from, to, (byte)-1);
         }
 
     }
@@ -28,8 +28,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import no.uib.cipr.matrix.DenseLU;
-import no.uib.cipr.matrix.DenseMatrix;
 import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.sparse.CG;
 import no.uib.cipr.matrix.sparse.CompRowMatrix;
@@ -43,37 +41,61 @@ import org.geotools.graph.structure.Node;
 import org.thema.data.feature.Feature;
 import org.thema.graphab.Project;
 import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.util.SparseCholesky;
 
 /**
  * Calculates electric circuit on graph.
+ * The components up to maxDirectSize nodes are solved by a sparse Cholesky factorization
+ * of the laplacian with one grounded node, the factorization is done once by component
+ * and is reused for all solvings and for the resistances from one node to all the others ({@link #computeRs(Node)}).
+ * The bigger components are solved with a preconditioned conjugate gradient.
  * 
  * @author Gilles Vuidel
  */
 public class Circuit {
-    private GraphGenerator graph;
-    
     /**
-     * for testing native LU decomposition on dense matrix
-     * needs native lib of netlib
+     * Default max number of nodes of a component for using the direct solver
      */
-    private static final boolean dense = false;
+    public static final int DEFAULT_MAX_DIRECT_SIZE = 20000;
+    
+    /** Number of right hand sides solved together by the conjugate gradient in {@link #computeRs(Node)} */
+    private static final int BLOCK_SIZE = 16;
+    /** Relative tolerance of the conjugate gradient in {@link #computeRs(Node)} */
+    private static final double RTOL = 1e-6;
+    /** Max number of iterations of the conjugate gradient in {@link #computeRs(Node)} */
+    private static final int MAX_ITER = 100000;
+    
+    private GraphGenerator graph;
+    private int maxDirectSize;
 
     private HashMap<Node, Integer> indNodes;
     private HashMap<Node, Graph> compNodes;
     
     private HashMap<Graph, CompRowMatrix> compMatrix;
     private HashMap<Graph, Preconditioner> compPrecond;
-    private HashMap<Graph, DenseLU> compLU;
+    private HashMap<Graph, SparseCholesky> compChol;
+    private HashMap<Graph, double[]> compInvDiag;
     
     /**
-     * Creates a new Circuit with graph
+     * Creates a new Circuit with graph.
+     * The components up to {@link #DEFAULT_MAX_DIRECT_SIZE} nodes are solved with the direct solver.
      * @param graph the graph representing the electric circuit
      */
     public Circuit(GraphGenerator graph) {
+        this(graph, DEFAULT_MAX_DIRECT_SIZE);
+    }
+    
+    /**
+     * Creates a new Circuit with graph
+     * @param graph the graph representing the electric circuit
+     * @param maxDirectSize max number of nodes of a component for using the direct solver, 0 for using always the iterative solver
+     */
+    public Circuit(GraphGenerator graph, int maxDirectSize) {
         if(graph.getType() == GraphGenerator.MST) {
             throw new IllegalArgumentException("No circuit in MST graph");
         }
         this.graph = graph;
+        this.maxDirectSize = maxDirectSize;
         
         init();
     }
@@ -85,10 +107,8 @@ public class Circuit {
         indNodes = new HashMap<>();
         compNodes = new HashMap<>();
         compMatrix = new HashMap<>();
-
-        if(dense) {
-            compLU = new HashMap<>();
-        }
+        compChol = new HashMap<>();
+        compInvDiag = new HashMap<>();
         compPrecond = new HashMap<>();
         
         
@@ -146,15 +166,16 @@ public class Circuit {
             
             compMatrix.put(comp, A);
             
-            if(dense) {
-                DenseLU LU = DenseLU.factorize(new DenseMatrix(A));
-                if(!LU.isSingular()) {
-                    compLU.put(comp, LU);
+            if(nbNodes <= maxDirectSize) {
+                // the last node is grounded, the potentials are defined up to a constant
+                SparseCholesky chol = SparseCholesky.factorize(A, nbNodes-1);
+                if(chol != null) {
+                    compChol.put(comp, chol);
                 } else {
-                    System.out.println("Singular matrix for component size " + nbNodes);
+                    Logger.getLogger(Circuit.class.getName()).log(Level.INFO, "Not enough memory for direct solver on component size {0}", nbNodes);
                 }
             }
-            if(!dense || !compLU.containsKey(comp)){
+            if(!compChol.containsKey(comp)) {
                 Preconditioner M = new DiagonalPreconditioner(nbNodes);
                 M.setMatrix(A);
                 compPrecond.put(comp, M);
@@ -261,8 +282,8 @@ public class Circuit {
         Z.set(ind2, -courant);
         
         DenseVector U;
-        if(dense && compLU.containsKey(comp)) {
-            U = new DenseVector(solveDense(compLU.get(comp), Z).getData());
+        if(compChol.containsKey(comp)) {
+            U = new DenseVector(compChol.get(comp).solve(Z.getData()), false);
         } else {
             U = solve(compMatrix.get(comp), compPrecond.get(comp), Z);
         }
@@ -271,55 +292,192 @@ public class Circuit {
     }
     
     /**
-     * NE PAS UTILISER RESULTAT TROP APPROXIMATIF
-     * Calcule les résistances entre 1 noeud du graphe et tous les autres.
-     * Calcul beaucoup plus rapide que {@link #computeR()} mais très approximatif...
-     * @param n1 noeud recevant tout le courant
-     * @return la résistance entre chaque noeud et n1
+     * Calcule les résistances entre 1 noeud du graphe et tous les noeuds de sa composante.
+     * Si la composante est résolue par factorisation, les résistances sont issues de la diagonale 
+     * de l'inverse G de la matrice (calculée une seule fois par composante) et d'une seule résolution :
+     * R(n1, n2) = G(n1,n1) + G(n2,n2) - 2.G(n1,n2).
+     * Sinon, n1 est relié à la masse et les résistances sont la diagonale de l'inverse de la matrice,
+     * calculée par un seul système à plusieurs seconds membres (cf. {@link #solveGroundedDiagonal(Graph, int) }).
+     * @param n1 noeud origine
+     * @return la résistance entre n1 et chaque noeud de sa composante, n1 compris (résistance nulle)
      */
     public Map<Node, Double> computeRs(Node n1) {
-        DenseVector U = solveCircuit(n1, 0);
-        if(U == null) {
-            return Collections.EMPTY_MAP;
-        }
-
         HashMap<Node, Double> mapR = new HashMap<>();
         mapR.put(n1, 0.0);
+        Graph comp = compNodes.get(n1);
+        // si c'est un noeud isolé
+        if(comp == null) {
+            return mapR;
+        }
+        SparseCholesky chol = compChol.get(comp);
+        if(chol == null) {
+            double [] R = solveGroundedDiagonal(comp, indNodes.get(n1));
+            for(Node n2 : (Collection<Node>)comp.getNodes()) {
+                if(n2 != n1) {
+                    mapR.put(n2, R[indNodes.get(n2)]);
+                }
+            }
+            return mapR;
+        }
         
-        for(Node n2 : (Collection<Node>)compNodes.get(n1).getNodes()) {
-            if(mapR.containsKey(n2)) {
-                continue;
+        double [] diag = getInverseDiagonal(comp);
+        int ind1 = indNodes.get(n1);
+        double [] Z = new double[chol.getSize()];
+        Z[ind1] = 1;
+        double [] G = chol.solve(Z);
+        for(Node n2 : (Collection<Node>)comp.getNodes()) {
+            if(n2 != n1) {
+                int ind2 = indNodes.get(n2);
+                mapR.put(n2, Math.abs(diag[ind1] + diag[ind2] - 2*G[ind2]));
             }
-            calcR(n2, U, mapR);
         }
 
         return mapR;
     }     
     
     /**
-     * Recursive method called used by computeRs
-     * @param n1
-     * @param U
-     * @param mapR
-     * @return 
+     * Calculates the diagonal of the inverse of the matrix of the component grounded at node ground,
+     * ie. the resistance between ground and each node of the component.
+     * The system A.X = I, without the row and the column of ground, is solved by preconditioned conjugate gradients 
+     * running together on blocks of {@link #BLOCK_SIZE} columns, for sharing the sparse matrix products.
+     * @param comp a component solved by the iterative solver
+     * @param ground the index of the grounded node in the component
+     * @return the diagonal of the inverse, 0 for ground
      */
-    private double calcR(Node n1, DenseVector U, HashMap<Node, Double> mapR) {
-        if(mapR.containsKey(n1)) {
-            return mapR.get(n1);
+    private double [] solveGroundedDiagonal(Graph comp, int ground) {
+        CompRowMatrix A = compMatrix.get(comp);
+        final int n = A.numRows();
+        final int [] rowPtr = A.getRowPointers();
+        final int [] colInd = A.getColumnIndices();
+        final double [] data = A.getData();
+        double [] invDiag = new double[n];
+        for(int i = 0; i < n; i++) {
+            invDiag[i] = 1 / A.get(i, i);
         }
-        int ind1 = indNodes.get(n1);
-        double r = 0;
-        List<Edge> edges = n1.getEdges();
-        for(Edge edge : edges) {
-            Node n2 = edge.getOtherNode(n1);
-            int ind2 = indNodes.get(n2);
-            if(U.get(ind1) - U.get(ind2) > 0)  {// si le courant part vers cet edge
-                r += 1 / (calcR(n2, U, mapR) + graph.getCost(edge));
+        
+        double [] diag = new double[n];
+        final int k = BLOCK_SIZE;
+        double [] x = new double[n*k];
+        double [] r = new double[n*k];
+        double [] p = new double[n*k];
+        double [] q = new double[n*k];
+        double [] rz = new double[k];
+        double [] tmp = new double[k];
+        boolean [] done = new boolean[k];
+        for(int start = 0; start < n; start += k) {
+            Arrays.fill(x, 0);
+            Arrays.fill(r, 0);
+            Arrays.fill(p, 0);
+            int nbActive = 0;
+            // column c is the unit current injected in node start+c, the starting solution is 0
+            for(int c = 0; c < k; c++) {
+                int node = start + c;
+                done[c] = node >= n || node == ground;
+                rz[c] = 0;
+                if(!done[c]) {
+                    r[node*k+c] = 1;
+                    p[node*k+c] = invDiag[node];
+                    rz[c] = invDiag[node];
+                    nbActive++;
+                }
+            }
+            int iter = 0;
+            while(nbActive > 0) {
+                if(++iter > MAX_ITER) {
+                    throw new RuntimeException("Conjugate gradient does not converge for node " + ground);
+                }
+                // q = A.p, the grounded row stays null
+                for(int i = 0; i < n; i++) {
+                    final int row = i*k;
+                    Arrays.fill(q, row, row+k, 0);
+                    if(i == ground) {
+                        continue;
+                    }
+                    for(int j = rowPtr[i]; j < rowPtr[i+1]; j++) {
+                        final double a = data[j];
+                        final int col = colInd[j]*k;
+                        for(int c = 0; c < k; c++) {
+                            q[row+c] += a * p[col+c];
+                        }
+                    }
+                }
+                // alpha = r.z / p.q
+                Arrays.fill(tmp, 0);
+                for(int i = 0; i < n*k; i += k) {
+                    for(int c = 0; c < k; c++) {
+                        tmp[c] += p[i+c] * q[i+c];
+                    }
+                }
+                for(int c = 0; c < k; c++) {
+                    tmp[c] = done[c] ? 0 : rz[c] / tmp[c];
+                }
+                for(int i = 0; i < n*k; i += k) {
+                    for(int c = 0; c < k; c++) {
+                        x[i+c] += tmp[c] * p[i+c];
+                        r[i+c] -= tmp[c] * q[i+c];
+                    }
+                }
+                // check convergence, the norm of the right hand side is 1
+                Arrays.fill(tmp, 0);
+                for(int i = 0; i < n*k; i += k) {
+                    for(int c = 0; c < k; c++) {
+                        tmp[c] += r[i+c] * r[i+c];
+                    }
+                }
+                for(int c = 0; c < k; c++) {
+                    if(!done[c] && tmp[c] <= RTOL*RTOL) {
+                        done[c] = true;
+                        nbActive--;
+                    }
+                }
+                // z = M^-1.r stored in q, beta = r.z(new) / r.z(old)
+                Arrays.fill(tmp, 0);
+                for(int i = 0; i < n; i++) {
+                    final int row = i*k;
+                    for(int c = 0; c < k; c++) {
+                        q[row+c] = invDiag[i] * r[row+c];
+                        tmp[c] += r[row+c] * q[row+c];
+                    }
+                }
+                for(int c = 0; c < k; c++) {
+                    if(done[c]) {
+                        tmp[c] = 0;
+                        rz[c] = 0;
+                    } else {
+                        double beta = tmp[c] / rz[c];
+                        rz[c] = tmp[c];
+                        tmp[c] = beta;
+                    }
+                }
+                // p = z + beta.p, the converged columns are set to 0
+                for(int i = 0; i < n*k; i += k) {
+                    for(int c = 0; c < k; c++) {
+                        p[i+c] = done[c] ? 0 : q[i+c] + tmp[c] * p[i+c];
+                    }
+                }
             }
             
+            for(int c = 0; c < k && start + c < n; c++) {
+                int node = start + c;
+                diag[node] = x[node*k+c];
+            }
         }
-        mapR.put(n1, 1 / r);
-        return 1 / r;
+        
+        return diag;
+    }
+    
+    /**
+     * Returns the diagonal of the inverse of the grounded matrix of the component, calculates it if not yet done.
+     * @param comp a component solved by factorization
+     * @return the diagonal of the inverse
+     */
+    private synchronized double [] getInverseDiagonal(Graph comp) {
+        double [] diag = compInvDiag.get(comp);
+        if(diag == null) {
+            diag = compChol.get(comp).getInverseDiagonal();
+            compInvDiag.put(comp, diag);
+        }
+        return diag;
     }
     
     /**
@@ -374,8 +532,8 @@ public class Circuit {
         Z.set(ind1, -sumI);
         
         DenseVector U;
-        if(dense && compLU.containsKey(comp)) {
-            U = new DenseVector(solveDense(compLU.get(comp), Z).getData());
+        if(compChol.containsKey(comp)) {
+            U = new DenseVector(compChol.get(comp).solve(Z.getData()), false);
         } else {
             U = solve(compMatrix.get(comp), compPrecond.get(comp), Z);
         }
@@ -408,16 +566,6 @@ public class Circuit {
         }
     }
     
-    /**
-     * Solve A.U = Z for dense matrix A by LU decomposition
-     * @param A the dense matrix
-     * @param Z the vector
-     * @return the vector U
-     */
-    private DenseMatrix solveDense(DenseLU A, DenseVector Z) {
-        return A.solve(new DenseMatrix(Z, true));
-    }
-    
     /**
      * Retrieve the current through each node and each edge
      * @param comp graph component
@@ -26,19 +26,27 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.logging.Logger;
 import org.geotools.graph.structure.Graph;
 import org.geotools.graph.structure.Graphable;
+import org.geotools.graph.structure.Node;
 import org.thema.common.ProgressBar;
+import org.thema.common.swing.TaskMonitor;
 import org.thema.data.feature.DefaultFeature;
 import org.thema.data.feature.Feature;
 import org.thema.graphab.graph.DeltaGraphGenerator;
 import org.thema.graphab.graph.GraphGenerator;
 import org.thema.graphab.mpi.MpiLauncher;
+import org.thema.graphab.util.WorkQueue;
 import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
 
 /**
  * Task for calculating global metric in delta mode on nodes and/or edges.
  * 
+ * For path metrics in threaded environment, the metric is calculated incrementally with {@link DeltaPathCache} :
+ * only the paths using the removed element are recalculated.
+ * In threaded environment, the elements are handed out dynamically by decreasing degree with a {@link WorkQueue}.
  * Works on threaded and MPI environment.
  * @author Gilles
  */
@@ -52,7 +60,9 @@ public class DeltaMetricTask extends AbstractParallelTask<Map<Object, Double[]>,
     private Double[] init;
 
     private transient GraphGenerator gen;
+    private transient DeltaPathCache cache;
     private transient Map<Object, Double[]> result;
+    private transient WorkQueue queue;
 
     /**
      * Creates a new DeltaMetricTask
@@ -101,7 +111,12 @@ public class DeltaMetricTask extends AbstractParallelTask<Map<Object, Double[]>,
     
     private void calcInit() {
         monitor.setNote("Etat initial...");
-        init = launcher.calcMetric(gen, true, null);
+        if(DeltaPathCache.isSupported(gen, launcher)) {
+            cache = new DeltaPathCache(gen, launcher, new TaskMonitor.EmptyMonitor());
+            init = cache.calcMetric();
+        } else {
+            init = launcher.calcMetric(gen, true, null);
+        }
         monitor.setNote("Delta...");
     }
 
@@ -112,60 +127,108 @@ public class DeltaMetricTask extends AbstractParallelTask<Map<Object, Double[]>,
         if(gen == null) {
             gen = MpiLauncher.getProject().getGraph(graphName);
         }
+        
+        queue = null;
+        if(!ExecutorService.isMPIExecutor()) {
+            // the edges have a cost of 1, the nodes 1 + their degree
+            HashMap<Object, Integer> degrees = new HashMap<>();
+            for(Node n : gen.getNodes()) {
+                degrees.put(((Feature)n.getObject()).getId(), n.getDegree());
+            }
+            double [] costs = new double[ids.size()];
+            for(int i = 0; i < costs.length; i++) {
+                Integer degree = degrees.get(ids.get(i));
+                costs[i] = 1 + (degree == null ? 0 : degree);
+            }
+            queue = new WorkQueue(costs);
+        }
     }
 
     @Override
     public Map<Object, Double[]> execute(int start, int end) {
-        HashSet felems = new HashSet(ids.subList(start, end));
-
         DeltaGraphGenerator deltaGen = new DeltaGraphGenerator(gen);
         Graph graph = deltaGen.getGraph();
-        List<Graphable> elems = new ArrayList<>(felems.size());
-        for(Object n : graph.getNodes()) {
-            if(felems.contains(((Feature)((Graphable)n).getObject()).getId())) {
-                elems.add((Graphable)n);
+        Map<Object, Double[]> results = new HashMap<>();
+        Node [] deltaNodes = cache != null ? cache.getNodes(deltaGen) : null;
+        
+        if(queue == null) {
+            HashSet felems = new HashSet(ids.subList(start, end));
+            List<Graphable> elems = new ArrayList<>(felems.size());
+            for(Object n : graph.getNodes()) {
+                if(felems.contains(((Feature)((Graphable)n).getObject()).getId())) {
+                    elems.add((Graphable)n);
+                }
             }
-        }
-        for(Object n : graph.getEdges()) {
-            if(felems.contains(((Feature)((Graphable)n).getObject()).getId())) {
-                elems.add((Graphable)n);
+            for(Object n : graph.getEdges()) {
+                if(felems.contains(((Feature)((Graphable)n).getObject()).getId())) {
+                    elems.add((Graphable)n);
+                }
             }
-        }
-
-        Map<Object, Double[]> results = new HashMap<>();
-
-        for(Graphable elem : elems) {
-            if(isCanceled()) {
-                throw new CancellationException();
+            for(Graphable elem : elems) {
+                calcDelta(deltaGen, deltaNodes, elem, results);
             }
-            deltaGen.removeElem(elem);
-            Double[] res = launcher.calcMetric(deltaGen, false, null);
-            DefaultFeature f = (DefaultFeature)elem.getObject();
-            Double [] delta = new Double[init.length];
-            for(int i = 0; i < init.length; i++) {
-                double ind;
-                if(init[i] == null) {
-                    if(init[init.length-1] != null) {
-                        ind = res[i] / init[init.length-1];
-                    } else {
-                        ind = res[i];
-                    }
-                } else {
-                    ind = (init[i] - res[i]) / init[i];
+        } else {
+            HashMap<Object, Graphable> mapNodes = new HashMap<>();
+            for(Object n : graph.getNodes()) {
+                mapNodes.put(((Feature)((Graphable)n).getObject()).getId(), (Graphable)n);
+            }
+            HashMap<Object, Graphable> mapEdges = new HashMap<>();
+            for(Object n : graph.getEdges()) {
+                mapEdges.put(((Feature)((Graphable)n).getObject()).getId(), (Graphable)n);
+            }
+            final long t = queue.begin();
+            int i;
+            while((i = queue.next()) != -1) {
+                Object id = ids.get(i);
+                if(mapNodes.containsKey(id)) {
+                    calcDelta(deltaGen, deltaNodes, mapNodes.get(id), results);
                 }
-                if(Math.abs(ind) < 1e-14) {
-                    ind = 0;     
+                if(mapEdges.containsKey(id)) {
+                    calcDelta(deltaGen, deltaNodes, mapEdges.get(id), results);
                 }
-                delta[i] = ind;
             }
-
-            results.put(f.getId(), delta);
-            deltaGen.reset();
-            incProgress(1);
+            queue.end(t);
         }
 
         return results;
     }
+    
+    private void calcDelta(DeltaGraphGenerator deltaGen, Node [] deltaNodes, Graphable elem, Map<Object, Double[]> results) {
+        if(isCanceled()) {
+            throw new CancellationException();
+        }
+        deltaGen.removeElem(elem);
+        Double[] res = cache != null ? cache.calcMetric(deltaGen, deltaNodes) : launcher.calcMetric(deltaGen, false, null);
+        DefaultFeature f = (DefaultFeature)elem.getObject();
+        Double [] delta = new Double[init.length];
+        for(int i = 0; i < init.length; i++) {
+            double ind;
+            if(init[i] == null) {
+                if(init[init.length-1] != null) {
+                    ind = res[i] / init[init.length-1];
+                } else {
+                    ind = res[i];
+                }
+            } else {
+                ind = (init[i] - res[i]) / init[i];
+            }
+            if(Math.abs(ind) < 1e-14) {
+                ind = 0;     
+            }
+            delta[i] = ind;
+        }
+
+        results.put(f.getId(), delta);
+        deltaGen.reset();
+        incProgress(1);
+    }
+
+    @Override
+    public void finish() {
+        if(queue != null) {
+            Logger.getLogger(DeltaMetricTask.class.getName()).fine(queue.getStats());
+        }
+    }
 
     @Override
     public int getSplitRange() {
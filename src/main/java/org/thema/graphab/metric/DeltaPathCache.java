@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.metric;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import org.geotools.graph.structure.Graphable;
+import org.geotools.graph.structure.Node;
+import org.thema.common.ProgressBar;
+import org.thema.data.feature.Feature;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
+import org.thema.graphab.graph.DeltaGraphGenerator;
+import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.metric.global.AbstractPathMetric;
+import org.thema.graphab.metric.global.GlobalMetricLauncher;
+import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
+
+/**
+ * Incremental calculation of a path metric in delta mode.<br/>
+ * The part of each origin node and the elements (nodes and edges) used by its shortest path tree
+ * are calculated once on the initial graph.
+ * When an element is removed, only the parts of the origin nodes whose tree contains the element are recalculated,
+ * the other parts are reused.
+ * When a node is removed and the metric supports it ({@link AbstractPathMetric#calcPartWithout }),
+ * the contribution of the removed node is subtracted from the parts of the origin nodes which reach it as a leaf.<br/>
+ * The result is the same than the full calculation, except the summation order.
+ *
+ * @author Gilles Vuidel
+ */
+final class DeltaPathCache {
+
+    /** Part of the memory that the trees can use, otherwise the full calculation is kept */
+    private static final int MEMORY_RATIO = 4;
+
+    private final GraphGenerator gen;
+    private final CompactGraph graph;
+    private final AbstractPathMetric refMetric;
+    private final double maxCost;
+
+    private final HashMap<Object, Integer> nodeIndices;
+    private final HashMap<Object, Integer> edgeIndices;
+
+    private final Object [] parts;
+    /** sorted indices of the elements used by the shortest path tree of each origin node,
+     * see {@link CompactPathFinder#getTree() } */
+    private final int [][] trees;
+
+    /**
+     * Creates the cache and calculates the parts and the trees for all nodes of the graph.
+     * The calculation is parallelized.
+     * @param gen the initial graph
+     * @param launcher the launcher containing an {@link AbstractPathMetric}
+     * @param monitor the progress monitor
+     * @throws CancellationException if the calculation is cancelled
+     */
+    DeltaPathCache(GraphGenerator gen, GlobalMetricLauncher launcher, ProgressBar monitor) {
+        this.gen = gen;
+        this.refMetric = (AbstractPathMetric) launcher.getMetric();
+        this.maxCost = launcher.getMaxCost();
+
+        this.graph = gen.getCompactGraph();
+
+        final int nbNode = graph.getNbNodes();
+        nodeIndices = new HashMap<>();
+        for(int i = 0; i < nbNode; i++) {
+            nodeIndices.put(((Feature)graph.getNode(i).getObject()).getId(), i);
+        }
+        edgeIndices = new HashMap<>();
+        for(int i = 0; i < graph.getNbEdges(); i++) {
+            edgeIndices.put(((Feature)graph.getEdge(i).getObject()).getId(), nbNode + i);
+        }
+
+        parts = new Object[nbNode];
+        trees = new int[nbNode][];
+
+        final AbstractPathMetric metric = (AbstractPathMetric) refMetric.dupplicate();
+        metric.startCalc(gen);
+        AbstractParallelTask task = new AbstractParallelTask<Void, Void>(monitor) {
+            @Override
+            public Void execute(int start, int end) {
+                for(int i = start; i < end; i++) {
+                    if(isCanceled()) {
+                        throw new CancellationException();
+                    }
+                    CompactPathFinder finder = gen.getCompactPathFinder(graph.getNode(i), maxCost);
+                    parts[i] = metric.calcPartMetric(finder, gen);
+                    trees[i] = finder.getTree();
+                    incProgress(1);
+                }
+                return null;
+            }
+
+            @Override
+            public int getSplitRange() {
+                return parts.length;
+            }
+
+            @Override
+            public void gather(Void results) {
+            }
+
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+        ExecutorService.execute(task);
+        if(task.isCanceled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Checks if the incremental calculation can be used for this metric on this graph.
+     * The metric must be an {@link AbstractPathMetric}, the execution must not be in MPI mode
+     * and the trees must fit in a part of the memory.
+     * @param gen the graph
+     * @param launcher the metric launcher
+     * @return true if the cache can be used
+     */
+    static boolean isSupported(GraphGenerator gen, GlobalMetricLauncher launcher) {
+        if(!(launcher.getMetric() instanceof AbstractPathMetric) || ExecutorService.isMPIExecutor()) {
+            return false;
+        }
+        // each tree contains at most all the nodes and all the edges
+        long nbNode = gen.getNodes().size();
+        long size = 4 * nbNode * (nbNode + gen.getEdges().size());
+        return size < Runtime.getRuntime().maxMemory() / MEMORY_RATIO;
+    }
+
+    /**
+     * Returns for each node of the cache, the node with the same patch id in the graph g.
+     * @param g the graph, generally a {@link DeltaGraphGenerator} of the initial graph
+     * @return the nodes of g in the cache order, null if the patch is not in g
+     */
+    Node [] getNodes(GraphGenerator g) {
+        Node [] gNodes = new Node[parts.length];
+        for(Node n : g.getNodes()) {
+            Integer ind = nodeIndices.get(((Feature)n.getObject()).getId());
+            if(ind != null) {
+                gNodes[ind] = n;
+            }
+        }
+        return gNodes;
+    }
+
+    /**
+     * Calculates the metric on the initial graph from the cached parts.
+     * @return the metric values
+     */
+    Double [] calcMetric() {
+        AbstractPathMetric metric = (AbstractPathMetric) refMetric.dupplicate();
+        metric.startCalc(gen);
+        for(Object part : parts) {
+            metric.mergePart(part);
+        }
+        metric.endCalc(gen);
+        return metric.calcMetric(gen);
+    }
+
+    /**
+     * Calculates the metric on the graph deltaGen, where one element of the initial graph has been removed.
+     * @param deltaGen the graph with the removed element
+     * @param deltaNodes the nodes of deltaGen in the cache order, see {@link #getNodes }
+     * @return the metric values
+     */
+    Double [] calcMetric(DeltaGraphGenerator deltaGen, Node [] deltaNodes) {
+        Graphable elem = deltaGen.getRemovedElem();
+        Object id = ((Feature)elem.getObject()).getId();
+        final boolean isNode = elem instanceof Node;
+        final int ind = isNode ? nodeIndices.get(id) : edgeIndices.get(id);
+
+        // costs from the removed node to the other nodes
+        CompactPathFinder remFinder = isNode ? gen.getCompactPathFinder(graph.getNode(ind), maxCost) : null;
+
+        AbstractPathMetric metric = (AbstractPathMetric) refMetric.dupplicate();
+        metric.startCalc(deltaGen);
+        for(int i = 0; i < parts.length; i++) {
+            if(isNode && i == ind) {
+                continue;
+            }
+            Object part = parts[i];
+            if(Arrays.binarySearch(trees[i], ind) >= 0) {
+                part = metric.calcPartMetric(deltaGen.getCompactPathFinder(deltaNodes[i], maxCost), deltaGen);
+            } else if(isNode) {
+                double cost = remFinder.getCost(i);
+                if(!Double.isNaN(cost)) {
+                    part = metric.calcPartWithout(part, graph, i, ind, cost);
+                    if(part == null) {
+                        part = metric.calcPartMetric(deltaGen.getCompactPathFinder(deltaNodes[i], maxCost), deltaGen);
+                    }
+                }
+            }
+            metric.mergePart(part);
+        }
+        metric.endCalc(deltaGen);
+        return metric.calcMetric(deltaGen);
+    }
+}
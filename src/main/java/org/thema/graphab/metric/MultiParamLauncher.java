@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.thema.graphab.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.logging.Logger;
+import org.geotools.graph.structure.Node;
+import org.thema.common.ProgressBar;
+import org.thema.common.swing.TaskMonitor;
+import org.thema.data.feature.DefaultFeature;
+import org.thema.data.feature.WritableFeature;
+import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.metric.global.GlobalMetric;
+import org.thema.graphab.metric.local.LocalMetric;
+import org.thema.graphab.util.WorkQueue;
+import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
+
+/**
+ * Calculates a {@link MultiParamMetric} for several parameter sets with one shortest path search by node.<br/>
+ * The results are the same as calculating the metric for each parameter set, 
+ * with {@link org.thema.graphab.metric.global.GlobalMetricLauncher} or {@link org.thema.graphab.MainFrame#calcLocalMetric }.
+ * The calculation is threaded only, in MPI environment the metric must be calculated for each parameter set.
+ * 
+ * @author Gilles Vuidel
+ */
+public final class MultiParamLauncher {
+
+    private MultiParamLauncher() {
+    }
+    
+    /**
+     * @param metric the metric
+     * @return true if the metric can be calculated for several parameter sets in one pass
+     */
+    public static boolean isMultiParam(Metric metric) {
+        return metric instanceof MultiParamMetric && !ExecutorService.isMPIExecutor();
+    }
+    
+    /**
+     * Calculates the global metric for each parameter set.
+     * @param graph the graph
+     * @param refMetric the global metric, must be a {@link MultiParamMetric} and a {@link PreCalcMetric}
+     * @param params the parameter sets
+     * @param maxCost the max distance, NaN if not limited
+     * @param monitor the progress monitor, may be null
+     * @return the metric results for each parameter set
+     */
+    public static List<Double[]> calcGlobalMetric(GraphGenerator graph, GlobalMetric refMetric, 
+            List<? extends Map<String, Object>> params, double maxCost, ProgressBar monitor) {
+        double [][] values = calcNodeValues(graph, (MultiParamMetric)refMetric, params, maxCost, monitor);
+        List<Double[]> results = new ArrayList<>(params.size());
+        for(int j = 0; j < params.size(); j++) {
+            GlobalMetric metric = (GlobalMetric) refMetric.dupplicate();
+            metric.setParams(params.get(j));
+            PreCalcMetric preCalc = (PreCalcMetric) metric;
+            preCalc.startCalc(graph);
+            for(double [] nodeValues : values) {
+                preCalc.mergePart(nodeValues[j]);
+            }
+            preCalc.endCalc(graph);
+            results.add(metric.calcMetric(graph));
+        }
+        return results;
+    }
+    
+    /**
+     * Calculates the local metric on the graph nodes for each parameter set.
+     * Each parameter set creates a patch attribute named as {@link org.thema.graphab.MainFrame#calcLocalMetric }.
+     * @param graph the graph
+     * @param refMetric the local metric, must be a {@link MultiParamMetric} calculated on nodes
+     * @param params the parameter sets
+     * @param monitor the progress monitor, may be null
+     * @return the attribute names
+     */
+    public static List<String> calcLocalMetric(GraphGenerator graph, LocalMetric refMetric, 
+            List<? extends Map<String, Object>> params, ProgressBar monitor) {
+        double [][] values = calcNodeValues(graph, (MultiParamMetric)refMetric, params, Double.NaN, monitor);
+        List<Node> nodes = new ArrayList<>(graph.getNodes());
+        List<String> attrNames = new ArrayList<>(params.size());
+        for(int j = 0; j < params.size(); j++) {
+            LocalMetric metric = (LocalMetric) refMetric.dupplicate();
+            metric.setParams(params.get(j));
+            String attr = metric.getDetailName() + "_" + graph.getName();
+            DefaultFeature.addAttribute(attr, graph.getProject().getPatches(), Double.NaN);
+            for(int i = 0; i < nodes.size(); i++) {
+                ((WritableFeature)nodes.get(i).getObject()).setAttribute(attr, values[i][j]);
+            }
+            attrNames.add(attr);
+        }
+        return attrNames;
+    }
+    
+    /**
+     * Calculates the values of each node of the graph for each parameter set, in the order of {@link GraphGenerator#getNodes() }.
+     * The nodes are handed out by decreasing degree with a {@link WorkQueue}.
+     */
+    private static double [][] calcNodeValues(final GraphGenerator graph, final MultiParamMetric metric, 
+            List<? extends Map<String, Object>> params, final double maxCost, ProgressBar monitor) {
+        if(monitor == null) {
+            monitor = new TaskMonitor.EmptyMonitor();
+        }
+        final List<AlphaParamMetric> alphaParams = new ArrayList<>(params.size());
+        for(Map<String, Object> p : params) {
+            AlphaParamMetric alphaParam = new AlphaParamMetric();
+            alphaParam.setParams(p);
+            alphaParams.add(alphaParam);
+        }
+        final List<Node> nodes = new ArrayList<>(graph.getNodes());
+        final double [][] values = new double[nodes.size()][];
+        double [] costs = new double[nodes.size()];
+        for(int i = 0; i < costs.length; i++) {
+            costs[i] = 1 + nodes.get(i).getDegree();
+        }
+        final WorkQueue queue = new WorkQueue(costs);
+        monitor.setMaximum(nodes.size());
+        AbstractParallelTask task = new AbstractParallelTask<Void, Void>(monitor) {
+            @Override
+            public Void execute(int start, int end) {
+                final long t = queue.begin();
+                int i;
+                while((i = queue.next()) != -1 && !isCanceled()) {
+                    values[i] = metric.calcValues(graph.getCompactPathFinder(nodes.get(i), maxCost), graph, alphaParams);
+                    incProgress(1);
+                }
+                queue.end(t);
+                return null;
+            }
+            @Override
+            public int getSplitRange() {
+                return nodes.size();
+            }
+            @Override
+            public void gather(Void results) {
+            }
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+        ExecutorService.execute(task);
+        if(task.isCanceled()) {
+            throw new CancellationException();
+        }
+        Logger.getLogger(MultiParamLauncher.class.getName()).fine(queue.getStats());
+        return values;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+
+package org.thema.graphab.metric;
+
+import java.util.List;
+import org.thema.graphab.graph.CompactPathFinder;
+import org.thema.graphab.graph.GraphGenerator;
+
+/**
+ * Interface for metric with parameters d, p and beta ({@link AlphaParamMetric}) which can be calculated
+ * for several parameter sets from the same shortest paths.
+ * The parameters only weight the cost distances and the capacities, so the paths are calculated once for all the parameter sets.
+ * 
+ * @author Gilles Vuidel
+ * @see MultiParamLauncher
+ */
+public interface MultiParamMetric {
+
+    /**
+     * Calculates the value of the origin node of finder for each parameter set.
+     * For a global metric, the values are the parts merged with {@link PreCalcMetric#mergePart },
+     * for a local metric, the values are the metric values of the node.
+     * @param finder the shortest paths from the node
+     * @param g the graph
+     * @param params the parameter sets
+     * @return the values in the order of params
+     */
+    double [] calcValues(CompactPathFinder finder, GraphGenerator g, List<AlphaParamMetric> params);
+}
@@ -28,8 +28,9 @@ import org.thema.graphab.graph.GraphGenerator;
  */
 public interface PreCalcMetric<T>  {
 
-    /** The type of parameter for {@link #calcPartMetric } */
-    enum TypeParam { NODE, EDGE, PATHFINDER }
+    /** The type of parameter for {@link #calcPartMetric } : 
+     * node, edge, {@link org.thema.graphab.graph.GraphPathFinder} or {@link org.thema.graphab.graph.CompactPathFinder} of a node */
+    enum TypeParam { NODE, EDGE, PATHFINDER, COMPACT_PATHFINDER }
     
     /**
      * Initialize the calculation for the graph g
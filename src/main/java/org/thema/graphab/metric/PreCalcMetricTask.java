@@ -23,6 +23,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.logging.Logger;
 import org.geotools.graph.structure.Edge;
 import org.geotools.graph.structure.Graphable;
 import org.geotools.graph.structure.Node;
@@ -31,11 +32,14 @@ import org.thema.data.feature.Feature;
 import org.thema.graphab.graph.GraphGenerator;
 import org.thema.graphab.metric.PreCalcMetric.TypeParam;
 import org.thema.graphab.mpi.MpiLauncher;
+import org.thema.graphab.util.WorkQueue;
 import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
 
 /**
  * Task for executing PreCalcMetric.
  * Works on threaded and MPI environment.
+ * In threaded environment, the nodes are handed out dynamically by decreasing degree with a {@link WorkQueue}.
  * @author Gilles Vuidel
  */
 public class PreCalcMetricTask extends AbstractParallelTask<Void, List> implements Serializable {
@@ -47,6 +51,7 @@ public class PreCalcMetricTask extends AbstractParallelTask<Void, List> implemen
     
     private transient HashMap<Object, Graphable> mapElem;
     private transient GraphGenerator gen;
+    private transient WorkQueue queue;
 
     /**
      * Creates a new PreCalcMetricTask
@@ -98,27 +103,53 @@ public class PreCalcMetricTask extends AbstractParallelTask<Void, List> implemen
                 mapElem.put(id, n);
             }
         }
+        
+        queue = null;
+        if(!ExecutorService.isMPIExecutor()) {
+            double [] costs = new double[ids.size()];
+            for(int i = 0; i < costs.length; i++) {
+                costs[i] = 1 + (metric.getTypeParam() == TypeParam.EDGE ? 0 : ((Node)mapElem.get(ids.get(i))).getDegree());
+            }
+            queue = new WorkQueue(costs);
+        }
     }
     
     @Override
     public List execute(int start, int end) {
         List results = new ArrayList(end-start);
-        for(Integer id : ids.subList(start, end)) {
-            Graphable elem = mapElem.get(id);
-            if(metric.getTypeParam() == TypeParam.PATHFINDER) {
-                results.add(metric.calcPartMetric(gen.getPathFinder((Node)elem, maxCost), gen));
-            } else {
-                results.add(metric.calcPartMetric(elem, gen));
+        if(queue == null) {
+            for(Integer id : ids.subList(start, end)) {
+                results.add(calcPart(mapElem.get(id)));
+                incProgress(1);
+            }
+        } else {
+            final long t = queue.begin();
+            int i;
+            while((i = queue.next()) != -1) {
+                results.add(calcPart(mapElem.get(ids.get(i))));
+                incProgress(1);
             }
-            
-            incProgress(1);
+            queue.end(t);
         }
         return results;
     }
+    
+    private Object calcPart(Graphable elem) {
+        if(metric.getTypeParam() == TypeParam.PATHFINDER) {
+            return metric.calcPartMetric(gen.getPathFinder((Node)elem, maxCost), gen);
+        } else if(metric.getTypeParam() == TypeParam.COMPACT_PATHFINDER) {
+            return metric.calcPartMetric(gen.getCompactPathFinder((Node)elem, maxCost), gen);
+        } else {
+            return metric.calcPartMetric(elem, gen);
+        }
+    }
 
     @Override
     public void finish() {
         metric.endCalc(gen);
+        if(queue != null) {
+            Logger.getLogger(PreCalcMetricTask.class.getName()).fine(queue.getStats());
+        }
     }
 
     @Override
@@ -19,17 +19,22 @@
 
 package org.thema.graphab.metric.global;
 
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 import org.thema.graphab.metric.PreCalcMetric;
 
 
 /**
  * Base class for global metric using path calculation.
+ * The paths are calculated on the compact graph, {@link #calcPartMetric } receives a {@link CompactPathFinder}.<br/>
+ * Since version 2.0.7, this class implements PreCalcMetric&lt;CompactPathFinder&gt; instead of PreCalcMetric&lt;GraphPathFinder&gt;.
+ * Subclasses defined outside Graphab (plugins) must be updated : the nodes are designated by their index in the compact graph
+ * ({@link CompactGraph#getNode(int) }).
  * 
  * @author Gilles Vuidel
  */
-public abstract class AbstractPathMetric extends GlobalMetric implements PreCalcMetric<GraphPathFinder> {
+public abstract class AbstractPathMetric extends GlobalMetric implements PreCalcMetric<CompactPathFinder> {
 
     /** the metric result */
     protected transient double metric;
@@ -58,12 +63,27 @@ public abstract class AbstractPathMetric extends GlobalMetric implements PreCalc
         metric = 0;
     }
 
+    /**
+     * Removes the contribution of a node from the part calculated for the origin node.
+     * Used by the delta method when the node is removed and is not crossed by the shortest paths of the origin node.
+     * Default implementation returns null : the metric cannot be decomposed by node, the part must be recalculated.
+     * @param part the part calculated by {@link #calcPartMetric } for the origin node
+     * @param g the compact graph
+     * @param origin the index of the origin node of the part
+     * @param node the index of the removed node
+     * @param cost the cost distance between origin and node
+     * @return the part without the node or null if the part must be recalculated
+     */
+    public Object calcPartWithout(Object part, CompactGraph g, int origin, int node, double cost) {
+        return null;
+    }
+
     /**
      * {@inheritDoc }
-     * @return {@link TypeParam.PATHFINDER}
+     * @return {@link TypeParam.COMPACT_PATHFINDER}
      */
     @Override
     public TypeParam getTypeParam() {
-        return TypeParam.PATHFINDER;
+        return TypeParam.COMPACT_PATHFINDER;
     }
 }
@@ -26,6 +26,8 @@ import org.geotools.graph.structure.Node;
 import org.thema.data.feature.Feature;
 import org.thema.graphab.Project;
 import org.thema.graphab.Project.Method;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.DeltaGraphGenerator;
 import org.thema.graphab.graph.GraphGenerator;
 import org.thema.graphab.graph.GraphPathFinder;
@@ -48,16 +50,23 @@ public class DeltaPCMetric extends AbstractPathMetric {
     }
 
     @Override
-    public Double calcPartMetric(GraphPathFinder finder, GraphGenerator g) {
+    public Double calcPartMetric(CompactPathFinder finder, GraphGenerator g) {
+        CompactGraph graph = finder.getGraph();
         double sum = 0;
-        double srcCapa = Project.getPatchCapacity(finder.getNodeOrigin());
-        for(Node node : finder.getComputedNodes()) { 
-            sum += Math.pow(srcCapa * Project.getPatchCapacity(node), alphaParam.getBeta()) * Math.exp(-alphaParam.getAlpha()*finder.getCost(node));
+        double srcCapa = graph.getCapacity(finder.getNodeOrigin());
+        for(int i = 0; i < finder.getNbComputedNodes(); i++) {
+            int node = finder.getComputedNode(i);
+            sum += Math.pow(srcCapa * graph.getCapacity(node), alphaParam.getBeta()) * Math.exp(-alphaParam.getAlpha()*finder.getCost(node));
         }
         
         return sum;
     }
 
+    @Override
+    public Double calcPartWithout(Object part, CompactGraph g, int origin, int node, double cost) {
+        return (Double)part - Math.pow(g.getCapacity(origin) * g.getCapacity(node), alphaParam.getBeta()) * Math.exp(-alphaParam.getAlpha()*cost);
+    }
+
     @Override
     public void mergePart(Object part) {
         metric += (Double)part;
@@ -19,9 +19,8 @@
 
 package org.thema.graphab.metric.global;
 
-import org.geotools.graph.structure.Node;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 
 /**
  * Graph Diameter metric.
@@ -32,11 +31,12 @@ import org.thema.graphab.graph.GraphPathFinder;
 public class GDMetric extends AbstractPathMetric {
 
     @Override
-    public Double calcPartMetric(GraphPathFinder finder, GraphGenerator g) {
+    public Double calcPartMetric(CompactPathFinder finder, GraphGenerator g) {
         double max = 0;
-        for(Node node : finder.getComputedNodes()) {
-            if (finder.getCost(node) > max) {
-                max = finder.getCost(node);
+        for(int i = 0; i < finder.getNbComputedNodes(); i++) {
+            double cost = finder.getCost(finder.getComputedNode(i));
+            if (cost > max) {
+                max = cost;
             }
         }
         
@@ -68,6 +68,13 @@ public class GlobalMetricLauncher implements Serializable {
     public GlobalMetric getMetric() {
         return refMetric;
     }
+
+    /**
+     * @return the max distance for path metric, NaN if not limited
+     */
+    public double getMaxCost() {
+        return maxCost;
+    }
     
     /**
      * Calculates the metric on the graph.
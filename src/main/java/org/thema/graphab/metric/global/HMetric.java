@@ -20,9 +20,8 @@
 package org.thema.graphab.metric.global;
 
 import org.geotools.graph.structure.Node;
-import org.thema.graph.pathfinder.DijkstraPathFinder;
-import org.thema.graph.pathfinder.DijkstraPathFinder.DijkstraNode;
 import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.graph.HopPathFinder;
 import org.thema.graphab.metric.PreCalcMetric;
 
 /**
@@ -53,12 +52,10 @@ public class HMetric extends GlobalMetric implements PreCalcMetric<Node> {
     public Double calcPartMetric(Node node, GraphGenerator g) {
         double sum = 0;
 
-        DijkstraPathFinder finder = new DijkstraPathFinder(g.getGraph(), node, DijkstraPathFinder.NBEDGE_WEIGHTER);
-        finder.calculate();
-        for(DijkstraNode n : finder.getComputedNodes()) {
-            if (n.node != node) {
-                sum += 1 / n.cost;
-            }
+        HopPathFinder finder = g.getHopPathFinder(node);
+        // the origin is the first node
+        for(int i = 1; i < finder.getNbComputedNodes(); i++) {
+            sum += 1.0 / finder.getNbEdges(finder.getComputedNode(i));
         }
                 
         return sum;
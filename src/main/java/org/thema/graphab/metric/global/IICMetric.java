@@ -20,9 +20,9 @@
 package org.thema.graphab.metric.global;
 
 import org.geotools.graph.structure.Node;
-import org.thema.graph.pathfinder.DijkstraPathFinder;
-import org.thema.graphab.Project;
+import org.thema.graphab.graph.CompactGraph;
 import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.graph.HopPathFinder;
 import org.thema.graphab.metric.PreCalcMetric;
 
 /**
@@ -53,13 +53,26 @@ public class IICMetric extends GlobalMetric implements PreCalcMetric<Node> {
     public Double calcPartMetric(Node node, GraphGenerator g) {
         double sum = 0;
 
-        DijkstraPathFinder finder = new DijkstraPathFinder(g.getGraph(), node, DijkstraPathFinder.NBEDGE_WEIGHTER);
-        finder.calculate();
-        for(DijkstraPathFinder.DijkstraNode n : finder.getComputedNodes()) {
-            sum += Project.getPatchCapacity(n.node) * Project.getPatchCapacity(node) / (1+n.cost);
+        HopPathFinder finder = g.getHopPathFinder(node);
+        CompactGraph graph = finder.getGraph();
+        final double capa = graph.getCapacity(finder.getNodeOrigin());
+        for(int i = 0; i < finder.getNbComputedNodes(); i++) {
+            final int n = finder.getComputedNode(i);
+            sum += calcPairValue(graph.getCapacity(n), capa, finder.getNbEdges(n));
         }
         return sum;
     }
+    
+    /**
+     * Returns the contribution of a pair of patches to the metric sum, before the division by the area.
+     * @param capa1 the capacity of the first patch
+     * @param capa2 the capacity of the second patch
+     * @param nbLinks the number of links of the shortest path between the two patches
+     * @return capa1*capa2 / (1+nbLinks)
+     */
+    public double calcPairValue(double capa1, double capa2, double nbLinks) {
+        return capa1 * capa2 / (1+nbLinks);
+    }
 
     @Override
     public void mergePart(Object part) {
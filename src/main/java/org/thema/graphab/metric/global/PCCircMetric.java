@@ -45,8 +45,13 @@ public class PCCircMetric extends GlobalMetric implements PreCalcMetric<Node> {
     public Double calcPartMetric(Node n1, GraphGenerator g) {
         double sum = 0;
         double srcCapa = Project.getPatchCapacity(n1);
+        Map<Node, Double> rs = circuit.computeRs(n1);
         for(Node n2 : g.getNodes()) {
-            double r = circuit.computeR(n1, n2);
+            Double r = rs.get(n2);
+            if(r == null) {
+                // n2 is not in the component of n1 : infinite resistance
+                continue;
+            }
             sum += Math.pow(srcCapa * Project.getPatchCapacity(n2), alphaParam.getBeta()) * Math.exp(-alphaParam.getAlpha()*r);
         }
         return sum;
@@ -19,13 +19,16 @@
 
 package org.thema.graphab.metric.global;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import org.geotools.graph.structure.Node;
 import org.thema.graphab.Project;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 import org.thema.graphab.metric.AlphaParamMetric;
+import org.thema.graphab.metric.MultiParamMetric;
 import org.thema.graphab.metric.ParamPanel;
 
 /**
@@ -33,18 +36,55 @@ import org.thema.graphab.metric.ParamPanel;
  * 
  * @author Gilles Vuidel
  */
-public class PCMetric extends AbstractPathMetric {
+public class PCMetric extends AbstractPathMetric implements MultiParamMetric {
 
     private AlphaParamMetric alphaParam = new AlphaParamMetric();
     
     @Override
-    public Double calcPartMetric(GraphPathFinder finder, GraphGenerator g) {
-        double sum = 0;
-        double srcCapa = Project.getPatchCapacity(finder.getNodeOrigin());
-        for(Node node : finder.getComputedNodes()) {
-            sum += Math.pow(srcCapa * Project.getPatchCapacity(node), alphaParam.getBeta()) * Math.exp(-alphaParam.getAlpha()*finder.getCost(node));
+    public Double calcPartMetric(CompactPathFinder finder, GraphGenerator g) {
+        return calcValues(finder, g, Collections.singletonList(alphaParam))[0];
+    }
+
+    @Override
+    public double[] calcValues(CompactPathFinder finder, GraphGenerator g, List<AlphaParamMetric> params) {
+        CompactGraph graph = finder.getGraph();
+        double [] sums = new double[params.size()];
+        double srcCapa = graph.getCapacity(finder.getNodeOrigin());
+        for(int i = 0; i < finder.getNbComputedNodes(); i++) {
+            int node = finder.getComputedNode(i);
+            double capa = srcCapa * graph.getCapacity(node);
+            double cost = finder.getCost(node);
+            for(int j = 0; j < sums.length; j++) {
+                sums[j] += calcPairValue(capa, cost, params.get(j));
+            }
         }
-        return sum;
+        return sums;
+    }
+
+    @Override
+    public Double calcPartWithout(Object part, CompactGraph g, int origin, int node, double cost) {
+        return (Double)part - calcPairValue(g.getCapacity(origin), g.getCapacity(node), cost);
+    }
+    
+    /**
+     * Returns the contribution of a pair of patches to the metric sum, before the division by the area.
+     * @param capa1 the capacity of the first patch
+     * @param capa2 the capacity of the second patch
+     * @param cost the cost distance between the two patches
+     * @return (capa1*capa2)^beta * exp(-alpha*cost)
+     */
+    public double calcPairValue(double capa1, double capa2, double cost) {
+        return calcPairValue(capa1 * capa2, cost, alphaParam);
+    }
+    
+    /**
+     * @param capa the product of the capacities of the two patches
+     * @param cost the cost distance between the two patches
+     * @param param the alpha and beta parameters
+     * @return capa^beta * exp(-alpha*cost)
+     */
+    private static double calcPairValue(double capa, double cost, AlphaParamMetric param) {
+        return Math.pow(capa, param.getBeta()) * Math.exp(-param.getAlpha()*cost);
     }
 
     @Override
@@ -21,8 +21,8 @@ package org.thema.graphab.metric.local;
 
 import org.geotools.graph.structure.Graphable;
 import org.geotools.graph.structure.Node;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 
 /**
  * Closeness Centrality metric.
@@ -39,11 +39,12 @@ public class ClosenessLocalMetric extends LocalMetric {
     @Override
     public double calcMetric(Graphable g, GraphGenerator gen) {
         Node node = (Node) g;
-        GraphPathFinder pathFinder = gen.getPathFinder(node);
+        CompactPathFinder pathFinder = gen.getCompactPathFinder(node, Double.NaN);
         double sum = 0;
         int nb = 0;
-        for(Node n : pathFinder.getComputedNodes()) { 
-            if(n != node) {
+        for(int i = 0; i < pathFinder.getNbComputedNodes(); i++) { 
+            int n = pathFinder.getComputedNode(i);
+            if(n != pathFinder.getNodeOrigin()) {
                 sum += pathFinder.getCost(n);
                 nb++;
             }
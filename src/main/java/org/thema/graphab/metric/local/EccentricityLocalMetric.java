@@ -21,8 +21,8 @@ package org.thema.graphab.metric.local;
 
 import org.geotools.graph.structure.Graphable;
 import org.geotools.graph.structure.Node;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 
 /**
  * Eccentricity metric.
@@ -39,11 +39,12 @@ public class EccentricityLocalMetric extends LocalMetric {
     @Override
     public double calcMetric(Graphable g, GraphGenerator gen) {
         Node node = (Node) g;
-        GraphPathFinder pathFinder = gen.getPathFinder(node);
+        CompactPathFinder pathFinder = gen.getCompactPathFinder(node, Double.NaN);
         double max = 0;
-        for(Node n : pathFinder.getComputedNodes()) {
-            if (pathFinder.getCost(n) > max) {
-                max = pathFinder.getCost(n);
+        for(int i = 0; i < pathFinder.getNbComputedNodes(); i++) {
+            double cost = pathFinder.getCost(pathFinder.getComputedNode(i));
+            if (cost > max) {
+                max = cost;
             }
         }
             
@@ -19,14 +19,18 @@
 
 package org.thema.graphab.metric.local;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.geotools.graph.structure.Graphable;
 import org.geotools.graph.structure.Node;
 import org.thema.graphab.Project;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 import org.thema.graphab.metric.AlphaParamMetric;
+import org.thema.graphab.metric.MultiParamMetric;
 import org.thema.graphab.metric.ParamPanel;
 
 /**
@@ -34,21 +38,31 @@ import org.thema.graphab.metric.ParamPanel;
  * 
  * @author Gilles Vuidel
  */
-public class FLocalMetric extends LocalMetric {
+public class FLocalMetric extends LocalMetric implements MultiParamMetric {
 
     private AlphaParamMetric alphaParam = new AlphaParamMetric();
 
     @Override
     public double calcMetric(Graphable g, GraphGenerator gen) {
-        GraphPathFinder pathFinder = gen.getPathFinder((Node)g);
-        double sum = 0;
-        for(Node node : pathFinder.getComputedNodes()) {
-            if (node != g) {
-                sum += Math.exp(-alphaParam.getAlpha() * pathFinder.getCost(node)) * Math.pow(Project.getPatchCapacity(node), alphaParam.getBeta());            
+        CompactPathFinder pathFinder = gen.getCompactPathFinder((Node)g, Double.NaN);
+        return calcValues(pathFinder, gen, Collections.singletonList(alphaParam))[0];
+    }
+
+    @Override
+    public double[] calcValues(CompactPathFinder pathFinder, GraphGenerator gen, List<AlphaParamMetric> params) {
+        CompactGraph graph = pathFinder.getGraph();
+        double [] sums = new double[params.size()];
+        for(int i = 0; i < pathFinder.getNbComputedNodes(); i++) {
+            int node = pathFinder.getComputedNode(i);
+            if (node != pathFinder.getNodeOrigin()) {
+                double cost = pathFinder.getCost(node);
+                for(int j = 0; j < sums.length; j++) {
+                    sums[j] += Math.exp(-params.get(j).getAlpha() * cost) * Math.pow(graph.getCapacity(node), params.get(j).getBeta());
+                }
             }
         }            
         
-        return sum;
+        return sums;
     }
 
     @Override
@@ -19,14 +19,18 @@
 
 package org.thema.graphab.metric.local;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.geotools.graph.structure.Graphable;
 import org.geotools.graph.structure.Node;
 import org.thema.graphab.Project;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
-import org.thema.graphab.graph.GraphPathFinder;
 import org.thema.graphab.metric.AlphaParamMetric;
+import org.thema.graphab.metric.MultiParamMetric;
 import org.thema.graphab.metric.ParamPanel;
 
 /**
@@ -35,21 +39,35 @@ import org.thema.graphab.metric.ParamPanel;
  * 
  * @author Gilles Vuidel
  */
-public class FPCLocalMetric extends LocalMetric {
+public class FPCLocalMetric extends LocalMetric implements MultiParamMetric {
 
     private AlphaParamMetric alphaParam = new AlphaParamMetric();
     
     @Override
     public double calcMetric(Graphable g, GraphGenerator gen) {
-        Node node = (Node) g;
-        double srcCapa = Project.getPatchCapacity(node);
-        GraphPathFinder pathFinder = gen.getPathFinder(node);
-        double sum = 0;
-        for(Node n : pathFinder.getComputedNodes()) {
-            sum += Math.exp(-alphaParam.getAlpha() * pathFinder.getCost(n)) * Math.pow(srcCapa * Project.getPatchCapacity(n), alphaParam.getBeta());            
+        CompactPathFinder pathFinder = gen.getCompactPathFinder((Node) g, Double.NaN);
+        return calcValues(pathFinder, gen, Collections.singletonList(alphaParam))[0];
+    }
+
+    @Override
+    public double[] calcValues(CompactPathFinder pathFinder, GraphGenerator gen, List<AlphaParamMetric> params) {
+        CompactGraph graph = pathFinder.getGraph();
+        double srcCapa = graph.getCapacity(pathFinder.getNodeOrigin());
+        double [] sums = new double[params.size()];
+        for(int i = 0; i < pathFinder.getNbComputedNodes(); i++) {
+            int n = pathFinder.getComputedNode(i);
+            double cost = pathFinder.getCost(n);
+            double capa = srcCapa * graph.getCapacity(n);
+            for(int j = 0; j < sums.length; j++) {
+                sums[j] += Math.exp(-params.get(j).getAlpha() * cost) * Math.pow(capa, params.get(j).getBeta());
+            }
         }            
         
-        return sum / Math.pow(gen.getProject().getArea(), 2);
+        double area2 = Math.pow(gen.getProject().getArea(), 2);
+        for(int j = 0; j < sums.length; j++) {
+            sums[j] /= area2;
+        }
+        return sums;
     }
 
     @Override
@@ -41,7 +41,6 @@ import org.thema.graphab.metric.SingleValuePanel;
 public class IFPCMetric extends LocalMetric {
 
     double dMax = 100;
-    private RasterPathFinder pathfinder;
 
     @Override
     public String getName() {
@@ -53,18 +52,25 @@ public class IFPCMetric extends LocalMetric {
         return getName();
     }
 
+    /**
+     * The pathfinder is borrowed from the linkset, the metric can be calculated by several threads.
+     */
     @Override
-    public synchronized double calcMetric(Graphable g, GraphGenerator gen) {
+    public double calcMetric(Graphable g, GraphGenerator gen) {
         Feature patch = (Feature) g.getObject();
-        if(pathfinder == null) {
-            try {
-                pathfinder = gen.getProject().getRasterPathFinder(gen.getLinkset());
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
+        RasterPathFinder pathfinder;
+        try {
+            pathfinder = gen.getLinkset().borrowPathFinder();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
         double ifpc = 0;
-        HashMap<Feature, Path> dists = pathfinder.calcPaths(patch, dMax, false, true);
+        HashMap<Feature, Path> dists;
+        try {
+            dists = pathfinder.calcPaths(patch, dMax, false, true);
+        } finally {
+            gen.getLinkset().releasePathFinder(pathfinder);
+        }
         for(Feature f : dists.keySet()) {
             ifpc += Project.getPatchCapacity(f) / (dists.get(f).getCost());
         }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.apache.commons.math.FunctionEvaluationException;
+import org.thema.common.parallel.AbstractParallelFTask;
+import org.thema.common.parallel.ParallelFExecutor;
+import org.thema.common.swing.TaskMonitor;
+
+/**
+ * Searches the subset of variables of a logistic regression with the minimal AIC.<br/>
+ * The subsets are calculated by decreasing number of variables, the subsets of the same size in parallel.
+ * Each regression starts from the coefficients of a superset already calculated.<br/>
+ * With pruning, a subset is skipped when its supersets prove that its AIC cannot be lower than the best one :
+ * the maximum log likelihood of a subset is lower than the maximum log likelihood of its supersets
+ * ({@link Logistic#getMaxLogLikelihood(boolean) }), so AIC(subset) &gt;= 2*nbVar - 2*max ln(L(superset)).
+ * The bound is calculated without the ridge of the regressions, so it is exact up to the convergence precision.
+ * The skipped subsets are decided before calculating each size, so the result does not depend on the number of threads.
+ *
+ * @author Gilles Vuidel
+ */
+class BestModelSearch {
+
+    private final Logistic fullLog;
+    private final int nVar;
+    private final boolean pruning;
+
+    private int nbEvaluated, nbSkipped;
+
+    /**
+     * Creates a new search
+     * @param fullLog the regression with all the variables, already calculated
+     * @param nVar the number of variables of fullLog
+     * @param pruning true for skipping the subsets which cannot have a lower AIC
+     */
+    BestModelSearch(Logistic fullLog, int nVar, boolean pruning) {
+        this.fullLog = fullLog;
+        this.nVar = nVar;
+        this.pruning = pruning;
+    }
+
+    /**
+     * Searches the best subset.
+     * The progress of the monitor goes from 50 to 100.
+     * @param monitor the progress monitor
+     * @return the subset of the best model, variable j is in the model if bit j is set
+     */
+    int search(TaskMonitor monitor) {
+        final int nc = (int)Math.pow(2, nVar);
+        // upper bound of the log likelihood
+        final double [] maxLogL = new double[nc];
+        final double [] aic = new double[nc];
+        final double [][] coefs = new double[nc][];
+        Arrays.fill(aic, Double.NaN);
+        maxLogL[nc-1] = pruning ? fullLog.getMaxLogLikelihood(true) : 0;
+        aic[nc-1] = fullLog.getAIC();
+        coefs[nc-1] = fullLog.getCoefs();
+        double bestAIC = aic[nc-1];
+        nbEvaluated = 1;
+        nbSkipped = 0;
+        int nbDone = 1;
+        for(int nv = nVar-1; nv >= 1; nv--) {
+            final List<Integer> subsets = new ArrayList<>();
+            for(int i = 1; i < nc-1; i++) {
+                if(Integer.bitCount(i) != nv) {
+                    continue;
+                }
+                double ub = 0;
+                for(int j = 0; j < nVar; j++) {
+                    if(((i >> j) & 1) == 0) {
+                        ub = Math.min(ub, maxLogL[i | (1 << j)]);
+                    }
+                }
+                maxLogL[i] = ub;
+                if(pruning && 2*nv - 2*ub > bestAIC) {
+                    nbSkipped++;
+                } else {
+                    subsets.add(i);
+                }
+            }
+
+            AbstractParallelFTask task = new AbstractParallelFTask(new TaskMonitor.EmptyMonitor()) {
+                @Override
+                protected Object execute(int start, int end) {
+                    for(int i : subsets.subList(start, end)) {
+                        // the parent is the superset calculated with the lowest added variable
+                        double [] parentCoefs = null;
+                        int parent = 0;
+                        for(int j = 0; j < nVar && parentCoefs == null; j++) {
+                            parent = i | (1 << j);
+                            if(parent != i) {
+                                parentCoefs = coefs[parent];
+                            }
+                        }
+                        double [] init = null;
+                        if(parentCoefs != null) {
+                            init = new double[Integer.bitCount(i)+1];
+                            init[0] = parentCoefs[0];
+                            int k = 1, kp = 1;
+                            for(int j = 0; j < nVar; j++) {
+                                if(((parent >> j) & 1) == 1) {
+                                    if(((i >> j) & 1) == 1) {
+                                        init[k++] = parentCoefs[kp];
+                                    }
+                                    kp++;
+                                }
+                            }
+                        }
+                        try {
+                            Logistic log = fullLog.getSubModel(getVarIndices(i));
+                            coefs[i] = log.regression(false, init);
+                            aic[i] = log.getAIC();
+                            if(pruning) {
+                                maxLogL[i] = Math.min(maxLogL[i], log.getMaxLogLikelihood(false));
+                            }
+                        } catch (FunctionEvaluationException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                    return null;
+                }
+                @Override
+                public int getSplitRange() {
+                    return subsets.size();
+                }
+                @Override
+                public void finish(Collection results) {
+                }
+                @Override
+                public Object getResult() {
+                    return null;
+                }
+            };
+            new ParallelFExecutor(task).executeAndWait();
+
+            nbEvaluated += subsets.size();
+            nbDone += subsets.size();
+            for(int i : subsets) {
+                bestAIC = Math.min(bestAIC, aic[i]);
+            }
+            // the coefficients of the larger subsets are no more used
+            for(int i = 1; i < nc-1; i++) {
+                if(Integer.bitCount(i) == nv+1) {
+                    coefs[i] = null;
+                }
+            }
+            monitor.setProgress(50+(nbDone+nbSkipped)*50/nc);
+        }
+
+        // same choice as the sequential search : the full model then the first subset with a lower AIC
+        int bestI = nc - 1;
+        for(int i = 1; i < nc; i++) {
+            if(aic[i] < aic[bestI]) {
+                bestI = i;
+            }
+        }
+        return bestI;
+    }
+
+    /**
+     * @return the number of regressions calculated by the last search, including the full model
+     */
+    int getNbEvaluated() {
+        return nbEvaluated;
+    }
+
+    /**
+     * @return the number of subsets skipped by the pruning in the last search
+     */
+    int getNbSkipped() {
+        return nbSkipped;
+    }
+
+    /**
+     * @param subset the subset of variables, variable j is in the subset if bit j is set
+     * @return the indices of the variables of the subset in increasing order
+     */
+    int [] getVarIndices(int subset) {
+        int [] vars = new int[Integer.bitCount(subset)];
+        int k = 0;
+        for(int j = 0; j < nVar; j++) {
+            if (((subset >> j) & 1) == 1) {
+                vars[k++] = j;
+            }
+        }
+        return vars;
+    }
+}
@@ -23,7 +23,6 @@ package org.thema.graphab.model;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BandedSampleModel;
 import java.awt.image.ComponentSampleModel;
@@ -33,6 +32,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -61,7 +61,6 @@ import org.thema.drawshape.style.RasterStyle;
 import org.thema.graphab.Project;
 import org.thema.graphab.links.Linkset;
 import org.thema.graphab.links.Path;
-import org.thema.graphab.links.RasterPathFinder;
 import org.thema.graphab.links.SpacePathFinder;
 import org.thema.graphab.model.Logistic.LogisticFunction;
 import org.thema.graphab.pointset.Pointset;
@@ -94,6 +93,9 @@ public class DistribModel {
 
     private HashMap<Geometry, HashMap<DefaultFeature, Path>> costCache;
 
+    private boolean pruning = true;
+    private int nbEvaluated, nbSkipped;
+
     /**
      * Creates a new distribution model
      * @param project the current project
@@ -157,6 +159,31 @@ public class DistribModel {
         return regression;
     }
     
+    /**
+     * Enables or disables the pruning of the best model search, enabled by default.
+     * The pruning does not change the best model, it only skips the subsets which cannot be better.
+     * @param pruning true for skipping the subsets which cannot have a lower AIC
+     */
+    public void setPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    /**
+     * The method {@link #estimModel } must be called before.
+     * @return the number of regressions calculated for finding the best model
+     */
+    public int getNbEvaluatedModels() {
+        return nbEvaluated;
+    }
+
+    /**
+     * The method {@link #estimModel } must be called before.
+     * @return the number of subsets skipped by the pruning of the best model search
+     */
+    public int getNbSkippedModels() {
+        return nbSkipped;
+    }
+    
     /**
      * The method {@link #estimModel } must be called before.
      * @return the variable names used in the model
@@ -281,27 +308,24 @@ public class DistribModel {
 
 
         int nc = (int)Math.pow(2, nVar);
-        Logistic bestLog = new Logistic(a, y);
-        bestLog.regression();
+        Logistic fullLog = new Logistic(a, y);
+        fullLog.regression();
+        Logistic bestLog = fullLog;
         int bestI = nc - 1;
+        nbEvaluated = 1;
+        nbSkipped = 0;
         if(bestModel) {
-            for (i = 1; i < nc; i++) {
-                int nv = Integer.bitCount(i);
-                RealMatrix m = MatrixUtils.createRealMatrix(y.length, nv);
-                int k = 0;
-                for (int j = 0; j < nVar; j++) {
-                    if (((i >> j) & 1) == 1) {
-                        m.setColumnVector(k++, A.getColumnVector(j));
-                    }
-                }
-                Logistic log = new Logistic(m.getData(), y);
-                log.regression();
-                if(log.getAIC() < bestLog.getAIC()) {
-                    bestLog = log;
-                    bestI = i;
-                }
-                monitor.setProgress(50+i*50/nc);
+            BestModelSearch search = new BestModelSearch(fullLog, nVar, pruning);
+            bestI = search.search(monitor);
+            nbEvaluated = search.getNbEvaluated();
+            nbSkipped = search.getNbSkipped();
+            if(bestI != nc - 1) {
+                // recalculates the best model from zero as a single regression
+                bestLog = fullLog.getSubModel(search.getVarIndices(bestI));
+                bestLog.regression();
             }
+            Logger.getLogger(DistribModel.class.getName()).log(Level.FINE, 
+                    "Best model : " + nbEvaluated + " subsets evaluated, " + nbSkipped + " skipped");
         }
 
         usedVars = bestI;
@@ -328,12 +352,18 @@ public class DistribModel {
 
         msg += String.format("\n%s\nLikelihood ratio : %g\np : %g\nr2(McFadden) : %g\nAIC : %g",
                 lineStd, bestLog.getDiffLikelihood(), bestLog.getProbaTest(), bestLog.getR2(), bestLog.getAIC());
+        if(bestModel) {
+            msg += String.format("\nSubsets : %d evaluated, %d skipped", nbEvaluated, nbSkipped);
+        }
 
         return msg;
     }
 
     /**
      * Interpolates the distribution model to the whole area.
+     * With multiple attachment on a cost linkset, the distances are calculated from the patches 
+     * with a {@link PatchKernelGrid} when the raster contains more pixels than patches, 
+     * only the pixels not reached by any patch are calculated from the pixel.
      * 
      * @param project the project 
      * @param resol the resolution of the resulting raster
@@ -361,6 +391,20 @@ public class DistribModel {
         final WritableRaster raster = Raster.createWritableRaster(new ComponentSampleModel(DataBuffer.TYPE_FLOAT, wi,
                 h, 1, wi, new int[] {0}), null);
 
+        final List<String> patchVars = new ArrayList<>();
+        for(String var : vars) {
+            if(!var.startsWith("ext-")) {
+                patchVars.add(var);
+            }
+        }
+        final PatchKernelGrid grid = createKernelGrid(project, linkset, multiAttach, patchVars.size(), wi, h, minx, maxy, resol);
+        if(grid != null) {
+            monitor.setNote("Extrapolate from patches...");
+            if(!grid.accumulate(patchVars, alpha, dMax, true, monitor)) {
+                return null;
+            }
+        }
+        
         monitor.setNote("Extrapolate...");
         
         final LogisticFunction function = new LogisticFunction(coefs);
@@ -381,12 +425,13 @@ public class DistribModel {
                                 raster.setSample(x, y, 0, Float.NaN);
                                 continue;
                             }
+                            final boolean fromGrid = grid != null && grid.getWeight(x, y) > 0;
                             HashMap<DefaultFeature, Path> patchDists = new HashMap<>();
-                            if(multiAttach) {
+                            if(multiAttach && !fromGrid) {
                                 patchDists = pathFinder.calcPaths(c, dMax, false);
                             }
   
-                            if(patchDists.isEmpty()) {
+                            if(patchDists.isEmpty() && !fromGrid) {
                                 double [] d = pathFinder.calcPathNearestPatch(new GeometryFactory().createPoint(c));
                                 DefaultFeature patch = project.getPatch((int)d[0]);
                                 patchDists.put(patch, new Path(patch, patch, d[1], d[2]));
@@ -395,6 +440,7 @@ public class DistribModel {
                             double [] xVal = new double[coefs.length];
                             xVal[0] = 1;
                             int k = 1;
+                            int kPatch = 0;
                             for(String var : vars) {
                                 if(var.startsWith("ext-")) {
                                     try {
@@ -403,6 +449,8 @@ public class DistribModel {
                                         Logger.getLogger(DistribModel.class.getName()).log(Level.FINER, "Point is outside of grid " + var, ex);
                                         xVal[k] = Double.NaN;
                                     }
+                                } else if(fromGrid) {
+                                    xVal[k] = grid.getSum(kPatch++, x, y) / grid.getWeight(x, y);
                                 } else {
                                     double sum = 0;
                                     double weight = 0;
@@ -452,6 +500,9 @@ public class DistribModel {
     /**
      * Method for interpolating a patch metric in the whole area.
      * The calculation is parallelized.
+     * With multiple attachment on a cost linkset, the distances are calculated from the patches 
+     * with a {@link PatchKernelGrid} when the raster contains more pixels than patches, 
+     * only the pixels not reached by any patch are calculated from the pixel.
      * @param project the project
      * @param resol the resolution of the resulting raster
      * @param var the patch variable to interpolate
@@ -472,125 +523,80 @@ public class DistribModel {
         final double minx = project.getZone().getMinX() + (project.getZone().getWidth() - wi*resol) / 2 + resol / 2;
         final double maxy = project.getZone().getMaxY() - (project.getZone().getHeight() - h*resol) / 2 - resol / 2;
 
-        final WritableRaster raster;
+        final PatchKernelGrid grid = createKernelGrid(project, linkset, multiAttach, 1, wi, h, minx, maxy, resol);
+        if(grid != null) {
+            monitor.setNote("Interpolate from patches...");
+            if(!grid.accumulate(Collections.singletonList(var), alpha, dMax, avg, monitor)) {
+                return null;
+            }
+        }
 
         monitor.setNote("Interpolate...");
 
-        AbstractParallelFTask<RasterLayer, Void> task;
-        // calculates the distances from the pixel or from the patches ?
-        // It depends on a lot of criteria. The first solution can be used in all cases, but the second is faster for multiAttach in most cases
-        if(linkset.getType_dist() == Linkset.EUCLID || !multiAttach || avg || !linkset.isCostLength() || wi*h < project.getPatches().size()) {
-            raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, wi, h, 1), null);
-            task = new AbstractParallelFTask(monitor) {
-                @Override
-                protected Object execute(int start, int end) {
-                    try {
-                        SpacePathFinder pathFinder = project.getPathFinder(linkset);
-
-                        for(int y = start; y < end; y++) {
-                            for(int x = 0; x < wi; x++) {
-                                Coordinate c = new Coordinate(minx + x*resol, maxy - y*resol);
-                                if(isCanceled()) {
-                                    return null;
-                                }
-                                if(!project.isInZone(c.x, c.y)) {
-                                    raster.setSample(x, y, 0, Float.NaN);
-                                    continue;
-                                }
-                                HashMap<DefaultFeature, Path> patchDists = new HashMap<>();
-                                if(multiAttach) {
-                                    patchDists = pathFinder.calcPaths(c, dMax, false);
-                                }
-
-                                if(patchDists.isEmpty()) {
-                                    double [] d = pathFinder.calcPathNearestPatch(new GeometryFactory().createPoint(c));
-                                    DefaultFeature patch = project.getPatch((int)d[0]);
-                                    patchDists.put(patch, new Path(patch, patch, d[1], d[2]));
-                                }
-
-                                double sum = 0;
-                                double weight = 0;
-                                for(DefaultFeature patch : patchDists.keySet()) {
-                                    double w = Math.exp(-alpha * (linkset.isCostLength() ? patchDists.get(patch).getCost() : patchDists.get(patch).getDist()));
-                                    sum += ((Number)patch.getAttribute(var)).doubleValue() * w * (avg ? w : 1);
-                                    weight += w;
-                                }
-                                double val = sum / (avg ? weight : 1);
-                                raster.setSample(x, y, 0, val);
-                            }
-                            incProgress(1);
-                        }
-                    } catch(IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    return null;
-                }
+        final WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_FLOAT, wi, h, 1), null);
+        AbstractParallelFTask<RasterLayer, Void> task = new AbstractParallelFTask(monitor) {
+            @Override
+            protected Object execute(int start, int end) {
+                try {
+                    SpacePathFinder pathFinder = project.getPathFinder(linkset);
 
-                @Override
-                public int getSplitRange() {
-                    return h;
-                }
-                @Override
-                public void finish(Collection results) {  
-                }
-                @Override
-                public RasterLayer getResult() { 
-                    return new RasterLayer("_" + resol, 
-                        new RasterShape(raster, new Rectangle2D.Double(minx-resol/2, maxy-h*resol+resol/2, wi*resol, h*resol),
-                        new RasterStyle(), true), project.getCRS());
-                }
-            };
-        } else {
-            raster = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_DOUBLE, 
-                    project.getRasterPatch().getWidth(), project.getRasterPatch().getHeight(), 1), null);
-            task = new AbstractParallelFTask(monitor) {
-                @Override
-                protected Object execute(int start, int end) {
-                    try {
-                        RasterPathFinder pathFinder = project.getRasterPathFinder(linkset);
-                        for(Feature patch : project.getPatches().subList(start, end)) {
+                    for(int y = start; y < end; y++) {
+                        for(int x = 0; x < wi; x++) {
+                            Coordinate c = new Coordinate(minx + x*resol, maxy - y*resol);
                             if(isCanceled()) {
                                 return null;
                             }
-                            double patchVal = ((Number)patch.getAttribute(var)).doubleValue();
-                            Raster distRaster = pathFinder.getDistRaster(patch, dMax);
-                            Rectangle r = distRaster.getBounds();
-                            
-                            for(int y = (int)r.getMinY(); y < r.getMaxY(); y++) {
-                                for(int x = (int)r.getMinX(); x < r.getMaxX(); x++) {
-                                    double d = distRaster.getSampleDouble(x, y, 0);
-                                    if(d == Double.MAX_VALUE) {
-                                        continue;
-                                    }
-                                    double val = patchVal * Math.exp(-alpha * d);
-                                    synchronized(this) {
-                                        raster.setSample(x, y, 0, raster.getSampleDouble(x, y, 0) + val);
-                                    }
-                                }
+                            if(!project.isInZone(c.x, c.y)) {
+                                raster.setSample(x, y, 0, Float.NaN);
+                                continue;
                             }
-                            
-                            incProgress(1);
+                            if(grid != null && grid.getWeight(x, y) > 0) {
+                                raster.setSample(x, y, 0, grid.getSum(0, x, y) / (avg ? grid.getWeight(x, y) : 1));
+                                continue;
+                            }
+                            HashMap<DefaultFeature, Path> patchDists = new HashMap<>();
+                            if(multiAttach) {
+                                patchDists = pathFinder.calcPaths(c, dMax, false);
+                            }
+
+                            if(patchDists.isEmpty()) {
+                                double [] d = pathFinder.calcPathNearestPatch(new GeometryFactory().createPoint(c));
+                                DefaultFeature patch = project.getPatch((int)d[0]);
+                                patchDists.put(patch, new Path(patch, patch, d[1], d[2]));
+                            }
+
+                            double sum = 0;
+                            double weight = 0;
+                            for(DefaultFeature patch : patchDists.keySet()) {
+                                double w = Math.exp(-alpha * (linkset.isCostLength() ? patchDists.get(patch).getCost() : patchDists.get(patch).getDist()));
+                                sum += ((Number)patch.getAttribute(var)).doubleValue() * w * (avg ? w : 1);
+                                weight += w;
+                            }
+                            double val = sum / (avg ? weight : 1);
+                            raster.setSample(x, y, 0, val);
                         }
-                    } catch(IOException e) {
-                        throw new RuntimeException(e);
+                        incProgress(1);
                     }
-                    return null;
+                } catch(IOException e) {
+                    throw new RuntimeException(e);
                 }
+                return null;
+            }
 
-                @Override
-                public int getSplitRange() {
-                    return project.getPatches().size();
-                }
-                @Override
-                public void finish(Collection results) {  
-                }
-                @Override
-                public RasterLayer getResult() { 
-                    return new RasterLayer("_" + project.getResolution(), 
-                        new RasterShape(raster, project.getZone(), new RasterStyle(), true), project.getCRS());
-                }
-            };
-        }
+            @Override
+            public int getSplitRange() {
+                return h;
+            }
+            @Override
+            public void finish(Collection results) {  
+            }
+            @Override
+            public RasterLayer getResult() { 
+                return new RasterLayer("_" + resol, 
+                    new RasterShape(raster, new Rectangle2D.Double(minx-resol/2, maxy-h*resol+resol/2, wi*resol, h*resol),
+                    new RasterStyle(), true), project.getCRS());
+            }
+        };
         new ParallelFExecutor(task).executeAndWait();
         if(task.isCanceled()) { 
             return null;
@@ -598,4 +604,17 @@ public class DistribModel {
         
         return task.getResult();
     }
+
+    /**
+     * Creates the kernel grid for calculating the distances from the patches, if it can be used and if it is faster :
+     * multiple attachment on a cost linkset and more output pixels than patches.
+     * @return the grid or null if the distances must be calculated from the pixels
+     */
+    private static PatchKernelGrid createKernelGrid(Project project, Linkset linkset, boolean multiAttach, int nbVar, 
+            int w, int h, double minx, double maxy, double resol) {
+        if(!multiAttach || nbVar == 0 || (long)w*h < project.getPatches().size() || !PatchKernelGrid.isSupported(linkset, nbVar, w, h)) {
+            return null;
+        }
+        return new PatchKernelGrid(project, linkset, nbVar, w, h, minx, maxy, resol);
+    }
 }
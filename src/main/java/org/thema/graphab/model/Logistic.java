@@ -20,18 +20,26 @@
 package org.thema.graphab.model;
 
 import java.util.Arrays;
+import java.util.Collection;
 import org.apache.commons.math.FunctionEvaluationException;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.analysis.MultivariateRealFunction;
-import org.apache.commons.math.analysis.UnivariateRealFunction;
 import org.apache.commons.math.distribution.ChiSquaredDistributionImpl;
-import org.apache.commons.math.linear.ArrayRealVector;
+import org.apache.commons.math.linear.InvalidMatrixException;
 import org.apache.commons.math.linear.MatrixUtils;
 import org.apache.commons.math.linear.RealMatrix;
 import org.apache.commons.math.linear.RealVector;
+import org.thema.common.parallel.AbstractParallelFTask;
+import org.thema.common.parallel.ParallelFExecutor;
+import org.thema.common.swing.TaskMonitor;
 
 /**
  * Calculates a multivariate logistic regression.
+ * The regression uses iteratively reweighted least squares (IRLS).
+ * At each iteration, the rows are read by blocks of {@link #BLOCK_ROWS} for accumulating XᵀWX and the new coefficients,
+ * so the memory does not depend on n² and the blocks can be calculated in parallel.
+ * The block sums are merged in the order of the blocks, the result does not depend on the number of threads.
+ * A sub model on a subset of the variables ({@link #getSubModel(int[]) }) shares the rows of its model without copying them.
  * 
  * @author Gilles Vuidel
  */
@@ -57,17 +65,27 @@ public class Logistic {
         }
     }
 
+    /** Number of rows by block */
+    public static final int BLOCK_ROWS = 4096;
+    /** Ridge added to the diagonal of XᵀWX for stability, the regression maximizes ln(L) - RIDGE/2 * |coefs|² */
+    public static final double RIDGE = 1e-5;
+    
     private static int maxIter = 500;
     private static double epsilon = 1e-10;
 
-    private RealVector params;
+    private double [] params;
 
-    private RealMatrix A;
-    private RealVector Y;
+    /** the rows of the explained variables preceded by 1 for the constant, may be shared by several models */
+    private double [][] rows;
+    /** the columns of rows used by this model, the first is the constant */
+    private int [] cols;
+    private double [] y;
     private int nVar, n;
 
     private LogisticFunction estim;
     private Logistic constLog;
+    /** true if the last iterations have converged */
+    private boolean converged;
 
     /**
      * Creates a new logistic regression
@@ -75,26 +93,43 @@ public class Logistic {
      * @param y the binary variable (0 or 1) to explain
      */
     public Logistic(double[][] a, double [] y) {
-        Y = MatrixUtils.createRealVector(y);
+        this.y = y.clone();
         nVar = a[0].length;
         n = a.length;
 
-        A = MatrixUtils.createRealMatrix(n, nVar+1);
-        A.setSubMatrix(a, 0, 1);
+        rows = new double[n][nVar+1];
         for(int i = 0; i < n; i++) {
-            A.setEntry(i, 0, 1);
+            rows[i][0] = 1;
+            System.arraycopy(a[i], 0, rows[i], 1, nVar);
+        }
+        cols = new int[nVar+1];
+        for(int k = 0; k < cols.length; k++) {
+            cols[k] = k;
         }
     }
 
-    private Logistic(double [] y) {
-        Y = MatrixUtils.createRealVector(y);
-        nVar = 0;
-        n = y.length;
+    private Logistic(Logistic model, int [] cols) {
+        this.rows = model.rows;
+        this.y = model.y;
+        this.cols = cols;
+        nVar = cols.length-1;
+        n = model.n;
+        constLog = model.constLog;
+    }
 
-        A = MatrixUtils.createRealMatrix(n, 1);
-        for(int i = 0; i < n; i++) {
-            A.setEntry(i, 0, 1);
+    /**
+     * Creates the logistic regression on a subset of the explained variables.
+     * The sub model shares the data of this model and gives the same results as a new Logistic on the selected columns.
+     * @param vars the indices of the variables in increasing order, between 0 and nVar-1
+     * @return the new sub model, not calculated
+     */
+    public Logistic getSubModel(int [] vars) {
+        int [] subCols = new int[vars.length+1];
+        subCols[0] = cols[0];
+        for(int k = 0; k < vars.length; k++) {
+            subCols[k+1] = cols[vars[k]+1];
         }
+        return new Logistic(this, subCols);
     }
 
     /**
@@ -102,64 +137,225 @@ public class Logistic {
      * @return the coefficients of the logistic function, the first is the constant
      */
     public double[] getCoefs() {
-        return params.getData();
+        return params.clone();
     }
     
     /**
-     * Calculates the logisitic regression and returns the coefficients
+     * Calculates the logisitic regression in parallel and returns the coefficients
      * @return the coefficients of the logistic function
      * @throws FunctionEvaluationException 
      */
     public double [] regression() throws FunctionEvaluationException  {
-       
-        RealVector X = new ArrayRealVector(nVar+1);
+        return regression(true);
+    }
+    
+    /**
+     * Calculates the logisitic regression and returns the coefficients
+     * @param threaded calculates the blocks of rows in parallel, must be false when the regression is already called in a parallel task
+     * @return the coefficients of the logistic function
+     * @throws FunctionEvaluationException 
+     */
+    public double [] regression(boolean threaded) throws FunctionEvaluationException  {
+        return regression(threaded, null);
+    }
+    
+    /**
+     * Calculates the logisitic regression starting from init coefficients and returns the coefficients.
+     * A good starting point, for instance the coefficients of a close model, reduces the number of iterations,
+     * the coefficients can differ slightly from the regression started from zero.
+     * @param threaded calculates the blocks of rows in parallel, must be false when the regression is already called in a parallel task
+     * @param init the initial coefficients, the first is the constant, null for starting from zero
+     * @return the coefficients of the logistic function
+     * @throws FunctionEvaluationException 
+     */
+    public double [] regression(boolean threaded, double [] init) throws FunctionEvaluationException  {
+        params = iterate(threaded, init, RIDGE);
+        estim = new LogisticFunction(params);
 
-        double [] tmp = new double[nVar+1];
-        Arrays.fill(tmp, 1e-5);
-        RealMatrix ridge = MatrixUtils.createRealDiagonalMatrix(tmp);
+        if(nVar > 0 && constLog == null) {
+            constLog = new Logistic(this, new int[] {cols[0]});
+            constLog.regression(threaded);
+        }
 
-        RealVector oldExpY = null;
+        return params.clone();
+    }
+    
+    /**
+     * Returns the maximum of the log likelihood without the ridge.
+     * The iterations continue from the coefficients of the regression without the ridge.
+     * When the iterations do not converge (separated data or colinear variables), returns 0, the upper bound of any log likelihood.
+     * This value is an upper bound of the log likelihood of the regression of any subset of the variables, 
+     * up to the convergence precision.
+     * The method {@link #regression() } must be called before
+     * @param threaded calculates the blocks of rows in parallel, must be false when it is already called in a parallel task
+     * @return the maximum of the log likelihood or 0
+     */
+    public double getMaxLogLikelihood(boolean threaded) {
+        double [] x;
+        try {
+            x = iterate(threaded, params, 0);
+        } catch(InvalidMatrixException ex) {
+            return 0;
+        }
+        if(!converged) {
+            return 0;
+        }
+        double logL = getLogLikelihood(x);
+        if(Double.isNaN(logL)) {
+            return 0;
+        }
+        return Math.max(logL, getLogLikelihood());
+    }
+    
+    /**
+     * Iteratively reweighted least squares.
+     * Sets {@link #converged}.
+     * @param threaded calculates the blocks of rows in parallel
+     * @param init the initial coefficients or null for zero
+     * @param ridgeValue the ridge added to the diagonal of XᵀWX
+     * @return the coefficients after the last iteration
+     */
+    private double [] iterate(boolean threaded, double [] init, double ridgeValue) {
+        final int m = nVar+1;
+        final int nbBlocks = (n + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        double [] x = init == null ? new double[m] : init.clone();
+        converged = false;
+
+        double [] tmp = new double[m];
+        Arrays.fill(tmp, ridgeValue);
+        RealMatrix ridge = MatrixUtils.createRealDiagonalMatrix(tmp);
 
-        for(int i = 0; i < maxIter; i++) {
-            RealVector adjY = A.operate(X);
-            RealVector expY = adjY.copy();
-            expY.mapToSelf(new UnivariateRealFunction() {
+        final double [] expY = new double[n];
+        final double [] oldExpY = new double[n];
+        // the working response z
+        final double [] wadjY = new double[n];
+        final double [][][] blockXWX = new double[nbBlocks][][];
+        final double [] blockErr = new double[nbBlocks];
+        final double [][] blockX = new double[nbBlocks][];
+
+        for(int iter = 0; iter < maxIter; iter++) {
+            // first pass : weights, working response and XᵀWX
+            final double [] coefs = x;
+            execute(threaded, nbBlocks, new BlockCalc() {
                 @Override
-                public double value(double x)  {
-                    return 1 / (1 + Math.exp(-x));
+                public void calcBlock(int block, int start, int end) {
+                    double [][] xwx = new double[m][m];
+                    double err = 0;
+                    for(int i = start; i < end; i++) {
+                        final double [] row = rows[i];
+                        double adjY = 0;
+                        for(int k = 0; k < m; k++) {
+                            adjY += row[cols[k]] * coefs[k];
+                        }
+                        final double e = 1 / (1 + Math.exp(-adjY));
+                        final double w = e * (1-e);
+                        wadjY[i] = w * adjY + (y[i] - e);
+                        for(int r = 0; r < m; r++) {
+                            final double rw = row[cols[r]] * w;
+                            for(int c = 0; c < m; c++) {
+                                xwx[r][c] += rw * row[cols[c]];
+                            }
+                        }
+                        err += Math.abs(e - oldExpY[i]);
+                        expY[i] = e;
+                    }
+                    blockXWX[block] = xwx;
+                    blockErr[block] = err;
                 }
             });
-            RealVector deriv = expY.copy();
-            deriv.mapToSelf(new UnivariateRealFunction() {
+            double [][] xwx = new double[m][m];
+            double err = 0;
+            for(int b = 0; b < nbBlocks; b++) {
+                for(int r = 0; r < m; r++) {
+                    for(int c = 0; c < m; c++) {
+                        xwx[r][c] += blockXWX[b][r][c];
+                    }
+                }
+                err += blockErr[b];
+            }
+            final double [][] inv = MatrixUtils.createRealMatrix(xwx).add(ridge).inverse().getData();
+            
+            // second pass : x = (XᵀWX + ridge)⁻¹ Xᵀ z
+            execute(threaded, nbBlocks, new BlockCalc() {
                 @Override
-                public double value(double x) {
-                    return x * (1-x);
+                public void calcBlock(int block, int start, int end) {
+                    double [] sum = new double[m];
+                    for(int i = start; i < end; i++) {
+                        final double [] row = rows[i];
+                        for(int r = 0; r < m; r++) {
+                            double coef = 0;
+                            for(int k = 0; k < m; k++) {
+                                coef += inv[r][k] * row[cols[k]];
+                            }
+                            sum[r] += coef * wadjY[i];
+                        }
+                    }
+                    blockX[block] = sum;
                 }
             });
-            RealMatrix wadjY = MatrixUtils.createColumnRealMatrix(deriv.ebeMultiply(adjY).add(Y.subtract(expY)).getData());
-            RealMatrix weights = MatrixUtils.createRealDiagonalMatrix(deriv.getData());
-
-            RealMatrix res = A.transpose().multiply(weights).multiply(A).add(ridge).inverse().multiply(A.transpose()).multiply(wadjY);
-            X = res.getColumnVector(0);
+            x = new double[m];
+            for(int b = 0; b < nbBlocks; b++) {
+                for(int r = 0; r < m; r++) {
+                    x[r] += blockX[b][r];
+                }
+            }
 
-            if(oldExpY != null) {
-                double err = expY.subtract(oldExpY).getL1Norm();
-                if(Double.isNaN(err) || err < n*epsilon) {
+            if(iter > 0) {
+                if(Double.isNaN(err)) {
+                    break;
+                }
+                if(err < n*epsilon) {
+                    converged = true;
                     break;
                 }
             }
-            oldExpY = expY;
+            System.arraycopy(expY, 0, oldExpY, 0, n);
         } 
 
-        params = X;
-        estim = new LogisticFunction(params.getData());
+        return x;
+    }
 
-        if(nVar > 0) {
-            constLog = new Logistic(Y.getData());
-            constLog.regression();
+    /**
+     * Calculation on a block of rows
+     */
+    private interface BlockCalc {
+        void calcBlock(int block, int start, int end);
+    }
+    
+    /**
+     * Executes the calculation on all the blocks of rows
+     * @param threaded parallel or sequential execution
+     * @param nbBlocks the number of blocks
+     * @param calc the calculation
+     */
+    private void execute(boolean threaded, final int nbBlocks, final BlockCalc calc) {
+        if(!threaded || nbBlocks == 1) {
+            for(int b = 0; b < nbBlocks; b++) {
+                calc.calcBlock(b, b*BLOCK_ROWS, Math.min(n, (b+1)*BLOCK_ROWS));
+            }
+            return;
         }
-
-        return X.getData();
+        AbstractParallelFTask task = new AbstractParallelFTask(new TaskMonitor.EmptyMonitor()) {
+            @Override
+            protected Object execute(int start, int end) {
+                for(int b = start; b < end; b++) {
+                    calc.calcBlock(b, b*BLOCK_ROWS, Math.min(n, (b+1)*BLOCK_ROWS));
+                }
+                return null;
+            }
+            @Override
+            public int getSplitRange() {
+                return nbBlocks;
+            }
+            @Override
+            public void finish(Collection results) {
+            }
+            @Override
+            public Object getResult() {
+                return null;
+            }
+        };
+        new ParallelFExecutor(task).executeAndWait();
     }
 
     /**
@@ -177,29 +373,70 @@ public class Logistic {
     public double [] getEstimation() {
         double [] y = new double[n];
         for(int i = 0; i < n; i++) {
-            y[i] = estim.value(A.getRow(i));
+            y[i] = estimate(rows[i]);
         }
         return y;
     }
 
     /**
+     * Same as {@link LogisticFunction#value } on the columns used by this model
+     * @param row a row of the data
+     * @return the estimated value for the row
+     */
+    private double estimate(double [] row) {
+        return estimate(row, params);
+    }
+    
+    private double estimate(double [] row, double [] coefs) {
+        double dot = 0;
+        for(int k = 0; k < coefs.length; k++) {
+            dot += coefs[k] * row[cols[k]];
+        }
+        return 1 / (1 + Math.exp(-dot));
+    }
+    
+    /**
+     * The likelihood underflows to zero for large data sets, prefer {@link #getLogLikelihood() }.
      * The method {@link #regression() } must be called before
      * @return the likelihood of the regression
      */
     public double getLikelihood() {
         double prod = 1;
         for(int i = 0; i < n; i++) {
-            prod *= Math.pow(estim.value(A.getRow(i)), Y.getEntry(i)) * Math.pow(1-estim.value(A.getRow(i)), 1-Y.getEntry(i));
+            prod *= Math.pow(estimate(rows[i]), y[i]) * Math.pow(1-estimate(rows[i]), 1-y[i]);
         }
         return prod;
     }
 
+    /**
+     * Sums the log of the probability of each row, does not underflow as {@link #getLikelihood() }.
+     * The method {@link #regression() } must be called before
+     * @return the log likelihood of the regression
+     */
+    public double getLogLikelihood() {
+        return getLogLikelihood(params);
+    }
+    
+    private double getLogLikelihood(double [] coefs) {
+        double sum = 0;
+        for(int i = 0; i < n; i++) {
+            final double p = estimate(rows[i], coefs);
+            if(y[i] > 0) {
+                sum += y[i] * Math.log(p);
+            }
+            if(y[i] < 1) {
+                sum += (1-y[i]) * Math.log(1-p);
+            }
+        }
+        return sum;
+    }
+
     /**
      * The method {@link #regression() } must be called before
      * @return the likelihood ratio
      */
     public double getDiffLikelihood() {
-        return -2 * Math.log(constLog.getLikelihood() / getLikelihood());
+        return -2 * (constLog.getLogLikelihood() - getLogLikelihood());
     }
 
     /**
@@ -218,7 +455,7 @@ public class Logistic {
      * @return the r square of the regression
      */
     public double getR2() {
-        return 1 - Math.log(getLikelihood()) / Math.log(constLog.getLikelihood());
+        return 1 - getLogLikelihood() / constLog.getLogLikelihood();
     }
 
     /**
@@ -226,7 +463,7 @@ public class Logistic {
      * @return the AIC of the regression
      */
     public double getAIC() {
-        return 2 * nVar - 2 * Math.log(getLikelihood());
+        return 2 * nVar - 2 * getLogLikelihood();
     }
 
 }
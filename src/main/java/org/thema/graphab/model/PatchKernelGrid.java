@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.model;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.util.AffineTransformation;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import org.thema.common.ProgressBar;
+import org.thema.common.parallel.AbstractParallelFTask;
+import org.thema.common.parallel.ParallelFExecutor;
+import org.thema.data.feature.Feature;
+import org.thema.graphab.Project;
+import org.thema.graphab.links.Linkset;
+import org.thema.graphab.links.RasterPathFinder;
+
+/**
+ * Sums of the exponential kernel of the patches on an output grid, for interpolation and extrapolation with multiple attachment.<br/>
+ * Instead of calculating the paths from each output pixel, the cost distances are calculated once from each patch
+ * up to the max distance ({@link RasterPathFinder#getDistRaster }) and the kernel is added to the output pixels
+ * whose center is inside the distance raster, whatever the output resolution.
+ * For each output pixel, the grid stores the sum of the weights w = exp(-alpha*d) and for each variable
+ * the sum of value*w or value*w<sup>2</sup>.<br/>
+ * The distances are calculated from the patch instead of from the pixel, so they can differ slightly
+ * from the pixel method when the cost of the start pixel is replaced by the patch cost.
+ * A pixel with a null weight is not reached by any patch and must be calculated with the pixel method.
+ * The patches are processed in parallel, the rows of the grid are locked by stripes.
+ *
+ * @author Gilles Vuidel
+ */
+final class PatchKernelGrid {
+
+    /** Part of the memory that the grid can use */
+    private static final int MEMORY_RATIO = 4;
+    /** Number of locks for the rows of the grid */
+    private static final int NB_LOCKS = 64;
+
+    private final Project project;
+    private final Linkset linkset;
+    private final int w, h;
+    /** column (resp. row) of the landscape raster of each output column (resp. row) */
+    private final int [] gridX, gridY;
+    private final double [] weights;
+    private final double [][] sums;
+    private final Object [] locks;
+
+    /**
+     * Creates an empty grid.
+     * @param project the project
+     * @param linkset the linkset, must be a cost linkset
+     * @param nbVar the number of variables
+     * @param w the width of the output grid
+     * @param h the height of the output grid
+     * @param minx the x coordinate of the center of the first column
+     * @param maxy the y coordinate of the center of the first row
+     * @param resol the resolution of the output grid
+     */
+    PatchKernelGrid(Project project, Linkset linkset, int nbVar, int w, int h, double minx, double maxy, double resol) {
+        this.project = project;
+        this.linkset = linkset;
+        this.w = w;
+        this.h = h;
+        AffineTransformation space2grid = project.getSpace2grid();
+        Coordinate c = new Coordinate();
+        gridX = new int[w];
+        for(int x = 0; x < w; x++) {
+            space2grid.transform(new Coordinate(minx + x*resol, maxy), c);
+            gridX[x] = (int)c.x;
+        }
+        gridY = new int[h];
+        for(int y = 0; y < h; y++) {
+            space2grid.transform(new Coordinate(minx, maxy - y*resol), c);
+            gridY[y] = (int)c.y;
+        }
+        weights = new double[w*h];
+        sums = new double[nbVar][w*h];
+        locks = new Object[NB_LOCKS];
+        for(int i = 0; i < NB_LOCKS; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Checks if the grid can be used.
+     * The linkset must be a cost linkset with cost length and the grid must fit in a part of the memory.
+     * @param linkset the linkset
+     * @param nbVar the number of variables
+     * @param w the width of the output grid
+     * @param h the height of the output grid
+     * @return true if the grid can be used
+     */
+    static boolean isSupported(Linkset linkset, int nbVar, int w, int h) {
+        if(linkset.getType_dist() == Linkset.EUCLID || !linkset.isCostLength()) {
+            return false;
+        }
+        return 8L * (nbVar+1) * w * h < Runtime.getRuntime().maxMemory() / MEMORY_RATIO;
+    }
+
+    /**
+     * Calculates the distances from each patch and accumulates the kernel in the grid.
+     * @param vars the patch variables
+     * @param alpha the coefficient of exponential decrease of the distance
+     * @param dMax the max distance in the linkset unit, 0 for no max
+     * @param square if true the variable sums are weighted by w<sup>2</sup> else by w
+     * @param monitor the progress monitor
+     * @return false if the calculation has been cancelled
+     */
+    boolean accumulate(final List<String> vars, final double alpha, final double dMax, final boolean square, ProgressBar monitor) {
+        AbstractParallelFTask task = new AbstractParallelFTask(monitor) {
+            @Override
+            protected Object execute(int start, int end) {
+                final double [] rowWeights = new double[w];
+                final double [][] rowSums = new double[vars.size()][w];
+                final double [] patchVals = new double[vars.size()];
+                try {
+                    RasterPathFinder pathFinder = linkset.borrowPathFinder();
+                    try {
+                        for(Feature patch : project.getPatches().subList(start, end)) {
+                            if(isCanceled()) {
+                                return null;
+                            }
+                            for(int k = 0; k < patchVals.length; k++) {
+                                patchVals[k] = ((Number)patch.getAttribute(vars.get(k))).doubleValue();
+                            }
+                            Raster distRaster = pathFinder.getDistRaster(patch, dMax);
+                            Rectangle r = distRaster.getBounds();
+                            final int x0 = first(gridX, r.x);
+                            final int x1 = first(gridX, r.x + r.width);
+                            if(x0 == x1) {
+                                incProgress(1);
+                                continue;
+                            }
+                            for(int y = first(gridY, r.y); y < h && gridY[y] < r.y + r.height; y++) {
+                                boolean found = false;
+                                for(int x = x0; x < x1; x++) {
+                                    final double d = distRaster.getSampleDouble(gridX[x], gridY[y], 0);
+                                    // not reached, in double or float precision
+                                    if(d >= Float.MAX_VALUE || dMax > 0 && d > dMax) {
+                                        rowWeights[x] = 0;
+                                        continue;
+                                    }
+                                    final double weight = Math.exp(-alpha * d);
+                                    rowWeights[x] = weight;
+                                    for(int k = 0; k < patchVals.length; k++) {
+                                        rowSums[k][x] = patchVals[k] * weight * (square ? weight : 1);
+                                    }
+                                    found = true;
+                                }
+                                if(!found) {
+                                    continue;
+                                }
+                                final int row = y*w;
+                                synchronized(locks[y % NB_LOCKS]) {
+                                    for(int x = x0; x < x1; x++) {
+                                        if(rowWeights[x] > 0) {
+                                            weights[row+x] += rowWeights[x];
+                                            for(int k = 0; k < patchVals.length; k++) {
+                                                sums[k][row+x] += rowSums[k][x];
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                            incProgress(1);
+                        }
+                    } finally {
+                        linkset.releasePathFinder(pathFinder);
+                    }
+                } catch(IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }
+
+            @Override
+            public int getSplitRange() {
+                return project.getPatches().size();
+            }
+            @Override
+            public void finish(Collection results) {
+            }
+            @Override
+            public Object getResult() {
+                return null;
+            }
+        };
+        new ParallelFExecutor(task).executeAndWait();
+        return !task.isCanceled();
+    }
+
+    /**
+     * @param x the column
+     * @param y the row
+     * @return the sum of the weights of the patches reaching the pixel, 0 if no patch reaches the pixel
+     */
+    double getWeight(int x, int y) {
+        return weights[y*w+x];
+    }
+
+    /**
+     * @param k the index of the variable
+     * @param x the column
+     * @param y the row
+     * @return the weighted sum of the variable k
+     */
+    double getSum(int k, int x, int y) {
+        return sums[k][y*w+x];
+    }
+
+    /**
+     * @param grid the sorted landscape coordinates of the output pixels
+     * @param v a landscape coordinate
+     * @return the first index whose coordinate is greater or equal to v
+     */
+    private static int first(int [] grid, int v) {
+        int lo = 0;
+        int hi = grid.length;
+        while(lo < hi) {
+            final int m = (lo + hi) >>> 1;
+            if(grid[m] < v) {
+                lo = m+1;
+            } else {
+                hi = m;
+            }
+        }
+        return lo;
+    }
+}
@@ -19,7 +19,10 @@
 
 package org.thema.graphab.pointset;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import org.thema.data.GlobalDataStore;
 import org.thema.data.feature.DefaultFeature;
 import org.thema.graphab.links.Linkset;
 
@@ -38,6 +41,7 @@ public class Pointset {
     private final int agregType;
 
     private transient List<DefaultFeature> features;
+    private transient File file;
 
     /**
      * Creates a new Pointset.
@@ -57,10 +61,19 @@ public class Pointset {
 
     /**
      * Returns the features representing the point set.
-     * {@link#setFeatures} must be called before
+     * {@link#setFeatures} or {@link #setFile} must be called before.
+     * The features are loaded from the file at the first call.
      * @return the features representing the point set or null
+     * @throws RuntimeException if the features cannot be loaded, the cause is the IOException
      */
-    public List<DefaultFeature> getFeatures() {
+    public synchronized List<DefaultFeature> getFeatures() {
+        if(features == null && file != null) {
+            try {
+                loadFeatures();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
         return features;
     }
 
@@ -68,10 +81,29 @@ public class Pointset {
      * Set the features representing the point set.
      * @param features 
      */
-    public void setFeatures(List<DefaultFeature> features) {
+    public synchronized void setFeatures(List<DefaultFeature> features) {
         this.features = features;
     }
 
+    /**
+     * Sets the shapefile of the features, they will be loaded at the first call of {@link #getFeatures}.
+     * Used only for project loading.
+     * @param file the shapefile of the point set
+     */
+    public synchronized void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the features from the file if they are not already loaded.
+     * @throws IOException 
+     */
+    public synchronized void loadFeatures() throws IOException {
+        if(features == null) {
+            features = GlobalDataStore.getFeatures(file, "Id", null);
+        }
+    }
+
     /**
      * @return the linkset associated with this point set
      */
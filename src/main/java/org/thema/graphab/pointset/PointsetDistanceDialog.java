@@ -27,9 +27,11 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
+import org.geotools.graph.structure.Node;
 import org.thema.common.Config;
 import org.thema.common.ProgressBar;
 import org.thema.common.parallel.ParallelFExecutor;
@@ -449,7 +451,7 @@ public class PointsetDistanceDialog extends javax.swing.JDialog {
                         for(int i = 0; i < exos.size(); i++) {
                             Feature exo1 = exos.get(i);
                             Feature patch1 = project.getPatch((Integer)exo1.getAttribute(Project.EXO_IDPATCH));
-
+                            Map<Node, Double> rs = circuit.computeRs(graph.getNode(patch1));
                             for(int j = 0; j < exos.size(); j++) {
                                 if(i == j) {
                                     continue;
@@ -459,7 +461,8 @@ public class PointsetDistanceDialog extends javax.swing.JDialog {
                                 if(patch1.equals(patch2)) {
                                     continue;
                                 }
-                                distances[i][j][0] = circuit.computeR(graph.getNode(patch1), graph.getNode(patch2));
+                                Double r = rs.get(graph.getNode(patch2));
+                                distances[i][j][0] = r == null ? Double.POSITIVE_INFINITY : r;
                             }
                             mon.incProgress(1);
                         }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import java.awt.image.WritableRaster;
+import java.util.concurrent.CancellationException;
+import org.thema.common.ProgressBar;
+import org.thema.common.swing.TaskMonitor;
+import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
+
+/**
+ * Labelled euclidean distance transform on a patch raster.<br/>
+ * The distance between a pixel and a patch is the distance between the center of the pixel
+ * and the nearest pixel square of the patch, as the distance to the patch polygon.
+ * This distance is separable : for an offset (dx, dy) between the pixel and a patch pixel, the squared distance
+ * is h(dx) + h(dy) with h(k) = (|k| - 1/2)<sup>2</sup> and h(0) = 0.
+ * The transform is done in two passes (Felzenszwalb and Huttenlocher) :
+ * the first one finds the nearest patch pixel in each column, the second one calculates in each row
+ * the lower envelope of the functions h(x - v) + g(v) where g(v) is the result of the first pass for the column v.
+ * The distances are calculated in quarter of squared pixel, so they are exact integers.<br/>
+ * The columns and the rows are processed in parallel.
+ *
+ * @author Gilles Vuidel
+ */
+public final class DistanceTransform {
+
+    private DistanceTransform() {
+    }
+
+    /**
+     * Fills each pixel of value 0 with the id of the nearest patch.
+     * The patch pixels (value &gt; 0) and the nodata pixels (value &lt; 0) are not modified,
+     * the distance does not depend on the nodata pixels.
+     * When several patches are at the same distance, one of them is chosen.
+     * @param raster the patch raster
+     * @param monitor the progress monitor
+     * @throws CancellationException if the task is cancelled
+     */
+    public static void voronoi(final WritableRaster raster, ProgressBar monitor) {
+        final int w = raster.getWidth();
+        final int h = raster.getHeight();
+        final int x0 = raster.getMinX();
+        final int y0 = raster.getMinY();
+        // row of the nearest patch pixel in the same column, -1 if none
+        final int [] nearestRow = new int[w*h];
+
+        AbstractParallelTask colTask = new AbstractParallelTask<Void, Void>(new TaskMonitor.EmptyMonitor()) {
+            @Override
+            public Void execute(int start, int end) {
+                int [] col = new int[h];
+                for(int x = start; x < end; x++) {
+                    raster.getSamples(x0+x, y0, 1, h, 0, col);
+                    int last = -1;
+                    for(int y = 0; y < h; y++) {
+                        if(col[y] > 0) {
+                            last = y;
+                        }
+                        nearestRow[y*w+x] = last;
+                    }
+                    last = -1;
+                    for(int y = h-1; y >= 0; y--) {
+                        if(col[y] > 0) {
+                            last = y;
+                        }
+                        final int ind = y*w+x;
+                        if(last != -1 && (nearestRow[ind] == -1 || last-y < y-nearestRow[ind])) {
+                            nearestRow[ind] = last;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public int getSplitRange() {
+                return w;
+            }
+            @Override
+            public void gather(Void results) {
+            }
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+        ExecutorService.execute(colTask);
+
+        AbstractParallelTask rowTask = new AbstractParallelTask<Void, Void>(monitor) {
+            @Override
+            public Void execute(int start, int end) {
+                final int [] row = new int[w];
+                final long [] g = new long[w];
+                // columns of the lower envelope and first position where each one is the nearest
+                final int [] v = new int[w];
+                final int [] z = new int[w];
+                for(int y = start; y < end; y++) {
+                    if(isCanceled()) {
+                        throw new CancellationException();
+                    }
+                    raster.getSamples(x0, y0+y, w, 1, 0, row);
+                    int k = -1;
+                    for(int x = 0; x < w; x++) {
+                        final int r = nearestRow[y*w+x];
+                        if(r == -1) {
+                            continue;
+                        }
+                        g[x] = dist(y - r);
+                        int s = 0;
+                        while(k >= 0) {
+                            s = intersect(v[k], x, g, w);
+                            if(s > z[k]) {
+                                break;
+                            }
+                            k--;
+                        }
+                        if(k == -1) {
+                            v[0] = x;
+                            z[0] = 0;
+                            k = 0;
+                        } else if(s < w) {
+                            k++;
+                            v[k] = x;
+                            z[k] = s;
+                        }
+                    }
+                    if(k == -1) {
+                        incProgress(1);
+                        continue;
+                    }
+                    int j = 0;
+                    for(int x = 0; x < w; x++) {
+                        while(j < k && z[j+1] <= x) {
+                            j++;
+                        }
+                        if(row[x] == 0) {
+                            // the nearest patch pixel is never modified, it can be read while other rows are written
+                            row[x] = raster.getSample(x0+v[j], y0+nearestRow[y*w+v[j]], 0);
+                        }
+                    }
+                    raster.setSamples(x0, y0+y, w, 1, 0, row);
+                    incProgress(1);
+                }
+                return null;
+            }
+
+            @Override
+            public int getSplitRange() {
+                return h;
+            }
+            @Override
+            public void gather(Void results) {
+            }
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+        ExecutorService.execute(rowTask);
+        if(rowTask.isCanceled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Returns the smallest position t where the column b is strictly nearer than the column a.
+     * The difference between the distances of a and b is non decreasing with t, so a binary search is sufficient.
+     * @param a the first column
+     * @param b the second column, b &gt; a
+     * @param g the squared distances of the first pass
+     * @param w the width of the row
+     * @return the position or w if b is never nearer
+     */
+    private static int intersect(int a, int b, long [] g, int w) {
+        int lo = 0;
+        int hi = w;
+        while(lo < hi) {
+            final int t = (lo + hi) >>> 1;
+            if(dist(t - b) + g[b] < dist(t - a) + g[a]) {
+                hi = t;
+            } else {
+                lo = t+1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param k the offset in pixel along one axis
+     * @return 4*h(k), (2|k| - 1)^2 or 0 for k = 0
+     */
+    private static long dist(int k) {
+        if(k == 0) {
+            return 0;
+        }
+        final long d = 2L*Math.abs(k) - 1;
+        return d*d;
+    }
+}
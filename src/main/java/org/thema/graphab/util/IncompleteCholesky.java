@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import no.uib.cipr.matrix.Matrix;
+import no.uib.cipr.matrix.Vector;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+import no.uib.cipr.matrix.sparse.Preconditioner;
+
+/**
+ * Incomplete Cholesky preconditioner without fill-in, ICC(0), for symmetric sparse matrices.<br/>
+ * The factor L has the same sparsity than the lower part of the matrix, A ~ L.L<sup>T</sup>.
+ * Unlike the MTJ ICC class, the factorization works only on the sparse rows,
+ * so its cost is proportional to the number of non zero elements.<br/>
+ * The matrix can be singular like the laplacian of an electric circuit :
+ * a pivot which vanishes is replaced by the diagonal element of the matrix.
+ *
+ * @author Gilles Vuidel
+ */
+public final class IncompleteCholesky implements Preconditioner {
+
+    /** Relative threshold under which a pivot is considered null */
+    private static final double PIVOT_TOL = 1e-10;
+
+    private int n;
+    /** lower part of the factor in compressed row format, the diagonal is the last element of each row */
+    private int [] rowPtr, colInd;
+    private double [] data;
+
+    /**
+     * Copies the lower part of A and calculates the incomplete factorization.
+     * @param A a symmetric {@link CompRowMatrix} with sorted column indices and non null diagonal
+     * @throws IllegalArgumentException if A is not a CompRowMatrix or a diagonal element is missing
+     */
+    @Override
+    public void setMatrix(Matrix A) {
+        if(!(A instanceof CompRowMatrix)) {
+            throw new IllegalArgumentException("ICC needs a CompRowMatrix");
+        }
+        CompRowMatrix M = (CompRowMatrix) A;
+        final int [] aPtr = M.getRowPointers();
+        final int [] aInd = M.getColumnIndices();
+        final double [] aData = M.getData();
+        n = M.numRows();
+
+        rowPtr = new int[n+1];
+        for(int i = 0; i < n; i++) {
+            int nb = 0;
+            for(int k = aPtr[i]; k < aPtr[i+1]; k++) {
+                if(aInd[k] <= i) {
+                    nb++;
+                }
+            }
+            rowPtr[i+1] = rowPtr[i] + nb;
+        }
+        colInd = new int[rowPtr[n]];
+        data = new double[rowPtr[n]];
+        for(int i = 0; i < n; i++) {
+            int p = rowPtr[i];
+            for(int k = aPtr[i]; k < aPtr[i+1]; k++) {
+                if(aInd[k] <= i) {
+                    colInd[p] = aInd[k];
+                    data[p] = aData[k];
+                    p++;
+                }
+            }
+            if(p == rowPtr[i] || colInd[p-1] != i) {
+                throw new IllegalArgumentException("Missing diagonal element at row " + i);
+            }
+        }
+
+        factor();
+    }
+
+    private void factor() {
+        for(int i = 0; i < n; i++) {
+            final int diag = rowPtr[i+1]-1;
+            for(int k = rowPtr[i]; k < diag; k++) {
+                final int j = colInd[k];
+                final int diagJ = rowPtr[j+1]-1;
+                // L(i,j) = (A(i,j) - sum L(i,c).L(j,c)) / L(j,j) for the common columns c < j
+                double s = data[k];
+                int p = rowPtr[i];
+                int q = rowPtr[j];
+                while(p < k && q < diagJ) {
+                    if(colInd[p] == colInd[q]) {
+                        s -= data[p] * data[q];
+                        p++;
+                        q++;
+                    } else if(colInd[p] < colInd[q]) {
+                        p++;
+                    } else {
+                        q++;
+                    }
+                }
+                data[k] = s / data[diagJ];
+            }
+            final double aii = data[diag];
+            double d = aii;
+            for(int k = rowPtr[i]; k < diag; k++) {
+                d -= data[k] * data[k];
+            }
+            if(d <= PIVOT_TOL * aii) {
+                d = aii;
+            }
+            data[diag] = Math.sqrt(d);
+        }
+    }
+
+    /**
+     * Solves L.L<sup>T</sup>.x = b
+     * @param b the right hand side
+     * @param x the result
+     * @return x
+     */
+    @Override
+    public Vector apply(Vector b, Vector x) {
+        final double [] y = new double[n];
+        // forward substitution L.y = b
+        for(int i = 0; i < n; i++) {
+            final int diag = rowPtr[i+1]-1;
+            double s = b.get(i);
+            for(int k = rowPtr[i]; k < diag; k++) {
+                s -= data[k] * y[colInd[k]];
+            }
+            y[i] = s / data[diag];
+        }
+        // backward substitution L^T.x = y
+        for(int i = n-1; i >= 0; i--) {
+            final int diag = rowPtr[i+1]-1;
+            final double xi = y[i] / data[diag];
+            y[i] = xi;
+            for(int k = rowPtr[i]; k < diag; k++) {
+                y[colInd[k]] -= data[k] * xi;
+            }
+        }
+        for(int i = 0; i < n; i++) {
+            x.set(i, y[i]);
+        }
+        return x;
+    }
+
+    /**
+     * The preconditioner is symmetric
+     * @param b the right hand side
+     * @param x the result
+     * @return x
+     */
+    @Override
+    public Vector transApply(Vector b, Vector x) {
+        return apply(b, x);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue of indices (pixels, graph vertices...) for the dijkstra algorithms
+ * of {@link org.thema.graphab.links.RasterPathFinder} and {@link org.thema.graphab.graph.CompactPathFinder}.<br/>
+ * Binary heap stored in two primitive arrays (index and distance), no object is created for each element.
+ * The arrays are kept between two searches, {@link #clear() } just resets the size.<br/>
+ * The sift operations are the same as java.util.PriorityQueue, so elements with equal distance
+ * are polled in the same order than a PriorityQueue and the paths are exactly the same.
+ * An index can be added several times, the caller must ignore obsolete entries.
+ *
+ * @author Gilles Vuidel
+ */
+public final class IndexQueue {
+
+    private static final int INIT_CAPACITY = 1024;
+
+    private int [] inds;
+    private double [] dists;
+    private int size;
+
+    /**
+     * Creates an empty queue with the default initial capacity
+     */
+    public IndexQueue() {
+        this(INIT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty queue
+     * @param capacity the initial capacity, the queue grows if needed
+     */
+    public IndexQueue(int capacity) {
+        inds = new int[Math.max(1, capacity)];
+        dists = new double[inds.length];
+        size = 0;
+    }
+
+    /**
+     * Removes all elements, the memory is kept for the next search
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return true if the queue does not contain any element
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of entries in the queue
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the head of the queue
+     */
+    public int peekInd() {
+        return inds[0];
+    }
+
+    /**
+     * @return the distance of the head of the queue
+     */
+    public double peekDist() {
+        return dists[0];
+    }
+
+    /**
+     * Adds an index in the queue
+     * @param ind the index
+     * @param dist the distance of the index
+     */
+    public void add(int ind, double dist) {
+        if(size == inds.length) {
+            grow();
+        }
+        int k = size++;
+        while(k > 0) {
+            int parent = (k - 1) >>> 1;
+            if(dist >= dists[parent]) {
+                break;
+            }
+            inds[k] = inds[parent];
+            dists[k] = dists[parent];
+            k = parent;
+        }
+        inds[k] = ind;
+        dists[k] = dist;
+    }
+
+    /**
+     * Removes the head of the queue.
+     * Use {@link #peekInd() } and {@link #peekDist() } before to retrieve it.
+     * @throws IllegalStateException if the queue is empty
+     */
+    public void poll() {
+        if(size == 0) {
+            throw new IllegalStateException("Empty queue");
+        }
+        int s = --size;
+        if(s == 0) {
+            return;
+        }
+        final int ind = inds[s];
+        final double dist = dists[s];
+        final int half = s >>> 1;
+        int k = 0;
+        while(k < half) {
+            int child = 2*k + 1;
+            int right = child + 1;
+            if(right < s && dists[child] > dists[right]) {
+                child = right;
+            }
+            if(dist <= dists[child]) {
+                break;
+            }
+            inds[k] = inds[child];
+            dists[k] = dists[child];
+            k = child;
+        }
+        inds[k] = ind;
+        dists[k] = dist;
+    }
+
+    private void grow() {
+        int capacity = inds.length * 2;
+        inds = Arrays.copyOf(inds, capacity);
+        dists = Arrays.copyOf(dists, capacity);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Integer raster stored in an uncompressed file and accessed through memory mapping.<br/>
+ * The file is created from the tiff file the first time and each time the tiff file is newer.
+ * It contains a header (magic, version, width, height) followed by the pixels in row order (little endian int).
+ * The pixels are mapped in segments of 1 Go, the pages are shared by the OS page cache between all the JVMs
+ * using the same project, so the raster does not use the heap and cannot be reclaimed by the garbage collector.<br/>
+ * The mapping is private : the modifications of the raster (ie. when adding patches) are not written in the file
+ * and are not seen by the other JVMs.
+ * The returned raster is a standard {@link WritableRaster}, the pixels are read with the Raster methods.
+ * The offsets in the file are calculated in long, the number of pixels is limited to Integer.MAX_VALUE
+ * by the int index of {@link DataBuffer}.
+ *
+ * @author Gilles Vuidel
+ */
+public final class MappedRaster {
+
+    private static final int MAGIC = 0x47524153;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    /** Number of pixels by mapped segment : 2^28 */
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    /** Number of rows read at once from the tiff when creating the file */
+    private static final int BAND_HEIGHT = 256;
+
+    private MappedRaster() {
+    }
+
+    /**
+     * @param tifFile the tiff file
+     * @return the mapped file associated with the tiff file
+     */
+    public static File getMappedFile(File tifFile) {
+        String name = tifFile.getName();
+        int ind = name.lastIndexOf('.');
+        return new File(tifFile.getParentFile(), (ind > 0 ? name.substring(0, ind) : name) + "-raster.bin");
+    }
+
+    /**
+     * Returns the raster of the tiff file through its mapped file.
+     * The mapped file is created before if needed.
+     * @param tifFile the tiff file
+     * @param img the image of the tiff file
+     * @param location the location of the upper left pixel of the returned raster
+     * @return the raster
+     * @throws IOException
+     */
+    public static WritableRaster getRaster(File tifFile, RenderedImage img, Point location) throws IOException {
+        File file = getMappedFile(tifFile);
+        if(!file.exists() || file.lastModified() < tifFile.lastModified()) {
+            create(img, file);
+        }
+        return map(file, location);
+    }
+
+    /**
+     * Writes the image into the mapped file format.
+     * The image is read by bands of rows to avoid loading the whole image.
+     * The file is written in a temporary file and then renamed,
+     * so that several JVMs can create the same file at the same time.
+     * @param img the image
+     * @param file the file to create
+     * @throws IOException
+     */
+    private static void create(RenderedImage img, File file) throws IOException {
+        final int w = img.getWidth();
+        final int h = img.getHeight();
+        checkSize(w, h);
+        // number of rows of the band buffer, its size in bytes must fit in an int
+        final int bandHeight = (int)Math.max(1, Math.min(Math.min(BAND_HEIGHT, h), Integer.MAX_VALUE / (4L*w)));
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(w).putInt(h);
+                header.flip();
+                channel.write(header);
+                int [] samples = null;
+                ByteBuffer buf = ByteBuffer.allocate(4 * w * bandHeight).order(ByteOrder.LITTLE_ENDIAN);
+                for(int y = 0; y < h; y += bandHeight) {
+                    final int bh = Math.min(bandHeight, h - y);
+                    Raster band = img.getData(new Rectangle(img.getMinX(), img.getMinY() + y, w, bh));
+                    samples = band.getSamples(img.getMinX(), img.getMinY() + y, w, bh, 0, samples);
+                    buf.clear();
+                    buf.asIntBuffer().put(samples, 0, w*bh);
+                    buf.limit(4 * w * bh);
+                    while(buf.hasRemaining()) {
+                        channel.write(buf);
+                    }
+                }
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Maps the file and creates the raster
+     * @param file the mapped file
+     * @param location the location of the upper left pixel of the raster
+     * @return the raster
+     * @throws IOException if the file format is not correct
+     */
+    private static WritableRaster map(File file, Point location) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != MAGIC) {
+                throw new IOException("Bad file format : " + file);
+            }
+            int version = header.getInt();
+            if(version > VERSION) {
+                throw new IOException("Unsupported file version " + version + " : " + file);
+            }
+            final int w = header.getInt();
+            final int h = header.getInt();
+            checkSize(w, h);
+            final long size = (long)w * h;
+            if(channel.size() < getOffset(size)) {
+                throw new IOException("Truncated file : " + file);
+            }
+            IntBuffer [] segments = new IntBuffer[(int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for(int i = 0; i < segments.length; i++) {
+                long start = (long)i << SEGMENT_SHIFT;
+                long n = Math.min(1L << SEGMENT_SHIFT, size - start);
+                segments[i] = channel.map(FileChannel.MapMode.PRIVATE, getOffset(start), 4*n)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            return Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_INT, w, h, 1),
+                    new MappedDataBuffer(segments, (int)size), location);
+        }
+    }
+
+    /**
+     * @param w the raster width
+     * @param h the raster height
+     * @throws IOException if the raster has more than Integer.MAX_VALUE pixels
+     */
+    private static void checkSize(int w, int h) throws IOException {
+        if((long)w * h > Integer.MAX_VALUE) {
+            throw new IOException("Raster too big : " + w + "x" + h);
+        }
+    }
+
+    /**
+     * @param pixel the pixel index in row order
+     * @return the offset of the pixel in the file
+     */
+    private static long getOffset(long pixel) {
+        return HEADER_SIZE + 4L*pixel;
+    }
+
+    /**
+     * Integer data buffer on mapped segments, with only one bank.
+     * The segments are accessed with absolute get and put, so the buffer is thread safe.
+     */
+    private static final class MappedDataBuffer extends DataBuffer {
+        private final IntBuffer [] segments;
+
+        private MappedDataBuffer(IntBuffer [] segments, int size) {
+            super(DataBuffer.TYPE_INT, size);
+            this.segments = segments;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return segments[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            segments[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, val);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import java.util.Arrays;
+import no.uib.cipr.matrix.sparse.CompRowMatrix;
+
+/**
+ * Direct sparse Cholesky factorization of a symmetric positive definite matrix.<br/>
+ * The matrix is reordered with the reverse Cuthill-McKee algorithm to reduce its envelope,
+ * then the factor L is stored row by row from the first non zero column to the diagonal (envelope storage),
+ * the fill-in stays inside the envelope.<br/>
+ * For the laplacian of an electric circuit, which is singular, one node is grounded :
+ * its row and its column are removed and its potential is zero.<br/>
+ * Once factorized, the solving is thread safe.
+ *
+ * @author Gilles Vuidel
+ */
+public final class SparseCholesky {
+
+    /** Part of the memory that the envelope can use */
+    private static final int MEMORY_RATIO = 8;
+
+    private final int size;
+    private final int n;
+    /** new index -> matrix index */
+    private final int [] perm;
+    /** first column of each row of the envelope */
+    private final int [] first;
+    /** offset of the element (i, 0) of each row in env, the row i is stored from first[i] to i */
+    private final long [] start;
+    private final double [] env;
+
+    private SparseCholesky(int size, int [] perm, int [] first, long [] start, double [] env) {
+        this.size = size;
+        this.n = perm.length;
+        this.perm = perm;
+        this.first = first;
+        this.start = start;
+        this.env = env;
+    }
+
+    /**
+     * @return the size of the matrix, including the grounded node
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Factorizes the matrix A without the row and the column ground.
+     * @param A a symmetric matrix with sorted column indices, positive definite without the row and the column ground
+     * @param ground the index of the grounded node or -1 for none
+     * @return the factorization or null if the envelope does not fit in memory
+     * @throws IllegalArgumentException if the matrix is not positive definite
+     */
+    public static SparseCholesky factorize(CompRowMatrix A, int ground) {
+        final int size = A.numRows();
+        final int [] ptr = A.getRowPointers();
+        final int [] ind = A.getColumnIndices();
+        final double [] data = A.getData();
+
+        final int [] perm = reverseCuthillMcKee(ptr, ind, ground);
+        final int n = perm.length;
+        final int [] iperm = new int[size];
+        Arrays.fill(iperm, -1);
+        for(int i = 0; i < n; i++) {
+            iperm[perm[i]] = i;
+        }
+
+        final int [] first = new int[n];
+        final long [] start = new long[n];
+        long envSize = 0;
+        for(int i = 0; i < n; i++) {
+            int f = i;
+            final int row = perm[i];
+            for(int k = ptr[row]; k < ptr[row+1]; k++) {
+                int j = iperm[ind[k]];
+                if(j != -1 && j < f) {
+                    f = j;
+                }
+            }
+            first[i] = f;
+            start[i] = envSize - f;
+            envSize += i - f + 1;
+        }
+        if(envSize > Integer.MAX_VALUE || 8 * envSize > Runtime.getRuntime().maxMemory() / MEMORY_RATIO) {
+            return null;
+        }
+
+        final double [] env = new double[(int)envSize];
+        for(int i = 0; i < n; i++) {
+            final int row = perm[i];
+            for(int k = ptr[row]; k < ptr[row+1]; k++) {
+                int j = iperm[ind[k]];
+                if(j != -1 && j <= i) {
+                    env[(int)(start[i] + j)] = data[k];
+                }
+            }
+        }
+
+        SparseCholesky chol = new SparseCholesky(size, perm, first, start, env);
+        chol.factor();
+        return chol;
+    }
+
+    private void factor() {
+        for(int i = 0; i < n; i++) {
+            final int fi = first[i];
+            final int si = (int)start[i];
+            for(int j = fi; j < i; j++) {
+                final int sj = (int)start[j];
+                double s = env[si + j];
+                for(int k = Math.max(fi, first[j]); k < j; k++) {
+                    s -= env[si + k] * env[sj + k];
+                }
+                env[si + j] = s / env[sj + j];
+            }
+            double d = env[si + i];
+            for(int k = fi; k < i; k++) {
+                d -= env[si + k] * env[si + k];
+            }
+            if(d <= 0) {
+                throw new IllegalArgumentException("Matrix is not positive definite");
+            }
+            env[si + i] = Math.sqrt(d);
+        }
+    }
+
+    /**
+     * Solves A.x = b.
+     * The element of b at the grounded node is ignored and the grounded node has a zero potential in x.
+     * @param b the right hand side of size {@link #getSize() }
+     * @return the solution x
+     */
+    public double [] solve(double [] b) {
+        final double [] y = new double[n];
+        for(int i = 0; i < n; i++) {
+            y[i] = b[perm[i]];
+        }
+        solvePermuted(y);
+        final double [] x = new double[size];
+        for(int i = 0; i < n; i++) {
+            x[perm[i]] = y[i];
+        }
+        return x;
+    }
+
+    /**
+     * Calculates the diagonal of the inverse of the matrix with the Takahashi recurrence.
+     * The inverse Z is calculated only inside the envelope, from the last row to the first :
+     * Z(i,j) = &delta;<sub>ij</sub>/L(i,i)<sup>2</sup> - &Sigma;<sub>k&gt;i</sub> L(k,i)/L(i,i).Z(k,j),
+     * the cost is the same than the factorization.
+     * @return the diagonal of the inverse in the matrix order, the grounded node has a zero value
+     */
+    public double [] getInverseDiagonal() {
+        // row indices of each column of the envelope, without the diagonal
+        final int [] colPtr = new int[n+1];
+        for(int k = 0; k < n; k++) {
+            for(int j = first[k]; j < k; j++) {
+                colPtr[j+1]++;
+            }
+        }
+        for(int j = 0; j < n; j++) {
+            colPtr[j+1] += colPtr[j];
+        }
+        final int [] colRows = new int[colPtr[n]];
+        final int [] pos = Arrays.copyOf(colPtr, n);
+        for(int k = 0; k < n; k++) {
+            for(int j = first[k]; j < k; j++) {
+                colRows[pos[j]++] = k;
+            }
+        }
+
+        final double [] z = new double[env.length];
+        final double [] lcol = new double[n];
+        for(int i = n-1; i >= 0; i--) {
+            final double lii = env[(int)start[i] + i];
+            final int c0 = colPtr[i];
+            final int c1 = colPtr[i+1];
+            for(int a = c0; a < c1; a++) {
+                final int m = colRows[a];
+                lcol[a-c0] = env[(int)start[m] + i] / lii;
+            }
+            // Z(k,i) for the rows k of the column i, needs Z(m,k) with m, k > i
+            for(int a = c0; a < c1; a++) {
+                final int k = colRows[a];
+                double s = 0;
+                for(int b = c0; b < c1; b++) {
+                    final int m = colRows[b];
+                    s -= lcol[b-c0] * (m >= k ? z[(int)start[m] + k] : z[(int)start[k] + m]);
+                }
+                z[(int)start[k] + i] = s;
+            }
+            double s = 1 / (lii*lii);
+            for(int b = c0; b < c1; b++) {
+                s -= lcol[b-c0] * z[(int)start[colRows[b]] + i];
+            }
+            z[(int)start[i] + i] = s;
+        }
+
+        final double [] diag = new double[size];
+        for(int i = 0; i < n; i++) {
+            diag[perm[i]] = z[(int)start[i] + i];
+        }
+        return diag;
+    }
+
+    /**
+     * Solves L.L<sup>T</sup>.y = b in place, in the reordered space
+     * @param y the right hand side, replaced by the solution
+     */
+    private void solvePermuted(double [] y) {
+        // forward substitution L.z = b
+        for(int i = 0; i < n; i++) {
+            final int si = (int)start[i];
+            double s = y[i];
+            for(int k = first[i]; k < i; k++) {
+                s -= env[si + k] * y[k];
+            }
+            y[i] = s / env[si + i];
+        }
+        // backward substitution L^T.y = z
+        for(int i = n-1; i >= 0; i--) {
+            final int si = (int)start[i];
+            final double yi = y[i] / env[si + i];
+            y[i] = yi;
+            for(int k = first[i]; k < i; k++) {
+                y[k] -= env[si + k] * yi;
+            }
+        }
+    }
+
+    /**
+     * Calculates the reverse Cuthill-McKee ordering of the matrix graph without the ground node.
+     * Each connected part is started from its node of minimum degree.
+     * @param ptr row pointers
+     * @param ind column indices
+     * @param ground the index of the grounded node or -1
+     * @return the matrix index of each new index
+     */
+    private static int [] reverseCuthillMcKee(int [] ptr, int [] ind, int ground) {
+        final int size = ptr.length-1;
+        final int [] degree = new int[size];
+        int maxDegree = 0;
+        for(int i = 0; i < size; i++) {
+            degree[i] = ptr[i+1] - ptr[i];
+            maxDegree = Math.max(maxDegree, degree[i]);
+        }
+        // nodes sorted by degree (counting sort) for choosing the start nodes
+        final int [] count = new int[maxDegree+2];
+        for(int i = 0; i < size; i++) {
+            count[degree[i]+1]++;
+        }
+        for(int d = 0; d <= maxDegree; d++) {
+            count[d+1] += count[d];
+        }
+        final int [] byDegree = new int[size];
+        for(int i = 0; i < size; i++) {
+            byDegree[count[degree[i]]++] = i;
+        }
+
+        final boolean [] visited = new boolean[size];
+        if(ground >= 0) {
+            visited[ground] = true;
+        }
+        final int [] order = new int[ground >= 0 ? size-1 : size];
+        int nb = 0;
+        int next = 0;
+        while(nb < order.length) {
+            while(visited[byDegree[next]]) {
+                next++;
+            }
+            int s = byDegree[next];
+            visited[s] = true;
+            order[nb++] = s;
+            int head = nb-1;
+            while(head < nb) {
+                final int v = order[head++];
+                final int from = nb;
+                for(int k = ptr[v]; k < ptr[v+1]; k++) {
+                    final int w = ind[k];
+                    if(!visited[w]) {
+                        visited[w] = true;
+                        order[nb++] = w;
+                    }
+                }
+                // insertion sort of the new nodes by increasing degree
+                for(int i = from+1; i < nb; i++) {
+                    final int w = order[i];
+                    int j = i-1;
+                    while(j >= from && degree[order[j]] > degree[w]) {
+                        order[j+1] = order[j];
+                        j--;
+                    }
+                    order[j+1] = w;
+                }
+            }
+        }
+        for(int i = 0, j = order.length-1; i < j; i++, j--) {
+            final int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return order;
+    }
+}
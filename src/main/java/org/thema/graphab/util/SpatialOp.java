@@ -26,25 +26,29 @@ import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.util.AffineTransformation;
 import com.vividsolutions.jts.operation.polygonize.Polygonizer;
 import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import java.awt.Rectangle;
 import java.awt.image.BandedSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
 import org.thema.common.Config;
 import org.thema.common.ProgressBar;
 import org.thema.common.swing.TaskMonitor;
 import org.thema.data.feature.DefaultFeature;
 import org.thema.data.feature.Feature;
+import org.thema.parallel.AbstractParallelTask;
+import org.thema.parallel.ExecutorService;
 
 /**
  * Spatial operations mainly for project creation.
@@ -54,7 +58,13 @@ import org.thema.data.feature.Feature;
 public final class SpatialOp {
     
     /**
-     * Extract patch from landscape map
+     * Extract patch from landscape map.<br/>
+     * The connected components are labelled in two passes on primitive arrays.
+     * First, the image is cut in bands of rows which are labelled in parallel with a union-find by band,
+     * the labels and the envelopes are stored by band.
+     * Then the labels of each band are merged with the last row of the previous band and
+     * each component receives the provisional label of its first pixel in row order,
+     * which is the number of pixels starting a new component before it, as the sequential algorithm gives.
      * @param img the landscape map
      * @param codes the patch codes in the landscape map
      * @param noData nodata value if any, or NaN
@@ -62,55 +72,158 @@ public final class SpatialOp {
      * @param envMap out parameter containing envelope of each extracted patch
      * @return  a raster containing patch id, 0 outside patch and -1 for nodata, the raster is increased of one pixel border to -1
      */
-    public static WritableRaster extractPatch(RenderedImage img, Set<Integer> codes, double noData, boolean con8, Map<Integer, Envelope> envMap) {
+    public static WritableRaster extractPatch(final RenderedImage img, Set<Integer> codes, final double noData, final boolean con8, Map<Integer, Envelope> envMap) {
         TaskMonitor monitor = new TaskMonitor(null, java.util.ResourceBundle.getBundle("org/thema/graphab/Bundle").getString("Extract_patch"), "", 0, img.getHeight());
-        WritableRaster clust = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_INT, img.getWidth()+2, img.getHeight()+2, 1), null);
-        int k = 0;
-        TreeSet<Integer> set = new TreeSet<>();
-        ArrayList<Integer> idClust = new ArrayList<>();
-        RandomIter r = RandomIterFactory.create(img, null);
-        for(int j = 1; j <= img.getHeight(); j++) {
-            monitor.setProgress(j-1);
-            for(int i = 1; i <= img.getWidth(); i++) {
-                int val = r.getSample(i-1, j-1, 0);
-                if(codes.contains(val)) {
-                    set.add(clust.getSample(i-1, j, 0));
-                    set.add(clust.getSample(i, j-1, 0));
-                    if(con8) {
-                        set.add(clust.getSample(i-1, j-1, 0));
-                        set.add(clust.getSample(i+1, j-1, 0));
-                    }
-                    set.remove(0);
-                    set.remove(-1);
-                    if(set.isEmpty()) {
-                        k++;
-                        clust.setSample(i, j, 0, k);
-                        idClust.add(k);
-                    } else if(set.size() == 1) {
-                        int id = set.iterator().next();
-                        clust.setSample(i, j, 0, idClust.get(id-1));
-                    } else {
-                        int minId = Integer.MAX_VALUE;
-                        for(Integer id : set) {
-                            int min = getMinId(idClust, id);
-                            if(min < minId) {
-                                minId = min;
-                            }
-                        }
+        final int w = img.getWidth();
+        final int h = img.getHeight();
+        final int cw = w+2;
+        WritableRaster clust = Raster.createWritableRaster(new BandedSampleModel(DataBuffer.TYPE_INT, cw, h+2, 1), null);
+        final int [] data = ((DataBufferInt)clust.getDataBuffer()).getData();
+        final int [] patchCodes = new int[codes.size()];
+        int n = 0;
+        for(Integer code : codes) {
+            patchCodes[n++] = code;
+        }
+        Arrays.sort(patchCodes);
+
+        // first pass : labels each band independently, with local labels from 1
+        AbstractParallelTask<List<LabelBand>, LabelBand> task = new AbstractParallelTask<List<LabelBand>, LabelBand>(monitor) {
+            private final List<LabelBand> bands = new ArrayList<>();
+            @Override
+            public LabelBand execute(int start, int end) {
+                LabelBand band = new LabelBand(start, end);
+                band.label(img, patchCodes, noData, con8, data);
+                incProgress(end-start);
+                return band;
+            }
 
-                        for(Integer id : set) {
-                            idClust.set(getMinId(idClust, id)-1, minId);
-                        }
+            @Override
+            public int getSplitRange() {
+                return h;
+            }
+            @Override
+            public void gather(LabelBand band) {
+                bands.add(band);
+            }
+            @Override
+            public List<LabelBand> getResult() {
+                return bands;
+            }
+        };
+        ExecutorService.execute(task);
+        final List<LabelBand> bands = task.getResult();
+        Collections.sort(bands, new Comparator<LabelBand>() {
+            @Override
+            public int compare(LabelBand b1, LabelBand b2) {
+                return Integer.compare(b1.start, b2.start);
+            }
+        });
+
+        // global labels : the labels of a band follow the labels of the previous bands
+        int nbLabel = 0;
+        int nbEvent = 0;
+        for(LabelBand band : bands) {
+            band.labelOffset = nbLabel;
+            band.eventOffset = nbEvent;
+            nbLabel += band.nbLabel;
+            nbEvent += band.nbEvent;
+        }
+        final int [] parent = new int[nbLabel];
+        final int [] firstEvent = new int[nbLabel];
+        for(LabelBand band : bands) {
+            for(int l = 1; l <= band.nbLabel; l++) {
+                final int g = band.labelOffset + l-1;
+                parent[g] = band.labelOffset + find(band.parent, l)-1;
+                firstEvent[g] = band.event[l] == 0 ? Integer.MAX_VALUE : band.eventOffset + band.event[l];
+            }
+        }
+        // merges the first row of each band with the last row of the previous band
+        for(int b = 1; b < bands.size(); b++) {
+            final LabelBand band = bands.get(b);
+            final LabelBand prev = bands.get(b-1);
+            final int row = (band.start+1)*cw;
+            for(int i = 1; i <= w; i++) {
+                final int lab = data[row+i];
+                if(lab <= 0) {
+                    continue;
+                }
+                final int g = band.labelOffset + lab-1;
+                for(int d = con8 ? -1 : 0; d <= (con8 ? 1 : 0); d++) {
+                    final int up = data[row-cw+i+d];
+                    if(up > 0) {
+                        union(parent, g, prev.labelOffset + up-1);
+                    }
+                }
+            }
+        }
+        // parent[l] <= l, so one pass in increasing order links each label to its root
+        for(int l = 0; l < nbLabel; l++) {
+            parent[l] = parent[parent[l]];
+        }
+        for(int l = 0; l < nbLabel; l++) {
+            final int root = parent[l];
+            if(firstEvent[l] < firstEvent[root]) {
+                firstEvent[root] = firstEvent[l];
+            }
+        }
+        final int [] ids = new int[nbLabel];
+        for(int l = 0; l < nbLabel; l++) {
+            ids[l] = firstEvent[parent[l]];
+        }
 
-                        clust.setSample(i, j, 0, minId);
+        // envelopes by final id
+        final int [] minX = new int[nbEvent+1];
+        final int [] maxX = new int[nbEvent+1];
+        final int [] minY = new int[nbEvent+1];
+        final int [] maxY = new int[nbEvent+1];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxX, -1);
+        Arrays.fill(maxY, -1);
+        for(LabelBand band : bands) {
+            for(int l = 1; l <= band.nbLabel; l++) {
+                final int id = ids[band.labelOffset + l-1];
+                final int e = 4*l;
+                minX[id] = Math.min(minX[id], band.env[e]);
+                maxX[id] = Math.max(maxX[id], band.env[e+1]);
+                minY[id] = Math.min(minY[id], band.env[e+2]);
+                maxY[id] = Math.max(maxY[id], band.env[e+3]);
+            }
+        }
+        for(int id = 1; id <= nbEvent; id++) {
+            if(maxX[id] != -1) {
+                envMap.put(id, new Envelope(minX[id], maxX[id]+1, minY[id], maxY[id]+1));
+            }
+        }
 
+        // second pass : sets the final ids
+        AbstractParallelTask idTask = new AbstractParallelTask<Void, Void>(new TaskMonitor.EmptyMonitor()) {
+            @Override
+            public Void execute(int start, int end) {
+                for(int b = start; b < end; b++) {
+                    LabelBand band = bands.get(b);
+                    for(int ind = (band.start+1)*cw; ind < (band.end+1)*cw; ind++) {
+                        if(data[ind] > 0) {
+                            data[ind] = ids[band.labelOffset + data[ind]-1];
+                        }
                     }
-                    set.clear();
-                } else if(val == noData) {
-                    clust.setSample(i, j, 0, -1);
                 }
+                return null;
             }
-        }
+
+            @Override
+            public int getSplitRange() {
+                return bands.size();
+            }
+            @Override
+            public void gather(Void results) {
+            }
+            @Override
+            public Void getResult() {
+                return null;
+            }
+        };
+        ExecutorService.execute(idTask);
 
         // sets the border to -1
         for(int j = 0; j < clust.getHeight(); j++) {
@@ -122,49 +235,151 @@ public final class SpatialOp {
             clust.setSample(j, clust.getHeight()-1, 0, -1);
         }
 
-        for(int i = 0; i < idClust.size(); i++) {
-            int m = i+1;
-            while(idClust.get(m-1) != m) {
-                m = idClust.get(m-1);
-            }
-            idClust.set(i, m);
+        monitor.close();
+
+        return clust;
+    }
+
+    /**
+     * Finds the root of a label with path halving.
+     * The root of a set is always its smallest label.
+     * @param parent the parent of each label
+     * @param l the label
+     * @return the root label
+     */
+    private static int find(int [] parent, int l) {
+        while(parent[l] != l) {
+            parent[l] = parent[parent[l]];
+            l = parent[l];
         }
+        return l;
+    }
 
+    /**
+     * Merges the sets of two labels, the smallest root becomes the root of the union
+     * @param parent the parent of each label
+     * @param l1 the first label
+     * @param l2 the second label
+     * @return the root of the union
+     */
+    private static int union(int [] parent, int l1, int l2) {
+        final int r1 = find(parent, l1);
+        final int r2 = find(parent, l2);
+        if(r1 < r2) {
+            parent[r2] = r1;
+            return r1;
+        } else {
+            parent[r1] = r2;
+            return r2;
+        }
+    }
 
-        for(int j = 1; j < clust.getHeight()-1; j++) {
-            for(int i = 1; i < clust.getWidth()-1; i++) {
-                if(clust.getSample(i, j, 0) > 0) {
-                    int id = idClust.get(clust.getSample(i, j, 0)-1);
-                    Envelope env = envMap.get(id);
-                    if(env == null) {
-                        envMap.put(id, new Envelope(new Coordinate(i, j)));
-                    } else {
-                        env.expandToInclude(i, j);
-                    }
+    /**
+     * Labelling of a band of rows of the landscape map, used by {@link #extractPatch }.<br/>
+     * A pixel starts a new component (an event) when none of its previous neighbours is a patch pixel,
+     * including the last row of the previous band.
+     * A pixel whose only patch neighbours are in the previous band starts a new local label but not an event,
+     * its label will be merged with the previous band.
+     */
+    private static final class LabelBand {
+        /** Number of rows read at once from the image */
+        private static final int BLOCK_HEIGHT = 64;
+
+        private final int start, end;
+        private int nbLabel, nbEvent;
+        /** parent of each local label, index 0 is unused */
+        private int [] parent = new int[64];
+        /** local event number of each local label, 0 if the label does not start with an event */
+        private int [] event = new int[64];
+        /** envelope of each local label : minX, maxX, minY, maxY in the clust raster coordinates */
+        private int [] env = new int[4*64];
+        private int labelOffset, eventOffset;
+
+        private LabelBand(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
 
-                    clust.setSample(i, j, 0, id);
+        /**
+         * Labels the rows from start to end-1 of the image in the rows start+1 to end of the clust raster data
+         */
+        private void label(RenderedImage img, int [] patchCodes, double noData, boolean con8, int [] data) {
+            final int w = img.getWidth();
+            final int cw = w+2;
+            int [] codes = new int[w*Math.min(BLOCK_HEIGHT, end-start)];
+            // patch pixels of the last row of the previous band
+            final boolean [] prevRow = new boolean[w+2];
+            if(start > 0) {
+                img.getData(new Rectangle(img.getMinX(), img.getMinY()+start-1, w, 1))
+                        .getSamples(img.getMinX(), img.getMinY()+start-1, w, 1, 0, codes);
+                for(int x = 0; x < w; x++) {
+                    prevRow[x+1] = isPatchCode(patchCodes, codes[x]);
+                }
+            }
+            for(int y = start; y < end; y += BLOCK_HEIGHT) {
+                final int bh = Math.min(BLOCK_HEIGHT, end - y);
+                Raster block = img.getData(new Rectangle(img.getMinX(), img.getMinY()+y, w, bh));
+                block.getSamples(img.getMinX(), img.getMinY()+y, w, bh, 0, codes);
+                for(int r = 0; r < bh; r++) {
+                    final int j = y+r+1;
+                    final boolean firstRow = y+r == start;
+                    for(int i = 1; i <= w; i++) {
+                        final int val = codes[r*w+i-1];
+                        final int ind = j*cw+i;
+                        if(isPatchCode(patchCodes, val)) {
+                            int lab = 0;
+                            if(data[ind-1] > 0) {
+                                lab = find(parent, data[ind-1]);
+                            }
+                            if(!firstRow) {
+                                for(int d = con8 ? -1 : 0; d <= (con8 ? 1 : 0); d++) {
+                                    final int up = data[ind-cw+d];
+                                    if(up > 0) {
+                                        lab = lab == 0 ? find(parent, up) : union(parent, lab, up);
+                                    }
+                                }
+                            }
+                            if(lab == 0) {
+                                lab = newLabel(i, j);
+                                if(!firstRow || !(prevRow[i] || con8 && (prevRow[i-1] || prevRow[i+1]))) {
+                                    event[lab] = ++nbEvent;
+                                }
+                            } else {
+                                final int e = 4*lab;
+                                env[e] = Math.min(env[e], i);
+                                env[e+1] = Math.max(env[e+1], i);
+                                env[e+3] = j;
+                            }
+                            data[ind] = lab;
+                        } else if(val == noData) {
+                            data[ind] = -1;
+                        }
+                    }
                 }
             }
         }
 
-
-        for(Envelope env : envMap.values()) {
-            env.expandBy(0.5);
-            env.translate(0.5, 0.5);
+        private int newLabel(int i, int j) {
+            nbLabel++;
+            if(nbLabel == parent.length) {
+                parent = Arrays.copyOf(parent, 2*parent.length);
+                event = Arrays.copyOf(event, 2*event.length);
+                env = Arrays.copyOf(env, 2*env.length);
+            }
+            parent[nbLabel] = nbLabel;
+            final int e = 4*nbLabel;
+            env[e] = i;
+            env[e+1] = i;
+            env[e+2] = j;
+            env[e+3] = j;
+            return nbLabel;
         }
 
-        monitor.close();
-
-        return clust;
+        private static boolean isPatchCode(int [] patchCodes, int val) {
+            return patchCodes.length == 1 ? patchCodes[0] == val : Arrays.binarySearch(patchCodes, val) >= 0;
+        }
     }
 
-    private static int getMinId(List<Integer> ids, int id) {
-        while(ids.get(id-1) != id) {
-            id = ids.get(id-1);
-        }
-        return id;
-    }    
-    
     /**
      * Change the code of a patch in the patch raster.
      * Used during project creation
@@ -191,7 +406,7 @@ public final class SpatialOp {
 
     /**
      * Vectorize the voronoi raster
-     * @param voronoi the voronoi raster created by {@link #neighborhoodEuclid}
+     * @param voronoi the voronoi raster created by {@link DistanceTransform#voronoi}
      * @param grid2space
      * @return the vectorized voronoi features
      */
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dynamic scheduling of the elements of a parallel task.<br/>
+ * The elements are sorted by decreasing estimated cost and handed out one by one to the threads :
+ * instead of processing its own range, each call to execute takes the next element of the queue until the queue is empty.
+ * So the costly elements are processed first and the threads finish at nearly the same time.
+ * This scheduling works only in threaded mode, the queue is shared by the threads of one process.<br/>
+ * The queue counts the busy time of the threads, the throughput and the idle ratio are given by {@link #getStats() }.
+ *
+ * <pre>
+ * long t = queue.begin();
+ * int i;
+ * while((i = queue.next()) != -1) {
+ *     // process the element i
+ * }
+ * queue.end(t);
+ * </pre>
+ *
+ * @author Gilles Vuidel
+ */
+public final class WorkQueue {
+
+    private final int [] order;
+    private final AtomicInteger next;
+
+    private long firstStart, lastEnd, busyTime;
+    /** ids of the threads which have called begin */
+    private final Set<Long> workers;
+
+    /**
+     * Creates a queue of elements sorted by decreasing cost, the elements with the same cost stay in their order.
+     * @param costs the estimated cost of each element
+     */
+    public WorkQueue(final double [] costs) {
+        Integer [] ind = new Integer[costs.length];
+        for(int i = 0; i < ind.length; i++) {
+            ind[i] = i;
+        }
+        Arrays.sort(ind, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(costs[i2], costs[i1]);
+            }
+        });
+        order = new int[ind.length];
+        for(int i = 0; i < ind.length; i++) {
+            order[i] = ind[i];
+        }
+        next = new AtomicInteger();
+        workers = new HashSet<>();
+    }
+
+    /**
+     * @return the next element to process or -1 if the queue is empty
+     */
+    public int next() {
+        final int i = next.getAndIncrement();
+        return i < order.length ? order[i] : -1;
+    }
+
+    /**
+     * Must be called by a thread before taking elements.
+     * @return the start time to pass to {@link #end(long) }
+     */
+    public synchronized long begin() {
+        final long t = System.nanoTime();
+        if(workers.isEmpty()) {
+            firstStart = t;
+        }
+        workers.add(Thread.currentThread().getId());
+        return t;
+    }
+
+    /**
+     * Must be called by a thread when the queue is empty.
+     * @param start the time returned by {@link #begin() }
+     */
+    public synchronized void end(long start) {
+        final long t = System.nanoTime();
+        busyTime += t - start;
+        lastEnd = Math.max(lastEnd, t);
+    }
+
+    /**
+     * The idle ratio is the part of the time where the workers wait for the slowest one.
+     * @return the number of elements, the throughput and the idle ratio of the workers
+     */
+    public synchronized String getStats() {
+        final double time = Math.max(1, lastEnd - firstStart) / 1e9;
+        final int nbWorkers = workers.size();
+        final double idle = nbWorkers == 0 ? 0 : 1 - busyTime / 1e9 / (nbWorkers * time);
+        return String.format("%d elements in %.3f s : %.1f elements/s - %d workers - idle %.1f%%",
+                order.length, time, order.length / time, nbWorkers, 100 * idle);
+    }
+}
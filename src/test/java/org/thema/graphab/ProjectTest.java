@@ -18,6 +18,8 @@
 package org.thema.graphab;
 
 import java.io.File;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -39,12 +41,18 @@ import org.junit.Test;
 import org.thema.common.Config;
 import org.thema.common.io.IOFile;
 import org.thema.data.IOImage;
+import org.thema.data.feature.DefaultFeature;
 import org.thema.data.feature.Feature;
+import org.thema.graph.pathfinder.DijkstraPathFinder;
+import org.thema.graphab.graph.CompactGraph;
+import org.thema.graphab.graph.CompactPathFinder;
 import org.thema.graphab.graph.GraphGenerator;
 import org.thema.graphab.graph.GraphPathFinder;
+import org.thema.graphab.graph.HopPathFinder;
 import org.thema.graphab.links.CircuitRaster;
 import org.thema.graphab.links.Linkset;
 import org.thema.graphab.links.Path;
+import org.thema.graphab.util.MappedRaster;
 
 /**
  * Test Project class
@@ -69,12 +77,7 @@ public class ProjectTest {
     
     @Before
     public void beforeTest() throws Exception {
-        File dir = Files.createTempDirectory("test_graphab").toFile();
-        for(File f : new File("target/test-classes/org/thema/graphab/project").listFiles()) {
-            if(!f.isDirectory()) {
-                IOFile.copyFile(f, new File(dir, f.getName()));
-            }
-        }
+        File dir = copyTestProject();
         project = Project.loadProject(new File(dir, "test.xml"), true);
     }
 
@@ -86,7 +89,7 @@ public class ProjectTest {
     public void testConstructor() throws Exception {
         
         GridCoverage2D cov = IOImage.loadTiff(new File("target/test-classes/org/thema/graphab/source.tif"));
-        Project prj = new Project("test", new File("/tmp"), cov, new TreeSet(Arrays.asList(1, 2, 3, 4, 5, 6, 8, 9, 10)), Collections.singleton(1), Double.NaN, false, 0, false);
+        Project prj = new Project("test", new File("/tmp"), cov, new TreeSet(Arrays.asList(1, 2, 3, 4, 5, 6, 8, 9, 10)), Collections.singleton(1), Double.NaN, false, 0);
         
         assertEquals("Number of patches", 152, prj.getPatches().size());
         double area = 0;
@@ -254,6 +257,89 @@ public class ProjectTest {
         }
     }
 
+    /**
+     * Compare the cost distances of the compact pathfinder with the graph pathfinder on all graphs
+     */
+    @Test
+    public void testCompactPathFinder() {
+        System.out.println("Test compact pathfinder");
+        for(GraphGenerator graph : project.getGraphs()) {
+            CompactGraph compact = graph.getCompactGraph();
+            assertEquals("Number of nodes of " + graph.getName(), graph.getNodes().size(), compact.getNbNodes());
+            for(Node node : graph.getNodes()) {
+                GraphPathFinder pathFinder = graph.getPathFinder(node);
+                CompactPathFinder compactFinder = graph.getCompactPathFinder(node, Double.NaN);
+                assertEquals("Number of reached nodes from " + node.getObject() + " in " + graph.getName(), 
+                        pathFinder.getComputedNodes().size(), compactFinder.getNbComputedNodes());
+                for(Node n : pathFinder.getComputedNodes()) {
+                    assertEquals("Cost between " + node.getObject() + " and " + n.getObject() + " in " + graph.getName(), 
+                            pathFinder.getCost(n), compactFinder.getCost(compact.getIndex(n)), pathFinder.getCost(n)*1e-12);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the number of edges of the hop pathfinder with the dijkstra weighted by the number of edges on all graphs
+     */
+    @Test
+    public void testHopPathFinder() {
+        System.out.println("Test hop pathfinder");
+        for(GraphGenerator graph : project.getGraphs()) {
+            CompactGraph compact = graph.getCompactGraph();
+            for(Node node : graph.getNodes()) {
+                DijkstraPathFinder pathFinder = new DijkstraPathFinder(graph.getGraph(), node, DijkstraPathFinder.NBEDGE_WEIGHTER);
+                pathFinder.calculate();
+                HopPathFinder hopFinder = graph.getHopPathFinder(node);
+                assertEquals("Number of reached nodes from " + node.getObject() + " in " + graph.getName(), 
+                        pathFinder.getComputedNodes().size(), hopFinder.getNbComputedNodes());
+                for(DijkstraPathFinder.DijkstraNode n : pathFinder.getComputedNodes()) {
+                    assertEquals("Number of edges between " + node.getObject() + " and " + n.node.getObject() + " in " + graph.getName(), 
+                            n.cost, hopFinder.getNbEdges(compact.getIndex(n.node)), 0);
+                }
+                for(int i = 1; i < hopFinder.getNbComputedNodes(); i++) {
+                    assertTrue(hopFinder.getNbEdges(hopFinder.getComputedNode(i-1)) <= hopFinder.getNbEdges(hopFinder.getComputedNode(i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the resistances of the circuit linkset for all preconditioners and initial vectors
+     */
+    @Test
+    public void testCircuitPrecond() throws IOException {
+        System.out.println("Test circuit preconditioners");
+        Linkset linkset = project.getLinkset("plan_circ");
+        CircuitRaster circuit = project.getRasterCircuit(linkset);
+        double prec = CircuitRaster.prec;
+        Vector.Norm errNorm = CircuitRaster.errNorm;
+        CircuitRaster.InitVector initVector = CircuitRaster.initVector;
+        CircuitRaster.Precond precond = CircuitRaster.precond;
+        try {
+            CircuitRaster.errNorm = Vector.Norm.Two;
+            CircuitRaster.prec = 1e-8;
+            for(Path p : linkset.getPaths().subList(0, 10)) {
+                CircuitRaster.precond = CircuitRaster.Precond.DIAG;
+                CircuitRaster.initVector = CircuitRaster.InitVector.FLAT;
+                double ref = circuit.getODCircuit(p.getPatch1(), p.getPatch2()).getR();
+                for(CircuitRaster.Precond pc : CircuitRaster.Precond.values()) {
+                    for(CircuitRaster.InitVector init : CircuitRaster.InitVector.values()) {
+                        CircuitRaster.precond = pc;
+                        CircuitRaster.initVector = init;
+                        double r = circuit.getODCircuit(p.getPatch1(), p.getPatch2()).getR();
+                        assertEquals("Resistance of " + p.getId() + " with " + pc + " and " + init, ref, r, ref*1e-5);
+                    }
+                }
+            }
+        } finally {
+            CircuitRaster.prec = prec;
+            CircuitRaster.errNorm = errNorm;
+            CircuitRaster.initVector = initVector;
+            CircuitRaster.precond = precond;
+        }
+    }
+
     @Test
     public void testCreateProject() throws IOException, SchemaException {
         File prjFile = project.createProject("testCreateProject", 10000);
@@ -279,6 +365,118 @@ public class ProjectTest {
         }
     }
     
+    /**
+     * Test savePatch and the loading of the patch attributes.
+     * The test works on its own copy of the test project, deleted at the end.
+     */
+    @Test
+    public void testSavePatch() throws IOException, SchemaException {
+        System.out.println("Test save patch attributes");
+        File dir = copyTestProject();
+        try {
+            // csv file of a former version
+            File csvFile = new File(dir, "patches.csv");
+            assertTrue(csvFile.createNewFile());
+            Project prj = Project.loadProject(new File(dir, "test.xml"), false);
+            DefaultFeature.addAttribute("testAttr", prj.getPatches(), 1.5);
+            DefaultFeature.addAttribute("testStr", prj.getPatches(), "a");
+            ((DefaultFeature)prj.getPatches().get(0)).setAttribute("testStr", null);
+            prj.savePatch();
+            assertTrue(!csvFile.exists());
+            int nbFiles = dir.list().length;
+            File colFile = new File(dir, "patches-attr-0.bin");
+            long modified = colFile.lastModified();
+
+            Project prj2 = Project.loadProject(prj.getProjectFile(), false);
+            assertEquals(prj.getPatches().get(0).getAttributeNames(), prj2.getPatches().get(0).getAttributeNames());
+            for(int i = 0; i < prj.getPatches().size(); i++) {
+                Feature f1 = prj.getPatches().get(i);
+                Feature f2 = prj2.getPatches().get(i);
+                assertEquals(f1.getId(), f2.getId());
+                for(int j = 1; j < f1.getAttributeNames().size(); j++) {
+                    if(f1.getAttribute(j) instanceof Number) {
+                        assertEquals(((Number)f1.getAttribute(j)).doubleValue(), ((Number)f2.getAttribute(j)).doubleValue(), 0);
+                    } else {
+                        assertEquals(f1.getAttribute(j), f2.getAttribute(j));
+                    }
+                }
+            }
+
+            // modify one value of one column : only this column file is replaced
+            ((DefaultFeature)prj2.getPatches().get(1)).setAttribute("testAttr", 2.5);
+            prj2.savePatch();
+            assertEquals(nbFiles, dir.list().length);
+            assertEquals(modified, colFile.lastModified());
+            prj2 = Project.loadProject(prj.getProjectFile(), false);
+            assertEquals(2.5, ((Number)prj2.getPatches().get(1).getAttribute("testAttr")).doubleValue(), 0);
+            assertEquals(1.5, ((Number)prj2.getPatches().get(0).getAttribute("testAttr")).doubleValue(), 0);
+        } finally {
+            for(File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+    
+    /**
+     * Test the memory mapped rasters by lowering the size threshold to 0.
+     * The mapped rasters must be the same as the rasters loaded in the heap,
+     * and their modifications must not be written in the mapped file.
+     */
+    @Test
+    public void testMappedRaster() throws IOException {
+        System.out.println("Test mapped raster");
+        File dir = copyTestProject();
+        long size = Project.mappedRasterSize;
+        try {
+            Project.mappedRasterSize = 0;
+            Project prj = Project.loadProject(new File(dir, "test.xml"), false);
+            assertTrue(MappedRaster.getMappedFile(new File(dir, Project.PATCH_RASTER)).exists());
+            assertRasterEquals(project.getRasterPatch(), prj.getRasterPatch());
+            assertRasterEquals(project.getImageSource(), prj.getImageSource());
+            assertTrue(MappedRaster.getMappedFile(new File(dir, Project.LAND_RASTER)).exists());
+
+            WritableRaster raster = prj.getRasterPatch();
+            int x = raster.getMinX() + raster.getWidth() / 2;
+            int y = raster.getMinY() + raster.getHeight() / 2;
+            int val = raster.getSample(x, y, 0);
+            raster.setSample(x, y, 0, val+1);
+            assertEquals(val+1, raster.getSample(x, y, 0));
+            Project prj2 = Project.loadProject(new File(dir, "test.xml"), false);
+            assertEquals(val, prj2.getRasterPatch().getSample(x, y, 0));
+        } finally {
+            Project.mappedRasterSize = size;
+            for(File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void assertRasterEquals(Raster ref, Raster raster) {
+        assertEquals(ref.getBounds(), raster.getBounds());
+        for(int y = ref.getMinY(); y < ref.getMinY() + ref.getHeight(); y++) {
+            for(int x = ref.getMinX(); x < ref.getMinX() + ref.getWidth(); x++) {
+                assertEquals("Pixel " + x + "," + y, ref.getSampleDouble(x, y, 0), raster.getSampleDouble(x, y, 0), 0);
+            }
+        }
+    }
+
+    /**
+     * Copies the files of the test project in a new temporary directory
+     * @return the temporary directory
+     * @throws IOException 
+     */
+    private static File copyTestProject() throws IOException {
+        File dir = Files.createTempDirectory("test_graphab").toFile();
+        for(File f : new File("target/test-classes/org/thema/graphab/project").listFiles()) {
+            if(!f.isDirectory()) {
+                IOFile.copyFile(f, new File(dir, f.getName()));
+            }
+        }
+        return dir;
+    }
+    
     public static Project loadTestProject() throws IOException {
         return Project.loadProject(new File("target/test-classes/org/thema/graphab/project/test.xml"), false);
     }
@@ -16,6 +16,10 @@
  */
 package org.thema.graphab.addpatch;
 
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
 import org.junit.Before;
@@ -26,6 +30,9 @@ import org.thema.common.Config;
 import org.thema.common.swing.TaskMonitor;
 import org.thema.graphab.Project;
 import org.thema.graphab.ProjectTest;
+import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.metric.global.GlobalMetric;
+import org.thema.graphab.metric.global.IICMetric;
 import org.thema.graphab.metric.global.PCMetric;
 
 /**
@@ -182,5 +189,36 @@ public class AddPatchCommandTest {
         }
         
     }
+    
+    /**
+     * Test the incremental calculation of PC and IIC against the full calculation
+     * @throws Throwable 
+     */
+    @Test
+    public void testAddPatchPathCache() throws Throwable {
+        PCMetric pc = new PCMetric();
+        pc.setParams(1000, 0.05, 1);
+        GraphGenerator gen = project.getGraph("graph_comp_cout10_500_nopath");
+        Rectangle2D zone = project.getZone();
+        GeometryFactory factory = new GeometryFactory();
+        for(GlobalMetric metric : new GlobalMetric[] {pc, new IICMetric()}) {
+            assertTrue(AddPatchPathCache.isSupported(gen, metric));
+            AddPatchPathCache cache = new AddPatchPathCache(gen, metric, new TaskMonitor.EmptyMonitor());
+            int nb = 0;
+            for(double y = zone.getMinY()+500; y < zone.getMaxY() && nb < 20; y += 1000) {
+                for(double x = zone.getMinX()+500; x < zone.getMaxX() && nb < 20; x += 1000) {
+                    Point p = factory.createPoint(new Coordinate(x, y));
+                    double val = cache.addPatchSoft(p, 1);
+                    double ref = AddPatchTask.addPatchSoft(p, metric, gen, 1);
+                    if(Double.isNaN(ref)) {
+                        assertTrue(Double.isNaN(val));
+                    } else {
+                        assertEquals(metric.getShortName() + " incremental", ref, val, ref*1e-10);
+                        nb++;
+                    }
+                }
+            }
+        }
+    }
 
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.graph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import org.geotools.graph.structure.Node;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thema.common.Config;
+import org.thema.common.swing.TaskMonitor;
+import org.thema.graphab.Project;
+import org.thema.graphab.ProjectTest;
+
+/**
+ * Test ODMatrixStore class
+ * @author Gilles Vuidel
+ */
+public class ODMatrixStoreTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        // init 2 threads
+        Config.setNodeClass(ODMatrixStoreTest.class);
+        Config.setParallelProc(2);
+    }
+
+    /**
+     * Save random matrices with sparse and dense blocks and read them back, in binary and text format.
+     */
+    @Test
+    public void testSaveRead() throws IOException {
+        System.out.println("save and read");
+        Random rand = new Random(1);
+        for(int n : new int[] {1, ODMatrixStore.BLOCK_ROWS, 2*ODMatrixStore.BLOCK_ROWS + 17}) {
+            final double missing = Double.NaN;
+            final double [][] matrix = new double[n][n];
+            int [] ids = new int[n];
+            for(int i = 0; i < n; i++) {
+                ids[i] = 3*i + 1;
+                // the first block is dense, the next ones are sparse
+                double density = i < ODMatrixStore.BLOCK_ROWS ? 0.9 : 0.05;
+                for(int j = 0; j < n; j++) {
+                    matrix[i][j] = rand.nextDouble() < density ? rand.nextDouble()*1000 : missing;
+                }
+            }
+            File file = File.createTempFile("odmatrix", ".bin");
+            File txtFile = File.createTempFile("odmatrix", ".txt");
+            try {
+                ODMatrixStore.save(file, ids, missing, new ODMatrixStore.RowCalculator() {
+                    @Override
+                    public int calcRow(int row, int[] cols, double[] values) {
+                        int nb = 0;
+                        for(int j = 0; j < matrix[row].length; j++) {
+                            if(!Double.isNaN(matrix[row][j])) {
+                                cols[nb] = j;
+                                values[nb] = matrix[row][j];
+                                nb++;
+                            }
+                        }
+                        return nb;
+                    }
+                }, new TaskMonitor.EmptyMonitor());
+
+                try (ODMatrixStore.Reader r = new ODMatrixStore.Reader(file)) {
+                    assertArrayEquals(ids, r.getIds());
+                    assertTrue(Double.isNaN(r.getMissingValue()));
+                    double [] row = new double[n];
+                    for(int i = 0; i < n; i++) {
+                        assertTrue(r.next());
+                        assertEquals(i, r.getRowIndex());
+                        r.getRow(row);
+                        assertArrayEquals("Row " + i, matrix[i], row, 0);
+                        for(int k = 0; k < r.getNbValues(); k++) {
+                            assertEquals("Row " + i, matrix[i][r.getColumn(k)], r.getValue(k), 0);
+                        }
+                    }
+                    assertFalse(r.next());
+                }
+
+                ODMatrixStore.saveAsText(file, txtFile);
+                try (BufferedReader r = new BufferedReader(new FileReader(txtFile))) {
+                    String [] header = r.readLine().split("\t");
+                    assertEquals(n+1, header.length);
+                    for(int i = 0; i < n; i++) {
+                        assertEquals(ids[i], Integer.parseInt(header[i+1]));
+                    }
+                    for(int i = 0; i < n; i++) {
+                        String [] tokens = r.readLine().split("\t");
+                        assertEquals(ids[i], Integer.parseInt(tokens[0]));
+                        for(int j = 0; j < n; j++) {
+                            assertEquals("Row " + i, matrix[i][j], Double.parseDouble(tokens[j+1]), 0);
+                        }
+                    }
+                }
+            } finally {
+                file.delete();
+                txtFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Compare the OD matrix of a graph with the costs of the graph pathfinder.
+     */
+    @Test
+    public void testCalcODMatrix() throws IOException {
+        System.out.println("calcODMatrix");
+        Project project = ProjectTest.loadTestProject();
+        GraphGenerator graph = project.getGraph("graph_comp_cout10");
+        HashMap<Integer, Node> nodes = new HashMap<>();
+        for(Node node : graph.getNodes()) {
+            nodes.put((Integer)Project.getPatch(node).getId(), node);
+        }
+        File file = File.createTempFile("odmatrix", ".bin");
+        try {
+            graph.calcODMatrix(file, Double.NaN);
+            try (ODMatrixStore.Reader r = new ODMatrixStore.Reader(file)) {
+                int [] ids = r.getIds();
+                assertEquals(graph.getNodes().size(), ids.length);
+                int [] sorted = Arrays.copyOf(ids, ids.length);
+                Arrays.sort(sorted);
+                assertArrayEquals(sorted, ids);
+                double [] row = new double[ids.length];
+                while(r.next()) {
+                    r.getRow(row);
+                    GraphPathFinder pathFinder = graph.getPathFinder(nodes.get(ids[r.getRowIndex()]));
+                    for(int j = 0; j < ids.length; j++) {
+                        Double cost = pathFinder.getCost(nodes.get(ids[j]));
+                        String msg = "Cost between " + ids[r.getRowIndex()] + " and " + ids[j];
+                        if(cost == null) {
+                            assertTrue(msg, Double.isNaN(row[j]));
+                        } else {
+                            assertEquals(msg, cost, row[j], cost*1e-12);
+                        }
+                    }
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.links;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import java.awt.image.Raster;
+import java.io.IOException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thema.common.Config;
+import org.thema.graphab.Project;
+import org.thema.graphab.ProjectTest;
+
+/**
+ * Test NearestPatchRaster class
+ * @author Gilles Vuidel
+ */
+public class NearestPatchRasterTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        Config.setNodeClass(NearestPatchRasterTest.class);
+        Config.setParallelProc(2);
+    }
+
+    /**
+     * Compare the nearest patch raster with the search from each pixel, on a sample of the landscape pixels.
+     * When several patches are at the same cost, the chosen patch may differ, so only the costs are compared.
+     */
+    @Test
+    public void testGetNearestPatch() throws IOException {
+        System.out.println("getNearestPatch");
+        Project project = ProjectTest.loadTestProject();
+        Linkset linkset = project.getLinkset("comp_cout10");
+        Raster rasterPatch = project.getRasterPatch();
+        RasterPathFinder pathFinder = linkset.borrowPathFinder();
+        try {
+            NearestPatchRaster nearest = pathFinder.calcNearestPatchRaster();
+            int nb = 0;
+            for(int y = 1; y < rasterPatch.getHeight()-1; y += 13) {
+                for(int x = 1; x < rasterPatch.getWidth()-1; x += 17) {
+                    int id = rasterPatch.getSample(x, y, 0);
+                    if(id < 0) {
+                        continue;
+                    }
+                    Coordinate c = project.getGrid2space().transform(new Coordinate(x+0.5, y+0.5), new Coordinate());
+                    double [] res = nearest.getNearestPatch(c);
+                    if(res == null) {
+                        continue;
+                    }
+                    double [] ref = pathFinder.calcPathNearestPatch(x, y);
+                    String msg = "Pixel " + x + "," + y;
+                    assertEquals(msg, ref[1], res[1], ref[1]*1e-12);
+                    if(id > 0) {
+                        assertEquals(msg, id, (int)res[0]);
+                        assertEquals(msg, 0, res[2], 0);
+                    }
+                    nb++;
+                }
+            }
+            assertTrue(nb > 100);
+        } finally {
+            linkset.releasePathFinder(pathFinder);
+        }
+    }
+}
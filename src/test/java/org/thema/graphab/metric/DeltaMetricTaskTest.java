@@ -18,7 +18,11 @@ package org.thema.graphab.metric;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import org.geotools.graph.structure.Graphable;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
@@ -27,12 +31,17 @@ import org.junit.Test;
 import org.thema.common.Config;
 import org.thema.common.io.tab.CSVTabReader;
 import org.thema.common.swing.TaskMonitor;
+import org.thema.data.feature.Feature;
 import org.thema.graphab.Project;
 import org.thema.graphab.ProjectTest;
+import org.thema.graphab.graph.DeltaGraphGenerator;
 import org.thema.graphab.graph.GraphGenerator;
 import org.thema.graphab.links.Linkset;
 import org.thema.graphab.metric.global.DeltaPCMetric;
+import org.thema.graphab.metric.global.GDMetric;
+import org.thema.graphab.metric.global.GlobalMetric;
 import org.thema.graphab.metric.global.GlobalMetricLauncher;
+import org.thema.graphab.metric.global.PCMetric;
 import org.thema.parallel.ExecutorService;
 
 /**
@@ -96,4 +105,44 @@ public class DeltaMetricTaskTest {
         assertTrue("Delta no graph tested", nbGraph > 0);  
     }
     
+    /**
+     * Test incremental delta calculation of path metrics on nodes and edges
+     * against the full calculation on each modified graph
+     */
+    @Test
+    public void testIncrementalDelta() {
+        System.out.println("Incremental delta");
+        PCMetric pc = new PCMetric();
+        pc.setParams(1000, 0.05, 1);
+        for(GlobalMetric metric : Arrays.asList(pc, new GDMetric())) {
+            for(double maxCost : new double[] {Double.NaN, 1000}) {
+                GlobalMetricLauncher launcher = new GlobalMetricLauncher(metric, maxCost);
+                for(GraphGenerator gen : project.getGraphs()) {
+                    DeltaMetricTask task = new DeltaMetricTask(new TaskMonitor.EmptyMonitor(), gen, launcher, 3);
+                    ExecutorService.execute(task);
+                    Map<Object, Double[]> result = task.getResult();
+                    Double[] init = launcher.calcMetric(gen, false, null);
+                    assertEquals(metric.getShortName() + " init on " + gen.getName(), init[0], task.getInit()[0], Math.abs(init[0])*1e-12);
+                    
+                    // check a sample of the nodes and edges
+                    DeltaGraphGenerator deltaGen = new DeltaGraphGenerator(gen);
+                    List<Graphable> elems = new ArrayList<>(deltaGen.getGraph().getNodes());
+                    elems.addAll(deltaGen.getGraph().getEdges());
+                    for(int i = 0; i < elems.size(); i += 1 + elems.size() / 100) {
+                        checkDelta(launcher, deltaGen, elems.get(i), init[0], result);
+                    }
+                }
+            }
+        }
+    }
+    
+    private void checkDelta(GlobalMetricLauncher launcher, DeltaGraphGenerator deltaGen, Graphable elem, double init, Map<Object, Double[]> result) {
+        Object id = ((Feature)elem.getObject()).getId();
+        deltaGen.removeElem(elem);
+        double ref = (init - launcher.calcMetric(deltaGen, false, null)[0]) / init;
+        deltaGen.reset();
+        assertEquals(launcher.getMetric().getShortName() + " delta on " + deltaGen.getName() + " id:" + id, 
+                Math.abs(ref) < 1e-14 ? 0 : ref, result.get(id)[0], 1e-10);
+    }
+    
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thema.graphab.metric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.geotools.graph.structure.Node;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.thema.common.Config;
+import org.thema.common.swing.TaskMonitor;
+import org.thema.data.feature.Feature;
+import org.thema.graphab.MainFrame;
+import org.thema.graphab.Project;
+import org.thema.graphab.ProjectTest;
+import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.metric.global.GlobalMetricLauncher;
+import org.thema.graphab.metric.global.PCMetric;
+import org.thema.graphab.metric.local.FLocalMetric;
+import org.thema.graphab.metric.local.FPCLocalMetric;
+import org.thema.graphab.metric.local.LocalMetric;
+
+/**
+ * Compares the multi parameter pass with the separate calculation of each parameter set.
+ *
+ * @author Gilles Vuidel
+ */
+public class MultiParamLauncherTest {
+
+    private Project project;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        // init 2 threads
+        Config.setNodeClass(MultiParamLauncherTest.class);
+        Config.setParallelProc(2);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        project = ProjectTest.loadTestProject();
+    }
+
+    /**
+     * Test of calcGlobalMetric method, of class MultiParamLauncher, with PC.
+     */
+    @Test
+    public void testCalcGlobalMetric() {
+        System.out.println("calcGlobalMetric");
+        GraphGenerator gen = project.getGraph("graph_comp_cout10");
+        PCMetric metric = new PCMetric();
+        List<Map<String, Object>> paramSets = getParamSets(metric);
+        for(double maxCost : new double[] {Double.NaN, 500}) {
+            List<Double[]> results = MultiParamLauncher.calcGlobalMetric(gen, metric, paramSets, maxCost, null);
+            assertEquals(paramSets.size(), results.size());
+            for(int i = 0; i < paramSets.size(); i++) {
+                metric.setParams(paramSets.get(i));
+                double ref = new GlobalMetricLauncher(metric, maxCost).calcMetric(gen, true, null)[0];
+                assertEquals("PC " + paramSets.get(i) + " maxCost=" + maxCost, ref, results.get(i)[0], ref*1e-12);
+            }
+        }
+    }
+
+    /**
+     * Test of calcLocalMetric method, of class MultiParamLauncher, with F and FPC.
+     */
+    @Test
+    public void testCalcLocalMetric() {
+        System.out.println("calcLocalMetric");
+        GraphGenerator gen = project.getGraph("graph_comp_cout10");
+        List<Node> nodes = new ArrayList<>(gen.getNodes());
+        for(LocalMetric metric : new LocalMetric[] {new FLocalMetric(), new FPCLocalMetric()}) {
+            List<Map<String, Object>> paramSets = getParamSets(metric);
+            double [][] refs = new double[paramSets.size()][nodes.size()];
+            for(int i = 0; i < paramSets.size(); i++) {
+                metric.setParams(paramSets.get(i));
+                MainFrame.calcLocalMetric(new TaskMonitor.EmptyMonitor(), gen, metric, Double.NaN);
+                String attr = metric.getDetailName() + "_" + gen.getName();
+                for(int j = 0; j < nodes.size(); j++) {
+                    refs[i][j] = ((Number)((Feature)nodes.get(j).getObject()).getAttribute(attr)).doubleValue();
+                }
+            }
+            List<String> attrs = MultiParamLauncher.calcLocalMetric(gen, metric, paramSets, null);
+            assertEquals(paramSets.size(), attrs.size());
+            for(int i = 0; i < paramSets.size(); i++) {
+                for(int j = 0; j < nodes.size(); j++) {
+                    double val = ((Number)((Feature)nodes.get(j).getObject()).getAttribute(attrs.get(i))).doubleValue();
+                    assertEquals(attrs.get(i) + " of node " + j, refs[i][j], val, Math.abs(refs[i][j])*1e-12);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param metric the metric
+     * @return parameter sets varying the distance and beta
+     */
+    private static List<Map<String, Object>> getParamSets(Metric metric) {
+        List<Map<String, Object>> paramSets = new ArrayList<>();
+        for(double beta : new double[] {0, 1}) {
+            for(double d : new double[] {500, 1000, 5000}) {
+                Map<String, Object> params = new HashMap<>(metric.getParams());
+                params.put(AlphaParamMetric.DIST, d);
+                params.put(AlphaParamMetric.PROBA, 0.05);
+                params.put(AlphaParamMetric.BETA, beta);
+                paramSets.add(params);
+            }
+        }
+        return paramSets;
+    }
+}
@@ -17,8 +17,12 @@
 package org.thema.graphab.metric.global;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.geotools.graph.structure.Node;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -27,6 +31,7 @@ import org.thema.common.Config;
 import org.thema.graphab.Project;
 import org.thema.graphab.ProjectTest;
 import org.thema.graphab.graph.GraphGenerator;
+import org.thema.graphab.metric.Circuit;
 
 /**
  *
@@ -139,4 +144,62 @@ public class GlobalMetricLauncherTest {
         
     }
     
+    /**
+     * Compare the resistances of the direct solver with the iterative solver
+     * and the resistances from one node to all the others, for both solvers, with the pairwise resistances
+     */
+    @Test
+    public void testCircuitDirect() {
+        System.out.println("Circuit direct solver");
+        GraphGenerator gen = project.getGraph("graph_comp_cout10");
+        Circuit iter = new Circuit(gen, 0);
+        Circuit direct = new Circuit(gen, 10000);
+        List<Node> nodes = new ArrayList<>(gen.getNodes());
+        for(int i = 0; i < nodes.size(); i += 7) {
+            for(int j = 0; j < nodes.size(); j += 11) {
+                double r = iter.computeR(nodes.get(i), nodes.get(j));
+                assertEquals("R between " + nodes.get(i).getObject() + " and " + nodes.get(j).getObject(), 
+                        r, direct.computeR(nodes.get(i), nodes.get(j)), r*1e-4);
+            }
+            // resistances to all nodes from the inverse diagonal
+            Map<Node, Double> rs = direct.computeRs(nodes.get(i));
+            Map<Node, Double> iterRs = iter.computeRs(nodes.get(i));
+            for(Node n : nodes) {
+                double r = direct.computeR(nodes.get(i), n);
+                Double r2 = rs.get(n);
+                assertEquals("All R from " + nodes.get(i).getObject() + " to " + n.getObject(), 
+                        r, r2 == null ? Double.POSITIVE_INFINITY : r2, r*1e-9);
+                r2 = iterRs.get(n);
+                assertEquals("All iterative R from " + nodes.get(i).getObject() + " to " + n.getObject(), 
+                        r, r2 == null ? Double.POSITIVE_INFINITY : r2, r*1e-4);
+            }
+        }
+    }
+    
+    /**
+     * Test that the distance cache gives the same results for a parameter sweep
+     */
+    @Test
+    public void testDistanceCache() {
+        System.out.println("Distance cache");
+        GraphGenerator gen = project.getGraph("graph_comp_cout10");
+        PCMetric metric = new PCMetric();
+        for(double maxCost : new double[] {Double.NaN, 500}) {
+            GlobalMetricLauncher launcher = new GlobalMetricLauncher(metric, maxCost);
+            double [] refs = new double[3];
+            for(int i = 0; i < refs.length; i++) {
+                metric.setParams(1000*(i+1), 0.05, 1);
+                refs[i] = launcher.calcMetric(gen, true, null)[0];
+            }
+            gen.setDistanceCache(true);
+            for(int t = 0; t < 2; t++) {
+                for(int i = 0; i < refs.length; i++) {
+                    metric.setParams(1000*(i+1), 0.05, 1);
+                    assertEquals("PC with cache d=" + 1000*(i+1) + " maxCost=" + maxCost, refs[i], launcher.calcMetric(gen, true, null)[0], refs[i]*1e-12);
+                }
+            }
+            gen.setDistanceCache(false);
+        }
+    }
+    
 }
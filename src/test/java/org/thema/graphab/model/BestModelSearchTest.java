@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.model;
+
+import java.util.Random;
+import org.apache.commons.math.FunctionEvaluationException;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thema.common.Config;
+import org.thema.common.swing.TaskMonitor;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Gilles Vuidel
+ */
+public class BestModelSearchTest {
+
+    private static final int NVAR = 6;
+
+    private double [][] a;
+    private double [] y;
+
+    @BeforeClass
+    public static void setUpClass() {
+        Config.setParallelProc(2);
+    }
+
+    /**
+     * Creates presence/absence data explained by 2 variables, with 3 noise variables
+     * and one variable correlated with the first.
+     */
+    @Before
+    public void beforeTest() {
+        Random rnd = new Random(1234);
+        int n = 500;
+        a = new double[n][NVAR];
+        y = new double[n];
+        for(int i = 0; i < n; i++) {
+            for(int j = 0; j < NVAR; j++) {
+                a[i][j] = rnd.nextGaussian();
+            }
+            a[i][NVAR-1] = a[i][0] + 0.5*rnd.nextGaussian();
+            double p = 1 / (1 + Math.exp(-(0.3 + 1.2*a[i][0] - 0.8*a[i][1])));
+            y[i] = rnd.nextDouble() < p ? 1 : 0;
+        }
+    }
+
+    /**
+     * Test of search method, with and without pruning, compared to the exhaustive sequential search.
+     */
+    @Test
+    public void testSearch() throws FunctionEvaluationException {
+        System.out.println("search");
+        Logistic fullLog = new Logistic(a, y);
+        fullLog.regression();
+
+        // exhaustive sequential search on the copied columns
+        int nc = (int)Math.pow(2, NVAR);
+        Logistic bestLog = fullLog;
+        int bestI = nc - 1;
+        for(int i = 1; i < nc; i++) {
+            int nv = Integer.bitCount(i);
+            double [][] m = new double[y.length][nv];
+            for(int r = 0; r < y.length; r++) {
+                int k = 0;
+                for(int j = 0; j < NVAR; j++) {
+                    if(((i >> j) & 1) == 1) {
+                        m[r][k++] = a[r][j];
+                    }
+                }
+            }
+            Logistic log = new Logistic(m, y);
+            log.regression();
+            if(log.getAIC() < bestLog.getAIC()) {
+                bestLog = log;
+                bestI = i;
+            }
+        }
+
+        BestModelSearch search = new BestModelSearch(fullLog, NVAR, false);
+        int noPruneI = search.search(new TaskMonitor.EmptyMonitor());
+        assertEquals(nc-1, search.getNbEvaluated());
+        assertEquals(0, search.getNbSkipped());
+
+        BestModelSearch pruneSearch = new BestModelSearch(fullLog, NVAR, true);
+        int pruneI = pruneSearch.search(new TaskMonitor.EmptyMonitor());
+        assertTrue(pruneSearch.getNbSkipped() > 0);
+        assertEquals(nc-1, pruneSearch.getNbEvaluated() + pruneSearch.getNbSkipped());
+
+        assertEquals(bestI, noPruneI);
+        assertEquals(bestI, pruneI);
+
+        Logistic log = fullLog.getSubModel(search.getVarIndices(pruneI));
+        log.regression();
+        assertEquals(bestLog.getAIC(), log.getAIC(), 0.0);
+        assertArrayEquals(bestLog.getCoefs(), log.getCoefs(), 0.0);
+    }
+
+    /**
+     * Test of getMaxLogLikelihood method, of class Logistic.
+     */
+    @Test
+    public void testGetMaxLogLikelihood() throws FunctionEvaluationException {
+        System.out.println("getMaxLogLikelihood");
+        Logistic fullLog = new Logistic(a, y);
+        fullLog.regression();
+        double maxLogL = fullLog.getMaxLogLikelihood(true);
+        assertTrue(maxLogL < 0);
+        assertTrue(maxLogL >= fullLog.getLogLikelihood());
+        // the maximum of a sub model cannot exceed the maximum of the full model
+        for(int j = 0; j < NVAR; j++) {
+            Logistic log = fullLog.getSubModel(new int[] {j});
+            log.regression();
+            assertTrue(log.getMaxLogLikelihood(true) <= maxLogL + 1e-9);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.model;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thema.common.Config;
+import org.thema.common.swing.TaskMonitor;
+import org.thema.data.feature.Feature;
+import org.thema.graphab.Project;
+import org.thema.graphab.ProjectTest;
+import org.thema.graphab.links.Linkset;
+import org.thema.graphab.links.RasterPathFinder;
+
+/**
+ * Test PatchKernelGrid class
+ * @author Gilles Vuidel
+ */
+public class PatchKernelGridTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        // init 2 threads
+        Config.setNodeClass(PatchKernelGridTest.class);
+        Config.setParallelProc(2);
+    }
+
+    /**
+     * Compare the parallel accumulation of the grid with the sequential sum of the kernel of each patch,
+     * with and without max distance, at a lower and a higher resolution than the landscape.
+     */
+    @Test
+    public void testAccumulate() throws IOException {
+        System.out.println("accumulate");
+        Project project = ProjectTest.loadTestProject();
+        Linkset linkset = project.getLinkset("comp_cout10");
+        List<String> vars = Arrays.asList(Project.CAPA_ATTR, Project.AREA_ATTR);
+        double alpha = 0.005;
+        // resolution factor, max distance, square
+        double [][] params = {{2.5, 0, 1}, {2.5, 300, 0}, {0.7, 300, 1}};
+        for(double [] param : params) {
+            double resol = project.getResolution()*param[0];
+            double dMax = param[1];
+            boolean square = param[2] == 1;
+            int w = (int)(project.getZone().getWidth() / resol);
+            int h = (int)(project.getZone().getHeight() / resol);
+            double minx = project.getZone().getMinX() + (project.getZone().getWidth() - w*resol) / 2 + resol / 2;
+            double maxy = project.getZone().getMaxY() - (project.getZone().getHeight() - h*resol) / 2 - resol / 2;
+            assertTrue(PatchKernelGrid.isSupported(linkset, vars.size(), w, h));
+            PatchKernelGrid grid = new PatchKernelGrid(project, linkset, vars.size(), w, h, minx, maxy, resol);
+            assertTrue(grid.accumulate(vars, alpha, dMax, square, new TaskMonitor.EmptyMonitor()));
+
+            double [] weights = new double[w*h];
+            double [][] sums = new double[vars.size()][w*h];
+            calcKernel(project, linkset, vars, alpha, dMax, square, w, h, minx, maxy, resol, weights, sums);
+            int nbReached = 0;
+            for(int y = 0; y < h; y++) {
+                for(int x = 0; x < w; x++) {
+                    double ref = weights[y*w+x];
+                    String msg = "Pixel " + x + "," + y + " resol=" + resol + " dMax=" + dMax;
+                    assertEquals(msg, ref, grid.getWeight(x, y), ref*1e-12);
+                    for(int k = 0; k < vars.size(); k++) {
+                        ref = sums[k][y*w+x];
+                        assertEquals(msg + " " + vars.get(k), ref, grid.getSum(k, x, y), ref*1e-12);
+                    }
+                    if(grid.getWeight(x, y) > 0) {
+                        nbReached++;
+                    }
+                }
+            }
+            assertTrue(nbReached > 0);
+        }
+    }
+
+    /**
+     * Sequential calculation of the kernel sums.
+     * The landscape pixel of each output pixel contains the center of the output pixel.
+     */
+    private static void calcKernel(Project project, Linkset linkset, List<String> vars, double alpha, double dMax, boolean square,
+            int w, int h, double minx, double maxy, double resol, double [] weights, double [][] sums) throws IOException {
+        int [] px = new int[w*h];
+        int [] py = new int[w*h];
+        for(int y = 0; y < h; y++) {
+            for(int x = 0; x < w; x++) {
+                Coordinate c = project.getSpace2grid().transform(new Coordinate(minx + x*resol, maxy - y*resol), new Coordinate());
+                px[y*w+x] = (int)c.x;
+                py[y*w+x] = (int)c.y;
+            }
+        }
+        RasterPathFinder pathFinder = linkset.borrowPathFinder();
+        try {
+            for(Feature patch : project.getPatches()) {
+                Raster distRaster = pathFinder.getDistRaster(patch, dMax);
+                Rectangle r = distRaster.getBounds();
+                for(int i = 0; i < w*h; i++) {
+                    if(!r.contains(px[i], py[i])) {
+                        continue;
+                    }
+                    double d = distRaster.getSampleDouble(px[i], py[i], 0);
+                    if(d >= Float.MAX_VALUE || dMax > 0 && d > dMax) {
+                        continue;
+                    }
+                    double weight = Math.exp(-alpha * d);
+                    weights[i] += weight;
+                    for(int k = 0; k < vars.size(); k++) {
+                        sums[k][i] += ((Number)patch.getAttribute(vars.get(k))).doubleValue() * weight * (square ? weight : 1);
+                    }
+                }
+            }
+        } finally {
+            linkset.releasePathFinder(pathFinder);
+        }
+    }
+}
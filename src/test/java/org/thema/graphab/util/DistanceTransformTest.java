@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thema.common.Config;
+import org.thema.common.swing.TaskMonitor;
+
+/**
+ * Test DistanceTransform class
+ * @author Gilles Vuidel
+ */
+public class DistanceTransformTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        // init 2 threads
+        Config.setParallelProc(2);
+    }
+
+    /**
+     * Compare the voronoi with a brute force search of the nearest patch pixel on random rasters.
+     * When several patches are at the same distance, the chosen one may differ, so the distances are compared.
+     */
+    @Test
+    public void testVoronoi() {
+        System.out.println("voronoi");
+        Random rand = new Random(1);
+        for(int t = 0; t < 50; t++) {
+            int w = 1 + rand.nextInt(60);
+            int h = 1 + rand.nextInt(60);
+            int nbPatch = rand.nextInt(6);
+            WritableRaster raster = Raster.createBandedRaster(DataBuffer.TYPE_INT, w, h, 1, new Point(1, 1));
+            for(int i = 0; i < nbPatch*4; i++) {
+                int id = 1 + i % nbPatch;
+                int x0 = 1 + rand.nextInt(w), y0 = 1 + rand.nextInt(h);
+                for(int y = y0; y < Math.min(h+1, y0 + rand.nextInt(4)+1); y++) {
+                    for(int x = x0; x < Math.min(w+1, x0 + rand.nextInt(4)+1); x++) {
+                        raster.setSample(x, y, 0, id);
+                    }
+                }
+            }
+            for(int i = 0; i < w*h/20; i++) {
+                raster.setSample(1 + rand.nextInt(w), 1 + rand.nextInt(h), 0, -1);
+            }
+            WritableRaster ref = raster.createCompatibleWritableRaster(1, 1, w, h);
+            ref.setRect(raster);
+
+            DistanceTransform.voronoi(raster, new TaskMonitor.EmptyMonitor());
+
+            boolean hasPatch = false;
+            for(int y = 1; y <= h && !hasPatch; y++) {
+                for(int x = 1; x <= w && !hasPatch; x++) {
+                    hasPatch = ref.getSample(x, y, 0) > 0;
+                }
+            }
+            for(int y = 1; y <= h; y++) {
+                for(int x = 1; x <= w; x++) {
+                    int val = ref.getSample(x, y, 0);
+                    int id = raster.getSample(x, y, 0);
+                    if(val != 0 || !hasPatch) {
+                        assertEquals("Pixel " + x + "," + y + " must not be modified", val, id);
+                        continue;
+                    }
+                    assertTrue("Pixel " + x + "," + y + " must be affected to a patch", id > 0);
+                    assertEquals("Distance of pixel " + x + "," + y, getMinDist(ref, x, y, -1), getMinDist(ref, x, y, id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Brute force search of the nearest patch pixel, the distance is calculated from the pixel center
+     * to the patch pixel square, in quarter of squared pixel.
+     * @param raster the patch raster
+     * @param x the pixel x
+     * @param y the pixel y
+     * @param id the patch id or -1 for any patch
+     * @return the squared distance between the pixel and the patch
+     */
+    private static long getMinDist(Raster raster, int x, int y, int id) {
+        long min = Long.MAX_VALUE;
+        for(int py = raster.getMinY(); py < raster.getMinY()+raster.getHeight(); py++) {
+            for(int px = raster.getMinX(); px < raster.getMinX()+raster.getWidth(); px++) {
+                int val = raster.getSample(px, py, 0);
+                if(val > 0 && (id == -1 || val == id)) {
+                    min = Math.min(min, dist(x-px) + dist(y-py));
+                }
+            }
+        }
+        return min;
+    }
+
+    private static long dist(int k) {
+        if(k == 0) {
+            return 0;
+        }
+        long d = 2L*Math.abs(k) - 1;
+        return d*d;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.thema.graphab.util;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Test IndexQueue class
+ * @author Gilles Vuidel
+ */
+public class IndexQueueTest {
+
+    /**
+     * Check that IndexQueue polls the indices in the same order than java.util.PriorityQueue,
+     * even for equal distances.
+     */
+    @Test
+    public void testPollOrder() {
+        System.out.println("IndexQueue poll order");
+        Random rand = new Random(1);
+        for(int t = 0; t < 100; t++) {
+            int n = 20000;
+            int [] inds = new int[n];
+            double [] dists = new double[n];
+            boolean [] adds = new boolean[n];
+            for(int i = 0; i < n; i++) {
+                inds[i] = rand.nextInt(1000000);
+                dists[i] = rand.nextInt(50);
+                adds[i] = rand.nextInt(3) > 0;
+            }
+
+            PriorityQueue<Node> queue = new PriorityQueue<>();
+            int [] resQueue = new int[n];
+            int nbQueue = 0;
+            for(int i = 0; i < n; i++) {
+                if(adds[i] || queue.isEmpty()) {
+                    queue.add(new Node(inds[i], dists[i]));
+                } else {
+                    resQueue[nbQueue++] = queue.poll().ind;
+                }
+            }
+            while(!queue.isEmpty()) {
+                resQueue[nbQueue++] = queue.poll().ind;
+            }
+
+            IndexQueue indexQueue = new IndexQueue();
+            int [] resPixel = new int[n];
+            int nbPixel = 0;
+            for(int i = 0; i < n; i++) {
+                if(adds[i] || indexQueue.isEmpty()) {
+                    indexQueue.add(inds[i], dists[i]);
+                } else {
+                    resPixel[nbPixel++] = indexQueue.peekInd();
+                    indexQueue.poll();
+                }
+            }
+            while(!indexQueue.isEmpty()) {
+                resPixel[nbPixel++] = indexQueue.peekInd();
+                indexQueue.poll();
+            }
+
+            assertEquals("Number of polled pixels", nbQueue, nbPixel);
+            for(int i = 0; i < nbQueue; i++) {
+                assertEquals("Polled pixel " + i, resQueue[i], resPixel[i]);
+            }
+        }
+    }
+
+    /**
+     * Previous node implementation of RasterPathFinder
+     */
+    private static class Node implements Comparable<Node> {
+        private final int ind;
+        private final double dist;
+
+        public Node(int ind, double dist) {
+            this.ind = ind;
+            this.dist = dist;
+        }
+
+        @Override
+        public int compareTo(Node o) {
+            return dist == o.dist ? 0 : dist < o.dist ? -1 : 1;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2014 Laboratoire ThéMA - UMR 6049 - CNRS / Université de Franche-Comté
+ * http://thema.univ-fcomte.fr
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.thema.graphab.util;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thema.common.Config;
+
+/**
+ * Test SpatialOp class
+ * @author Gilles Vuidel
+ */
+public class SpatialOpTest {
+
+    @BeforeClass
+    public static void setUpClass() {
+        // init 2 threads
+        Config.setParallelProc(2);
+    }
+
+    /**
+     * Compare the patch ids and the envelopes of extractPatch with the previous sequential labelling
+     * on random landscape maps, in 4 and 8 connexity.
+     */
+    @Test
+    public void testExtractPatch() {
+        System.out.println("extractPatch");
+        Random rand = new Random(1);
+        Set<Integer> codes = new HashSet<>(Arrays.asList(1, 2));
+        for(int t = 0; t < 40; t++) {
+            int w = 1 + rand.nextInt(200);
+            int h = 1 + rand.nextInt(200);
+            double density = 0.3 + 0.4*rand.nextDouble();
+            BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+            WritableRaster land = img.getRaster();
+            for(int y = 0; y < h; y++) {
+                for(int x = 0; x < w; x++) {
+                    double r = rand.nextDouble();
+                    land.setSample(x, y, 0, r < density ? 1 + rand.nextInt(2) : r < density + 0.05 ? 3 : 4);
+                }
+            }
+            double noData = t % 2 == 0 ? 3 : Double.NaN;
+            for(boolean con8 : new boolean[] {false, true}) {
+                Map<Integer, Envelope> refEnv = new TreeMap<>();
+                Raster ref = extractPatchSeq(land, codes, noData, con8, refEnv);
+                Map<Integer, Envelope> envMap = new TreeMap<>();
+                Raster raster = SpatialOp.extractPatch(img, codes, noData, con8, envMap);
+                String msg = "Image " + t + " " + w + "x" + h + (con8 ? " con8" : " con4");
+                assertEquals(msg, ref.getBounds(), raster.getBounds());
+                for(int y = 0; y < ref.getHeight(); y++) {
+                    for(int x = 0; x < ref.getWidth(); x++) {
+                        assertEquals(msg + " pixel " + x + "," + y, ref.getSample(x, y, 0), raster.getSample(x, y, 0));
+                    }
+                }
+                assertEquals(msg + " envelopes", refEnv, envMap);
+            }
+        }
+    }
+
+    /**
+     * Previous sequential implementation of extractPatch
+     */
+    private static WritableRaster extractPatchSeq(Raster img, Set<Integer> codes, double noData, boolean con8, Map<Integer, Envelope> envMap) {
+        WritableRaster clust = Raster.createBandedRaster(DataBuffer.TYPE_INT, img.getWidth()+2, img.getHeight()+2, 1, null);
+        int k = 0;
+        TreeSet<Integer> set = new TreeSet<>();
+        ArrayList<Integer> idClust = new ArrayList<>();
+        for(int j = 1; j <= img.getHeight(); j++) {
+            for(int i = 1; i <= img.getWidth(); i++) {
+                int val = img.getSample(i-1, j-1, 0);
+                if(codes.contains(val)) {
+                    set.add(clust.getSample(i-1, j, 0));
+                    set.add(clust.getSample(i, j-1, 0));
+                    if(con8) {
+                        set.add(clust.getSample(i-1, j-1, 0));
+                        set.add(clust.getSample(i+1, j-1, 0));
+                    }
+                    set.remove(0);
+                    set.remove(-1);
+                    if(set.isEmpty()) {
+                        k++;
+                        clust.setSample(i, j, 0, k);
+                        idClust.add(k);
+                    } else if(set.size() == 1) {
+                        int id = set.iterator().next();
+                        clust.setSample(i, j, 0, idClust.get(id-1));
+                    } else {
+                        int minId = Integer.MAX_VALUE;
+                        for(Integer id : set) {
+                            minId = Math.min(minId, getMinId(idClust, id));
+                        }
+                        for(Integer id : set) {
+                            idClust.set(getMinId(idClust, id)-1, minId);
+                        }
+                        clust.setSample(i, j, 0, minId);
+                    }
+                    set.clear();
+                } else if(val == noData) {
+                    clust.setSample(i, j, 0, -1);
+                }
+            }
+        }
+        for(int j = 0; j < clust.getHeight(); j++) {
+            clust.setSample(0, j, 0, -1);
+            clust.setSample(clust.getWidth()-1, j, 0, -1);
+        }
+        for(int j = 0; j < clust.getWidth(); j++) {
+            clust.setSample(j, 0, 0, -1);
+            clust.setSample(j, clust.getHeight()-1, 0, -1);
+        }
+        for(int i = 0; i < idClust.size(); i++) {
+            int m = i+1;
+            while(idClust.get(m-1) != m) {
+                m = idClust.get(m-1);
+            }
+            idClust.set(i, m);
+        }
+        for(int j = 1; j < clust.getHeight()-1; j++) {
+            for(int i = 1; i < clust.getWidth()-1; i++) {
+                if(clust.getSample(i, j, 0) > 0) {
+                    int id = idClust.get(clust.getSample(i, j, 0)-1);
+                    Envelope env = envMap.get(id);
+                    if(env == null) {
+                        envMap.put(id, new Envelope(new Coordinate(i, j)));
+                    } else {
+                        env.expandToInclude(i, j);
+                    }
+                    clust.setSample(i, j, 0, id);
+                }
+            }
+        }
+        for(Envelope env : envMap.values()) {
+            env.expandBy(0.5);
+            env.translate(0.5, 0.5);
+        }
+        return clust;
+    }
+
+    private static int getMinId(List<Integer> ids, int id) {
+        while(ids.get(id-1) != id) {
+            id = ids.get(id-1);
+        }
+        return id;
+    }
+}